@@ -1,10 +1,13 @@
 package com.example.async.cleanup;
 
+import com.example.async.importdataset.DatasetCsvImportService;
 import com.example.dataset.domain.DatasetImportJob;
+import com.example.dataset.domain.ImportJobQueuedEvent;
 import com.example.dataset.infra.jpa.DatasetImportJobRepository;
-import com.example.dataset.infra.mongo.DatasetRecordRepo;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
 import java.lang.management.ManagementFactory;
@@ -12,19 +15,25 @@ import java.time.Duration;
 import java.time.Instant;
 import java.util.List;
 
+/**
+ * Requeue the running import jobs whose worker stopped sending progress, e.g. after the instance crashed.
+ * The checkpoint is kept, the worker claiming the job again resumes from it instead of reading the whole
+ * file again. A job out of retries is failed and its staged version is dropped.
+ */
 @Slf4j
 @Component
 @RequiredArgsConstructor
-// TODO: not ready yet
 public class DatasetImportJobWatchdog {
 
     private static final int LIMIT = 20;
+    private static final int MAX_RETRY = 3;
     private static final Duration STALE_TIMEOUT = Duration.ofMinutes(10);
 
     private final DatasetImportJobRepository importJobRepo;
-    private final DatasetRecordRepo recordRepo;
+    private final DatasetCsvImportService datasetCsvImportService;
+    private final ApplicationEventPublisher eventPublisher;
 
-    // @Scheduled(fixedDelayString = "${app.jobs.import-watchdog-delay-ms:30000}")
+    @Scheduled(fixedDelayString = "${app.jobs.import-watchdog-delay-ms:30000}")
     public void recoverStaleJobs() {
         Instant now = Instant.now();
         Instant deadline = now.minus(STALE_TIMEOUT);
@@ -38,19 +47,18 @@ public class DatasetImportJobWatchdog {
 
         for (DatasetImportJob job : staleJobs) {
             try {
-                // recoverOne(job, watchdogId, deadline, now);
+                recoverOne(job, watchdogId, deadline, now);
             } catch (Exception ex) {
                 log.error("Failed to recover stale import job. jobId={}", job.getJobId(), ex);
             }
         }
     }
 
-    /*
-    @Transactional
-    protected void recoverOne(DatasetImportJob job,
-                              String watchdogId,
-                              Instant deadline,
-                              Instant now) {
+    void recoverOne(DatasetImportJob job,
+                    String watchdogId,
+                    Instant deadline,
+                    Instant now) {
+        // Another watchdog or a late heartbeat may have got there first
         int claimed = importJobRepo.claimStaleJob(
                 job.getId(),
                 watchdogId,
@@ -62,43 +70,45 @@ public class DatasetImportJobWatchdog {
             return;
         }
 
-        if (job.getDatasetId() != null && job.get() != null) {
-            long deleted = recordRepo.deleteByDatasetIdAndVersion(
-                    job.getDatasetId(),
-                    job.getStagedVersion()
-            );
-
-            log.warn("Cleaned stale staged records. jobId={}, datasetId={}, stagedVersion={}, deleted={}",
-                    job.getJobId(), job.getDatasetId(), job.getStagedVersion(), deleted);
-        }
-
-        int retryCount = job.getRetryCount() == null ? 0 : job.getRetryCount();
-        int maxRetryCount = job.getMaxRetryCount() == null ? 3 : job.getMaxRetryCount();
+        long retry = job.getRetry() == null ? 0 : job.getRetry();
 
-        if (retryCount + 1 < maxRetryCount) {
-            importJobRepo.requeueStaleJob(
+        // The job is only changed while this watchdog still holds the claim
+        if (retry + 1 < MAX_RETRY) {
+            int requeued = importJobRepo.requeueStaleJob(
                     job.getId(),
+                    watchdogId,
                     "IMPORT_WORKER_TIMEOUT",
                     "Import worker heartbeat timeout, job requeued by watchdog",
                     now
             );
+            if (requeued != 1) {
+                log.info("Stale import job claimed away before requeue. jobId={}", job.getJobId());
+                return;
+            }
+            eventPublisher.publishEvent(new ImportJobQueuedEvent(job.getJobId()));
 
-            log.warn("Requeued stale import job. jobId={}, retryCount={}/{}",
-                    job.getJobId(), retryCount + 1, maxRetryCount);
+            log.warn("Requeued stale import job. jobId={}, retry={}/{}, checkpoint={}",
+                    job.getJobId(), retry + 1, MAX_RETRY, job.getCheckpoint());
         } else {
-            importJobRepo.markStaleJobFailed(
+            int failed = importJobRepo.markStaleJobFailed(
                     job.getId(),
+                    watchdogId,
                     "IMPORT_WORKER_TIMEOUT",
                     "Import worker heartbeat timeout, max retry reached",
                     now
             );
+            if (failed != 1) {
+                log.info("Stale import job claimed away before failing it. jobId={}", job.getJobId());
+                return;
+            }
+            datasetCsvImportService.abandonImport(job);
 
-            log.error("Marked stale import job failed. jobId={}, retryCount={}/{}",
-                    job.getJobId(), retryCount + 1, maxRetryCount);
+            log.error("Marked stale import job failed. jobId={}, retry={}/{}",
+                    job.getJobId(), retry + 1, MAX_RETRY);
         }
-    }*/
+    }
 
     private String watchdogId() {
         return "watchdog-" + ManagementFactory.getRuntimeMXBean().getName();
     }
-}
\ No newline at end of file
+}
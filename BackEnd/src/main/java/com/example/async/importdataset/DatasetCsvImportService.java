@@ -1,16 +1,27 @@
 package com.example.async.importdataset;
 
+import com.example.async.threads.ResourceLimiter;
+import com.example.dataset.app.RecordQueryCache;
+import com.example.dataset.app.RecordRollupService;
 import com.example.dataset.domain.*;
 import com.example.dataset.infra.mongo.DatasetMetadataRepo;
 import com.example.dataset.infra.mongo.DatasetRecordRepo;
 import com.example.exception.ErrorCode;
+import com.example.exception.types.DatasetStatusException;
 import com.example.exception.types.NotFoundException;
+import com.example.guards.DatasetAction;
+import com.example.guards.DatasetRules;
 import com.example.s3.S3Properties;
 import com.example.utils.ColumnsTypeInfer;
+import com.example.utils.CompressionCodec;
+import com.example.utils.CountingInputStream;
+import com.example.utils.DateParser;
+import com.example.utils.Utf8PositionReader;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.transaction.Transactional;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVRecord;
@@ -20,24 +31,50 @@ import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
 import software.amazon.awssdk.services.s3.model.GetObjectResponse;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
 import java.util.*;
+import java.util.function.ToLongFunction;
 
+@Slf4j
 @Service
 @RequiredArgsConstructor
 public class DatasetCsvImportService {
-    private static final int BATCH_SIZE = 300;
-    private final static int INFER_NUM = 30;
+    // The head of the object read again for the header line of a resumed import
+    private static final int HEADER_RANGE_BYTES = 64 * 1024;
 
     private final S3Client s3Client;
     private final S3Properties s3Properties;
-    private final DatasetRecordRepo datasetRecordRepo;
     private final DatasetMetadataRepo datasetRepo;
+    private final ImportPipeline importPipeline;
+    private final ImportProperties importProperties;
+    private final RecordRollupService rollupService;
+    private final RecordQueryCache queryCache;
+    private final DatasetRecordRepo recordRepo;
     private final ObjectMapper objectMapper;
+    private final ResourceLimiter resourceLimiter;
 
     public void createDatasetFromS3(DatasetImportJob job, ImportProgressUpdater progressUpdater) throws Exception {
+        importFromS3(job, progressUpdater, false);
+    }
+
+    /**
+     * Append the rows of the job file to the dataset as the next version. Only the new rows are written, the
+     * earlier versions stay visible through the version $lte filter, so the cost of an append follows the size
+     * of the file and not the size of the dataset. The headers must match the current ones, the column types
+     * are kept and not inferred again. A failed append is retried from its checkpoint, once out of retries its
+     * rows are dropped and the current version stays as it was.
+     *
+     * @param job             the append job.
+     * @param progressUpdater the progress callback.
+     */
+    public void appendDatasetFromS3(DatasetImportJob job, ImportProgressUpdater progressUpdater) throws Exception {
+        importFromS3(job, progressUpdater, true);
+    }
+
+    private void importFromS3(DatasetImportJob job, ImportProgressUpdater progressUpdater, boolean append)
+            throws Exception {
         if (s3Properties.getBucket() == null || s3Properties.getBucket().isBlank()) {
             throw new IllegalStateException("S3 bucket is not configured");
         }
@@ -46,54 +83,251 @@ public class DatasetCsvImportService {
             throw new IllegalStateException("Job tempFilePath is empty");
         }
 
-        GetObjectRequest request = GetObjectRequest.builder()
-                .bucket(s3Properties.getBucket())
-                .key(job.getTempFilePath())
-                .build();
+        CreateCollectionDataProps props = prepareDataPropsFromJob(job);
+        ImportResult result;
 
-        long processedRows = 0;
-        long successRows = 0;
-        long failedRows = 0;
+        // A job requeued after a crash goes on from its checkpoint
+        ImportCheckpoint checkpoint = readCheckpoint(job);
+        DatasetMetadata resumed = checkpoint == null
+                ? null
+                : findResumable(job.getUserId(), job.getDatasetName(), checkpoint);
+        if (resumed != null) {
+            result = resumeFromS3(job, resumed, props, checkpoint, progressUpdater);
+        } else {
+            result = importFromStart(job, props, progressUpdater, append);
+        }
 
-        CreateCollectionDataProps props = prepareDataPropsFromJob(job);
+        if (result != null) {
+            progressUpdater.update(result.getProcessedRows(), result.getSuccessRows(), result.getFailedRows());
+
+            // Phase 3: commit the change
+            commit(job.getDatasetName(), job.getUserId(), result, progressUpdater);
+        }
+    }
 
-        // Phase 1: create collection for the metadata
-        try (ResponseInputStream<GetObjectResponse> inputStream = s3Client.getObject(request);
-             BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
-             CSVParser parser = CSVFormat.DEFAULT
-                     .builder()
-                     .setHeader()
-                     .setSkipHeaderRecord(true)
-                     .setIgnoreEmptyLines(true)
-                     .setTrim(true)
-                     .build()
-                     .parse(reader)) {
-            DatasetMetadata dataset = createMetadataCollection(parser, props);
+    private ImportResult importFromStart(DatasetImportJob job, CreateCollectionDataProps props,
+                                         ImportProgressUpdater progressUpdater, boolean append) throws Exception {
+        GetObjectRequest request = objectRequest(job, null);
+        ImportResult result;
+
+        // The object is downloaded once, the rows used for inferring the types are buffered and replayed
+        // before the rest of the same stream is imported.
+        CompressionCodec codec = CompressionCodec.fromKey(job.getTempFilePath());
+        try (ResponseInputStream<GetObjectResponse> inputStream = getObject(request);
+             CountingInputStream counted = new CountingInputStream(inputStream);
+             Utf8PositionReader reader = new Utf8PositionReader(codec.decompress(counted));
+             CSVParser parser = csvFormat(null, true).parse(reader)) {
+            List<String> headers = new ArrayList<>(parser.getHeaderMap().keySet());
+            Iterator<CSVRecord> it = parser.iterator();
+
+            // Phase 1: create collection for the metadata, or stage the next version of the existing one
+            DatasetMetadata dataset;
+            Iterator<CSVRecord> rows;
+            if (append) {
+                dataset = stageAppend(headers, props);
+                rows = it;
+            } else {
+                int sampleSize = Math.max(1, importProperties.getInferSampleSize());
+                List<CSVRecord> inferRecords = new ArrayList<>(sampleSize);
+                while (it.hasNext() && inferRecords.size() < sampleSize) {
+                    inferRecords.add(it.next());
+                }
+                dataset = createMetadataCollection(headers, inferRecords, props);
+                rows = replay(inferRecords, it);
+            }
             props.setDatasetId(dataset.getId());
             props.setVersion(dataset.getStaged().getVersion());
+            props.setMetricColumns(metricColumns(dataset.getStaged().getHeaders()));
+
+            // Nothing is written yet, a crash from here on resumes the staged version instead of failing on it
+            ImportCheckpoint checkpoint = ImportCheckpoint.start(props.getVersion());
+            progressUpdater.checkpoint(checkpoint);
+
+            // Phase 2: import records for the collection
+            result = importRows(headers, rows, props, progressUpdater, checkpoint,
+                    record -> reader.byteOffset(record.getCharacterPosition()));
+
+            log.info("Imported csv from S3. jobId={}, key={}, codec={}, bytesRead={}, processedRows={}, "
+                            + "duplicateRows={}",
+                    job.getJobId(), job.getTempFilePath(), codec, counted.count(),
+                    result.getProcessedRows(), result.getDuplicateRows());
         }
+        return result;
+    }
 
+    /**
+     * Resume the import of the staged version from the checkpoint. The batches after the checkpoint may be
+     * written in part, their records are dropped, then the file is read again from the byte offset of the
+     * checkpoint with a ranged get, so a retry costs the rows after the checkpoint instead of the whole file.
+     * The offset is the one of the csv, a compressed object is decompressed from its start and the csv before
+     * the offset is skipped instead, which still saves the parsing and the writes.
+     */
+    private ImportResult resumeFromS3(DatasetImportJob job,
+                                      DatasetMetadata dataset,
+                                      CreateCollectionDataProps props,
+                                      ImportCheckpoint checkpoint,
+                                      ImportProgressUpdater progressUpdater) throws Exception {
+        props.setDatasetId(dataset.getId());
+        props.setVersion(checkpoint.getVersion());
+        props.setMetricColumns(metricColumns(dataset.getStaged().getHeaders()));
+        props.setDeduplicate(Boolean.TRUE.equals(dataset.getDeduplicate()));
+
+        long dropped = recordRepo.deleteBatchesAfter(dataset.getId(), checkpoint.getVersion(), props.getBatchId(),
+                ImportCheckpoint.batchId(props.getBatchId(), checkpoint.getBatchSeq()));
+        List<String> headers = readHeaders(job, dataset.getStaged().getHeaders());
+
+        CompressionCodec codec = CompressionCodec.fromKey(job.getTempFilePath());
+        long offset = checkpoint.getByteOffset();
+        boolean ranged = offset > 0 && codec == CompressionCodec.NONE;
+        String range = ranged ? "bytes=" + offset + "-" : null;
         ImportResult result;
+        try (ResponseInputStream<GetObjectResponse> inputStream = getObject(objectRequest(job, range));
+             CountingInputStream counted = new CountingInputStream(inputStream);
+             InputStream csv = skip(codec.decompress(counted), ranged ? 0 : offset);
+             Utf8PositionReader reader = new Utf8PositionReader(csv);
+             CSVParser parser = csvFormat(headers, offset == 0).parse(reader)) {
+            result = importRows(headers, parser.iterator(), props, progressUpdater, checkpoint,
+                    record -> offset + reader.byteOffset(record.getCharacterPosition()));
+
+            log.info("Resumed csv import from S3. jobId={}, key={}, offset={}, bytesRead={}, skippedRows={}, "
+                            + "droppedRecords={}, processedRows={}",
+                    job.getJobId(), job.getTempFilePath(), offset, counted.count(), checkpoint.getRows(), dropped,
+                    result.getProcessedRows());
+        }
+        return result;
+    }
+
+    /**
+     * Run the pipeline over the rows. A failed run keeps the staged version, the job is retried from its
+     * checkpoint or abandoned by the worker once out of retries.
+     */
+    private ImportResult importRows(List<String> headers,
+                                    Iterator<CSVRecord> rows,
+                                    CreateCollectionDataProps props,
+                                    ImportProgressUpdater progressUpdater,
+                                    ImportCheckpoint checkpoint,
+                                    ToLongFunction<CSVRecord> byteOffset) throws Exception {
+        return importPipeline.run(headers, rows, props, progressUpdater, checkpoint, byteOffset);
+    }
 
-        // Phase 2: import records for the collection
-        try (ResponseInputStream<GetObjectResponse> inputStream = s3Client.getObject(request);
-             BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
-             CSVParser parser = CSVFormat.DEFAULT
-                     .builder()
-                     .setHeader()
-                     .setSkipHeaderRecord(true)
-                     .setIgnoreEmptyLines(true)
-                     .setTrim(true)
-                     .build()
-                     .parse(reader)) {
-            result = insertRecords(parser, props, progressUpdater);
+    private ImportCheckpoint readCheckpoint(DatasetImportJob job) {
+        if (job.getCheckpoint() == null || job.getCheckpoint().isBlank()) {
+            return null;
         }
-        if (result != null) {
-            progressUpdater.update(result.getProcessedRows(), result.getSuccessRows(), result.getFailedRows());
+        try {
+            return objectMapper.readValue(job.getCheckpoint(), ImportCheckpoint.class);
+        } catch (JsonProcessingException e) {
+            log.warn("Ignoring unreadable import checkpoint. jobId={}", job.getJobId(), e);
+            return null;
+        }
+    }
 
-            // Phase 3: commit the change
-            commit(job.getDatasetName(), job.getUserId(), result);
+    /**
+     * The dataset the checkpoint was taken on, when its staged version is still waiting for the job.
+     */
+    private DatasetMetadata findResumable(Long userId, String datasetName, ImportCheckpoint checkpoint) {
+        DatasetMetadata dataset = datasetRepo.findByUserIdAndDatasetName(userId, datasetName).orElse(null);
+        if (dataset == null
+                || dataset.getStatus() != DatasetStatus.UPLOADING
+                || dataset.getStaged() == null
+                || !Objects.equals(dataset.getStaged().getVersion(), checkpoint.getVersion())) {
+            log.warn("Import checkpoint does not match the dataset. dataset={}, version={}",
+                    datasetName, checkpoint.getVersion());
+            return null;
         }
+        return dataset;
+    }
+
+    /**
+     * Read the header line of the object again for a resumed import, it must still name the staged columns.
+     */
+    private List<String> readHeaders(DatasetImportJob job, List<ColumnMeta> staged) throws Exception {
+        List<String> headers;
+        try (ResponseInputStream<GetObjectResponse> inputStream =
+                     getObject(objectRequest(job, "bytes=0-" + (HEADER_RANGE_BYTES - 1)));
+             Utf8PositionReader reader = new Utf8PositionReader(
+                     CompressionCodec.fromKey(job.getTempFilePath()).decompress(inputStream));
+             CSVParser parser = csvFormat(null, true).parse(reader)) {
+            headers = new ArrayList<>(parser.getHeaderMap().keySet());
+        }
+        Set<String> expected = new TreeSet<>();
+        for (ColumnMeta column : staged) {
+            expected.add(column.getColumnName().toUpperCase());
+        }
+        Set<String> actual = new TreeSet<>();
+        for (String header : headers) {
+            actual.add(header.toUpperCase());
+        }
+        if (!expected.equals(actual)) {
+            throw new IllegalStateException("The csv headers do not match the staged version");
+        }
+        return headers;
+    }
+
+    private static InputStream skip(InputStream in, long bytes) throws IOException {
+        in.skipNBytes(bytes);
+        return in;
+    }
+
+    /**
+     * Open the object holding an S3 permit. The body is read by the import afterwards, the imports reading at
+     * once are bounded by the import capacity.
+     */
+    private ResponseInputStream<GetObjectResponse> getObject(GetObjectRequest request) {
+        return resourceLimiter.call(ResourceLimiter.Resource.S3, () -> s3Client.getObject(request));
+    }
+
+    private GetObjectRequest objectRequest(DatasetImportJob job, String range) {
+        return GetObjectRequest.builder()
+                .bucket(s3Properties.getBucket())
+                .key(job.getTempFilePath())
+                .range(range)
+                .build();
+    }
+
+    /**
+     * The csv format of the import, the header is read from the file when not given.
+     */
+    private static CSVFormat csvFormat(List<String> headers, boolean skipHeaderRecord) {
+        return CSVFormat.DEFAULT
+                .builder()
+                .setHeader(headers == null ? new String[0] : headers.toArray(String[]::new))
+                .setSkipHeaderRecord(skipHeaderRecord)
+                .setIgnoreEmptyLines(true)
+                .setTrim(true)
+                .build();
+    }
+
+    private static Set<String> metricColumns(List<ColumnMeta> headers) {
+        Set<String> metrics = new HashSet<>();
+        for (ColumnMeta column : headers) {
+            if (column.isMetric()) {
+                metrics.add(column.getColumnName().toUpperCase());
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * Chain the buffered head rows in front of the rest of the parser iterator.
+     *
+     * @param head the rows already consumed from the parser.
+     * @param tail the parser iterator positioned right after the head rows.
+     * @return the iterator over all the rows.
+     */
+    private static Iterator<CSVRecord> replay(List<CSVRecord> head, Iterator<CSVRecord> tail) {
+        Iterator<CSVRecord> buffered = head.iterator();
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return buffered.hasNext() || tail.hasNext();
+            }
+
+            @Override
+            public CSVRecord next() {
+                return buffered.hasNext() ? buffered.next() : tail.next();
+            }
+        };
     }
 
     private CreateCollectionDataProps prepareDataPropsFromJob(DatasetImportJob job) {
@@ -105,89 +339,130 @@ public class DatasetCsvImportService {
         }
 
         CreateCollectionDataProps props = CreateCollectionDataProps.builder()
-                .recordTimeColumnFormat(metadata.getRecordTimeColumnFormat())
+                .recordTimeColumnName(metadata.getRecordTimeColumnName())
                 .recordPrimaryIndexedColumnName(metadata.getRecordPrimaryIndexedColumnName())
                 .recordTimeColumnFormat(metadata.getRecordTimeColumnFormat())
+                .recordTimeParser(DateParser.recordTimeParser(metadata.getRecordTimeColumnFormat(), metadata.getTimezone()))
                 .timezone(metadata.getTimezone())
+                .deduplicate(Boolean.TRUE.equals(metadata.getDeduplicate()))
                 .datasetName(job.getDatasetName())
                 .userId(job.getUserId())
-                .batchId(UUID.randomUUID().toString())
+                // The batches are numbered per job, so a resumed attempt finds the batches of the earlier one
+                .batchId(job.getJobId())
                 .build();
         return props;
     }
 
-    public ImportResult insertRecords(CSVParser parser, CreateCollectionDataProps dataProps, ImportProgressUpdater updater) {
-        long processedRows = 0;
-        long successRows = 0;
-        long failedRows = 0;
-        List<String> headers = new ArrayList<>(parser.getHeaderMap().keySet());
-        List<Map<String, String>> rows = new ArrayList<>();
+    /**
+     * Stage the next version of the dataset for an append. The headers of the file must be the current
+     * headers, the staged version keeps their types and starts from the current row count. The dataset is
+     * only taken while still ACTIVE, a compaction or migration taking it meanwhile fails the append.
+     */
+    public DatasetMetadata stageAppend(List<String> headers, CreateCollectionDataProps dataProps) {
+        DatasetMetadata dataset = datasetRepo.findByUserIdAndDatasetName(dataProps.getUserId(),
+                        dataProps.getDatasetName())
+                .orElseThrow(() -> new NotFoundException(ErrorCode.DATASET_NOT_FOUND));
+        DatasetRules.assertAllowed(DatasetAction.UPLOAD, dataset.getStatus());
 
-        Iterator<CSVRecord> it = parser.iterator();
-        while (it.hasNext()) {
-            CSVRecord record = it.next();
-            Map<String, String> row = new HashMap<>();
-            for (String header : headers) {
-                row.put(header.toUpperCase(), record.get(header));
-            }
-            rows.add(row);
-            processedRows++;
-
-            if (rows.size() == BATCH_SIZE) {
-
-                try {
-                    datasetRecordRepo.bulkInsertRecords(rows, dataProps);
-                    successRows += rows.size();
-                } catch (Exception e) {
-                    failedRows += rows.size();
-                } finally {
-                    rows.clear();
-                    updater.update(processedRows, successRows, failedRows);
-                }
-            }
+        VersionControl current = dataset.getCurrent();
+        Set<String> expected = new TreeSet<>();
+        for (ColumnMeta column : current.getHeaders()) {
+            expected.add(column.getColumnName().toUpperCase());
         }
-
-        if (!rows.isEmpty()) {
-            try {
-                datasetRecordRepo.bulkInsertRecords(rows, dataProps);
-                successRows += rows.size();
-            } catch (Exception e) {
-                failedRows += rows.size();
-            } finally {
-                rows.clear();
-                updater.update(processedRows, successRows, failedRows);
-            }
+        Set<String> actual = new TreeSet<>();
+        for (String header : headers) {
+            actual.add(header.toUpperCase());
+        }
+        if (!expected.equals(actual)) {
+            Set<String> missing = new TreeSet<>(expected);
+            missing.removeAll(actual);
+            Set<String> unexpected = new TreeSet<>(actual);
+            unexpected.removeAll(expected);
+            throw new IllegalArgumentException("The csv headers do not match the dataset. missing=" + missing
+                    + ", unexpected=" + unexpected);
         }
 
-        return ImportResult.builder()
-                .failedRows(failedRows)
-                .successRows(successRows)
-                .processedRows(processedRows)
+        // The rows of a deduplicating dataset are checked against every version
+        dataProps.setDeduplicate(Boolean.TRUE.equals(dataset.getDeduplicate()));
+        VersionControl staged = VersionControl.builder()
+                .version(current.getVersion() + 1)
+                .headers(new ArrayList<>(current.getHeaders()))
+                .rowCount(current.getRowCount() == null ? 0L : current.getRowCount())
                 .build();
+        if (datasetRepo.stageVersion(dataset.getId(), DatasetStatus.ACTIVE, DatasetStatus.UPLOADING, staged,
+                Instant.now()) != 1) {
+            throw new DatasetStatusException(ErrorCode.DATASET_NOT_AVAILABLE);
+        }
+        dataset.setStaged(staged);
+        dataset.setStatus(DatasetStatus.UPLOADING);
+        return dataset;
+    }
+
+    /**
+     * Drop the staged version of a job given up after its retries. A failed append leaves the dataset as it
+     * was, a failed creation leaves the dataset FAILED.
+     *
+     * @param job the job given up.
+     */
+    public void abandonImport(DatasetImportJob job) {
+        ImportCheckpoint checkpoint = readCheckpoint(job);
+        DatasetMetadata dataset = checkpoint == null
+                ? null
+                : findResumable(job.getUserId(), job.getDatasetName(), checkpoint);
+        if (dataset == null) {
+            return;
+        }
+        if (job.getType() == DatasetImportType.APPEND_DATASET) {
+            abortAppend(dataset);
+            return;
+        }
+        Integer version = dataset.getStaged().getVersion();
+        long deleted = recordRepo.deleteByDatasetIdAndVersion(dataset.getId(), version);
+        if (datasetRepo.dropStagedVersion(dataset.getId(), version, DatasetStatus.FAILED, Instant.now()) != 1) {
+            log.warn("Dataset taken before the import was abandoned. datasetId={}, version={}",
+                    dataset.getId(), version);
+            return;
+        }
+        log.warn("Abandoned dataset import. datasetId={}, deleted={}", dataset.getId(), deleted);
+    }
+
+    /**
+     * Drop the rows of a failed append, they were never visible, and make the dataset available again. The
+     * rows are deleted while the append still holds the dataset, so no compaction runs meanwhile.
+     */
+    private void abortAppend(DatasetMetadata dataset) {
+        try {
+            Integer version = dataset.getStaged().getVersion();
+            long deleted = recordRepo.deleteByDatasetIdAndVersion(dataset.getId(), version);
+            if (datasetRepo.dropStagedVersion(dataset.getId(), version, DatasetStatus.ACTIVE, Instant.now()) != 1) {
+                log.warn("Dataset taken before the append was aborted. datasetId={}, version={}",
+                        dataset.getId(), version);
+                return;
+            }
+            dataset.setStaged(null);
+            dataset.setStatus(DatasetStatus.ACTIVE);
+            log.warn("Aborted dataset append. datasetId={}, deleted={}", dataset.getId(), deleted);
+        } catch (RuntimeException e) {
+            log.error("Failed to abort dataset append. datasetId={}", dataset.getId(), e);
+        }
     }
 
-    public DatasetMetadata createMetadataCollection(CSVParser parser, CreateCollectionDataProps dataProps) {
+    public DatasetMetadata createMetadataCollection(List<String> headers, List<CSVRecord> inferRecords,
+                                                    CreateCollectionDataProps dataProps) {
         Optional<DatasetMetadata> datasetCollection = datasetRepo.findByUserIdAndDatasetName(dataProps.getUserId(),
                 dataProps.getDatasetName());
         if (datasetCollection.isPresent()) {
             throw new IllegalStateException("Dataset already created");
         }
-        List<String> headers = null;
         List<Map<String, String>> inferRows = new ArrayList<>();
 
         // Gather information for metadata collections
-        headers = new ArrayList<>(parser.getHeaderMap().keySet());
-        Iterator<CSVRecord> it = parser.iterator();
-        int inspected = 0;
-
-        while (it.hasNext() && inspected < INFER_NUM) {
-            CSVRecord record = it.next();
+        for (CSVRecord record : inferRecords) {
             Map<String, String> row = new HashMap<>();
             for (String header : headers) {
                 row.put(header, record.get(header));
             }
             inferRows.add(row);
-            inspected++;
         }
 
 
@@ -214,6 +489,9 @@ public class DatasetCsvImportService {
                 .timezone(dataProps.getTimezone())
                 .recordDateColumnName(dataProps.getRecordTimeColumnName())
                 .recordSymbolName(dataProps.getRecordPrimaryIndexedColumnName())
+                .recordDateColumnFormat(dataProps.getRecordTimeColumnFormat())
+                .recordFormatVersion(RecordFormat.CURRENT)
+                .deduplicate(dataProps.isDeduplicate())
                 .obsoleted(false)
                 .build();
 
@@ -249,16 +527,29 @@ public class DatasetCsvImportService {
     }
 
     @Transactional
-    public void commit(String datasetName, Long userId, ImportResult result) {
+    public void commit(String datasetName, Long userId, ImportResult result, ImportProgressUpdater progressUpdater) {
         DatasetMetadata dataset = datasetRepo.findByUserIdAndDatasetName(userId, datasetName)
                 .orElseThrow(() -> new NotFoundException(ErrorCode.DATASET_NOT_FOUND));
         var staged = dataset.getStaged();
         var current = dataset.getCurrent();
+
+        // Roll the new version up before it becomes visible, the rollups are only used while every
+        // visible version has them
+        boolean rolledUp = rollupService.materialize(dataset.getId(), staged.getVersion(), dataset.getTimezone(),
+                metricColumns(staged.getHeaders()), progressUpdater::heartbeat);
+        Integer rolledUpVersion = dataset.getRolledUpVersion() == null ? 0 : dataset.getRolledUpVersion();
+        if (rolledUp && rolledUpVersion.equals(current.getVersion())) {
+            dataset.setRolledUpVersion(staged.getVersion());
+        }
+
         current.setVersion(staged.getVersion());
         current.setHeaders(new ArrayList<>(staged.getHeaders()));
         current.setRowCount(staged.getRowCount() + result.getSuccessRows());
         dataset.setStatus(DatasetStatus.ACTIVE);
         dataset.setStaged(null);
         datasetRepo.save(dataset);
+
+        // The cached queries of the replaced version are not needed anymore
+        queryCache.invalidate(dataset.getId(), staged.getVersion());
     }
 }
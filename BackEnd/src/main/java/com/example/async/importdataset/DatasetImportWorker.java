@@ -2,11 +2,16 @@ package com.example.async.importdataset;
 
 
 import com.example.dataset.domain.DatasetImportJob;
+import com.example.dataset.domain.DatasetImportType;
+import com.example.dataset.domain.ImportJobQueuedEvent;
 import com.example.dataset.infra.jpa.DatasetImportJobRepository;
 import com.example.notification.NotificationEventPublisher;
 import com.example.notification.domain.*;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Component;
 
 import java.time.Instant;
@@ -18,14 +23,18 @@ public class DatasetImportWorker {
     private final DatasetImportJobRepository importJobRepo;
     private final DatasetCsvImportService datasetCsvImportService;
     private final NotificationEventPublisher notificationEventPublisher;
+    private final ObjectMapper objectMapper;
+    private final ApplicationEventPublisher eventPublisher;
     private final int MAX_ERROR_MESSAGE_LENGTH = 1000;
+    private static final int MAX_RETRY = 3;
 
     public void process(String jobId) {
         DatasetImportJob job = importJobRepo.findByJobId(jobId)
                 .orElseThrow(() -> new IllegalStateException("Import job not found: " + jobId));
 
         try {
-            datasetCsvImportService.createDatasetFromS3(job, new ImportProgressUpdater() {
+            boolean append = job.getType() == DatasetImportType.APPEND_DATASET;
+            ImportProgressUpdater progressUpdater = new ImportProgressUpdater() {
                 @Override
                 public void update(long processedRows, long successRows, long failedRows) {
                     importJobRepo.updateProgress(
@@ -36,17 +45,44 @@ public class DatasetImportWorker {
                             Instant.now()
                     );
                 }
-            });
+
+                @Override
+                public void checkpoint(ImportCheckpoint checkpoint) {
+                    try {
+                        importJobRepo.saveCheckpoint(jobId, objectMapper.writeValueAsString(checkpoint),
+                                Instant.now());
+                    } catch (JsonProcessingException e) {
+                        log.warn("Failed to save import checkpoint. jobId={}", jobId, e);
+                    }
+                }
+
+                @Override
+                public void heartbeat() {
+                    // A missed heartbeat must not fail the commit, the next one or the progress covers it
+                    try {
+                        importJobRepo.heartbeat(jobId, Instant.now());
+                    } catch (RuntimeException e) {
+                        log.warn("Failed to send import heartbeat. jobId={}", jobId, e);
+                    }
+                }
+            };
+            if (append) {
+                datasetCsvImportService.appendDatasetFromS3(job, progressUpdater);
+            } else {
+                datasetCsvImportService.createDatasetFromS3(job, progressUpdater);
+            }
 
             int updated = importJobRepo.markSucceeded(jobId, Instant.now());
             if (updated == 1) {
+                String message = "Dataset " + job.getDatasetName()
+                        + (append ? " appended successfully" : " created successfully");
                 NotificationCommand notification = NotificationCommand.builder()
                         .recipientId(job.getUserId())
                         .recipientType(NotificationRecipientType.USER)
-                        .content("Dataset " + job.getDatasetName() + " created successfully")
-                        .title("Dataset " + job.getDatasetName() + " created successfully")
+                        .content(message)
+                        .title(message)
                         .category(NotificationCategory.SYSTEM)
-                        .type(NotificationType.TABLE_CREATED)
+                        .type(append ? NotificationType.TABLE_APPENDED : NotificationType.TABLE_CREATED)
                         .sourceType(NotificationSourceType.DATASET)
                         .sourceId(null)
                         .targetType(NotificationTargetType.ISSUE_THREAD)
@@ -55,12 +91,42 @@ public class DatasetImportWorker {
                 notificationEventPublisher.publish(notification);
             }
         } catch (Exception e) {
-            importJobRepo.markFailed(
-                    jobId,
-                    "IMPORT_FAILED",
-                    truncateErrorMessage(e.getMessage()),
-                    Instant.now()
-            );
+            fail(job, e);
+        }
+    }
+
+    /**
+     * Queue the failed job again while it has retries left and a checkpoint to resume from, the rows already
+     * imported are kept. The failures before the version is staged leave no checkpoint, the same input fails
+     * the same way again. A job out of retries is failed and its staged version is dropped.
+     */
+    private void fail(DatasetImportJob job, Exception e) {
+        String jobId = job.getJobId();
+        // The checkpoint was saved by the import meanwhile
+        DatasetImportJob latest = importJobRepo.findByJobId(jobId).orElse(job);
+        long retry = latest.getRetry() == null ? 0 : latest.getRetry();
+        boolean resumable = latest.getCheckpoint() != null && !latest.getCheckpoint().isBlank();
+
+        if (resumable && retry + 1 < MAX_RETRY) {
+            int requeued = importJobRepo.requeueFailedJob(jobId, "IMPORT_FAILED",
+                    truncateErrorMessage(e.getMessage()), Instant.now());
+            if (requeued == 1) {
+                eventPublisher.publishEvent(new ImportJobQueuedEvent(jobId));
+                log.warn("Requeued failed import job. jobId={}, retry={}/{}, checkpoint={}",
+                        jobId, retry + 1, MAX_RETRY, latest.getCheckpoint(), e);
+                return;
+            }
+        }
+
+        int failed = importJobRepo.markFailed(
+                jobId,
+                "IMPORT_FAILED",
+                truncateErrorMessage(e.getMessage()),
+                Instant.now()
+        );
+        log.error("Import job failed. jobId={}, retry={}/{}", jobId, retry + 1, MAX_RETRY, e);
+        if (failed == 1) {
+            datasetCsvImportService.abandonImport(latest);
         }
     }
 
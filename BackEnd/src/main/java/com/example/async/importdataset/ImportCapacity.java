@@ -0,0 +1,83 @@
+package com.example.async.importdataset;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The import jobs this instance runs at once. It starts at the maximum, the CPU count unless configured,
+ * and follows the mean time of the mongo inserts since the last adjustment: one job less while the inserts
+ * are slower than the target, one job more again once they are well below it. The insert times are the
+ * ones the mongo driver reports, nothing is adjusted while no insert ran.
+ */
+@Slf4j
+@Component
+public class ImportCapacity {
+    // The timer of the mongo driver commands, tagged with the command name
+    static final String MONGO_COMMANDS = "mongodb.driver.commands";
+
+    private final ImportProperties importProperties;
+    private final MeterRegistry meterRegistry;
+
+    private volatile int limit;
+    private long lastCount;
+    private double lastTotalMillis;
+
+    public ImportCapacity(ImportProperties importProperties, MeterRegistry meterRegistry) {
+        this.importProperties = importProperties;
+        this.meterRegistry = meterRegistry;
+        this.limit = maxJobs(importProperties);
+        meterRegistry.gauge("import.jobs.capacity", this, ImportCapacity::limit);
+    }
+
+    /**
+     * The jobs the instance may run at once now.
+     */
+    public int limit() {
+        return limit;
+    }
+
+    @Scheduled(fixedDelayString = "${app.import.workers.adjust-delay-ms:15000}")
+    public synchronized void adjust() {
+        long count = 0;
+        double totalMillis = 0;
+        for (Timer timer : meterRegistry.find(MONGO_COMMANDS).tag("command", "insert").timers()) {
+            count += timer.count();
+            totalMillis += timer.totalTime(TimeUnit.MILLISECONDS);
+        }
+        long inserts = count - lastCount;
+        double meanMillis = inserts > 0 ? (totalMillis - lastTotalMillis) / inserts : 0;
+        lastCount = count;
+        lastTotalMillis = totalMillis;
+        if (inserts <= 0) {
+            return;
+        }
+
+        ImportProperties.Workers config = importProperties.getWorkers();
+        long targetMillis = config.getWriteLatencyTarget().toMillis();
+        int min = Math.max(1, config.getMinConcurrentJobs());
+        int max = Math.max(min, maxJobs(importProperties));
+        int next = limit;
+        if (meanMillis > targetMillis) {
+            next = Math.max(min, limit - 1);
+        } else if (meanMillis < targetMillis / 2.0) {
+            next = Math.min(max, limit + 1);
+        }
+        if (next != limit) {
+            log.info("Import capacity changed. from={}, to={}, meanInsertMs={}", limit, next, Math.round(meanMillis));
+            limit = next;
+        }
+    }
+
+    /**
+     * The most jobs an instance runs at once, the import executor is sized to it.
+     */
+    public static int maxJobs(ImportProperties importProperties) {
+        int configured = importProperties.getWorkers().getMaxConcurrentJobs();
+        return configured > 0 ? configured : Runtime.getRuntime().availableProcessors();
+    }
+}
@@ -0,0 +1,50 @@
+package com.example.async.importdataset;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * The point every row before which is written, saved with the import job as JSON. The batches are numbered
+ * in file order and the records carry the id of their batch, so a resumed import drops the records of the
+ * batches after the checkpoint and reads the file again from the byte offset.
+ */
+@Builder(toBuilder = true)
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ImportCheckpoint {
+    // The staged version the rows are written to
+    private int version;
+
+    // The rows read before the offset
+    private long rows;
+
+    // The offset of the first row not written yet, 0 while the header was not read past
+    private long byteOffset;
+
+    // The last batch written, -1 before the first one
+    private long batchSeq;
+
+    private long successRows;
+    private long failedRows;
+    private long duplicateRows;
+
+    /**
+     * The checkpoint of a version nothing was written to yet.
+     */
+    public static ImportCheckpoint start(int version) {
+        return ImportCheckpoint.builder()
+                .version(version)
+                .batchSeq(-1)
+                .build();
+    }
+
+    /**
+     * The id of the numbered batch of the import, the zero padded number keeps the ids in batch order.
+     */
+    public static String batchId(String importId, long batchSeq) {
+        return importId + "-" + String.format("%010d", batchSeq);
+    }
+}
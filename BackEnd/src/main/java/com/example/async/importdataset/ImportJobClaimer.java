@@ -0,0 +1,95 @@
+package com.example.async.importdataset;
+
+import com.example.dataset.domain.DatasetImportJob;
+import com.example.dataset.domain.ImportUserLoad;
+import com.example.dataset.infra.jpa.DatasetImportJobRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Claim the waiting import jobs in a fair order instead of the upload order. The jobs of every user are
+ * lined up by the file bytes the user already has running plus the bytes of their earlier waiting jobs,
+ * divided by the weight of the user, so a user uploading fifty files gets one job in turn with everyone
+ * else and the small files go before the large ones. The waiting time counts against the bytes, so a
+ * large file still gets its turn.
+ * <p>
+ * The order is chosen from the oldest waiting jobs, locked with SKIP LOCKED so the instances choose from
+ * different jobs. The running jobs are counted over every instance, the limit of jobs per user may only be
+ * passed by jobs claimed by two instances at the same moment.
+ */
+@Component
+@RequiredArgsConstructor
+public class ImportJobClaimer {
+    private final DatasetImportJobRepository importJobRepo;
+    private final ImportProperties importProperties;
+
+    /**
+     * Claim the waiting jobs coming first in the fair order for the worker. The rows stay locked until the
+     * claims commit, the jobs locked by another instance meanwhile are left to it.
+     *
+     * @param limit     the jobs the worker has room for.
+     * @param workerId  the worker id.
+     * @param startedAt the claim time.
+     * @return the claimed jobs, as they were while waiting.
+     */
+    @Transactional
+    public List<DatasetImportJob> claimJobs(int limit, String workerId, Instant startedAt) {
+        ImportProperties.Workers config = importProperties.getWorkers();
+        List<DatasetImportJob> candidates =
+                importJobRepo.lockPendingUploadedJobs(Math.max(limit, config.getCandidateWindow()));
+        if (candidates.isEmpty()) {
+            return List.of();
+        }
+
+        Map<Long, Long> runningJobs = new HashMap<>();
+        Map<Long, Long> userBytes = new HashMap<>();
+        for (ImportUserLoad load : importJobRepo.findRunningLoadByUser()) {
+            runningJobs.put(load.getUserId(), load.getRunningJobs());
+            userBytes.put(load.getUserId(), load.getRunningBytes());
+        }
+
+        // The candidates come in upload order, so the bytes of a user add up in the order of the uploads
+        Map<DatasetImportJob, Double> finishTags = new IdentityHashMap<>();
+        for (DatasetImportJob job : candidates) {
+            long size = job.getFileSize() == null ? 0 : job.getFileSize();
+            long bytes = userBytes.merge(job.getUserId(), size, Long::sum);
+            int weight = Math.max(1, config.getUserWeights().getOrDefault(job.getUserId(), 1));
+            finishTags.put(job, (double) bytes / weight - config.getAgingBytesPerSecond() * waitedSeconds(job, startedAt));
+        }
+        List<DatasetImportJob> ordered = new ArrayList<>(candidates);
+        ordered.sort(Comparator.comparingDouble(finishTags::get));
+
+        List<DatasetImportJob> claimed = new ArrayList<>();
+        for (DatasetImportJob job : ordered) {
+            if (claimed.size() >= limit) {
+                break;
+            }
+            if (runningJobs.getOrDefault(job.getUserId(), 0L) >= config.getMaxJobsPerUser()) {
+                continue;
+            }
+            if (importJobRepo.claimJob(job.getId(), workerId, startedAt) == 1) {
+                claimed.add(job);
+                runningJobs.merge(job.getUserId(), 1L, Long::sum);
+            }
+        }
+        return claimed;
+    }
+
+    private static double waitedSeconds(DatasetImportJob job, Instant now) {
+        Instant queuedAt = job.getUpdatedAt() != null ? job.getUpdatedAt() : job.getCreatedAt();
+        if (queuedAt == null) {
+            return 0;
+        }
+        return Math.max(0, Duration.between(queuedAt, now).toMillis() / 1000.0);
+    }
+}
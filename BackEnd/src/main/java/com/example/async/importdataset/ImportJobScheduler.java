@@ -1,65 +1,132 @@
 package com.example.async.importdataset;
 
 import com.example.dataset.domain.DatasetImportJob;
-import com.example.dataset.infra.jpa.DatasetImportJobRepository;
+import com.example.dataset.domain.ImportJobQueuedEvent;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.scheduling.annotation.Async;
 import org.springframework.scheduling.annotation.Scheduled;
-import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Component;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
 
 import java.lang.management.ManagementFactory;
 import java.net.InetAddress;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.List;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * Claim the queued import jobs and run them on the import executor. The instance uploading or requeueing a
+ * job claims it as soon as the job is committed, and every finished job makes room for the next one. The
+ * polling is only the safety net for the jobs queued by another instance or missed meanwhile.
+ * <p>
+ * The jobs running at once follow {@link ImportCapacity}, which jobs are claimed follows the fair order of
+ * {@link ImportJobClaimer}. The executor runs them on pool threads, or on virtual threads with
+ * {@code spring.threads.virtual.enabled}.
+ * <p>
+ * The time from queueing to claiming is recorded as {@code import.job.queue.latency}, tagged by what
+ * started the claim.
+ */
+@Slf4j
 @Component
 @RequiredArgsConstructor
 public class ImportJobScheduler {
-    private final static int PERMITS_NUMBER = 3;
-    private final DatasetImportJobRepository importJobRepo;
+    private final static String TRIGGER_EVENT = "event";
+    private final static String TRIGGER_FINISHED = "finished";
+    private final static String TRIGGER_POLL = "poll";
+
+    private final ImportJobClaimer importJobClaimer;
+    private final ImportCapacity importCapacity;
     private final DatasetImportWorker importJobWorker;
+    private final MeterRegistry meterRegistry;
 
     @Qualifier("importJobExecutor")
-    private final ThreadPoolTaskExecutor importJobExecutor;
+    private final TaskExecutor importJobExecutor;
+
+    private final AtomicInteger running = new AtomicInteger();
+    // Not a monitor, the claim blocks on a MySQL SELECT ... FOR UPDATE SKIP LOCKED over JDBC and would pin the
+    // carrier of a virtual thread
+    private final ReentrantLock dispatchLock = new ReentrantLock();
 
-    private final Semaphore permits = new Semaphore(PERMITS_NUMBER);
+    @Async("importDispatchExecutor")
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void onJobQueued(ImportJobQueuedEvent event) {
+        dispatch(TRIGGER_EVENT);
+    }
 
-    @Scheduled(fixedDelay = 3000)
+    @Scheduled(fixedDelayString = "${app.import.dispatch.poll-delay-ms:60000}")
     public void poll() {
-        int available = permits.availablePermits();
-        if (available <= 0) {
-            return;
-        }
+        dispatch(TRIGGER_POLL);
+    }
+
+    /**
+     * Claim as many queued jobs as there is capacity for. A lowered capacity takes effect as the running
+     * jobs finish.
+     *
+     * @param trigger what started the claim, for the latency metric.
+     */
+    void dispatch(String trigger) {
+        dispatchLock.lock();
+        try {
+            int available = importCapacity.limit() - running.get();
+            if (available <= 0) {
+                return;
+            }
 
-        // Find reserved jobs from the database
-        List<DatasetImportJob> candidates = importJobRepo.findPendingUploadedJobs(available);
-        String workerId = currentWorkerId();
+            Instant now = Instant.now();
+            List<DatasetImportJob> claimed = importJobClaimer.claimJobs(available, currentWorkerId(), now);
 
-        for (DatasetImportJob job : candidates) {
-            permits.acquireUninterruptibly();
-            try {
-                int claimed = importJobRepo.claimJob(job.getId(), workerId, Instant.now());
-                if (claimed != 1) {
-                    permits.release();
-                    continue;
+            for (DatasetImportJob job : claimed) {
+                running.incrementAndGet();
+                recordQueueLatency(job, trigger, now);
+                try {
+                    importJobExecutor.execute(() -> {
+                        try {
+                            importJobWorker.process(job.getJobId());
+                        } finally {
+                            running.decrementAndGet();
+                            dispatchNext();
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    // The claimed job is left to the watchdog, it is requeued once its heartbeat is stale
+                    running.decrementAndGet();
+                    log.error("Failed to start claimed import job. jobId={}", job.getJobId(), e);
                 }
-                importJobExecutor.execute(() -> {
-                    try {
-                        importJobWorker.process(job.getJobId());
-                    } catch (Exception e) {
-                        throw e;
-                    } finally {
-                        permits.release();
-                    }
-                });
-            } catch (Exception e) {
-                permits.release();
-                throw e;
             }
+        } finally {
+            dispatchLock.unlock();
+        }
+    }
+
+    private void dispatchNext() {
+        try {
+            dispatch(TRIGGER_FINISHED);
+        } catch (RuntimeException e) {
+            log.warn("Failed to claim the next import job", e);
+        }
+    }
+
+    private void recordQueueLatency(DatasetImportJob job, String trigger, Instant claimedAt) {
+        // The job was last updated when it was uploaded or requeued
+        Instant queuedAt = job.getUpdatedAt() != null ? job.getUpdatedAt() : job.getCreatedAt();
+        if (queuedAt == null) {
+            return;
         }
+        Duration latency = Duration.between(queuedAt, claimedAt);
+        Timer.builder("import.job.queue.latency")
+                .tag("trigger", trigger)
+                .register(meterRegistry)
+                .record(latency.isNegative() ? Duration.ZERO : latency);
+        log.info("Claimed import job. jobId={}, trigger={}, queueLatencyMs={}",
+                job.getJobId(), trigger, latency.toMillis());
     }
 
     private String currentWorkerId() {
@@ -70,4 +137,4 @@ public class ImportJobScheduler {
             return "unknown-worker";
         }
     }
-}
\ No newline at end of file
+}
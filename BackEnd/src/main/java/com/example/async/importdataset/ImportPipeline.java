@@ -0,0 +1,379 @@
+package com.example.async.importdataset;
+
+import com.example.async.threads.ResourceLimiter;
+import com.example.dataset.domain.CreateCollectionDataProps;
+import com.example.dataset.domain.RecordRowBatch;
+import com.example.dataset.domain.RecordSchema;
+import com.example.dataset.infra.mongo.DatasetRecordRepo;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.csv.CSVRecord;
+import org.bson.RawBsonDocument;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToLongFunction;
+
+/**
+ * The bounded producer/consumer pipeline importing the csv rows.
+ * The caller thread reads and parses the csv into row batches, the convert stage turns the batches into BSON
+ * documents and the writer stage issues the unordered bulk writes. The queues between the stages are bounded,
+ * so a slow stage blocks the stages in front of it instead of buffering the whole file. The row batches are
+ * taken from a fixed pool and handed back once converted, so the parse stage does not allocate per row.
+ * <p>
+ * The batches are numbered in file order and remember where the next one starts. The writers finish them out
+ * of order, the checkpoint only moves past a batch once every batch before it is written.
+ * <p>
+ * A stage failing aborts the whole pipeline: the other stages wait on the queues a short while at a time and
+ * give up once they see the failure, so no stage stays blocked on a queue nobody takes from anymore.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ImportPipeline {
+    // The marker telling the writers there are no more batches
+    private static final DocumentBatch END_OF_DOCUMENTS = new DocumentBatch(List.of(), -1, 0, -1);
+    // How long a stage waits on a queue before it looks for a failure of the other stages
+    private static final long QUEUE_WAIT_MILLIS = 100;
+
+    private final DatasetRecordRepo datasetRecordRepo;
+    private final ImportProperties importProperties;
+    private final ResourceLimiter resourceLimiter;
+
+    public ImportResult run(List<String> headers,
+                            Iterator<CSVRecord> it,
+                            CreateCollectionDataProps dataProps,
+                            ImportProgressUpdater updater) throws InterruptedException {
+        return run(headers, it, dataProps, updater, ImportCheckpoint.start(dataProps.getVersion()), record -> -1);
+    }
+
+    /**
+     * Import the rows after the checkpoint.
+     *
+     * @param headers    the csv headers.
+     * @param it         the rows after the checkpoint.
+     * @param dataProps  the props of the import.
+     * @param updater    the progress and checkpoint callback.
+     * @param from       the checkpoint the rows start from, its counts are carried over.
+     * @param byteOffset the byte offset a record starts at in the file, negative when unknown.
+     * @return the counts of the whole import, the rows before the checkpoint included.
+     */
+    public ImportResult run(List<String> headers,
+                            Iterator<CSVRecord> it,
+                            CreateCollectionDataProps dataProps,
+                            ImportProgressUpdater updater,
+                            ImportCheckpoint from,
+                            ToLongFunction<CSVRecord> byteOffset) throws InterruptedException {
+        ImportProperties.Pipeline config = importProperties.getPipeline();
+        int batchSize = Math.max(1, importProperties.getBatchSize());
+        int convertThreads = Math.max(1, config.getConvertThreads());
+        int writerThreads = Math.max(1, config.getWriterThreads());
+        int queueCapacity = Math.max(1, config.getQueueCapacity());
+
+        RecordSchema schema = new RecordSchema(headers,
+                dataProps.getRecordTimeColumnName(),
+                dataProps.getRecordPrimaryIndexedColumnName(),
+                dataProps.getMetricColumns());
+        RecordRowBatch endOfRows = new RecordRowBatch(schema, 0);
+
+        // Every batch is either being filled, queued or converted, so the pool never runs dry for good
+        int poolSize = queueCapacity + convertThreads + 1;
+        BlockingQueue<RecordRowBatch> freeBatches = new ArrayBlockingQueue<>(poolSize);
+        for (int i = 0; i < poolSize; i++) {
+            freeBatches.add(new RecordRowBatch(schema, batchSize));
+        }
+
+        BlockingQueue<RecordRowBatch> rowQueue = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<DocumentBatch> documentQueue = new ArrayBlockingQueue<>(queueCapacity);
+        AtomicInteger runningConverters = new AtomicInteger(convertThreads);
+        AtomicLong successRows = new AtomicLong(from.getSuccessRows());
+        AtomicLong failedRows = new AtomicLong(from.getFailedRows());
+        AtomicLong duplicateRows = new AtomicLong(from.getDuplicateRows());
+        CheckpointTracker checkpoints = new CheckpointTracker(from, updater, importProperties.getCheckpointInterval());
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        long processedRows = from.getRows();
+        long batchSeq = from.getBatchSeq();
+
+        ExecutorService executor = Executors.newFixedThreadPool(convertThreads + writerThreads, pipelineThreadFactory());
+        List<Future<?>> stages = new ArrayList<>();
+        try {
+            for (int i = 0; i < convertThreads; i++) {
+                stages.add(executor.submit(() -> stage(failure, () -> {
+                    convert(rowQueue, freeBatches, documentQueue, endOfRows, dataProps, failedRows, failure);
+                    // The last converter stops the writers
+                    if (runningConverters.decrementAndGet() == 0) {
+                        for (int j = 0; j < writerThreads; j++) {
+                            put(documentQueue, END_OF_DOCUMENTS, failure);
+                        }
+                    }
+                })));
+            }
+            for (int i = 0; i < writerThreads; i++) {
+                stages.add(executor.submit(() -> stage(failure, () ->
+                        write(documentQueue, successRows, failedRows, duplicateRows, checkpoints, failure))));
+            }
+
+            // Parse stage runs on the caller thread
+            try {
+                RecordRowBatch rows = take(freeBatches, failure);
+                while (it.hasNext()) {
+                    CSVRecord record = it.next();
+
+                    // A full batch is queued once the next record tells where the batch ends
+                    if (rows.isFull()) {
+                        mark(rows, dataProps, ++batchSeq, processedRows, byteOffset.applyAsLong(record));
+                        put(rowQueue, rows, failure);
+                        rows = take(freeBatches, failure);
+                        updater.update(processedRows, successRows.get(), failedRows.get());
+                    }
+                    rows.add(record);
+                    processedRows++;
+                }
+                if (!rows.isEmpty()) {
+                    mark(rows, dataProps, ++batchSeq, processedRows, -1);
+                    put(rowQueue, rows, failure);
+                }
+                for (int i = 0; i < convertThreads; i++) {
+                    put(rowQueue, endOfRows, failure);
+                }
+            } catch (RuntimeException | Error | InterruptedException e) {
+                failure.compareAndSet(null, e);
+                throw e;
+            }
+
+            awaitStages(stages);
+        } finally {
+            if (failure.get() != null) {
+                // Nothing is waiting for the batches left in the queues
+                stages.forEach(stage -> stage.cancel(true));
+                rowQueue.clear();
+                documentQueue.clear();
+            }
+            executor.shutdownNow();
+        }
+
+        return ImportResult.builder()
+                .failedRows(failedRows.get())
+                .successRows(successRows.get())
+                .processedRows(processedRows)
+                .duplicateRows(duplicateRows.get())
+                .build();
+    }
+
+    private void convert(BlockingQueue<RecordRowBatch> rowQueue,
+                         BlockingQueue<RecordRowBatch> freeBatches,
+                         BlockingQueue<DocumentBatch> documentQueue,
+                         RecordRowBatch endOfRows,
+                         CreateCollectionDataProps dataProps,
+                         AtomicLong failedRows,
+                         AtomicReference<Throwable> failure) throws InterruptedException {
+        while (true) {
+            RecordRowBatch rows = take(rowQueue, failure);
+            if (rows == endOfRows) {
+                return;
+            }
+            DocumentBatch batch = new DocumentBatch(List.of(), rows.getBatchSeq(), rows.getEndRows(),
+                    rows.getEndOffset());
+            try {
+                batch.docs = datasetRecordRepo.toRecordDocuments(rows, dataProps);
+            } catch (Exception e) {
+                log.warn("Failed to convert import batch. datasetId={}, rows={}",
+                        dataProps.getDatasetId(), rows.size(), e);
+                failedRows.addAndGet(rows.size());
+                batch.failed = rows.size();
+            } finally {
+                // The documents hold their own bytes, the batch can be refilled right away
+                rows.clear();
+                put(freeBatches, rows, failure);
+            }
+            // The failed batch still goes to the writers, the checkpoint has to move past it
+            put(documentQueue, batch, failure);
+        }
+    }
+
+    private void write(BlockingQueue<DocumentBatch> documentQueue,
+                       AtomicLong successRows,
+                       AtomicLong failedRows,
+                       AtomicLong duplicateRows,
+                       CheckpointTracker checkpoints,
+                       AtomicReference<Throwable> failure) throws InterruptedException {
+        while (true) {
+            DocumentBatch batch = take(documentQueue, failure);
+            if (batch == END_OF_DOCUMENTS) {
+                return;
+            }
+            List<RawBsonDocument> docs = batch.docs;
+            if (!docs.isEmpty()) {
+                try {
+                    // The rows rejected by the row key are duplicates, not failures
+                    long inserted = resourceLimiter.call(ResourceLimiter.Resource.MONGO,
+                            () -> datasetRecordRepo.bulkInsertDocuments(docs));
+                    successRows.addAndGet(inserted);
+                    duplicateRows.addAndGet(docs.size() - inserted);
+                    batch.success = inserted;
+                    batch.duplicates = docs.size() - inserted;
+                } catch (Exception e) {
+                    log.warn("Failed to write import batch. rows={}", docs.size(), e);
+                    failedRows.addAndGet(docs.size());
+                    batch.failed = docs.size();
+                }
+            }
+            batch.docs = List.of();
+            checkpoints.complete(batch);
+        }
+    }
+
+    private static void mark(RecordRowBatch rows, CreateCollectionDataProps dataProps, long batchSeq,
+                             long endRows, long endOffset) {
+        rows.setBatchSeq(batchSeq);
+        rows.setEndRows(endRows);
+        rows.setEndOffset(endOffset);
+        rows.setBatchId(dataProps.getBatchId() == null
+                ? null
+                : ImportCheckpoint.batchId(dataProps.getBatchId(), batchSeq));
+    }
+
+    private void awaitStages(List<Future<?>> stages) throws InterruptedException {
+        for (Future<?> stage : stages) {
+            try {
+                stage.get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Import pipeline stage failed", e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Run the stage, a failure of it is recorded for the other stages to stop on.
+     */
+    private static Void stage(AtomicReference<Throwable> failure, Stage stage) throws InterruptedException {
+        try {
+            stage.run();
+            return null;
+        } catch (RuntimeException | Error | InterruptedException e) {
+            failure.compareAndSet(null, e);
+            throw e;
+        }
+    }
+
+    private static <T> void put(BlockingQueue<T> queue, T item, AtomicReference<Throwable> failure)
+            throws InterruptedException {
+        while (!queue.offer(item, QUEUE_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+            checkFailure(failure);
+        }
+    }
+
+    private static <T> T take(BlockingQueue<T> queue, AtomicReference<Throwable> failure)
+            throws InterruptedException {
+        T item;
+        while ((item = queue.poll(QUEUE_WAIT_MILLIS, TimeUnit.MILLISECONDS)) == null) {
+            checkFailure(failure);
+        }
+        return item;
+    }
+
+    private static void checkFailure(AtomicReference<Throwable> failure) {
+        Throwable cause = failure.get();
+        if (cause != null) {
+            throw new IllegalStateException("Import pipeline aborted", cause);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Stage {
+        void run() throws InterruptedException;
+    }
+
+    private ThreadFactory pipelineThreadFactory() {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "import-pipeline-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * The converted batch on its way to the writers, with its place in the file and the outcome of the write.
+     */
+    private static final class DocumentBatch {
+        private List<RawBsonDocument> docs;
+        private final long seq;
+        private final long endRows;
+        private final long endOffset;
+        private long success;
+        private long failed;
+        private long duplicates;
+
+        private DocumentBatch(List<RawBsonDocument> docs, long seq, long endRows, long endOffset) {
+            this.docs = docs;
+            this.seq = seq;
+            this.endRows = endRows;
+            this.endOffset = endOffset;
+        }
+    }
+
+    /**
+     * Move the checkpoint over the written batches in file order, a batch written early waits for the ones
+     * before it. The checkpoint is handed to the updater at most once per interval. Saving it is best effort,
+     * a failed save only means a resume starts further back.
+     */
+    private static final class CheckpointTracker {
+        private final ImportCheckpoint committed;
+        private final ImportProgressUpdater updater;
+        private final long intervalNanos;
+        private final Map<Long, DocumentBatch> written = new HashMap<>();
+        // A lock rather than a monitor, the save blocks on the database and may run on a virtual thread
+        private final ReentrantLock lock = new ReentrantLock();
+        private long lastSaved = System.nanoTime();
+
+        private CheckpointTracker(ImportCheckpoint from, ImportProgressUpdater updater, Duration interval) {
+            this.committed = from.toBuilder().build();
+            this.updater = updater;
+            this.intervalNanos = interval == null ? 0 : interval.toNanos();
+        }
+
+        void complete(DocumentBatch batch) {
+            lock.lock();
+            try {
+                advance(batch);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void advance(DocumentBatch batch) {
+            written.put(batch.seq, batch);
+            // The last batch ends with the file, there is nothing to resume from there
+            ImportCheckpoint resumable = null;
+            DocumentBatch next;
+            while ((next = written.remove(committed.getBatchSeq() + 1)) != null) {
+                committed.setBatchSeq(next.seq);
+                committed.setRows(next.endRows);
+                committed.setByteOffset(next.endOffset);
+                committed.setSuccessRows(committed.getSuccessRows() + next.success);
+                committed.setFailedRows(committed.getFailedRows() + next.failed);
+                committed.setDuplicateRows(committed.getDuplicateRows() + next.duplicates);
+                if (committed.getByteOffset() > 0) {
+                    resumable = committed.toBuilder().build();
+                }
+            }
+            long now = System.nanoTime();
+            if (resumable != null && now - lastSaved >= intervalNanos) {
+                lastSaved = now;
+                try {
+                    updater.checkpoint(resumable);
+                } catch (RuntimeException e) {
+                    log.warn("Failed to save import checkpoint. batchSeq={}, rows={}",
+                            resumable.getBatchSeq(), resumable.getRows(), e);
+                }
+            }
+        }
+    }
+}
@@ -2,4 +2,18 @@ package com.example.async.importdataset;
 
 public interface ImportProgressUpdater {
     void update(long processedRows, long successRows, long failedRows);
-}
\ No newline at end of file
+
+    /**
+     * Save the point a failed import can be resumed from.
+     *
+     * @param checkpoint the checkpoint.
+     */
+    default void checkpoint(ImportCheckpoint checkpoint) {
+    }
+
+    /**
+     * Tell the job is still running while no rows are imported, e.g. while the version is rolled up.
+     */
+    default void heartbeat() {
+    }
+}
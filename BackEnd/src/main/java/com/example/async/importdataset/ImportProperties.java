@@ -0,0 +1,64 @@
+package com.example.async.importdataset;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+@ConfigurationProperties(prefix = "app.import")
+@Data
+@Component
+public class ImportProperties {
+    // The number of rows written by one bulk write
+    private int batchSize = 300;
+
+    // The leading rows buffered to infer the column types, they are replayed into the import afterwards
+    private int inferSampleSize = 1000;
+
+    // The minimum time between two saved checkpoints of a running import
+    private Duration checkpointInterval = Duration.ofSeconds(5);
+
+    private Pipeline pipeline = new Pipeline();
+
+    private Workers workers = new Workers();
+
+    @Data
+    public static class Pipeline {
+        // The threads converting the parsed rows to BSON documents
+        private int convertThreads = 1;
+
+        // The threads issuing the bulk writes to mongo
+        private int writerThreads = 2;
+
+        // The batches allowed to wait in front of each stage before the previous stage is blocked
+        private int queueCapacity = 4;
+    }
+
+    @Data
+    public static class Workers {
+        // The jobs an instance runs at once at most, the CPU count when 0
+        private int maxConcurrentJobs = 0;
+
+        // The jobs an instance keeps running however slow mongo writes get
+        private int minConcurrentJobs = 1;
+
+        // The jobs of one user running at once over every instance
+        private int maxJobsPerUser = 2;
+
+        // The oldest waiting jobs the fair order is chosen from
+        private int candidateWindow = 50;
+
+        // A waiting job counts as this many bytes smaller for every second it waited, so a large file is not
+        // passed over for ever
+        private long agingBytesPerSecond = 1024 * 1024;
+
+        // The mean mongo insert time above which the instance runs fewer jobs
+        private Duration writeLatencyTarget = Duration.ofMillis(250);
+
+        // The share of the file bytes of a user, 1 when not listed
+        private Map<Long, Integer> userWeights = new HashMap<>();
+    }
+}
@@ -13,4 +13,7 @@ public class ImportResult {
     private long processedRows;
     private long successRows;
     private long failedRows;
+
+    // The rows skipped because a row with the same key was already imported
+    private long duplicateRows;
 }
\ No newline at end of file
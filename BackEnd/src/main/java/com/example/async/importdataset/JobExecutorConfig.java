@@ -1,21 +1,63 @@
 package com.example.async.importdataset;
 
+import org.springframework.boot.autoconfigure.condition.ConditionalOnThreading;
+import org.springframework.boot.autoconfigure.thread.Threading;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
+import java.util.concurrent.ThreadPoolExecutor;
+
 @Configuration
 public class JobExecutorConfig {
+    /**
+     * The threads running the import jobs, one per job the instance may run at once. The scheduler only
+     * claims the jobs there is capacity for, so the queue stays empty.
+     */
     @Bean(name = "importJobExecutor")
-    public ThreadPoolTaskExecutor importJobExecutor() {
+    @ConditionalOnThreading(Threading.PLATFORM)
+    public ThreadPoolTaskExecutor importJobExecutor(ImportProperties importProperties) {
+        int threads = ImportCapacity.maxJobs(importProperties);
         ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
-        executor.setCorePoolSize(2);
-        executor.setMaxPoolSize(4);
-        executor.setQueueCapacity(50);
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(threads);
         executor.setThreadNamePrefix("import-job-");
         executor.setWaitForTasksToCompleteOnShutdown(true);
         executor.setAwaitTerminationSeconds(30);
         executor.initialize();
         return executor;
     }
-}
\ No newline at end of file
+
+    /**
+     * A virtual thread per import job, with {@code spring.threads.virtual.enabled}. The scheduler still only
+     * claims the jobs there is capacity for, the mongo and S3 calls of the jobs are bounded by the
+     * {@link com.example.async.threads.ResourceLimiter}. Shutting down waits for the running jobs like the
+     * pool does.
+     */
+    @Bean(name = "importJobExecutor")
+    @ConditionalOnThreading(Threading.VIRTUAL)
+    public SimpleAsyncTaskExecutor virtualImportJobExecutor() {
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("import-job-");
+        executor.setVirtualThreads(true);
+        executor.setTaskTerminationTimeout(30_000);
+        return executor;
+    }
+
+    /**
+     * The single thread claiming the queued jobs. A wake up is only dropped when many are waiting already,
+     * any of those claims the job too.
+     */
+    @Bean(name = "importDispatchExecutor")
+    public ThreadPoolTaskExecutor importDispatchExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(1);
+        executor.setMaxPoolSize(1);
+        executor.setQueueCapacity(16);
+        executor.setThreadNamePrefix("import-dispatch-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.DiscardPolicy());
+        executor.initialize();
+        return executor;
+    }
+}
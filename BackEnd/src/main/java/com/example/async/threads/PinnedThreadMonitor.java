@@ -0,0 +1,89 @@
+package com.example.async.threads;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingStream;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnThreading;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Report the virtual threads blocking while pinned to their carrier, from the {@code jdk.VirtualThreadPinned}
+ * events of a JFR stream. A virtual thread blocking inside a synchronized block or a native frame keeps the
+ * carrier, and a few of those stall every other virtual thread. Every pinning is recorded in the
+ * {@code jvm.threads.virtual.pinned} timer, the stack is logged once per place it happens at.
+ */
+@Slf4j
+@Component
+@ConditionalOnThreading(Threading.VIRTUAL)
+@ConditionalOnProperty(prefix = "app.threads.pinned-monitor", name = "enabled", havingValue = "true", matchIfMissing = true)
+public class PinnedThreadMonitor {
+    static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+    private static final int LOGGED_FRAMES = 8;
+
+    private final ThreadingProperties threadingProperties;
+    private final Timer pinned;
+    private final Set<String> reportedSites = ConcurrentHashMap.newKeySet();
+    private RecordingStream stream;
+
+    public PinnedThreadMonitor(ThreadingProperties threadingProperties, MeterRegistry meterRegistry) {
+        this.threadingProperties = threadingProperties;
+        this.pinned = Timer.builder("jvm.threads.virtual.pinned")
+                .description("The time virtual threads blocked while pinned to their carrier")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        stream = new RecordingStream();
+        stream.enable(PINNED_EVENT)
+                .withThreshold(threadingProperties.getPinnedMonitor().getThreshold())
+                .withStackTrace();
+        stream.onEvent(PINNED_EVENT, this::onPinned);
+        stream.startAsync();
+        log.info("Watching for pinned virtual threads. threshold={}", threadingProperties.getPinnedMonitor().getThreshold());
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (stream != null) {
+            stream.close();
+        }
+    }
+
+    void onPinned(RecordedEvent event) {
+        pinned.record(event.getDuration());
+        List<String> frames = frames(event.getStackTrace());
+        if (frames.isEmpty() || !reportedSites.add(frames.get(0))) {
+            return;
+        }
+        log.warn("Virtual thread pinned its carrier. durationMs={}, thread={}, stack=\n\tat {}",
+                event.getDuration().toMillis(),
+                event.getThread() == null ? "unknown" : event.getThread().getJavaName(),
+                String.join("\n\tat ", frames));
+    }
+
+    private static List<String> frames(RecordedStackTrace stackTrace) {
+        if (stackTrace == null) {
+            return List.of();
+        }
+        return stackTrace.getFrames().stream()
+                .filter(RecordedFrame::isJavaFrame)
+                .limit(LOGGED_FRAMES)
+                .map(frame -> frame.getMethod().getType().getName() + "." + frame.getMethod().getName()
+                        + ":" + frame.getLineNumber())
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.async.threads;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Bound the blocking calls per resource instead of per thread. With a virtual thread per request or job
+ * the thread count bounds nothing, so the calls to S3, mongo and the mail server each take a permit
+ * first and wait for one in arrival order. Waiting on the semaphore unmounts the virtual thread, the
+ * carrier goes on with other work.
+ * <p>
+ * The permits in use and the callers waiting are exposed as {@code resource.permits.used} and
+ * {@code resource.permits.waiting}, tagged by the resource.
+ */
+@Component
+public class ResourceLimiter {
+    public enum Resource {
+        S3, MONGO, MAIL
+    }
+
+    /**
+     * A blocking call, throwing what the call throws.
+     */
+    @FunctionalInterface
+    public interface BlockingCall<T, E extends Exception> {
+        T call() throws E;
+    }
+
+    @FunctionalInterface
+    public interface BlockingRun<E extends Exception> {
+        void run() throws E;
+    }
+
+    private final Map<Resource, Semaphore> permits = new EnumMap<>(Resource.class);
+
+    public ResourceLimiter(ThreadingProperties threadingProperties, MeterRegistry meterRegistry) {
+        ThreadingProperties.Limits limits = threadingProperties.getLimits();
+        for (Resource resource : Resource.values()) {
+            int limit = Math.max(1, switch (resource) {
+                case S3 -> limits.getS3();
+                case MONGO -> limits.getMongo();
+                case MAIL -> limits.getMail();
+            });
+            Semaphore semaphore = new Semaphore(limit, true);
+            permits.put(resource, semaphore);
+
+            String tag = resource.name().toLowerCase(Locale.ROOT);
+            Gauge.builder("resource.permits.used", semaphore, s -> limit - s.availablePermits())
+                    .tag("resource", tag)
+                    .register(meterRegistry);
+            Gauge.builder("resource.permits.waiting", semaphore, Semaphore::getQueueLength)
+                    .tag("resource", tag)
+                    .register(meterRegistry);
+        }
+    }
+
+    /**
+     * Run the call holding a permit of the resource.
+     *
+     * @param resource the resource the call uses.
+     * @param call     the call.
+     * @return the result of the call.
+     * @throws E what the call throws.
+     */
+    public <T, E extends Exception> T call(Resource resource, BlockingCall<T, E> call) throws E {
+        Semaphore semaphore = permits.get(resource);
+        try {
+            semaphore.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for " + resource, e);
+        }
+        try {
+            return call.call();
+        } finally {
+            semaphore.release();
+        }
+    }
+
+    /**
+     * Run the call without a result holding a permit of the resource.
+     */
+    public <E extends Exception> void run(Resource resource, BlockingRun<E> run) throws E {
+        call(resource, () -> {
+            run.run();
+            return null;
+        });
+    }
+
+    /**
+     * Open the stream holding a permit of the resource. The cursor behind the stream fetches its next batch
+     * from the first read after every batchSize elements, that read takes a permit again. The caller working
+     * on the elements in between, like writing them to a slow client, holds no permit.
+     *
+     * @param resource  the resource the stream reads.
+     * @param batchSize the number of elements the cursor fetches per round trip.
+     * @param open      open the stream.
+     * @return the stream, closing it closes the opened one.
+     */
+    public <T> Stream<T> stream(Resource resource, int batchSize, Supplier<Stream<T>> open) {
+        Stream<T> stream = call(resource, open::get);
+        Iterator<T> it = stream.iterator();
+        Iterator<T> limited = new Iterator<>() {
+            private long read;
+
+            @Override
+            public boolean hasNext() {
+                return read % batchSize == 0 ? call(resource, it::hasNext) : it.hasNext();
+            }
+
+            @Override
+            public T next() {
+                T next = it.next();
+                read++;
+                return next;
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(limited, Spliterator.ORDERED), false)
+                .onClose(stream::close);
+    }
+
+    /**
+     * The permits of the resource free now.
+     */
+    public int available(Resource resource) {
+        return permits.get(resource).availablePermits();
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.async.threads;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * The limits of the blocking resources and the pinning monitor. The virtual threads themselves are switched
+ * on with {@code spring.threads.virtual.enabled}, the request threads and the import and notification
+ * executors follow it.
+ */
+@ConfigurationProperties(prefix = "app.threads")
+@Data
+@Component
+public class ThreadingProperties {
+    private Limits limits = new Limits();
+
+    private PinnedMonitor pinnedMonitor = new PinnedMonitor();
+
+    /**
+     * The calls allowed at once per resource. With platform threads the pools bound them already, with
+     * virtual threads these are the only bound.
+     */
+    @Data
+    public static class Limits {
+        // The S3 requests, below the connection pool of the S3 client
+        private int s3 = 40;
+
+        // The mongo reads and bulk writes, below the connection pool of the mongo driver
+        private int mongo = 64;
+
+        // The mails sent, the SMTP server throttles the senders with many connections
+        private int mail = 4;
+    }
+
+    @Data
+    public static class PinnedMonitor {
+        // Report the virtual threads pinning their carrier, only with virtual threads on
+        private boolean enabled = true;
+
+        // The pinning shorter than this is not reported
+        private Duration threshold = Duration.ofMillis(20);
+    }
+}
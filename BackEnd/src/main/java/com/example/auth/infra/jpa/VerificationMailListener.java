@@ -12,6 +12,7 @@ import org.springframework.stereotype.Component;
 import org.springframework.transaction.event.TransactionPhase;
 import org.springframework.transaction.event.TransactionalEventListener;
 
+import com.example.async.threads.ResourceLimiter;
 import com.example.auth.domain.user.VerificationCreatedEvent;
 
 import lombok.Data;
@@ -35,6 +36,8 @@ public class VerificationMailListener {
 
     private final JavaMailSender mail;
 
+    private final ResourceLimiter resourceLimiter;
+
     /**
      * Listner the finish of the transanction.
      *
@@ -66,6 +69,6 @@ public class VerificationMailListener {
                 
                 If you did not sign up, please ignore this email.
                 """.formatted(link));
-        mail.send(msg);
+        resourceLimiter.run(ResourceLimiter.Resource.MAIL, () -> mail.send(msg));
     }
 }
\ No newline at end of file
@@ -0,0 +1,27 @@
+package com.example.background;
+
+import java.time.Duration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import lombok.Data;
+
+@ConfigurationProperties(prefix = "dataset.compaction")
+@Data
+@Component
+public class DatasetCompactionProperties {
+    private boolean enabled = true;
+
+    // The versions appended since the last compaction that make a dataset worth compacting
+    private int minVersions = 5;
+
+    // The records moved or deleted by one write
+    private int batchSize = 1000;
+
+    // The pause between two writes, so the compaction does not starve the queries
+    private Duration batchPause = Duration.ofMillis(100);
+
+    // A dataset still compacting after this long was left by a stopped instance and is given back
+    private Duration staleTimeout = Duration.ofHours(2);
+}
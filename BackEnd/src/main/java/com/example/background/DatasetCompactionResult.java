@@ -0,0 +1,24 @@
+package com.example.background;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Builder
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class DatasetCompactionResult {
+    // The records moved from an older version to the compacted one
+    private long relabeledRecords;
+
+    // The records of the versions never committed
+    private long deletedRecords;
+
+    // The size of the deleted records as stored by mongo
+    private long reclaimedBytes;
+
+    // Whether the compaction stopped early because the dataset was taken by an import
+    private boolean interrupted;
+}
@@ -0,0 +1,252 @@
+package com.example.background;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.example.dataset.app.RecordRollupService;
+import com.example.dataset.domain.ColumnMeta;
+import com.example.dataset.domain.DatasetMetadata;
+import com.example.dataset.domain.DatasetStatus;
+import com.example.dataset.domain.ReclaimedRecords;
+import com.example.dataset.infra.mongo.DatasetMetadataRepo;
+import com.example.dataset.infra.mongo.DatasetRecordRepo;
+import com.example.dataset.infra.mongo.RecordRollupRepo;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Run the background thread to compact the datasets with many appended versions. Every record of a version
+ * below the current one is moved to the current version, so the dataset is left with one version again,
+ * and the records of the versions never committed are deleted. The rollups follow the records. The records
+ * are written in small batches with a pause in between, so the compaction does not starve the queries.
+ * <p>
+ * The dataset is COMPACTING meanwhile, it stays readable but no import can start. Moving a record to the
+ * current version keeps it visible to every reader of the current version, only the record pages of the
+ * older versions can not be continued afterwards.
+ */
+@Component
+@Slf4j
+public class DatasetCompactor {
+
+    private final DatasetMetadataRepo metadataRepo;
+    private final DatasetRecordRepo recordRepo;
+    private final RecordRollupRepo rollupRepo;
+    private final RecordRollupService rollupService;
+    private final DatasetCompactionProperties properties;
+    private final Clock clock;
+
+    private final Counter relabeled;
+    private final Counter deleted;
+    private final Counter reclaimedBytes;
+
+    public DatasetCompactor(DatasetMetadataRepo metadataRepo,
+                            DatasetRecordRepo recordRepo,
+                            RecordRollupRepo rollupRepo,
+                            RecordRollupService rollupService,
+                            DatasetCompactionProperties properties,
+                            Clock clock,
+                            MeterRegistry registry) {
+        this.metadataRepo = metadataRepo;
+        this.recordRepo = recordRepo;
+        this.rollupRepo = rollupRepo;
+        this.rollupService = rollupService;
+        this.properties = properties;
+        this.clock = clock;
+        this.relabeled = registry.counter("dataset.compaction.records", "action", "relabeled");
+        this.deleted = registry.counter("dataset.compaction.records", "action", "deleted");
+        this.reclaimedBytes = registry.counter("dataset.compaction.reclaimed.bytes");
+    }
+
+    @Scheduled(fixedDelayString = "${dataset.compaction.delay-ms:3600000}")
+    public void compactDatasets() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        releaseStale();
+
+        for (DatasetMetadata ds : metadataRepo.findByStatusAndObsoletedFalse(DatasetStatus.ACTIVE)) {
+            if (!needsCompaction(ds)) {
+                continue;
+            }
+            // An import may have taken the dataset since it was listed
+            if (metadataRepo.updateStatus(ds.getId(), DatasetStatus.ACTIVE, DatasetStatus.COMPACTING,
+                    Instant.now(clock)) != 1) {
+                continue;
+            }
+            try {
+                DatasetCompactionResult result = compact(ds);
+                log.info("[DATASET-COMPACTED] datasetId={}, version={}, relabeled={}, deleted={}, "
+                                + "reclaimedBytes={}, interrupted={}",
+                        ds.getId(), ds.getCurrent().getVersion(), result.getRelabeledRecords(),
+                        result.getDeletedRecords(), result.getReclaimedBytes(), result.isInterrupted());
+                if (result.isInterrupted()) {
+                    release(ds);
+                }
+            } catch (Exception e) {
+                log.warn("[DATASET-COMPACTION-FAILED] datasetId={}", ds.getId(), e);
+                release(ds);
+            }
+        }
+    }
+
+    /**
+     * Compact one dataset already moved to COMPACTING, and give it back when done.
+     *
+     * @param ds the dataset.
+     * @return the moved and the deleted records.
+     */
+    DatasetCompactionResult compact(DatasetMetadata ds) {
+        String datasetId = ds.getId();
+        int version = ds.getCurrent().getVersion();
+        DatasetCompactionResult result = new DatasetCompactionResult();
+
+        // The moved records stay visible, so the batches go on even when the dataset is taken meanwhile
+        long moved;
+        while ((moved = recordRepo.relabelVersionsBelow(datasetId, version, batchSize())) > 0) {
+            result.setRelabeledRecords(result.getRelabeledRecords() + moved);
+            relabeled.increment(moved);
+            if (!pause()) {
+                result.setInterrupted(true);
+                return result;
+            }
+        }
+
+        Integer rolledUpVersion = compactRollups(ds, version, result);
+        if (result.isInterrupted()) {
+            return result;
+        }
+
+        // The records above the current version may belong to an import started meanwhile, every batch
+        // checks that the dataset is still held before deleting
+        while (heartbeat(datasetId)) {
+            ReclaimedRecords batch = recordRepo.deleteVersionsAbove(datasetId, version, batchSize());
+            if (batch.getDocuments() == 0) {
+                break;
+            }
+            result.setDeletedRecords(result.getDeletedRecords() + batch.getDocuments());
+            result.setReclaimedBytes(result.getReclaimedBytes() + batch.getBytes());
+            deleted.increment(batch.getDocuments());
+            reclaimedBytes.increment(batch.getBytes());
+            if (!pause()) {
+                result.setInterrupted(true);
+                return result;
+            }
+        }
+        while (heartbeat(datasetId)) {
+            if (rollupRepo.deleteVersionsAbove(datasetId, version, batchSize()) == 0) {
+                break;
+            }
+            if (!pause()) {
+                result.setInterrupted(true);
+                return result;
+            }
+        }
+
+        if (metadataRepo.finishCompaction(datasetId, version, rolledUpVersion, Instant.now(clock)) != 1) {
+            result.setInterrupted(true);
+        }
+        return result;
+    }
+
+    /**
+     * Bring the rollups to the current version. The complete rollups are moved like the records, the
+     * incomplete ones are built again from the compacted records.
+     *
+     * @return the version the rollups are complete up to afterwards.
+     */
+    private Integer compactRollups(DatasetMetadata ds, int version, DatasetCompactionResult result) {
+        if (Objects.equals(ds.getRolledUpVersion(), version)) {
+            while (rollupRepo.relabelVersionsBelow(ds.getId(), version, batchSize()) > 0) {
+                if (!pause()) {
+                    result.setInterrupted(true);
+                    break;
+                }
+            }
+            return version;
+        }
+        if (rollupService.materialize(ds.getId(), version, ds.getTimezone(), metricColumns(ds))) {
+            rollupRepo.deleteByDatasetIdAndVersionLessThan(ds.getId(), version);
+            return version;
+        }
+        return ds.getRolledUpVersion();
+    }
+
+    private boolean needsCompaction(DatasetMetadata ds) {
+        if (ds.getCurrent() == null || ds.getCurrent().getVersion() == null) {
+            return false;
+        }
+        int version = ds.getCurrent().getVersion();
+        int compacted = ds.getCompactedVersion() == null ? 1 : ds.getCompactedVersion();
+        return version - compacted >= properties.getMinVersions()
+                || recordRepo.existsByDatasetIdAndVersionGreaterThan(ds.getId(), version);
+    }
+
+    /**
+     * Give back the datasets left COMPACTING by a stopped instance, the next run compacts them again.
+     */
+    private void releaseStale() {
+        Instant cutoff = Instant.now(clock).minus(properties.getStaleTimeout());
+        List<DatasetMetadata> stale = metadataRepo
+                .findByStatusInAndUpdatedAtBeforeAndObsoletedFalse(List.of(DatasetStatus.COMPACTING), cutoff);
+        for (DatasetMetadata ds : stale) {
+            if (release(ds)) {
+                log.warn("[DATASET-COMPACTION-RELEASED] datasetId={}, statusUpdatedAt={}",
+                        ds.getId(), ds.getUpdatedAt());
+            }
+        }
+    }
+
+    private boolean release(DatasetMetadata ds) {
+        return metadataRepo.updateStatus(ds.getId(), DatasetStatus.COMPACTING, DatasetStatus.ACTIVE,
+                Instant.now(clock)) == 1;
+    }
+
+    /**
+     * Whether the dataset is still COMPACTING, the update time is refreshed so it is not seen as stale.
+     */
+    private boolean heartbeat(String datasetId) {
+        return metadataRepo.updateStatus(datasetId, DatasetStatus.COMPACTING, DatasetStatus.COMPACTING,
+                Instant.now(clock)) == 1;
+    }
+
+    private boolean pause() {
+        Duration pause = properties.getBatchPause();
+        if (pause == null || pause.isZero() || pause.isNegative()) {
+            return true;
+        }
+        try {
+            Thread.sleep(pause);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private int batchSize() {
+        return Math.max(1, properties.getBatchSize());
+    }
+
+    private static Set<String> metricColumns(DatasetMetadata ds) {
+        Set<String> metrics = new LinkedHashSet<>();
+        if (ds.getCurrent().getHeaders() == null) {
+            return metrics;
+        }
+        for (ColumnMeta column : ds.getCurrent().getHeaders()) {
+            if (column.isMetric()) {
+                metrics.add(column.getColumnName().toUpperCase());
+            }
+        }
+        return metrics;
+    }
+}
@@ -0,0 +1,22 @@
+package com.example.background;
+
+import java.time.Duration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import lombok.Data;
+
+@ConfigurationProperties(prefix = "dataset.migration")
+@Data
+@Component
+public class DatasetMigrationProperties {
+    // The records converted by one write
+    private int batchSize = 1000;
+
+    // The pause between two writes, so the migration does not starve the queries
+    private Duration batchPause = Duration.ofMillis(100);
+
+    // A dataset still migrating after this long was left by a stopped instance and is given back
+    private Duration staleTimeout = Duration.ofHours(2);
+}
@@ -0,0 +1,169 @@
+package com.example.background;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.example.dataset.domain.ColumnMeta;
+import com.example.dataset.domain.ConvertedRecords;
+import com.example.dataset.domain.DatasetMetadata;
+import com.example.dataset.domain.DatasetStatus;
+import com.example.dataset.domain.RecordFormat;
+import com.example.dataset.domain.VersionControl;
+import com.example.dataset.infra.mongo.DatasetMetadataRepo;
+import com.example.dataset.infra.mongo.DatasetRecordRepo;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Run the background thread to move the datasets imported with string values to the typed record format,
+ * the metric columns are rewritten to doubles in place. Only the active datasets are migrated, the others
+ * are picked up once they settle. The query path reads both layouts, so a dataset is usable while waiting.
+ * <p>
+ * The dataset is MIGRATING meanwhile, so no import or compaction takes it, and the records are converted in
+ * id ranges of a batch each with a pause in between. The format version is only set by the conditional
+ * release of the migration, every other field of the dataset is left as the imports made it.
+ */
+@Component
+@Slf4j
+public class DatasetRecordFormatMigrator {
+
+    private final DatasetMetadataRepo metadataRepo;
+    private final DatasetRecordRepo recordRepo;
+    private final DatasetMigrationProperties properties;
+    private final Clock clock;
+
+    public DatasetRecordFormatMigrator(DatasetMetadataRepo metadataRepo,
+                                       DatasetRecordRepo recordRepo,
+                                       DatasetMigrationProperties properties,
+                                       Clock clock) {
+        this.metadataRepo = metadataRepo;
+        this.recordRepo = recordRepo;
+        this.properties = properties;
+        this.clock = clock;
+    }
+
+    @Scheduled(fixedDelayString = "${dataset.migration.delay-ms:600000}")
+    public void migrateRecordFormat() {
+        releaseStale();
+        List<DatasetMetadata> datasets = metadataRepo.findByRecordFormatVersionBefore(RecordFormat.CURRENT);
+
+        for (DatasetMetadata ds : datasets) {
+            if (ds.getStatus() != DatasetStatus.ACTIVE) {
+                continue;
+            }
+            // An import or a compaction may have taken the dataset since it was listed
+            if (metadataRepo.updateStatus(ds.getId(), DatasetStatus.ACTIVE, DatasetStatus.MIGRATING,
+                    Instant.now(clock)) != 1) {
+                continue;
+            }
+            try {
+                long converted = migrate(ds);
+                if (converted < 0) {
+                    release(ds.getId());
+                    continue;
+                }
+                log.info("[DATASET-MIGRATED] datasetId={}, records={}, format={}",
+                        ds.getId(), converted, RecordFormat.CURRENT);
+            } catch (Exception e) {
+                log.warn("[DATASET-MIGRATION-FAILED] datasetId={}", ds.getId(), e);
+                release(ds.getId());
+            }
+        }
+    }
+
+    /**
+     * Convert the records of a dataset already moved to MIGRATING, and give it back when done.
+     *
+     * @param ds the dataset.
+     * @return the converted records, negative when the migration was interrupted.
+     */
+    long migrate(DatasetMetadata ds) {
+        String datasetId = ds.getId();
+        Set<String> metrics = metricColumns(ds);
+        int batchSize = Math.max(1, properties.getBatchSize());
+        long converted = 0;
+        Object lastId = null;
+        while (heartbeat(datasetId)) {
+            ConvertedRecords batch = recordRepo.convertMetricsToDouble(datasetId, metrics, lastId, batchSize);
+            if (batch.getDocuments() == 0) {
+                return metadataRepo.finishMigration(datasetId, RecordFormat.CURRENT, Instant.now(clock)) == 1
+                        ? converted
+                        : -1;
+            }
+            converted += batch.getConverted();
+            lastId = batch.getLastId();
+            if (!pause()) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Give back the datasets left MIGRATING by a stopped instance, the next run converts them again. The
+     * records already converted are kept as they are.
+     */
+    private void releaseStale() {
+        Instant cutoff = Instant.now(clock).minus(properties.getStaleTimeout());
+        List<DatasetMetadata> stale = metadataRepo
+                .findByStatusInAndUpdatedAtBeforeAndObsoletedFalse(List.of(DatasetStatus.MIGRATING), cutoff);
+        for (DatasetMetadata ds : stale) {
+            if (release(ds.getId())) {
+                log.warn("[DATASET-MIGRATION-RELEASED] datasetId={}, statusUpdatedAt={}",
+                        ds.getId(), ds.getUpdatedAt());
+            }
+        }
+    }
+
+    private boolean release(String datasetId) {
+        return metadataRepo.updateStatus(datasetId, DatasetStatus.MIGRATING, DatasetStatus.ACTIVE,
+                Instant.now(clock)) == 1;
+    }
+
+    /**
+     * Whether the dataset is still MIGRATING, the update time is refreshed so it is not seen as stale.
+     */
+    private boolean heartbeat(String datasetId) {
+        return metadataRepo.updateStatus(datasetId, DatasetStatus.MIGRATING, DatasetStatus.MIGRATING,
+                Instant.now(clock)) == 1;
+    }
+
+    private boolean pause() {
+        Duration pause = properties.getBatchPause();
+        if (pause == null || pause.isZero() || pause.isNegative()) {
+            return true;
+        }
+        try {
+            Thread.sleep(pause);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static Set<String> metricColumns(DatasetMetadata ds) {
+        Set<String> metrics = new LinkedHashSet<>();
+        addMetrics(metrics, ds.getCurrent());
+        addMetrics(metrics, ds.getStaged());
+        return metrics;
+    }
+
+    private static void addMetrics(Set<String> metrics, VersionControl version) {
+        if (version == null || version.getHeaders() == null) {
+            return;
+        }
+        for (ColumnMeta column : version.getHeaders()) {
+            if (column.isMetric()) {
+                metrics.add(column.getColumnName().toUpperCase());
+            }
+        }
+    }
+}
@@ -0,0 +1,341 @@
+package com.example.dataset.app;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+import org.springframework.stereotype.Component;
+
+import com.example.async.threads.ResourceLimiter;
+import com.example.dataset.domain.ColumnMeta;
+import com.example.dataset.domain.ColumnarSeries;
+import com.example.dataset.domain.DatasetMetadata;
+import com.example.dataset.domain.DatasetRecord;
+import com.example.dataset.infra.mongo.DatasetRecordRepo;
+import com.example.utils.TokenScanner;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Keep the metric columns of the queried dataset versions in primitive arrays. A version is read from mongo
+ * once it is hot, after the configured number of queries within the window or on its first query when the
+ * dataset is listed, and then served by slicing the arrays. The versions are evicted least recently used first
+ * once the total size passes the budget, the datasets over the row limit are never loaded.
+ * <p>
+ * A load reserves the bytes of its arrays against the same budget before reading, sized from the row count
+ * of the version, and again for every growth when the count was wrong. The cached versions make room for it,
+ * the loads running at once can not. A load without room is skipped and the query reads mongo.
+ */
+@Slf4j
+@Component
+public class ColumnarSeriesCache {
+    // The rows a load starts with when the row count of the version is missing
+    private static final int MIN_CAPACITY = 1024;
+    // The versions counted before the expired counts are dropped
+    private static final int MAX_ADMISSIONS = 10_000;
+
+    private final DatasetRecordRepo recordRepo;
+    private final RecordQueryProperties queryProperties;
+    private final RecordQueryProperties.SeriesCache config;
+    private final ResourceLimiter resourceLimiter;
+    private final Clock clock;
+
+    // Guarded by this
+    private final LinkedHashMap<Key, ColumnarSeries> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    // The bytes reserved by the loads running, guarded by this
+    private long reserved;
+
+    // The versions that did not fit, they are not tried again
+    private final Set<Key> rejected = ConcurrentHashMap.newKeySet();
+    // Not monitors, a virtual thread waiting for the mongo read inside one would pin its carrier
+    private final Map<Key, ReentrantLock> loadLocks = new ConcurrentHashMap<>();
+    // The queries of the versions not loaded yet within their window
+    private final Map<Key, Admission> admissions = new ConcurrentHashMap<>();
+
+    private final Counter hits;
+    private final Counter loads;
+    private final Counter evictions;
+
+    public ColumnarSeriesCache(DatasetRecordRepo recordRepo,
+                               RecordQueryProperties queryProperties,
+                               ResourceLimiter resourceLimiter,
+                               Clock clock,
+                               MeterRegistry registry) {
+        this.recordRepo = recordRepo;
+        this.queryProperties = queryProperties;
+        this.config = queryProperties.getSeriesCache();
+        this.resourceLimiter = resourceLimiter;
+        this.clock = clock;
+        this.hits = registry.counter("dataset.series.cache.requests", "result", "hit");
+        this.loads = registry.counter("dataset.series.cache.requests", "result", "load");
+        this.evictions = registry.counter("dataset.series.cache.evictions");
+        Gauge.builder("dataset.series.cache.bytes", this, ColumnarSeriesCache::bytes).register(registry);
+        Gauge.builder("dataset.series.cache.entries", this, ColumnarSeriesCache::size).register(registry);
+    }
+
+    /**
+     * Get the series of the current version of the dataset, loading it once the version is admitted.
+     *
+     * @param dataset the dataset.
+     * @return the series, or null when the dataset is not cached and the caller reads mongo.
+     */
+    public ColumnarSeries get(DatasetMetadata dataset) {
+        if (!config.isEnabled() || dataset.getCurrent() == null || dataset.getCurrent().getVersion() == null) {
+            return null;
+        }
+        Key key = new Key(dataset.getId(), dataset.getCurrent().getVersion());
+        ColumnarSeries series = lookup(key);
+        if (series != null || rejected.contains(key)) {
+            return series;
+        }
+
+        // The versions of the dataset that did not fit are not queried anymore
+        rejected.removeIf(k -> k.datasetId().equals(key.datasetId()) && k.version() < key.version());
+        if (!admit(key)) {
+            return null;
+        }
+
+        // Only one thread reads a version from mongo, the others wait for it
+        ReentrantLock lock = loadLocks.computeIfAbsent(key, k -> new ReentrantLock());
+        lock.lock();
+        try {
+            series = lookup(key);
+            if (series != null || rejected.contains(key)) {
+                return series;
+            }
+            series = load(dataset, key);
+            if (series != null) {
+                admissions.remove(key);
+            }
+            return series;
+        } finally {
+            loadLocks.remove(key);
+            lock.unlock();
+        }
+    }
+
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long reserved() {
+        return reserved;
+    }
+
+    /**
+     * Count the query of a version not cached yet.
+     *
+     * @return whether the version is hot enough to load.
+     */
+    private boolean admit(Key key) {
+        if (config.getAdmitQueries() <= 1 || config.getDatasets().contains(key.datasetId())) {
+            return true;
+        }
+        long now = clock.millis();
+        long window = config.getAdmitWindow().toMillis();
+        if (admissions.size() >= MAX_ADMISSIONS) {
+            admissions.values().removeIf(a -> now - a.windowStart() >= window);
+        }
+        Admission admission = admissions.compute(key, (k, current) ->
+                current == null || now - current.windowStart() >= window
+                        ? new Admission(now, 1)
+                        : new Admission(current.windowStart(), current.queries() + 1));
+        return admission.queries() >= config.getAdmitQueries();
+    }
+
+    private synchronized ColumnarSeries lookup(Key key) {
+        ColumnarSeries series = entries.get(key);
+        if (series != null) {
+            hits.increment();
+        }
+        return series;
+    }
+
+    /**
+     * Reserve bytes for a load, the least recently used versions are evicted to make room.
+     *
+     * @return whether the bytes were reserved.
+     */
+    private synchronized boolean reserve(long amount) {
+        Iterator<Map.Entry<Key, ColumnarSeries>> it = entries.entrySet().iterator();
+        while (bytes + reserved + amount > config.getMaxBytes() && it.hasNext()) {
+            bytes -= it.next().getValue().bytes();
+            it.remove();
+            evictions.increment();
+        }
+        if (bytes + reserved + amount > config.getMaxBytes()) {
+            return false;
+        }
+        reserved += amount;
+        return true;
+    }
+
+    private synchronized void release(long amount) {
+        reserved -= amount;
+    }
+
+    /**
+     * Cache the loaded series in place of the bytes reserved for it.
+     */
+    private synchronized void put(Key key, ColumnarSeries series, long reservedBytes) {
+        reserved -= reservedBytes;
+        // The older versions of the dataset are never queried again
+        Iterator<Map.Entry<Key, ColumnarSeries>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Key, ColumnarSeries> entry = it.next();
+            if (entry.getKey().datasetId().equals(key.datasetId())) {
+                bytes -= entry.getValue().bytes();
+                it.remove();
+            }
+        }
+
+        entries.put(key, series);
+        bytes += series.bytes();
+
+        it = entries.entrySet().iterator();
+        while (bytes + reserved > config.getMaxBytes() && it.hasNext()) {
+            Map.Entry<Key, ColumnarSeries> eldest = it.next();
+            if (eldest.getKey().equals(key)) {
+                continue;
+            }
+            bytes -= eldest.getValue().bytes();
+            it.remove();
+            evictions.increment();
+        }
+    }
+
+    /**
+     * Read the version from mongo into the arrays and cache it.
+     *
+     * @return the series, or null when it does not fit the budget.
+     */
+    private ColumnarSeries load(DatasetMetadata dataset, Key key) {
+        List<String> columns = metricColumns(dataset);
+        Long rowCount = dataset.getCurrent().getRowCount();
+        if (columns.isEmpty() || (rowCount != null && (rowCount > config.getMaxRows()
+                || ColumnarSeries.estimateBytes(rowCount, columns.size()) > config.getMaxBytes()))) {
+            rejected.add(key);
+            return null;
+        }
+
+        int capacity = rowCount != null
+                ? (int) Math.max(1, rowCount)
+                : (int) Math.min(MIN_CAPACITY, config.getMaxRows() + 1);
+        long reservedBytes = ColumnarSeries.estimateBytes(capacity, columns.size());
+        if (!reserve(reservedBytes)) {
+            log.info("No room to load the series cache now. datasetId={}, version={}, bytes={}",
+                    key.datasetId(), key.version(), reservedBytes);
+            return null;
+        }
+
+        try {
+            loads.increment();
+            long started = System.nanoTime();
+            ColumnarSeries.Builder builder = new ColumnarSeries.Builder(columns, capacity);
+            double[] row = new double[columns.size()];
+            int batchSize = Math.max(1, queryProperties.getCursorBatchSize());
+            try (Stream<DatasetRecord> records = resourceLimiter.stream(ResourceLimiter.Resource.MONGO, batchSize,
+                    () -> recordRepo.streamSeries(key.datasetId(), key.version(), columns, batchSize))) {
+                Iterator<DatasetRecord> it = records.iterator();
+                while (it.hasNext()) {
+                    DatasetRecord record = it.next();
+                    // The row count of the metadata was short, the grown arrays are reserved before copying
+                    if (builder.size() == builder.capacity()) {
+                        int grown = (int) Math.min(builder.capacity() + builder.capacity() / 2 + 1L,
+                                config.getMaxRows() + 1L);
+                        long grownBytes = ColumnarSeries.estimateBytes(grown, columns.size());
+                        if (!reserve(grownBytes)) {
+                            log.info("No room to grow the series cache load. datasetId={}, version={}, rows={}",
+                                    key.datasetId(), key.version(), builder.size());
+                            return null;
+                        }
+                        builder.ensureCapacity(grown);
+                        release(reservedBytes);
+                        reservedBytes = grownBytes;
+                    }
+
+                    for (int i = 0; i < columns.size(); i++) {
+                        row[i] = toDouble(record.getData() == null ? null : record.getData().get(columns.get(i)));
+                    }
+                    long time = record.getUserDefinedTime() == null
+                            ? ColumnarSeries.NO_TIME
+                            : record.getUserDefinedTime().toEpochMilli();
+                    builder.add(record.getIndexedValue(), time, row);
+
+                    // The row count of the metadata may be missing, stop once the budget is passed
+                    if (builder.size() > config.getMaxRows()
+                            || ColumnarSeries.estimateBytes(builder.size(), columns.size()) > config.getMaxBytes()) {
+                        log.info("Dataset too large for the series cache. datasetId={}, version={}",
+                                key.datasetId(), key.version());
+                        rejected.add(key);
+                        return null;
+                    }
+                }
+            }
+
+            // The arrays not filled are trimmed, the copies are held next to them for a moment
+            if (builder.size() < builder.capacity()) {
+                long trimmedBytes = ColumnarSeries.estimateBytes(builder.size(), columns.size());
+                if (!reserve(trimmedBytes)) {
+                    return null;
+                }
+                reservedBytes += trimmedBytes;
+            }
+            ColumnarSeries series = builder.build();
+            put(key, series, reservedBytes);
+            reservedBytes = 0;
+            log.info("Loaded series cache. datasetId={}, version={}, rows={}, bytes={}, tookMs={}",
+                    key.datasetId(), key.version(), series.rows(), series.bytes(),
+                    (System.nanoTime() - started) / 1_000_000);
+            return series;
+        } finally {
+            release(reservedBytes);
+        }
+    }
+
+    private static List<String> metricColumns(DatasetMetadata dataset) {
+        List<String> columns = new ArrayList<>();
+        if (dataset.getCurrent().getHeaders() == null) {
+            return columns;
+        }
+        for (ColumnMeta column : dataset.getCurrent().getHeaders()) {
+            String name = column.getColumnName().toUpperCase();
+            // The dotted or $ prefixed names can not be projected
+            if (column.isMetric() && name.indexOf('.') < 0 && !name.startsWith("$")) {
+                columns.add(name);
+            }
+        }
+        return columns;
+    }
+
+    private static double toDouble(Object value) {
+        if (value instanceof Number number) {
+            return number.doubleValue();
+        }
+        if (value instanceof String text) {
+            return TokenScanner.parseNumber(text);
+        }
+        return Double.NaN;
+    }
+
+    private record Key(String datasetId, Integer version) {
+    }
+
+    private record Admission(long windowStart, int queries) {
+    }
+}
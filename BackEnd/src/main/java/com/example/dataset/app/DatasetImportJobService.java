@@ -4,65 +4,247 @@ import com.example.dataset.domain.*;
 import com.example.dataset.domain.dto.CreateDatasetReq;
 import com.example.dataset.domain.dto.CreateDatasetResp;
 import com.example.dataset.infra.jpa.DatasetImportJobRepository;
+import com.example.dataset.infra.mongo.DatasetMetadataRepo;
+import com.example.exception.ErrorCode;
+import com.example.exception.types.BadRequestException;
+import com.example.exception.types.NotFoundException;
+import com.example.guards.DatasetAction;
+import com.example.guards.DatasetRules;
+import com.example.s3.S3MultipartUploader;
 import com.example.s3.S3Properties;
+import com.example.s3.UploadedObject;
+import com.example.utils.CompressionCodec;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
-import software.amazon.awssdk.core.sync.RequestBody;
-import software.amazon.awssdk.services.s3.S3Client;
-import software.amazon.awssdk.services.s3.model.PutObjectRequest;
 import software.amazon.awssdk.services.s3.model.S3Exception;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.io.SequenceInputStream;
 import java.io.UncheckedIOException;
 import java.time.Instant;
 import java.util.*;
+import java.util.function.Supplier;
 
 @Service
 @RequiredArgsConstructor
 public class DatasetImportJobService {
     private static final Logger logger = LoggerFactory.getLogger(DatasetImportJobService.class);
     private static final int MAX_ERROR_MESSAGE_LENGTH = 1000;
+    // The bytes of a streamed body read ahead to find its header line
+    private static final int HEADER_PEEK_BYTES = 64 * 1024;
 
     private final DatasetImportJobRepository importJobRepo;
-    private final S3Client s3Client;
     private final S3Properties s3Properties;
     private final ObjectMapper objectMapper;
+    private final DatasetMetadataRepo datasetRepo;
+    private final S3MultipartUploader multipartUploader;
+    private final ApplicationEventPublisher eventPublisher;
 
     public CreateDatasetResp createImportJob(MultipartFile file, CreateDatasetReq req, Long userId) {
         String jobId = UUID.randomUUID().toString();
         String originalFilename = file.getOriginalFilename() != null ? file.getOriginalFilename() : "dataset.csv";
 
+        createPlaceholderImportJob(
+                userId,
+                req.getDatasetName(),
+                jobId,
+                originalFilename,
+                file.getSize(),
+                createJobMetadata(req),
+                DatasetImportType.CREATE_DATASET);
+
+        return uploadImportFile(jobId, () -> saveCsvTempFileToS3(file, userId, req.getDatasetName(), jobId));
+    }
+
+    /**
+     * Create the import job from a csv streamed in the request body. The body goes to S3 part by part as it
+     * is read, so the file is neither spooled by the servlet container nor held in memory.
+     *
+     * @param body             the request body.
+     * @param originalFilename the name of the uploaded file, may be null.
+     * @param contentType      the content type of the body, may be null.
+     * @param contentLength    the length of the body, negative when unknown.
+     * @param req              the dataset request.
+     * @param userId           the user id.
+     * @return the created job.
+     */
+    public CreateDatasetResp createStreamingImportJob(InputStream body,
+                                                      String originalFilename,
+                                                      String contentType,
+                                                      long contentLength,
+                                                      CreateDatasetReq req,
+                                                      Long userId) {
+        InputStream csv = requireHeader(body);
+        String jobId = UUID.randomUUID().toString();
+        String filename = originalFilename != null && !originalFilename.isBlank() ? originalFilename : "dataset.csv";
+
+        createPlaceholderImportJob(
+                userId,
+                req.getDatasetName(),
+                jobId,
+                filename,
+                Math.max(0, contentLength),
+                createJobMetadata(req),
+                DatasetImportType.CREATE_DATASET);
+
+        return uploadImportFile(jobId,
+                () -> streamCsvTempFileToS3(csv, filename, contentType, userId, req.getDatasetName(), jobId));
+    }
+
+    private String createJobMetadata(CreateDatasetReq req) {
         DatasetImportJobMetadata metadata = DatasetImportJobMetadata.builder()
                 .recordPrimaryIndexedColumnName(req.getRecordPrimaryIndexedColumnName().toUpperCase())
                 .recordTimeColumnName(req.getRecordTimeColumnName().toUpperCase())
                 .recordTimeColumnFormat(req.getRecordTimeColumnFormat())
                 .timezone(req.getTimezone())
+                .deduplicate(req.getDeduplicate())
                 .build();
-        String metadataJson = null;
         try {
-            metadataJson = objectMapper.writeValueAsString(metadata);
+            return objectMapper.writeValueAsString(metadata);
         } catch (JsonProcessingException e) {
             throw new IllegalStateException("Failed to serialize dataset import job metadata", e);
         }
+    }
+
+    /**
+     * Create the job appending the rows of the file to an existing dataset. The time, the symbol columns and
+     * the timezone are the ones of the dataset, only the time format may differ from file to file.
+     *
+     * @param file   the csv file with the new rows.
+     * @param req    the request naming the dataset.
+     * @param userId the user id.
+     * @return the created job.
+     */
+    public CreateDatasetResp createAppendJob(MultipartFile file, CreateDatasetReq req, Long userId) {
+        DatasetMetadata dataset = datasetRepo.findByUserIdAndDatasetName(userId, req.getDatasetName())
+                .orElseThrow(() -> new NotFoundException(ErrorCode.DATASET_NOT_FOUND));
+        DatasetRules.assertAllowed(DatasetAction.UPLOAD, dataset.getStatus());
+        InputStream csv = requireHeader(body);
 
+        String jobId = UUID.randomUUID().toString();
+        String originalFilename = file.getOriginalFilename() != null ? file.getOriginalFilename() : "dataset.csv";
 
         createPlaceholderImportJob(
                 userId,
-                req.getDatasetName(),
+                dataset.getDatasetName(),
                 jobId,
                 originalFilename,
                 file.getSize(),
-                metadataJson);
+                appendJobMetadata(dataset, req),
+                DatasetImportType.APPEND_DATASET);
+
+        return uploadImportFile(jobId, () -> saveCsvTempFileToS3(file, userId, dataset.getDatasetName(), jobId));
+    }
+
+    /**
+     * Create the append job from a csv streamed in the request body, see
+     * {@link #createStreamingImportJob(InputStream, String, String, long, CreateDatasetReq, Long)}.
+     */
+    public CreateDatasetResp createStreamingAppendJob(InputStream body,
+                                                      String originalFilename,
+                                                      String contentType,
+                                                      long contentLength,
+                                                      CreateDatasetReq req,
+                                                      Long userId) {
+        DatasetMetadata dataset = datasetRepo.findByUserIdAndDatasetName(userId, req.getDatasetName())
+                .orElseThrow(() -> new NotFoundException(ErrorCode.DATASET_NOT_FOUND));
+        DatasetRules.assertAllowed(DatasetAction.UPLOAD, dataset.getStatus());
+        InputStream csv = requireHeader(body);
+
+        String jobId = UUID.randomUUID().toString();
+        String filename = originalFilename != null && !originalFilename.isBlank() ? originalFilename : "dataset.csv";
+
+        createPlaceholderImportJob(
+                userId,
+                dataset.getDatasetName(),
+                jobId,
+                filename,
+                Math.max(0, contentLength),
+                appendJobMetadata(dataset, req),
+                DatasetImportType.APPEND_DATASET);
+
+        return uploadImportFile(jobId,
+                () -> streamCsvTempFileToS3(csv, filename, contentType, userId, dataset.getDatasetName(), jobId));
+    }
+
+    private String appendJobMetadata(DatasetMetadata dataset, CreateDatasetReq req) {
+        String timeFormat = req.getRecordTimeColumnFormat() != null && !req.getRecordTimeColumnFormat().isBlank()
+                ? req.getRecordTimeColumnFormat()
+                : dataset.getRecordDateColumnFormat();
 
+        DatasetImportJobMetadata metadata = DatasetImportJobMetadata.builder()
+                .recordPrimaryIndexedColumnName(dataset.getRecordSymbolName())
+                .recordTimeColumnName(dataset.getRecordDateColumnName())
+                .recordTimeColumnFormat(timeFormat)
+                .timezone(dataset.getTimezone())
+                .deduplicate(dataset.getDeduplicate())
+                .build();
         try {
-            StoredObjectInfo tempFile = saveCsvTempFileToS3(file, userId, req.getDatasetName(), jobId);
+            return objectMapper.writeValueAsString(metadata);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to serialize dataset import job metadata", e);
+        }
+    }
+
+    /**
+     * Read the start of a streamed body before a job is created for it. A chunked body carries no length, so
+     * an empty body or one starting with a blank line is only found here, it has no csv header and is rejected.
+     * A compressed body is checked on what its bytes read ahead decompress to.
+     *
+     * @param body the request body.
+     * @return the body to upload, the bytes read ahead first.
+     */
+    private static InputStream requireHeader(InputStream body) {
+        byte[] head;
+        try {
+            head = body.readNBytes(HEADER_PEEK_BYTES);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read csv stream for S3 upload", e);
+        }
+        if (!hasHeaderLine(head, head.length < HEADER_PEEK_BYTES)) {
+            throw new BadRequestException(ErrorCode.NOT_VALID_FILE);
+        }
+        return new SequenceInputStream(new ByteArrayInputStream(head), body);
+    }
+
+    private static boolean hasHeaderLine(byte[] head, boolean wholeBody) {
+        byte[] csv;
+        try (PushbackInputStream in = new PushbackInputStream(new ByteArrayInputStream(head), 4);
+             InputStream decoded = CompressionCodec.detect(in).decompress(in)) {
+            csv = decoded.readNBytes(HEADER_PEEK_BYTES);
+        } catch (IOException e) {
+            // The bytes read ahead may end inside a compressed block, only a whole body is known to be broken
+            return !wholeBody;
+        }
+
+        // The header is the first line, a UTF-8 byte order mark before it is skipped
+        int start = csv.length >= 3 && (csv[0] & 0xff) == 0xef && (csv[1] & 0xff) == 0xbb && (csv[2] & 0xff) == 0xbf
+                ? 3
+                : 0;
+        for (int i = start; i < csv.length; i++) {
+            if (csv[i] == '\n' || csv[i] == '\r') {
+                return false;
+            }
+            if (csv[i] != ' ' && csv[i] != '\t') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private CreateDatasetResp uploadImportFile(String jobId, Supplier<StoredObjectInfo> upload) {
+        try {
+            StoredObjectInfo tempFile = upload.get();
             DatasetImportJob job = markImportJobUploaded(jobId, tempFile);
             return CreateDatasetResp.builder()
                     .jobId(job.getJobId())
@@ -82,7 +264,8 @@ public class DatasetImportJobService {
             String jobId,
             String originalFilename,
             long fileSize,
-            String metadataJson) {
+            String metadataJson,
+            DatasetImportType type) {
         boolean hasRunningJob = importJobRepo.existsByUserIdAndDatasetNameAndStatusIn(
                 userId,
                 datasetName,
@@ -106,7 +289,7 @@ public class DatasetImportJobService {
         job.setOriginalFileName(originalFilename);
         job.setFileSize(fileSize);
         job.setMetadata(metadataJson);
-        job.setType(DatasetImportType.CREATE_DATASET);
+        job.setType(type);
         job.setRetry(0L);
         job.setCreatedAt(now);
         job.setUpdatedAt(now);
@@ -123,7 +306,11 @@ public class DatasetImportJobService {
         job.setFileSize(tempFile.getFileSize());
         job.setStage(DatasetImportJobStage.UPLOADED);
         job.setUpdatedAt(now);
-        return importJobRepo.save(job);
+        DatasetImportJob saved = importJobRepo.save(job);
+
+        // The scheduler claims the job once it is committed instead of at its next poll
+        eventPublisher.publishEvent(new ImportJobQueuedEvent(saved.getJobId()));
+        return saved;
     }
 
     @Transactional
@@ -147,42 +334,71 @@ public class DatasetImportJobService {
     }
 
     /**
+     * Save the uploaded csv to S3 as the temp file of the job.
      *
-     * @param file
-     * @param userId
-     * @param datasetName
-     * @param jobId
-     * @return
+     * @param file        the uploaded file.
+     * @param userId      the user id.
+     * @param datasetName the dataset name.
+     * @param jobId       the job id.
+     * @return the stored object.
      */
     private StoredObjectInfo saveCsvTempFileToS3(MultipartFile file, Long userId, String datasetName, String jobId) {
         String originalFilename = file.getOriginalFilename() != null ? file.getOriginalFilename() : "dataset.csv";
-        String objectKey = buildImportJobObjectKey(userId, datasetName, jobId, originalFilename);
-
-        PutObjectRequest putObjectRequest = PutObjectRequest.builder()
-                .bucket(s3Properties.getBucket())
-                .key(objectKey)
-                .contentType(resolveContentType(file))
-                .build();
-
         try (InputStream inputStream = file.getInputStream()) {
-            s3Client.putObject(
-                    putObjectRequest,
-                    RequestBody.fromInputStream(inputStream, file.getSize())
-            );
+            return streamCsvTempFileToS3(inputStream, originalFilename, resolveContentType(file), userId, datasetName,
+                    jobId);
         } catch (IOException e) {
             throw new UncheckedIOException("Failed to read csv file for S3 upload", e);
+        }
+    }
+
+    /**
+     * Stream the csv to S3 as a multipart upload, the size is known once the stream ends. A file already
+     * compressed with gzip or zstd is stored as it is, a plain one is compressed with the configured codec
+     * on the way. The key ends with the extension of the stored codec, the import reads it from there.
+     */
+    private StoredObjectInfo streamCsvTempFileToS3(InputStream body,
+                                                   String originalFilename,
+                                                   String contentType,
+                                                   Long userId,
+                                                   String datasetName,
+                                                   String jobId) {
+        PushbackInputStream input = new PushbackInputStream(body, 4);
+        CompressionCodec uploaded;
+        try {
+            uploaded = CompressionCodec.detect(input);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read csv stream for S3 upload", e);
+        }
+        CompressionCodec stored = uploaded != CompressionCodec.NONE
+                ? uploaded
+                : s3Properties.getUpload().getCompression();
+        String objectKey = buildImportJobObjectKey(userId, datasetName, jobId,
+                CompressionCodec.stripExtension(sanitizeFilename(originalFilename)) + stored.getExtension());
+        String storedContentType = stored != CompressionCodec.NONE
+                ? stored.getContentType()
+                : contentType != null ? contentType : "text/csv";
+
+        UploadedObject object;
+        try {
+            object = multipartUploader.upload(s3Properties.getBucket(), objectKey, storedContentType, input,
+                    uploaded == CompressionCodec.NONE ? stored : CompressionCodec.NONE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read csv stream for S3 upload", e);
         } catch (S3Exception e) {
-            logger.error("Failed to upload csv temp file to S3. userId={}, datasetName={}, jobId={}, bucket={}, key={}",
+            logger.error("Failed to stream csv temp file to S3. userId={}, datasetName={}, jobId={}, bucket={}, key={}",
                     userId, datasetName, jobId, s3Properties.getBucket(), objectKey, e);
             throw e;
         }
+        logger.info("Stored csv temp file. jobId={}, key={}, uploadedCodec={}, uploadedBytes={}, storedBytes={}",
+                jobId, objectKey, uploaded, object.getReadBytes(), object.getStoredBytes());
 
         return StoredObjectInfo.builder()
                 .bucket(s3Properties.getBucket())
                 .objectKey(objectKey)
                 .originalFilename(originalFilename)
-                .fileSize(file.getSize())
-                .contentType(resolveContentType(file))
+                .fileSize(object.getReadBytes())
+                .contentType(storedContentType)
                 .build();
     }
 
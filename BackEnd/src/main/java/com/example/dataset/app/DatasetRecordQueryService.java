@@ -1,88 +1,157 @@
 package com.example.dataset.app;
 
+import com.example.async.threads.ResourceLimiter;
+import com.example.dataset.domain.AggregationBucket;
+import com.example.dataset.domain.dto.AggregateRecordsReq;
+import com.example.dataset.domain.dto.AggregateRecordsResp;
+import com.example.dataset.domain.dto.AggregatedDatapoint;
+import com.example.dataset.domain.dto.ColumnarRecordsResp;
 import com.example.dataset.domain.dto.Datapoint;
+import com.example.dataset.domain.ColumnarSeries;
 import com.example.dataset.domain.DatasetMetadata;
 import com.example.dataset.domain.DatasetRecord;
+import com.example.dataset.domain.DownsampleMode;
+import com.example.dataset.domain.RecordAggregate;
+import com.example.dataset.domain.RecordCursor;
+import com.example.dataset.domain.RecordWireFormat;
+import com.example.dataset.domain.SeriesBuffer;
+import com.example.dataset.domain.dto.QueryRecordsPageResp;
 import com.example.dataset.domain.dto.QueryRecordsResp;
 import com.example.dataset.domain.dto.QueryRecordsReq;
 import com.example.dataset.infra.mongo.DatasetRecordRepo;
-import com.example.dataset.infra.mongo.MongoKeys;
+import com.example.exception.ErrorCode;
+import com.example.exception.types.BadRequestException;
 import com.example.guards.DatasetAction;
 import com.example.guards.DatasetStateGuard;
 import com.example.utils.DateParser;
+import com.example.utils.Downsampler;
+import com.example.utils.TokenScanner;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
 import lombok.RequiredArgsConstructor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
 import java.time.Instant;
 import java.time.LocalDate;
 import java.time.ZoneId;
 import java.time.ZoneOffset;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 @RequiredArgsConstructor
 public class DatasetRecordQueryService {
     private static final Logger logger = LoggerFactory.getLogger(DatasetRecordQueryService.class);
+
+    // The columnar response holds no dates, so the plain CBOR mapper needs no modules
+    private static final ObjectMapper CBOR_MAPPER = new CBORMapper();
+
     private final DatasetRecordRepo recordRepo;
     private final DatasetStateGuard stateGuard;
     private final DateParser dateParser;
+    private final RecordQueryProperties queryProperties;
+    private final ObjectMapper objectMapper;
+    private final RecordRollupService rollupService;
+    private final RecordQueryCache queryCache;
+    private final ColumnarSeriesCache seriesCache;
+    private final RecordFanOut recordFanOut;
+    private final ResourceLimiter resourceLimiter;
 
     public QueryRecordsResp queryRecords(Long userId, String datasetId, QueryRecordsReq req) {
         // We only need to check the status not changing the status.
         DatasetMetadata dataset = stateGuard.loadAndCheck(userId, datasetId, DatasetAction.QUERY);
+        return queryRecords(dataset, req);
+    }
 
-        String dsId = dataset.getId();
-        Integer version = dataset.getCurrent().getVersion();
-        String timezone = dataset.getTimezone();
+    /**
+     * Query the records and return the encoded response. The state of the dataset is checked on every call,
+     * the response itself is served from the cache while the current version of the dataset is unchanged.
+     *
+     * @param userId    the user id.
+     * @param datasetId the dataset id.
+     * @param req       the query request.
+     * @param format    the encoding of the response.
+     * @return the encoded response.
+     */
+    public byte[] queryRecordsEncoded(Long userId, String datasetId, QueryRecordsReq req, RecordWireFormat format) {
+        DatasetMetadata dataset = stateGuard.loadAndCheck(userId, datasetId, DatasetAction.QUERY);
 
-        List<String> columnsUpperCase = new ArrayList<>();
-        if (req.getColumns() != null) {
-            for (int i = 0; i < req.getColumns().size(); i++) {
-                columnsUpperCase.add(req.getColumns().get(i).toUpperCase());
+        // The key is built from the checked request, a null column is rejected before it is copied
+        List<String> columns = checkColumns(req.getColumns());
+        List<String> symbols = parseSymbols(req.getSymbols());
+        RecordQueryCache.Key key = new RecordQueryCache.Key(
+                dataset.getId(),
+                dataset.getCurrent().getVersion(),
+                req.getStartDate(),
+                req.getEndDate(),
+                // The symbols only filter, their order does not change the response
+                symbols == null ? null : symbols.stream().distinct().sorted().toList(),
+                req.getColumns() == null ? null : List.copyOf(columns),
+                req.getMaxPoints(),
+                req.getDownsample(),
+                format);
+
+        return queryCache.get(key, () -> {
+            try {
+                QueryRecordsResp resp = queryRecords(dataset, req);
+                return switch (format) {
+                    case JSON -> objectMapper.writeValueAsBytes(resp);
+                    case COLUMNAR_JSON -> objectMapper.writeValueAsBytes(ColumnarRecordsResp.from(resp));
+                    case COLUMNAR_CBOR -> CBOR_MAPPER.writeValueAsBytes(ColumnarRecordsResp.from(resp));
+                };
+            } catch (JsonProcessingException e) {
+                throw new IllegalStateException("Failed to encode the query response", e);
             }
-        }
+        });
+    }
 
-        List<String> symbols = null;
-        if (req.getSymbols() != null) {
-            symbols = Arrays.stream(req.getSymbols().split("[,\\s]+"))
-                    .map(String::trim)
-                    .filter(s -> !s.isEmpty())
-                    .map(String::toUpperCase)
-                    .collect(Collectors.toList());
-        }
+    private QueryRecordsResp queryRecords(DatasetMetadata dataset, QueryRecordsReq req) {
+        String datasetId = dataset.getId();
+        Integer version = dataset.getCurrent().getVersion();
+        String timezone = dataset.getTimezone();
 
-        // parse the symbols to fetch
-        List<DatasetRecord> records = null;
-        Sort sort = Sort.by(
-                Sort.Order.asc(MongoKeys.Record.USER_DEFINED_TIME),
-                Sort.Order.asc(MongoKeys.Record.INDEXED_VALUE));
+        List<String> columns = checkColumns(req.getColumns());
+        List<String> symbols = parseSymbols(req.getSymbols());
 
         Instant startTime = parseLocalDate(req.getStartDate(), timezone);
         Instant endTime = parseLocalDate(req.getEndDate(), timezone);
 
-        if (symbols == null || symbols.isEmpty()) {
-            records = recordRepo.findByDatasetIdAndVersionLteAndUserDefinedTimeRange(
-                    datasetId,
-                    version,
-                    startTime,
-                    endTime,
-                    sort);
-        } else {
-            records = recordRepo.findByDatasetIdAndVersionLteAndUserDefinedTimeRangeAndIndexedValues(
-                    datasetId,
-                    version,
-                    startTime,
-                    endTime,
-                    symbols,
-                    sort);
+        // The metric columns of the dataset may be held in memory, the records are read from mongo otherwise
+        ColumnarSeries cached = columns.isEmpty() ? null : seriesCache.get(dataset);
+        if (cached != null && !cached.hasColumns(columns)) {
+            cached = null;
         }
 
+        if (req.getMaxPoints() != null || cached != null) {
+            QueryRecordsResp resp = new QueryRecordsResp();
+            resp.setDatasetName(datasetId);
+            resp.setColumns(req.getColumns());
+            resp.setRecords(req.getMaxPoints() != null
+                    ? downsampleRecords(datasetId, version, startTime, endTime, symbols, columns, timezone, req, cached)
+                    : sliceSeries(cached, startTime, endTime, symbols, columns, timezone));
+            return resp;
+        }
+
+        // Only the requested columns are read from mongo, many symbols are read one index range at a time
+        List<DatasetRecord> records = recordFanOut.applies(symbols)
+                ? recordFanOut.findRecords(datasetId, version, startTime, endTime, symbols, columns)
+                : resourceLimiter.call(ResourceLimiter.Resource.MONGO,
+                        () -> recordRepo.findRecords(datasetId, version, startTime, endTime, symbols, columns));
+
         if (records == null) {
             // The defensive check for null
             throw new IllegalStateException("Repository returned null list");
@@ -90,17 +159,413 @@ public class DatasetRecordQueryService {
 
         List<Datapoint> dataPoints = records
                 .stream()
-                .flatMap(r -> toRecord(r, req.getColumns(), timezone).stream())
+                .flatMap(r -> toRecord(r, columns, timezone).stream())
                 .toList();
 
         // ===========================================================================================
         QueryRecordsResp resp = new QueryRecordsResp();
-        resp.setDatasetName(dsId);
+        resp.setDatasetName(datasetId);
         resp.setColumns(req.getColumns());
         resp.setRecords(dataPoints);
         return resp;
     }
 
+    /**
+     * Query one page of the records. Every page is one bounded index scan starting right after the cursor,
+     * so the latency of a page does not grow with the size of the dataset. The pages of one listing stay on
+     * the version the first page was read from, until the dataset is compacted past it.
+     *
+     * @param userId    the user id.
+     * @param datasetId the dataset id.
+     * @param req       the query request, downsampling is not paged.
+     * @param cursor    the cursor of the previous page, the first page when blank.
+     * @param size      the records of the page, the configured page size when null.
+     * @return the datapoints of the page and the cursor of the next one.
+     */
+    public QueryRecordsPageResp queryRecordPage(Long userId,
+                                                String datasetId,
+                                                QueryRecordsReq req,
+                                                String cursor,
+                                                Integer size) {
+        DatasetMetadata dataset = stateGuard.loadAndCheck(userId, datasetId, DatasetAction.QUERY);
+        if (req.getMaxPoints() != null) {
+            throw new BadRequestException(ErrorCode.NOT_VALID_PARAMS);
+        }
+
+        Integer version = dataset.getCurrent().getVersion();
+        String timezone = dataset.getTimezone();
+        List<String> columns = checkColumns(req.getColumns());
+        List<String> symbols = parseSymbols(req.getSymbols());
+        Instant startTime = parseLocalDate(req.getStartDate(), timezone);
+        Instant endTime = parseLocalDate(req.getEndDate(), timezone);
+        int pageSize = (size == null || size <= 0)
+                ? queryProperties.getPageSize()
+                : Math.min(size, queryProperties.getMaxPageSize());
+
+        RecordCursor decoded = null;
+        if (cursor != null && !cursor.isBlank()) {
+            try {
+                decoded = RecordCursor.decode(cursor, objectMapper);
+            } catch (IllegalArgumentException e) {
+                throw new BadRequestException(ErrorCode.NOT_VALID_PARAMS);
+            }
+            // The records of the versions below the compacted one were moved, the listing can not go on
+            if (decoded.getVersion() == null || decoded.getVersion() > version
+                    || (dataset.getCompactedVersion() != null
+                    && decoded.getVersion() < dataset.getCompactedVersion())) {
+                throw new BadRequestException(ErrorCode.NOT_VALID_PARAMS);
+            }
+            version = decoded.getVersion();
+        }
+        RecordCursor after = decoded;
+        Integer pageVersion = version;
+
+        // One more record tells whether there is a next page
+        List<DatasetRecord> records = resourceLimiter.call(ResourceLimiter.Resource.MONGO,
+                () -> recordRepo.findRecordPage(
+                        datasetId, pageVersion, startTime, endTime, symbols, columns, after, pageSize + 1));
+        boolean hasMore = records.size() > pageSize;
+        if (hasMore) {
+            records = records.subList(0, pageSize);
+        }
+
+        String nextCursor = null;
+        if (hasMore) {
+            DatasetRecord last = records.get(records.size() - 1);
+            nextCursor = RecordCursor.encode(
+                    new RecordCursor(version, last.getUserDefinedTime(), last.getIndexedValue(), last.getId()),
+                    objectMapper);
+        }
+
+        return QueryRecordsPageResp.builder()
+                .datasetName(dataset.getId())
+                .columns(req.getColumns())
+                .records(records.stream().flatMap(r -> toRecord(r, columns, timezone).stream()).toList())
+                .nextCursor(nextCursor)
+                .build();
+    }
+
+    /**
+     * Stream the datapoints of the query as NDJSON, one datapoint per line. The dataset state is checked
+     * before anything is written, the records are then read through a mongo cursor and written as they
+     * arrive, so the memory used does not grow with the size of the result.
+     *
+     * @param userId    the user id.
+     * @param datasetId the dataset id.
+     * @param req       the query request.
+     * @return the body writing the datapoints.
+     */
+    public StreamingResponseBody streamRecords(Long userId, String datasetId, QueryRecordsReq req) {
+        DatasetMetadata dataset = stateGuard.loadAndCheck(userId, datasetId, DatasetAction.QUERY);
+
+        Integer version = dataset.getCurrent().getVersion();
+        String timezone = dataset.getTimezone();
+        List<String> columns = checkColumns(req.getColumns());
+        List<String> symbols = parseSymbols(req.getSymbols());
+        Instant startTime = parseLocalDate(req.getStartDate(), timezone);
+        Instant endTime = parseLocalDate(req.getEndDate(), timezone);
+        int batchSize = Math.max(1, queryProperties.getCursorBatchSize());
+
+        return out -> {
+            long written = 0;
+            try (Stream<DatasetRecord> records = resourceLimiter.stream(ResourceLimiter.Resource.MONGO, batchSize,
+                    () -> recordRepo.streamRecords(datasetId, version, startTime, endTime, symbols, columns,
+                            batchSize));
+                 JsonGenerator gen = objectMapper.getFactory().createGenerator(out)) {
+                // The servlet owns the output stream
+                gen.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+                Iterator<DatasetRecord> it = records.iterator();
+                while (it.hasNext()) {
+                    for (Datapoint point : toRecord(it.next(), columns, timezone)) {
+                        gen.writeObject(point);
+                        gen.writeRaw('\n');
+                        // Flush once per cursor batch so the client sees the rows while the rest is read
+                        if (++written % batchSize == 0) {
+                            gen.flush();
+                        }
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Streaming query aborted. datasetId={}, written={}", datasetId, written, e);
+                throw e;
+            }
+        };
+    }
+
+    /**
+     * Read the records through the cursor into one primitive series per symbol and column, then reduce
+     * every series to at most maxPoints. The records themselves are never held in memory.
+     */
+    private List<Datapoint> downsampleRecords(String datasetId,
+                                              Integer version,
+                                              Instant startTime,
+                                              Instant endTime,
+                                              List<String> symbols,
+                                              List<String> columns,
+                                              String timezone,
+                                              QueryRecordsReq req,
+                                              ColumnarSeries cached) {
+        int maxPoints = req.getMaxPoints();
+        if (maxPoints < 2 || maxPoints > queryProperties.getMaxPointsLimit()) {
+            throw new BadRequestException(ErrorCode.NOT_VALID_PARAMS);
+        }
+        DownsampleMode mode = req.getDownsample() == null ? DownsampleMode.LTTB : req.getDownsample();
+        int batchSize = Math.max(1, queryProperties.getCursorBatchSize());
+
+        // symbol -> column -> series, in the order the series are met
+        Map<String, Map<String, SeriesBuffer>> series = new LinkedHashMap<>();
+        if (cached != null) {
+            collectSeries(cached, startTime, endTime, symbols, columns, series);
+        } else {
+            collectRecords(datasetId, version, startTime, endTime, symbols, columns, batchSize, series);
+        }
+
+        List<Datapoint> out = new ArrayList<>();
+        series.forEach((symbol, bySymbol) -> bySymbol.forEach((col, buffer) -> {
+            int[] kept = mode == DownsampleMode.MIN_MAX
+                    ? Downsampler.minMax(buffer.getValues(), buffer.size(), maxPoints)
+                    : Downsampler.lttb(buffer.getTimes(), buffer.getValues(), buffer.size(), maxPoints);
+            for (int index : kept) {
+                out.add(Datapoint.builder()
+                        .recordedTime(toLocalDate(Instant.ofEpochMilli(buffer.timeAt(index)), timezone))
+                        .symbol(symbol)
+                        .column(col)
+                        .value(buffer.valueAt(index))
+                        .build());
+            }
+        }));
+        return out;
+    }
+
+    private void collectSeries(ColumnarSeries cached,
+                               Instant startTime,
+                               Instant endTime,
+                               List<String> symbols,
+                               List<String> columns,
+                               Map<String, Map<String, SeriesBuffer>> series) {
+        // The downsampled series do not have the records without a time
+        long[] range = timeRange(startTime, endTime, true);
+        long[] times = cached.getTimes();
+        for (int symbol : selectSymbols(cached, symbols)) {
+            int from = cached.lowerBound(symbol, range[0]);
+            int to = cached.lowerBound(symbol, range[1]);
+            for (String col : columns) {
+                double[] values = cached.column(col);
+                SeriesBuffer buffer = new SeriesBuffer(Math.max(1, to - from));
+                for (int row = from; row < to; row++) {
+                    if (!Double.isNaN(values[row])) {
+                        buffer.add(times[row], values[row]);
+                    }
+                }
+                if (buffer.size() > 0) {
+                    series.computeIfAbsent(cached.symbolAt(symbol), k -> new LinkedHashMap<>()).put(col, buffer);
+                }
+            }
+        }
+    }
+
+    private void collectRecords(String datasetId,
+                                Integer version,
+                                Instant startTime,
+                                Instant endTime,
+                                List<String> symbols,
+                                List<String> columns,
+                                int batchSize,
+                                Map<String, Map<String, SeriesBuffer>> series) {
+        try (Stream<DatasetRecord> records = resourceLimiter.stream(ResourceLimiter.Resource.MONGO, batchSize,
+                () -> recordRepo.streamRecords(datasetId, version, startTime, endTime, symbols, columns,
+                        batchSize))) {
+            Iterator<DatasetRecord> it = records.iterator();
+            while (it.hasNext()) {
+                DatasetRecord record = it.next();
+                if (record.getUserDefinedTime() == null || record.getData() == null) {
+                    continue;
+                }
+                long time = record.getUserDefinedTime().toEpochMilli();
+                for (String col : columns) {
+                    double value = toDouble(record.getData().get(col));
+                    if (!Double.isNaN(value)) {
+                        series.computeIfAbsent(record.getIndexedValue(), k -> new LinkedHashMap<>())
+                                .computeIfAbsent(col, k -> new SeriesBuffer())
+                                .add(time, value);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Answer the query from the cached series. The rows of the selected symbols are merged by time, so the
+     * datapoints come in the same order as the records read from mongo.
+     */
+    private List<Datapoint> sliceSeries(ColumnarSeries series,
+                                        Instant startTime,
+                                        Instant endTime,
+                                        List<String> symbols,
+                                        List<String> columns,
+                                        String timezone) {
+        int[] selected = selectSymbols(series, symbols);
+        // Mongo drops the records without a time as soon as the range has a bound
+        long[] range = timeRange(startTime, endTime, startTime != null || endTime != null);
+        int[] cursors = new int[selected.length];
+        int[] ends = new int[selected.length];
+        long[] times = series.getTimes();
+        double[][] values = new double[columns.size()][];
+        for (int i = 0; i < columns.size(); i++) {
+            values[i] = series.column(columns.get(i));
+        }
+
+        // The symbols are selected in the symbol order, so the index breaks the ties of the same time
+        PriorityQueue<Integer> heads = new PriorityQueue<>((a, b) -> {
+            int byTime = Long.compare(times[cursors[a]], times[cursors[b]]);
+            return byTime != 0 ? byTime : Integer.compare(a, b);
+        });
+        for (int i = 0; i < selected.length; i++) {
+            cursors[i] = series.lowerBound(selected[i], range[0]);
+            ends[i] = series.lowerBound(selected[i], range[1]);
+            if (cursors[i] < ends[i]) {
+                heads.add(i);
+            }
+        }
+
+        List<Datapoint> out = new ArrayList<>();
+        while (!heads.isEmpty()) {
+            int head = heads.poll();
+            int row = cursors[head];
+            LocalDate recordedTime = times[row] == ColumnarSeries.NO_TIME
+                    ? null
+                    : toLocalDate(Instant.ofEpochMilli(times[row]), timezone);
+            for (int i = 0; i < columns.size(); i++) {
+                if (!Double.isNaN(values[i][row])) {
+                    out.add(Datapoint.builder()
+                            .recordedTime(recordedTime)
+                            .symbol(series.symbolAt(selected[head]))
+                            .column(columns.get(i))
+                            .value(values[i][row])
+                            .build());
+                }
+            }
+            if (++cursors[head] < ends[head]) {
+                heads.add(head);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * The ordinals of the requested symbols held by the series in the symbol order, every symbol when none is
+     * requested.
+     */
+    private static int[] selectSymbols(ColumnarSeries series, List<String> symbols) {
+        List<Integer> selected = new ArrayList<>();
+        if (symbols == null || symbols.isEmpty()) {
+            for (int i = 0; i < series.symbolCount(); i++) {
+                selected.add(i);
+            }
+        } else {
+            for (String symbol : new TreeSet<>(symbols)) {
+                int index = series.indexOfSymbol(symbol);
+                if (index >= 0) {
+                    selected.add(index);
+                }
+            }
+        }
+        selected.sort((a, b) -> ColumnarSeries.SYMBOL_ORDER.compare(series.symbolAt(a), series.symbolAt(b)));
+        return selected.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * The [from, to) epoch millis of the range, the records without a time are left out when asked to.
+     */
+    private static long[] timeRange(Instant startTime, Instant endTime, boolean skipNoTime) {
+        long from = startTime != null
+                ? startTime.toEpochMilli()
+                : skipNoTime ? ColumnarSeries.NO_TIME + 1 : ColumnarSeries.NO_TIME;
+        long to = endTime != null ? endTime.toEpochMilli() : Long.MAX_VALUE;
+        return new long[] { from, to };
+    }
+
+    /**
+     * Aggregate the metric columns per time bucket and per symbol inside mongo, the buckets are aligned to
+     * the timezone of the dataset. Only the statistics are sent back, not the raw records.
+     *
+     * @param userId    the user id.
+     * @param datasetId the dataset id.
+     * @param req       the aggregation request.
+     * @return the statistics of every column, bucket and symbol.
+     */
+    public AggregateRecordsResp aggregateRecords(Long userId, String datasetId, AggregateRecordsReq req) {
+        DatasetMetadata dataset = stateGuard.loadAndCheck(userId, datasetId, DatasetAction.QUERY);
+
+        Integer version = dataset.getCurrent().getVersion();
+        String timezone = dataset.getTimezone();
+        List<String> columns = checkColumns(req.getColumns());
+        AggregationBucket bucket = req.getBucket() == null ? AggregationBucket.DAY : req.getBucket();
+
+        Instant startTime = parseLocalDate(req.getStartDate(), timezone);
+        Instant endTime = parseLocalDate(req.getEndDate(), timezone);
+        List<String> symbols = parseSymbols(req.getSymbols());
+
+        List<AggregatedDatapoint> points = List.of();
+        if (!columns.isEmpty()) {
+            // The rollups are read when they give the same answer, the records are scanned otherwise
+            List<RecordAggregate> aggregates = rollupService.canAnswer(
+                    dataset, columns, bucket, req.getStartDate(), req.getEndDate())
+                    ? rollupService.query(dataset, columns, bucket, startTime, endTime, symbols)
+                    : resourceLimiter.call(ResourceLimiter.Resource.MONGO,
+                            () -> recordRepo.aggregateRecords(datasetId, version, startTime, endTime, symbols,
+                                    columns, bucket, timezone));
+            points = aggregates.stream()
+                    .map(a -> AggregatedDatapoint.builder()
+                            .recordedTime(toLocalDate(a.getBucketStart(), timezone))
+                            .symbol(a.getSymbol())
+                            .column(a.getColumn())
+                            .count(a.getCount())
+                            .min(a.getMin())
+                            .max(a.getMax())
+                            .avg(a.getAvg())
+                            .sum(a.getSum())
+                            .first(a.getFirst())
+                            .last(a.getLast())
+                            .build())
+                    .toList();
+        }
+
+        AggregateRecordsResp resp = new AggregateRecordsResp();
+        resp.setDatasetName(dataset.getId());
+        resp.setColumns(columns);
+        resp.setBucket(bucket);
+        resp.setRecords(points);
+        return resp;
+    }
+
+    /**
+     * The columns are used as mongo field paths, the names that would address something else are rejected.
+     */
+    private List<String> checkColumns(List<String> columns) {
+        if (columns == null) {
+            return List.of();
+        }
+        for (String column : columns) {
+            if (column == null || column.isBlank() || column.indexOf('.') >= 0 || column.startsWith("$")) {
+                throw new BadRequestException(ErrorCode.NOT_VALID_PARAMS);
+            }
+        }
+        return columns;
+    }
+
+    private List<String> parseSymbols(String raw) {
+        if (raw == null) {
+            return null;
+        }
+        return Arrays.stream(raw.split("[,\\s]+"))
+                .map(String::trim)
+                .filter(s -> !s.isEmpty())
+                .map(String::toUpperCase)
+                .collect(Collectors.toList());
+    }
+
     public Instant parseLocalDate(LocalDate raw, String timezone) {
         if (raw == null) {
             return null;
@@ -137,17 +602,30 @@ public class DatasetRecordQueryService {
         }
 
         for (String col : columns) {
-            String value = record.getData().get(col);
-            if (value != null) {
+            double value = toDouble(record.getData().get(col));
+            if (!Double.isNaN(value)) {
                 out.add(Datapoint.builder()
                         .recordedTime(toLocalDate(record.getUserDefinedTime(), timezone))
                         .symbol(record.getIndexedValue())
                         .column(col)
-                        .value(Double.parseDouble(value))
+                        .value(value)
                         .build());
             }
         }
 
         return out;
     }
+
+    /**
+     * The metric is a double for the typed datasets, the datasets not migrated yet still hold strings.
+     */
+    private static double toDouble(Object value) {
+        if (value instanceof Number number) {
+            return number.doubleValue();
+        }
+        if (value instanceof String text) {
+            return TokenScanner.parseNumber(text);
+        }
+        return Double.NaN;
+    }
 }
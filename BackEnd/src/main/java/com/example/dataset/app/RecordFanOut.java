@@ -0,0 +1,128 @@
+package com.example.dataset.app;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import org.springframework.stereotype.Component;
+
+import com.example.async.threads.ResourceLimiter;
+import com.example.dataset.domain.ColumnarSeries;
+import com.example.dataset.domain.DatasetRecord;
+import com.example.dataset.infra.mongo.DatasetRecordRepo;
+
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Read the records of many symbols with one query per symbol instead of one $in query. A single symbol is
+ * an equality on the indexed value, so every query is a range scan of the indexed value index already in
+ * time order, and mongo never sorts the whole result in memory. The queries run on virtual threads, at most
+ * the configured number at once per query and within the mongo permits overall so the connection pool is not
+ * drained, and the sorted results are merged back into the order of the $in query.
+ */
+@Component
+@RequiredArgsConstructor
+public class RecordFanOut {
+    // The order of the $in query, the time with the records without a time first, then the symbol
+    private static final Comparator<DatasetRecord> RECORD_ORDER = Comparator
+            .comparing(DatasetRecord::getUserDefinedTime, Comparator.nullsFirst(Comparator.<Instant>naturalOrder()))
+            .thenComparing(DatasetRecord::getIndexedValue, ColumnarSeries.SYMBOL_ORDER);
+
+    private final DatasetRecordRepo recordRepo;
+    private final RecordQueryProperties queryProperties;
+    private final ResourceLimiter resourceLimiter;
+
+    /**
+     * Whether the query of these symbols is worth fanning out.
+     */
+    public boolean applies(List<String> symbols) {
+        RecordQueryProperties.FanOut config = queryProperties.getFanOut();
+        return config.isEnabled() && symbols != null && symbols.size() >= config.getMinSymbols();
+    }
+
+    /**
+     * Find the records of every symbol, in the same order as the single $in query.
+     *
+     * @param datasetId the dataset id.
+     * @param version   the current visible version.
+     * @param from      inclusive start time, unbounded when null.
+     * @param to        exclusive end time, unbounded when null.
+     * @param symbols   the indexed values.
+     * @param columns   the data columns to be returned.
+     * @return the merged records.
+     */
+    public List<DatasetRecord> findRecords(String datasetId,
+                                           Integer version,
+                                           Instant from,
+                                           Instant to,
+                                           List<String> symbols,
+                                           List<String> columns) {
+        List<String> distinct = new ArrayList<>(new LinkedHashSet<>(symbols));
+        Semaphore permits = new Semaphore(Math.max(1, queryProperties.getFanOut().getParallelism()));
+        List<Future<List<DatasetRecord>>> results = new ArrayList<>(distinct.size());
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (String symbol : distinct) {
+                results.add(executor.submit(() -> {
+                    permits.acquire();
+                    try {
+                        return resourceLimiter.call(ResourceLimiter.Resource.MONGO,
+                                () -> recordRepo.findRecords(datasetId, version, from, to, List.of(symbol), columns));
+                    } finally {
+                        permits.release();
+                    }
+                }));
+            }
+
+            List<List<DatasetRecord>> sorted = new ArrayList<>(results.size());
+            for (Future<List<DatasetRecord>> result : results) {
+                sorted.add(result.get());
+            }
+            return merge(sorted);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new IllegalStateException("Symbol query failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while querying the symbols", e);
+        }
+    }
+
+    /**
+     * K-way merge of the per symbol results, each already sorted by the time.
+     */
+    static List<DatasetRecord> merge(List<List<DatasetRecord>> sorted) {
+        int total = 0;
+        for (List<DatasetRecord> records : sorted) {
+            total += records.size();
+        }
+        int[] cursors = new int[sorted.size()];
+        PriorityQueue<Integer> heads = new PriorityQueue<>(Math.max(1, sorted.size()),
+                (a, b) -> RECORD_ORDER.compare(sorted.get(a).get(cursors[a]), sorted.get(b).get(cursors[b])));
+        for (int i = 0; i < sorted.size(); i++) {
+            if (!sorted.get(i).isEmpty()) {
+                heads.add(i);
+            }
+        }
+
+        List<DatasetRecord> out = new ArrayList<>(total);
+        while (!heads.isEmpty()) {
+            int head = heads.poll();
+            out.add(sorted.get(head).get(cursors[head]));
+            if (++cursors[head] < sorted.get(head).size()) {
+                heads.add(head);
+            }
+        }
+        return out;
+    }
+}
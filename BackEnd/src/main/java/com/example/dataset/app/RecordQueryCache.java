@@ -0,0 +1,194 @@
+package com.example.dataset.app;
+
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+import org.springframework.stereotype.Component;
+
+import com.example.dataset.domain.DownsampleMode;
+import com.example.dataset.domain.RecordWireFormat;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * The in-process cache of the encoded record query responses. A dataset version never changes once it is
+ * committed, so a response is keyed by the version and stays valid until the version is replaced. The
+ * entries are evicted least recently used first once the total size passes the budget, and dropped after the
+ * ttl. The entries of an older version are dropped as soon as a newer version of the dataset is seen.
+ */
+@Slf4j
+@Component
+public class RecordQueryCache {
+    // The rough cost of the key and the entry objects besides the response bytes
+    private static final int ENTRY_OVERHEAD = 256;
+
+    private final RecordQueryProperties.Cache config;
+    private final Clock clock;
+
+    // Guarded by this
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private final Map<String, Integer> latestVersions = new HashMap<>();
+    private long bytes;
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter sizeEvictions;
+    private final Counter expirations;
+    private final Counter invalidations;
+
+    public RecordQueryCache(RecordQueryProperties properties, Clock clock, MeterRegistry registry) {
+        this.config = properties.getCache();
+        this.clock = clock;
+        this.hits = registry.counter("dataset.query.cache.requests", "result", "hit");
+        this.misses = registry.counter("dataset.query.cache.requests", "result", "miss");
+        this.sizeEvictions = registry.counter("dataset.query.cache.evictions", "cause", "size");
+        this.expirations = registry.counter("dataset.query.cache.evictions", "cause", "expired");
+        this.invalidations = registry.counter("dataset.query.cache.evictions", "cause", "invalidated");
+        Gauge.builder("dataset.query.cache.bytes", this, RecordQueryCache::bytes).register(registry);
+        Gauge.builder("dataset.query.cache.entries", this, RecordQueryCache::size).register(registry);
+    }
+
+    /**
+     * Get the cached response, or load and cache it.
+     *
+     * @param key    the query key.
+     * @param loader encode the response when it is not cached.
+     * @return the encoded response.
+     */
+    public byte[] get(Key key, Supplier<byte[]> loader) {
+        if (!config.isEnabled()) {
+            return loader.get();
+        }
+
+        long now = clock.millis();
+        synchronized (this) {
+            dropOlderVersions(key.datasetId(), key.version());
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                if (entry.expiresAt() > now) {
+                    hits.increment();
+                    return entry.value();
+                }
+                remove(key);
+                expirations.increment();
+            }
+        }
+
+        // The loading runs outside the lock, two concurrent misses may both load
+        misses.increment();
+        byte[] value = loader.get();
+        put(key, value, now);
+        return value;
+    }
+
+    /**
+     * Drop every cached response of the dataset once the version is committed. The version is kept as the
+     * latest one, so a query of an older version still loading is not cached afterwards.
+     *
+     * @param datasetId the dataset id.
+     * @param version   the committed version.
+     */
+    public synchronized void invalidate(String datasetId, int version) {
+        latestVersions.merge(datasetId, version, Math::max);
+        dropDataset(datasetId);
+    }
+
+    private void dropDataset(String datasetId) {
+        Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Key, Entry> entry = it.next();
+            if (entry.getKey().datasetId().equals(datasetId)) {
+                bytes -= entry.getValue().weight();
+                it.remove();
+                invalidations.increment();
+            }
+        }
+    }
+
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private synchronized void put(Key key, byte[] value, long now) {
+        long weight = (long) value.length + ENTRY_OVERHEAD;
+        if (weight > config.getMaxEntryBytes() || weight > config.getMaxBytes()) {
+            return;
+        }
+        // A newer version may have been committed while loading
+        Integer latest = latestVersions.get(key.datasetId());
+        if (latest != null && latest > key.version()) {
+            return;
+        }
+
+        remove(key);
+        entries.put(key, new Entry(value, weight, now + config.getTtl().toMillis()));
+        bytes += weight;
+
+        Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Key, Entry> eldest = it.next();
+            boolean expired = eldest.getValue().expiresAt() <= now;
+            if (!expired && bytes <= config.getMaxBytes()) {
+                break;
+            }
+            bytes -= eldest.getValue().weight();
+            it.remove();
+            (expired ? expirations : sizeEvictions).increment();
+        }
+    }
+
+    private void dropOlderVersions(String datasetId, Integer version) {
+        Integer latest = latestVersions.get(datasetId);
+        if (latest == null || latest < version) {
+            if (latest != null) {
+                log.debug("Dataset version changed, dropping cached queries. datasetId={}, version={}",
+                        datasetId, version);
+                dropDataset(datasetId);
+            }
+            latestVersions.put(datasetId, version);
+        }
+    }
+
+    private void remove(Key key) {
+        Entry removed = entries.remove(key);
+        if (removed != null) {
+            bytes -= removed.weight();
+        }
+    }
+
+    /**
+     * The query key, the lists must already be normalized by the caller.
+     */
+    public record Key(String datasetId,
+                      Integer version,
+                      LocalDate startDate,
+                      LocalDate endDate,
+                      List<String> symbols,
+                      List<String> columns,
+                      Integer maxPoints,
+                      DownsampleMode downsample,
+                      RecordWireFormat format) {
+        public Key {
+            Objects.requireNonNull(datasetId);
+            Objects.requireNonNull(version);
+            Objects.requireNonNull(format);
+        }
+    }
+
+    private record Entry(byte[] value, long weight, long expiresAt) {
+    }
+}
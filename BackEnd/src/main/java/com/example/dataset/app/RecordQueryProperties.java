@@ -0,0 +1,79 @@
+package com.example.dataset.app;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@ConfigurationProperties(prefix = "app.query")
+@Data
+@Component
+public class RecordQueryProperties {
+    // The records fetched from mongo per round trip when streaming a query
+    private int cursorBatchSize = 500;
+
+    // The upper bound of the points per series a downsampled query may ask for
+    private int maxPointsLimit = 10000;
+
+    // The records of a record page when the request does not ask for a size
+    private int pageSize = 1000;
+
+    // The upper bound of the records of a record page
+    private int maxPageSize = 5000;
+
+    private Cache cache = new Cache();
+
+    private SeriesCache seriesCache = new SeriesCache();
+
+    private FanOut fanOut = new FanOut();
+
+    @Data
+    public static class Cache {
+        // Whether the encoded query responses are cached
+        private boolean enabled = true;
+
+        // The total size of the cached responses before the least recently used ones are evicted
+        private long maxBytes = 64L * 1024 * 1024;
+
+        // The responses larger than this are not cached
+        private long maxEntryBytes = 4L * 1024 * 1024;
+
+        // How long a response is kept after it was cached
+        private Duration ttl = Duration.ofMinutes(10);
+    }
+
+    @Data
+    public static class SeriesCache {
+        // Whether the metric columns of the queried datasets are kept in memory
+        private boolean enabled = false;
+
+        // The total size of the cached series before the least recently used ones are evicted
+        private long maxBytes = 256L * 1024 * 1024;
+
+        // The datasets with more rows are always read from mongo
+        private long maxRows = 2_000_000;
+
+        // The queries of a version within the window before it is loaded, the colder ones read mongo
+        private int admitQueries = 3;
+
+        private Duration admitWindow = Duration.ofMinutes(5);
+
+        // The ids of the datasets loaded on their first query
+        private Set<String> datasets = new HashSet<>();
+    }
+
+    @Data
+    public static class FanOut {
+        // Whether the queries of many symbols run as one query per symbol
+        private boolean enabled = true;
+
+        // The fewest symbols a query needs before it is fanned out
+        private int minSymbols = 4;
+
+        // The symbol queries running at once, kept below the mongo connection pool
+        private int parallelism = 8;
+    }
+}
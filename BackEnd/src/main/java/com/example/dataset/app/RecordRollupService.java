@@ -0,0 +1,248 @@
+package com.example.dataset.app;
+
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+import org.springframework.stereotype.Service;
+
+import com.example.async.importdataset.ImportProperties;
+import com.example.async.threads.ResourceLimiter;
+import com.example.dataset.domain.AggregationBucket;
+import com.example.dataset.domain.ColumnMeta;
+import com.example.dataset.domain.DatasetMetadata;
+import com.example.dataset.domain.RecordAggregate;
+import com.example.dataset.domain.RecordRollup;
+import com.example.dataset.infra.mongo.DatasetRecordRepo;
+import com.example.dataset.infra.mongo.RecordRollupRepo;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Maintain the daily, weekly and monthly rollups of the datasets. The rollups of a version are built from the
+ * records of that version only when the version is committed, the bucket queries then read the rollups of
+ * every visible version and combine them, instead of scanning the raw records.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class RecordRollupService {
+    private final DatasetRecordRepo recordRepo;
+    private final RecordRollupRepo rollupRepo;
+    private final ResourceLimiter resourceLimiter;
+    private final ImportProperties importProperties;
+
+    /**
+     * Build the rollups of the records of one version, the rollups left by an earlier attempt are replaced.
+     *
+     * @param datasetId     the dataset id.
+     * @param version       the version to be rolled up.
+     * @param timezone      the timezone of the dataset.
+     * @param metricColumns the upper case names of the metric columns.
+     * @return whether the rollups of every bucket width were written.
+     */
+    public boolean materialize(String datasetId, int version, String timezone, Collection<String> metricColumns) {
+        return materialize(datasetId, version, timezone, metricColumns, () -> {
+        });
+    }
+
+    /**
+     * Build the rollups of the records of one version, calling back before every bucket width and every
+     * written batch so the caller can tell it is still working. The aggregates are streamed from the cursor
+     * and written in batches of the import batch size, so the rollups of a large version are never held in
+     * memory at once.
+     *
+     * @param datasetId     the dataset id.
+     * @param version       the version to be rolled up.
+     * @param timezone      the timezone of the dataset.
+     * @param metricColumns the upper case names of the metric columns.
+     * @param heartbeat     called before every bucket width is aggregated and every batch is written.
+     * @return whether the rollups of every bucket width were written.
+     */
+    public boolean materialize(String datasetId, int version, String timezone, Collection<String> metricColumns,
+                               Runnable heartbeat) {
+        List<String> columns = new ArrayList<>(metricColumns);
+        try {
+            rollupRepo.deleteByDatasetIdAndVersion(datasetId, version);
+            if (columns.isEmpty()) {
+                return true;
+            }
+            int batchSize = Math.max(1, importProperties.getBatchSize());
+            long written = 0;
+            for (AggregationBucket bucket : AggregationBucket.values()) {
+                heartbeat.run();
+                List<RecordRollup> rollups = new ArrayList<>(batchSize);
+                try (Stream<RecordAggregate> aggregates = recordRepo.streamVersionAggregates(datasetId, version,
+                        columns, bucket, timezone, batchSize)) {
+                    Iterator<RecordAggregate> it = aggregates.iterator();
+                    while (it.hasNext()) {
+                        RecordAggregate aggregate = it.next();
+                        if (aggregate.getCount() > 0 && aggregate.getBucketStart() != null) {
+                            rollups.add(toRollup(datasetId, version, bucket, aggregate));
+                        }
+                        if (rollups.size() >= batchSize) {
+                            rollupRepo.insert(rollups);
+                            written += rollups.size();
+                            rollups = new ArrayList<>(batchSize);
+                            heartbeat.run();
+                        }
+                    }
+                }
+                if (!rollups.isEmpty()) {
+                    rollupRepo.insert(rollups);
+                    written += rollups.size();
+                }
+            }
+            log.info("Materialized rollups. datasetId={}, version={}, rollups={}", datasetId, version, written);
+            return true;
+        } catch (Exception e) {
+            log.warn("Failed to materialize rollups. datasetId={}, version={}", datasetId, version, e);
+            return false;
+        }
+    }
+
+    /**
+     * Whether the bucket query can be answered from the rollups. The rollups of every visible version must be
+     * there, the columns must be metric columns and the range must not cut a bucket in half.
+     *
+     * @param dataset   the dataset.
+     * @param columns   the requested columns.
+     * @param bucket    the width of the time buckets.
+     * @param startDate inclusive start date, unbounded when null.
+     * @param endDate   exclusive end date, unbounded when null.
+     * @return true if the rollups give the same answer as the records.
+     */
+    public boolean canAnswer(DatasetMetadata dataset,
+                             List<String> columns,
+                             AggregationBucket bucket,
+                             LocalDate startDate,
+                             LocalDate endDate) {
+        if (dataset.getCurrent() == null
+                || !Objects.equals(dataset.getRolledUpVersion(), dataset.getCurrent().getVersion())) {
+            return false;
+        }
+        List<ColumnMeta> headers = dataset.getCurrent().getHeaders();
+        if (headers == null) {
+            return false;
+        }
+        for (String column : columns) {
+            boolean metric = headers.stream()
+                    .anyMatch(h -> h.isMetric() && h.getColumnName().toUpperCase().equals(column));
+            if (!metric) {
+                return false;
+            }
+        }
+        return isBucketStart(startDate, bucket) && isBucketStart(endDate, bucket);
+    }
+
+    /**
+     * Combine the rollups of the visible versions into one aggregate per bucket, symbol and column.
+     *
+     * @param dataset the dataset.
+     * @param columns the metric columns.
+     * @param bucket  the width of the time buckets.
+     * @param from    inclusive start of the buckets, unbounded when null.
+     * @param to      exclusive end of the buckets, unbounded when null.
+     * @param symbols the symbols to filter, all the symbols when null or empty.
+     * @return the aggregates sorted by the bucket, the symbol and the requested column order.
+     */
+    public List<RecordAggregate> query(DatasetMetadata dataset,
+                                       List<String> columns,
+                                       AggregationBucket bucket,
+                                       Instant from,
+                                       Instant to,
+                                       List<String> symbols) {
+        List<RecordRollup> rollups = resourceLimiter.call(ResourceLimiter.Resource.MONGO,
+                () -> rollupRepo.findRollups(
+                        dataset.getId(), dataset.getCurrent().getVersion(), bucket, from, to, symbols, columns));
+
+        Map<String, RecordAggregate> combined = new LinkedHashMap<>();
+        for (RecordRollup rollup : rollups) {
+            String key = rollup.getBucketStart() + "|" + rollup.getIndexedValue() + "|" + rollup.getColumn();
+            RecordAggregate aggregate = combined.get(key);
+            if (aggregate == null) {
+                combined.put(key, RecordAggregate.builder()
+                        .bucketStart(rollup.getBucketStart())
+                        .symbol(rollup.getIndexedValue())
+                        .column(rollup.getColumn())
+                        .count(rollup.getCount())
+                        .sum(rollup.getSum())
+                        .min(rollup.getMin())
+                        .max(rollup.getMax())
+                        .first(rollup.getFirst())
+                        .firstTime(rollup.getFirstTime())
+                        .last(rollup.getLast())
+                        .lastTime(rollup.getLastTime())
+                        .build());
+            } else {
+                merge(aggregate, rollup);
+            }
+        }
+
+        List<RecordAggregate> out = new ArrayList<>(combined.values());
+        for (RecordAggregate aggregate : out) {
+            aggregate.setAvg(aggregate.getSum() == null ? null : aggregate.getSum() / aggregate.getCount());
+        }
+        out.sort(Comparator.comparing(RecordAggregate::getBucketStart)
+                .thenComparing(RecordAggregate::getSymbol, Comparator.nullsFirst(Comparator.naturalOrder()))
+                .thenComparingInt(a -> columns.indexOf(a.getColumn())));
+        return out;
+    }
+
+    private static void merge(RecordAggregate aggregate, RecordRollup rollup) {
+        aggregate.setCount(aggregate.getCount() + rollup.getCount());
+        aggregate.setSum(aggregate.getSum() + rollup.getSum());
+        aggregate.setMin(Math.min(aggregate.getMin(), rollup.getMin()));
+        aggregate.setMax(Math.max(aggregate.getMax(), rollup.getMax()));
+        if (rollup.getFirstTime().isBefore(aggregate.getFirstTime())) {
+            aggregate.setFirst(rollup.getFirst());
+            aggregate.setFirstTime(rollup.getFirstTime());
+        }
+        // The later version wins on a tie, same as the records read in version order
+        if (!rollup.getLastTime().isBefore(aggregate.getLastTime())) {
+            aggregate.setLast(rollup.getLast());
+            aggregate.setLastTime(rollup.getLastTime());
+        }
+    }
+
+    private static RecordRollup toRollup(String datasetId, int version, AggregationBucket bucket,
+                                         RecordAggregate aggregate) {
+        return RecordRollup.builder()
+                .datasetId(datasetId)
+                .version(version)
+                .bucket(bucket)
+                .bucketStart(aggregate.getBucketStart())
+                .indexedValue(aggregate.getSymbol())
+                .column(aggregate.getColumn())
+                .count(aggregate.getCount())
+                .sum(aggregate.getSum())
+                .min(aggregate.getMin())
+                .max(aggregate.getMax())
+                .first(aggregate.getFirst())
+                .firstTime(aggregate.getFirstTime())
+                .last(aggregate.getLast())
+                .lastTime(aggregate.getLastTime())
+                .build();
+    }
+
+    private static boolean isBucketStart(LocalDate date, AggregationBucket bucket) {
+        if (date == null) {
+            return true;
+        }
+        return switch (bucket) {
+            case DAY -> true;
+            case WEEK -> date.getDayOfWeek() == DayOfWeek.MONDAY;
+            case MONTH -> date.getDayOfMonth() == 1;
+        };
+    }
+}
@@ -0,0 +1,24 @@
+package com.example.dataset.domain;
+
+/**
+ * The width of the time buckets of an aggregated query.
+ */
+public enum AggregationBucket {
+    DAY("day"),
+
+    // The weeks start on monday
+    WEEK("week"),
+
+    MONTH("month");
+
+    // The unit name of mongo $dateTrunc
+    private final String unit;
+
+    AggregationBucket(String unit) {
+        this.unit = unit;
+    }
+
+    public String getUnit() {
+        return unit;
+    }
+}
@@ -0,0 +1,203 @@
+package com.example.dataset.domain;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The metric columns of one dataset version held in primitive arrays. The rows are sorted by the symbol and
+ * then by the time, the rows of a symbol are the slice [start, end) of every array, so a time range of a
+ * symbol is found with a binary search. A missing value is NaN, a missing time is {@link #NO_TIME}.
+ */
+public class ColumnarSeries {
+    // The time of the records without a user defined time, sorted before every other time
+    public static final long NO_TIME = Long.MIN_VALUE;
+
+    // The order of the symbols at the same time, null first the same as mongo
+    public static final Comparator<String> SYMBOL_ORDER = Comparator.nullsFirst(Comparator.naturalOrder());
+
+    private final String[] symbols;
+    private final Map<String, Integer> symbolIndex;
+    private final int[] offsets;
+    private final long[] times;
+    private final Map<String, double[]> columns;
+
+    private ColumnarSeries(String[] symbols, int[] offsets, long[] times, Map<String, double[]> columns) {
+        this.symbols = symbols;
+        this.symbolIndex = new HashMap<>();
+        for (int i = 0; i < symbols.length; i++) {
+            symbolIndex.put(symbols[i], i);
+        }
+        this.offsets = offsets;
+        this.times = times;
+        this.columns = columns;
+    }
+
+    public int symbolCount() {
+        return symbols.length;
+    }
+
+    public String symbolAt(int symbol) {
+        return symbols[symbol];
+    }
+
+    /**
+     * @return the ordinal of the symbol, or a negative value when the series does not have it.
+     */
+    public int indexOfSymbol(String symbol) {
+        return symbolIndex.getOrDefault(symbol, -1);
+    }
+
+    public int start(int symbol) {
+        return offsets[symbol];
+    }
+
+    public int end(int symbol) {
+        return offsets[symbol + 1];
+    }
+
+    /**
+     * Find the first row of the symbol at or after the time.
+     *
+     * @param symbol the ordinal of the symbol.
+     * @param time   the epoch millis.
+     * @return the row, end(symbol) when every row of the symbol is before the time.
+     */
+    public int lowerBound(int symbol, long time) {
+        int low = start(symbol);
+        int high = end(symbol);
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (times[mid] < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    public long[] getTimes() {
+        return times;
+    }
+
+    /**
+     * @return the values of the column, or null when the series does not hold the column.
+     */
+    public double[] column(String name) {
+        return columns.get(name);
+    }
+
+    public boolean hasColumns(List<String> names) {
+        return columns.keySet().containsAll(names);
+    }
+
+    public int rows() {
+        return times.length;
+    }
+
+    /**
+     * @return the approximate memory held by the arrays.
+     */
+    public long bytes() {
+        return estimateBytes(times.length, columns.size()) + 64L * symbols.length;
+    }
+
+    public static long estimateBytes(long rows, int columns) {
+        return rows * Long.BYTES * (1 + columns);
+    }
+
+    /**
+     * Collect the rows, they must arrive sorted by the symbol and then by the time. Sized to the expected rows
+     * the arrays are never copied, {@link #build()} hands them over as they are when they are full.
+     */
+    public static class Builder {
+        private final String[] columnNames;
+        private final List<String> symbols = new ArrayList<>();
+        private final List<Integer> offsets = new ArrayList<>();
+        private long[] times;
+        private final double[][] values;
+        private int size;
+
+        public Builder(List<String> columnNames) {
+            this(columnNames, 1024);
+        }
+
+        /**
+         * @param columnNames the metric columns.
+         * @param capacity    the rows expected, the arrays grow past it.
+         */
+        public Builder(List<String> columnNames, int capacity) {
+            this.columnNames = columnNames.toArray(new String[0]);
+            this.times = new long[Math.max(1, capacity)];
+            this.values = new double[this.columnNames.length][times.length];
+        }
+
+        /**
+         * Add a row.
+         *
+         * @param symbol the symbol.
+         * @param time   the epoch millis, or NO_TIME.
+         * @param row    the values in the order of the column names, NaN when missing.
+         */
+        public void add(String symbol, long time, double[] row) {
+            if (symbols.isEmpty() || !Objects.equals(symbols.get(symbols.size() - 1), symbol)) {
+                symbols.add(symbol);
+                offsets.add(size);
+            }
+            if (size == times.length) {
+                ensureCapacity(times.length + times.length / 2 + 1);
+            }
+            times[size] = time;
+            for (int i = 0; i < values.length; i++) {
+                values[i][size] = row[i];
+            }
+            size++;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public int capacity() {
+            return times.length;
+        }
+
+        /**
+         * Grow the arrays to hold the rows, the old and the new arrays are both held while copying.
+         */
+        public void ensureCapacity(int capacity) {
+            if (capacity <= times.length) {
+                return;
+            }
+            times = Arrays.copyOf(times, capacity);
+            for (int i = 0; i < values.length; i++) {
+                values[i] = Arrays.copyOf(values[i], capacity);
+            }
+        }
+
+        /**
+         * Build the series, the builder is not used afterwards. The arrays are only trimmed, and so copied,
+         * when the rows did not fill them.
+         */
+        public ColumnarSeries build() {
+            int[] bounds = new int[symbols.size() + 1];
+            for (int i = 0; i < symbols.size(); i++) {
+                bounds[i] = offsets.get(i);
+            }
+            bounds[symbols.size()] = size;
+
+            boolean full = size == times.length;
+            Map<String, double[]> columns = new HashMap<>();
+            for (int i = 0; i < columnNames.length; i++) {
+                columns.put(columnNames[i], full ? values[i] : Arrays.copyOf(values[i], size));
+            }
+            return new ColumnarSeries(symbols.toArray(new String[0]), bounds, full ? times : Arrays.copyOf(times, size),
+                    columns);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.example.dataset.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * The records visited by one migration batch, and the id the next batch starts after.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ConvertedRecords {
+    // The records of the batch, converted or already in the new format
+    private long documents;
+
+    // The converted records
+    private long converted;
+
+    // The highest id of the batch, null when the batch was empty
+    private Object lastId;
+}
@@ -1,5 +1,9 @@
 package com.example.dataset.domain;
 
+import java.util.Set;
+
+import com.example.utils.RecordTimeParser;
+
 import lombok.Builder;
 import lombok.Data;
 
@@ -15,4 +19,13 @@ public class CreateCollectionDataProps {
     private int version;
     private String batchId;
     private String timezone;
+
+    // Whether the records carry the row key rejecting the rows already imported
+    private boolean deduplicate;
+
+    // The columns stored as numbers, set once the metadata is created
+    private Set<String> metricColumns;
+
+    // The parser of the record time column, created once per import job
+    private RecordTimeParser recordTimeParser;
 }
\ No newline at end of file
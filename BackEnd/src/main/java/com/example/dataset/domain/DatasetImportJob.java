@@ -45,6 +45,10 @@ public class DatasetImportJob {
 
     private String errorMessage;
 
+    // The ImportCheckpoint of the running import as JSON, kept when the job is requeued
+    private String checkpoint;
+    private Instant heartbeatAt;
+
     private Instant createdAt;
     private Instant updatedAt;
 }
\ No newline at end of file
@@ -10,4 +10,5 @@ public class DatasetImportJobMetadata {
     private final String recordTimeColumnFormat;
     private final String recordPrimaryIndexedColumnName;
     private final String timezone;
+    private final Boolean deduplicate;
 }
\ No newline at end of file
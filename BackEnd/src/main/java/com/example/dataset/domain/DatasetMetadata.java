@@ -86,6 +86,22 @@ public class DatasetMetadata {
     @Field(MongoKeys.Dataset.TIME_PATTERN)
     private String timePattern;
 
+    // The layout of the record values, see RecordFormat
+    @Field(MongoKeys.Dataset.RECORD_FORMAT_VERSION)
+    private Integer recordFormatVersion;
+
+    // The highest version whose rollups and the rollups of every version below are materialized
+    @Field(MongoKeys.Dataset.ROLLED_UP_VERSION)
+    private Integer rolledUpVersion;
+
+    // Whether a row with the indexed value and the time of an imported row is skipped
+    @Field(MongoKeys.Dataset.DEDUPLICATE)
+    private Boolean deduplicate;
+
+    // The version every visible record was moved to by the last compaction, the older versions are gone
+    @Field(MongoKeys.Dataset.COMPACTED_VERSION)
+    private Integer compactedVersion;
+
     @Field(MongoKeys.Dataset.OBSOLETED)
     private Boolean obsoleted;
 
@@ -21,14 +21,30 @@ import lombok.NoArgsConstructor;
 @NoArgsConstructor
 @AllArgsConstructor
 @Builder
+// The indexes are created by RecordIndexManager at startup, the auto index creation is off
 @CompoundIndexes({
+        // The unfiltered range queries and the record pages, sorted by the time, the indexed value and the id
+        // without a blocking sort
         @CompoundIndex(
-                name = "idx_dataset_version_user_time",
-                def = "{ 'datasetId': 1, 'version': 1, 'userDefinedTime': 1 }"
+                name = "idx_dataset_time_indexed_column_id_version",
+                def = "{ 'datasetId': 1, 'userDefinedTime': 1, 'indexedColumn': 1, '_id': 1, 'version': 1 }"
         ),
+        // The queries filtered by the indexed value
         @CompoundIndex(
-                name = "idx_dataset_version_indexed_column_user_time",
-                def = "{ 'datasetId': 1, 'version': 1, 'indexedValue': 1, 'userDefinedTime': 1 }"
+                name = "idx_dataset_indexed_column_time_version",
+                def = "{ 'datasetId': 1, 'indexedColumn': 1, 'userDefinedTime': 1, 'version': 1 }"
+        ),
+        // The per version rollups, migrations and cleanups
+        @CompoundIndex(
+                name = "idx_dataset_version",
+                def = "{ 'datasetId': 1, 'version': 1 }"
+        ),
+        // The rows of the deduplicating datasets, a row already imported is rejected as a duplicate key
+        @CompoundIndex(
+                name = "uk_dataset_row_key",
+                def = "{ 'datasetId': 1, 'rowKey': 1 }",
+                unique = true,
+                partialFilter = "{ 'rowKey': { '$exists': true } }"
         )
 })
 public class DatasetRecord {
@@ -38,8 +54,9 @@ public class DatasetRecord {
     @Field(MongoKeys.Record.DATASET_ID)
     private String datasetId;
 
+    // The metric columns are doubles since RecordFormat.TYPED_METRICS, strings before
     @Field(MongoKeys.Record.DATA)
-    private Map<String, String> data;
+    private Map<String, Object> data;
 
     @Field(MongoKeys.Record.VERSION)
     private Integer version;
@@ -55,4 +72,8 @@ public class DatasetRecord {
 
     @Field(MongoKeys.Record.INDEXED_VALUE)
     private String indexedValue;
+
+    // The hash of the indexed value and the time, only set for the deduplicating datasets
+    @Field(MongoKeys.Record.ROW_KEY)
+    private byte[] rowKey;
 }
\ No newline at end of file
@@ -14,7 +14,13 @@ public enum DatasetStatus {
     FAILED("FAILED"),
 
     // User is deleting the datasets
-    DELETING("DELETING");
+    DELETING("DELETING"),
+
+    // The background compaction is rewriting the record versions, the records stay readable
+    COMPACTING("COMPACTING"),
+
+    // The background migration is rewriting the record format, the records stay readable
+    MIGRATING("MIGRATING");
 
     private final String desc;
 
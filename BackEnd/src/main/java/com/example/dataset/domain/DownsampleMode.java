@@ -0,0 +1,12 @@
+package com.example.dataset.domain;
+
+/**
+ * The way a series is reduced to the requested number of points.
+ */
+public enum DownsampleMode {
+    // Largest-Triangle-Three-Buckets, keeps the visual shape of the line
+    LTTB,
+
+    // The lowest and the highest point of every bucket, keeps the spikes
+    MIN_MAX
+}
@@ -0,0 +1,7 @@
+package com.example.dataset.domain;
+
+/**
+ * An import job became ready to be claimed, either uploaded or requeued.
+ */
+public record ImportJobQueuedEvent(String jobId) {
+}
@@ -0,0 +1,12 @@
+package com.example.dataset.domain;
+
+/**
+ * The import jobs of a user running over every instance.
+ */
+public interface ImportUserLoad {
+    Long getUserId();
+
+    long getRunningJobs();
+
+    long getRunningBytes();
+}
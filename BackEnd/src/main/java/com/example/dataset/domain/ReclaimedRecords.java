@@ -0,0 +1,16 @@
+package com.example.dataset.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * The records removed by one cleanup batch and their size as stored by mongo.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReclaimedRecords {
+    private long documents;
+    private long bytes;
+}
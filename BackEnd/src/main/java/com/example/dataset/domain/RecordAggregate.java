@@ -0,0 +1,31 @@
+package com.example.dataset.domain;
+
+import java.time.Instant;
+
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * The statistics of one metric column of one symbol within one time bucket.
+ */
+@Data
+@Builder
+public class RecordAggregate {
+    // The start of the bucket in the timezone of the dataset
+    private Instant bucketStart;
+    private String symbol;
+    private String column;
+
+    // The number of numeric values in the bucket, the other statistics are null when it is 0
+    private long count;
+    private Double min;
+    private Double max;
+    private Double avg;
+    private Double sum;
+
+    // The value of the earliest and the latest record in the bucket
+    private Double first;
+    private Double last;
+    private Instant firstTime;
+    private Instant lastTime;
+}
@@ -0,0 +1,44 @@
+package com.example.dataset.domain;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Base64;
+
+/**
+ * The cursor pointing to the last record of a record page. The records are ordered by the time, the indexed
+ * value and the id, the next page starts right after this key. The version keeps every page of one listing
+ * on the same dataset version.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class RecordCursor {
+    private Integer version;
+    private Instant userDefinedTime;
+    private String indexedValue;
+    private String id;
+
+    public static String encode(RecordCursor cursor, ObjectMapper mapper) {
+        try {
+            String json = mapper.writeValueAsString(cursor);
+            return Base64.getUrlEncoder().withoutPadding()
+                    .encodeToString(json.getBytes(StandardCharsets.UTF_8));
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Failed to encode record cursor", e);
+        }
+    }
+
+    public static RecordCursor decode(String cursor, ObjectMapper mapper) {
+        try {
+            String json = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            return mapper.readValue(json, RecordCursor.class);
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Invalid record cursor", e);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.example.dataset.domain;
+
+/**
+ * The versions of the layout of the record values, stored on the dataset metadata.
+ */
+public final class RecordFormat {
+    // Every value of the record is a string
+    public static final int STRING_VALUES = 1;
+
+    // The metric columns are doubles, the other columns are strings
+    public static final int TYPED_METRICS = 2;
+
+    public static final int CURRENT = TYPED_METRICS;
+
+    private RecordFormat() {
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.dataset.domain;
+
+import java.time.Instant;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+
+import com.example.dataset.infra.mongo.MongoKeys;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * The statistics of one metric column of one symbol within one time bucket, materialized for the records of
+ * one dataset version when the version is committed. The rollups of the versions up to the current one are
+ * combined at read time.
+ */
+@Document(MongoKeys.Rollup.TABLE_NAME)
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@CompoundIndex(
+        name = "idx_rollup_dataset_bucket_time",
+        def = "{ 'datasetId': 1, 'bucket': 1, 'bucketStart': 1, 'indexedColumn': 1, 'version': 1 }"
+)
+public class RecordRollup {
+    @Id
+    private String id;
+
+    @Field(MongoKeys.Rollup.DATASET_ID)
+    private String datasetId;
+
+    @Field(MongoKeys.Rollup.VERSION)
+    private Integer version;
+
+    @Field(MongoKeys.Rollup.BUCKET)
+    private AggregationBucket bucket;
+
+    // The start of the bucket in the timezone of the dataset
+    @Field(MongoKeys.Rollup.BUCKET_START)
+    private Instant bucketStart;
+
+    @Field(MongoKeys.Rollup.INDEXED_VALUE)
+    private String indexedValue;
+
+    @Field(MongoKeys.Rollup.COLUMN)
+    private String column;
+
+    private long count;
+    private Double sum;
+    private Double min;
+    private Double max;
+    private Double first;
+    private Double last;
+    private Instant firstTime;
+    private Instant lastTime;
+}
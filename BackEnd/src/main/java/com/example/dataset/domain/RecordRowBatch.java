@@ -0,0 +1,87 @@
+package com.example.dataset.domain;
+
+import java.util.Arrays;
+
+import org.apache.commons.csv.CSVRecord;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * A batch of csv rows held in one flat value array, the value of column {@code c} of row {@code r} is stored
+ * at {@code r * width + c}. The batch is cleared and refilled by the import pipeline instead of allocating a
+ * map per row.
+ */
+public class RecordRowBatch {
+    @Getter
+    private final RecordSchema schema;
+    private final String[] values;
+    private final int capacity;
+    private int size;
+
+    // The place of the batch in the file, set by the import pipeline for every fill: the batch number, the
+    // rows read up to the end of the batch, and the byte offset of the next row
+    @Getter
+    @Setter
+    private long batchSeq;
+    @Getter
+    @Setter
+    private long endRows;
+    @Getter
+    @Setter
+    private long endOffset;
+
+    // The id written to the records of the batch
+    @Getter
+    @Setter
+    private String batchId;
+
+    public RecordRowBatch(RecordSchema schema, int capacity) {
+        this.schema = schema;
+        this.capacity = capacity;
+        this.values = new String[schema.width() * capacity];
+    }
+
+    /**
+     * Copy the values of the record to the next row of the batch. The missing trailing values of a short
+     * record are kept as null.
+     *
+     * @param record the csv record.
+     */
+    public void add(CSVRecord record) {
+        if (isFull()) {
+            throw new IllegalStateException("Row batch is full");
+        }
+        int width = schema.width();
+        int offset = size * width;
+        int columns = Math.min(width, record.size());
+        for (int i = 0; i < columns; i++) {
+            values[offset + i] = record.get(i);
+        }
+        for (int i = columns; i < width; i++) {
+            values[offset + i] = null;
+        }
+        size++;
+    }
+
+    public String get(int row, int column) {
+        return column < 0 ? null : values[row * schema.width() + column];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    public void clear() {
+        Arrays.fill(values, 0, size * schema.width(), null);
+        size = 0;
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.dataset.domain;
+
+import java.util.Collection;
+import java.util.List;
+
+import lombok.Getter;
+
+/**
+ * The column layout of one import job. The header names are upper-cased and interned once per job, the rows
+ * of the job then only carry their values indexed by the column ordinal.
+ */
+@Getter
+public class RecordSchema {
+    // The upper-cased column names, indexed by the column ordinal in the csv
+    private final String[] columnNames;
+
+    // Whether the column is stored as a number, indexed by the column ordinal
+    private final boolean[] metricColumns;
+
+    // The ordinal of the user defined time column, -1 when the csv does not have it
+    private final int timeColumnIndex;
+
+    // The ordinal of the primary indexed column, -1 when the csv does not have it
+    private final int indexedColumnIndex;
+
+    public RecordSchema(List<String> headers,
+                        String timeColumnName,
+                        String indexedColumnName,
+                        Collection<String> metricColumnNames) {
+        this.columnNames = new String[headers.size()];
+        this.metricColumns = new boolean[headers.size()];
+        for (int i = 0; i < headers.size(); i++) {
+            columnNames[i] = headers.get(i).toUpperCase().intern();
+        }
+        if (metricColumnNames != null) {
+            for (String metric : metricColumnNames) {
+                int index = indexOf(metric);
+                if (index >= 0) {
+                    metricColumns[index] = true;
+                }
+            }
+        }
+        this.timeColumnIndex = indexOf(timeColumnName);
+        this.indexedColumnIndex = indexOf(indexedColumnName);
+    }
+
+    public boolean isMetric(int column) {
+        return metricColumns[column];
+    }
+
+    public int width() {
+        return columnNames.length;
+    }
+
+    /**
+     * Find the ordinal of the column.
+     *
+     * @param columnName the column name, compared ignoring case.
+     * @return the ordinal of the column or -1 if not found.
+     */
+    public int indexOf(String columnName) {
+        if (columnName == null) {
+            return -1;
+        }
+        for (int i = 0; i < columnNames.length; i++) {
+            if (columnNames[i].equalsIgnoreCase(columnName)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
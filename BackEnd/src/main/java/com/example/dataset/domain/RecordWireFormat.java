@@ -0,0 +1,61 @@
+package com.example.dataset.domain;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+
+import lombok.Getter;
+
+/**
+ * The encodings of the record query response, picked from the Accept header of the request.
+ */
+@Getter
+public enum RecordWireFormat {
+    // One object per datapoint, the default
+    JSON(MediaType.APPLICATION_JSON),
+
+    // One object per series with the days delta encoded and the values packed in an array
+    COLUMNAR_JSON(MediaType.parseMediaType("application/vnd.dataset.columnar+json")),
+
+    // The columnar shape encoded as CBOR, the values are written as 8 byte floats
+    COLUMNAR_CBOR(MediaType.parseMediaType("application/cbor"));
+
+    private final MediaType mediaType;
+
+    RecordWireFormat(MediaType mediaType) {
+        this.mediaType = mediaType;
+    }
+
+    /**
+     * Resolve the format from the Accept header, the first media type naming a compact format wins.
+     *
+     * @param accept the Accept header, may be null.
+     * @return the format, JSON when the header does not ask for a compact one.
+     */
+    public static RecordWireFormat fromAccept(String accept) {
+        if (accept == null || accept.isBlank()) {
+            return JSON;
+        }
+        List<MediaType> accepted;
+        try {
+            accepted = MediaType.parseMediaTypes(accept);
+        } catch (InvalidMediaTypeException e) {
+            return JSON;
+        }
+        // The sort is stable, the types of the same quality keep the order of the header
+        accepted = new ArrayList<>(accepted);
+        accepted.sort(Comparator.comparingDouble(MediaType::getQualityValue).reversed());
+        for (MediaType type : accepted) {
+            for (RecordWireFormat format : values()) {
+                // A wildcard is answered with the default
+                if (!type.isWildcardType() && !type.isWildcardSubtype() && format.mediaType.isCompatibleWith(type)) {
+                    return format;
+                }
+            }
+        }
+        return JSON;
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.dataset.domain;
+
+import java.util.Arrays;
+
+/**
+ * A growable series of (epoch millis, value) pairs kept in primitive arrays, so a long series costs 16 bytes
+ * per point instead of a record object per point.
+ */
+public class SeriesBuffer {
+    private long[] times;
+    private double[] values;
+    private int size;
+
+    public SeriesBuffer() {
+        this(64);
+    }
+
+    public SeriesBuffer(int capacity) {
+        this.times = new long[Math.max(1, capacity)];
+        this.values = new double[Math.max(1, capacity)];
+    }
+
+    public void add(long time, double value) {
+        if (size == times.length) {
+            int capacity = times.length * 2;
+            times = Arrays.copyOf(times, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        times[size] = time;
+        values[size] = value;
+        size++;
+    }
+
+    public long timeAt(int index) {
+        return times[index];
+    }
+
+    public double valueAt(int index) {
+        return values[index];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long[] getTimes() {
+        return times;
+    }
+
+    public double[] getValues() {
+        return values;
+    }
+}
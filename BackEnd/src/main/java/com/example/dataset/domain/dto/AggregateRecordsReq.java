@@ -0,0 +1,17 @@
+package com.example.dataset.domain.dto;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import com.example.dataset.domain.AggregationBucket;
+
+import lombok.Data;
+
+@Data
+public class AggregateRecordsReq {
+    private LocalDate startDate;
+    private LocalDate endDate;
+    private List<String> columns;
+    private String symbols;
+    private AggregationBucket bucket;
+}
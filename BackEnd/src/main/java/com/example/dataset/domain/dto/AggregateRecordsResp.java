@@ -0,0 +1,15 @@
+package com.example.dataset.domain.dto;
+
+import java.util.List;
+
+import com.example.dataset.domain.AggregationBucket;
+
+import lombok.Data;
+
+@Data
+public class AggregateRecordsResp {
+    private String datasetName;
+    private List<String> columns;
+    private AggregationBucket bucket;
+    private List<AggregatedDatapoint> records;
+}
@@ -0,0 +1,21 @@
+package com.example.dataset.domain.dto;
+
+import java.time.LocalDate;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class AggregatedDatapoint {
+    LocalDate recordedTime; // bucket start
+    String symbol; // series
+    String column; // metric
+    long count;
+    Double min;
+    Double max;
+    Double avg;
+    Double sum;
+    Double first;
+    Double last;
+}
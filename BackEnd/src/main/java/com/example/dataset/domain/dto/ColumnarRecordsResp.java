@@ -0,0 +1,105 @@
+package com.example.dataset.domain.dto;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import lombok.Data;
+
+/**
+ * The compact shape of {@link QueryRecordsResp}. The datapoints are grouped by symbol and column, so the
+ * names are sent once per series instead of once per point.
+ */
+@Data
+public class ColumnarRecordsResp {
+    private String datasetName;
+    private List<String> columns;
+    private List<Series> series;
+
+    @Data
+    public static class Series {
+        private String symbol;
+        private String column;
+
+        // The leading values without a recorded time, they have no entry in days
+        private int undated;
+
+        // The epoch day of the first dated value, then the days since the previous value
+        private int[] days;
+
+        private double[] values;
+    }
+
+    /**
+     * Group the datapoints into series, keeping the order the series and their points are met in.
+     *
+     * @param resp the row shaped response.
+     * @return the columnar response.
+     */
+    public static ColumnarRecordsResp from(QueryRecordsResp resp) {
+        Map<List<String>, SeriesBuilder> builders = new LinkedHashMap<>();
+        if (resp.getRecords() != null) {
+            for (Datapoint point : resp.getRecords()) {
+                builders.computeIfAbsent(Arrays.asList(point.getSymbol(), point.getColumn()),
+                                k -> new SeriesBuilder(point.getSymbol(), point.getColumn()))
+                        .add(point.getRecordedTime(), point.getValue());
+            }
+        }
+
+        List<Series> series = new ArrayList<>(builders.size());
+        for (SeriesBuilder builder : builders.values()) {
+            series.add(builder.build());
+        }
+
+        ColumnarRecordsResp out = new ColumnarRecordsResp();
+        out.setDatasetName(resp.getDatasetName());
+        out.setColumns(resp.getColumns());
+        out.setSeries(series);
+        return out;
+    }
+
+    private static final class SeriesBuilder {
+        private final String symbol;
+        private final String column;
+        private int undated;
+        private int[] days = new int[16];
+        private double[] values = new double[16];
+        private int size;
+        private long previousDay;
+
+        private SeriesBuilder(String symbol, String column) {
+            this.symbol = symbol;
+            this.column = column;
+        }
+
+        private void add(LocalDate recordedTime, Double value) {
+            if (size == values.length) {
+                days = Arrays.copyOf(days, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size] = value == null ? Double.NaN : value;
+            if (recordedTime == null) {
+                // The points without a time are sorted first, so they only ever lead the series
+                undated++;
+            } else {
+                long day = recordedTime.toEpochDay();
+                days[size - undated] = Math.toIntExact(size == undated ? day : day - previousDay);
+                previousDay = day;
+            }
+            size++;
+        }
+
+        private Series build() {
+            Series series = new Series();
+            series.setSymbol(symbol);
+            series.setColumn(column);
+            series.setUndated(undated);
+            series.setDays(Arrays.copyOf(days, size - undated));
+            series.setValues(Arrays.copyOf(values, size));
+            return series;
+        }
+    }
+}
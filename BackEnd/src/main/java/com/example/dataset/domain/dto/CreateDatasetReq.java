@@ -9,4 +9,7 @@ public class CreateDatasetReq {
     private String recordTimeColumnFormat;
     private String recordPrimaryIndexedColumnName;
     private String timezone;
+
+    // Skip the rows with the symbol and the time of a row already imported, off when null
+    private Boolean deduplicate;
 }
@@ -0,0 +1,17 @@
+package com.example.dataset.domain.dto;
+
+import java.util.List;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class QueryRecordsPageResp {
+    private String datasetName;
+    private List<String> columns;
+    private List<Datapoint> records;
+
+    // Null on the last page
+    private String nextCursor;
+}
@@ -3,6 +3,8 @@ package com.example.dataset.domain.dto;
 import java.time.LocalDate;
 import java.util.List;
 
+import com.example.dataset.domain.DownsampleMode;
+
 import lombok.Data;
 
 @Data
@@ -12,4 +14,10 @@ public class QueryRecordsReq {
     private LocalDate endDate;
     private List<String> columns;
     private String symbols;
+
+    // The maximum points per symbol and column, every record is returned when null
+    private Integer maxPoints;
+
+    // How the series are reduced to maxPoints, LTTB when null
+    private DownsampleMode downsample;
 }
\ No newline at end of file
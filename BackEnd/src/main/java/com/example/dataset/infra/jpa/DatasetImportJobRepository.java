@@ -2,6 +2,7 @@ package com.example.dataset.infra.jpa;
 
 import com.example.dataset.domain.DatasetImportJob;
 import com.example.dataset.domain.DatasetImportJobStatus;
+import com.example.dataset.domain.ImportUserLoad;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
@@ -28,6 +29,31 @@ public interface DatasetImportJobRepository extends JpaRepository<DatasetImportJ
             """, nativeQuery = true)
     List<DatasetImportJob> findPendingUploadedJobs(@Param("limit") int limit);
 
+    /**
+     * Lock the oldest waiting jobs for the claiming transaction. The rows locked by another instance are
+     * skipped instead of waited for, so the instances claim different jobs without blocking each other.
+     */
+    @Query(value = """
+            SELECT *
+            FROM dataset_import_job
+            WHERE status = 'PENDING'
+              AND stage = 'UPLOADED'
+            ORDER BY created_at ASC
+            LIMIT :limit
+            FOR UPDATE SKIP LOCKED
+            """, nativeQuery = true)
+    List<DatasetImportJob> lockPendingUploadedJobs(@Param("limit") int limit);
+
+    @Query(value = """
+            SELECT user_id AS userId,
+                   COUNT(*) AS runningJobs,
+                   COALESCE(SUM(file_size), 0) AS runningBytes
+            FROM dataset_import_job
+            WHERE status = 'RUNNING'
+            GROUP BY user_id
+            """, nativeQuery = true)
+    List<ImportUserLoad> findRunningLoadByUser();
+
     @Modifying
     @Transactional
     @Query(value = """
@@ -36,6 +62,7 @@ public interface DatasetImportJobRepository extends JpaRepository<DatasetImportJ
                 stage = 'IMPORTING',
                 worker_id = :workerId,
                 started_at = :startedAt,
+                heartbeat_at = :startedAt,
                 updated_at = :startedAt
             WHERE id = :id
               AND status = 'PENDING'
@@ -63,8 +90,8 @@ public interface DatasetImportJobRepository extends JpaRepository<DatasetImportJ
               SET status = 'FAILED',
                   stage = 'ERROR',
                   retry = retry + 1,
-                  last_error_code = :errorCode,
-                  last_error_message = :errorMessage,
+                  error_code = :errorCode,
+                  error_message = :errorMessage,
                   completed_at = :completedAt,
                   updated_at = :completedAt
               WHERE job_id = :jobId
@@ -75,6 +102,27 @@ public interface DatasetImportJobRepository extends JpaRepository<DatasetImportJ
     int markFailed(@Param("jobId") String jobId, @Param("errorCode") String errorCode, @Param("errorMessage") String errorMessage, @Param("completedAt") Instant completedAt);
 
 
+    /**
+     * Queue the failed job again, the checkpoint is kept so the next claim resumes from it.
+     */
+    @Modifying
+    @Transactional
+    @Query(value = """
+            UPDATE dataset_import_job
+            SET status = 'PENDING',
+                stage = 'UPLOADED',
+                worker_id = NULL,
+                started_at = NULL,
+                heartbeat_at = NULL,
+                retry = retry + 1,
+                error_code = :errorCode,
+                error_message = :errorMessage,
+                updated_at = :now
+            WHERE job_id = :jobId
+              AND status = 'RUNNING'
+            """, nativeQuery = true)
+    int requeueFailedJob(@Param("jobId") String jobId, @Param("errorCode") String errorCode, @Param("errorMessage") String errorMessage, @Param("now") Instant now);
+
     @Modifying
     @Transactional
     @Query(value = """
@@ -82,14 +130,27 @@ public interface DatasetImportJobRepository extends JpaRepository<DatasetImportJ
             SET processed_rows = :processedRows,
                 success_rows = :successRows,
                 failed_rows = :failedRows,
+                heartbeat_at = :updatedAt,
                 updated_at = :updatedAt
             WHERE job_id = :jobId
               AND status = 'RUNNING'
             """, nativeQuery = true)
     int updateProgress(@Param("jobId") String jobId, @Param("processedRows") long processedRows, @Param("successRows") long successRows, @Param("failedRows") long failedRows, @Param("updatedAt") Instant updatedAt);
 
-    // TODO ==============================================================================================================================
     @Modifying
+    @Transactional
+    @Query(value = """
+            UPDATE dataset_import_job
+            SET checkpoint = :checkpoint,
+                heartbeat_at = :updatedAt,
+                updated_at = :updatedAt
+            WHERE job_id = :jobId
+              AND status = 'RUNNING'
+            """, nativeQuery = true)
+    int saveCheckpoint(@Param("jobId") String jobId, @Param("checkpoint") String checkpoint, @Param("updatedAt") Instant updatedAt);
+
+    @Modifying
+    @Transactional
     @Query(value = """
             UPDATE dataset_import_job
             SET heartbeat_at = :now,
@@ -110,6 +171,7 @@ public interface DatasetImportJobRepository extends JpaRepository<DatasetImportJ
     List<DatasetImportJob> findStaleRunningJobs(@Param("deadline") Instant deadline, @Param("limit") int limit);
 
     @Modifying
+    @Transactional
     @Query(value = """
             UPDATE dataset_import_job
             SET worker_id = :watchdogId,
@@ -121,6 +183,7 @@ public interface DatasetImportJobRepository extends JpaRepository<DatasetImportJ
     int claimStaleJob(@Param("id") Long id, @Param("watchdogId") String watchdogId, @Param("deadline") Instant deadline, @Param("now") Instant now);
 
     @Modifying
+    @Transactional
     @Query(value = """
             UPDATE dataset_import_job
             SET status = 'PENDING',
@@ -128,27 +191,31 @@ public interface DatasetImportJobRepository extends JpaRepository<DatasetImportJ
                 worker_id = NULL,
                 started_at = NULL,
                 heartbeat_at = NULL,
-                retry_count = retry_count + 1,
-                last_error_code = :errorCode,
-                last_error_message = :errorMessage,
+                retry = retry + 1,
+                error_code = :errorCode,
+                error_message = :errorMessage,
                 updated_at = :now
             WHERE id = :id
               AND status = 'RUNNING'
+              AND worker_id = :watchdogId
             """, nativeQuery = true)
-    int requeueStaleJob(@Param("id") Long id, @Param("errorCode") String errorCode, @Param("errorMessage") String errorMessage, @Param("now") Instant now);
+    int requeueStaleJob(@Param("id") Long id, @Param("watchdogId") String watchdogId, @Param("errorCode") String errorCode, @Param("errorMessage") String errorMessage, @Param("now") Instant now);
 
     @Modifying
+    @Transactional
     @Query(value = """
             UPDATE dataset_import_job
             SET status = 'FAILED',
                 stage = 'ERROR',
                 worker_id = NULL,
-                finished_at = :now,
-                last_error_code = :errorCode,
-                last_error_message = :errorMessage,
+                retry = retry + 1,
+                completed_at = :now,
+                error_code = :errorCode,
+                error_message = :errorMessage,
                 updated_at = :now
             WHERE id = :id
               AND status = 'RUNNING'
+              AND worker_id = :watchdogId
             """, nativeQuery = true)
-    int markStaleJobFailed(@Param("id") Long id, @Param("errorCode") String errorCode, @Param("errorMessage") String errorMessage, @Param("now") Instant now);
+    int markStaleJobFailed(@Param("id") Long id, @Param("watchdogId") String watchdogId, @Param("errorCode") String errorCode, @Param("errorMessage") String errorMessage, @Param("now") Instant now);
 }
\ No newline at end of file
@@ -5,9 +5,12 @@ import java.util.List;
 import java.util.Optional;
 
 import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
+import org.springframework.data.mongodb.repository.Update;
 
 import com.example.dataset.domain.DatasetMetadata;
 import com.example.dataset.domain.DatasetStatus;
+import com.example.dataset.domain.VersionControl;
 
 public interface DatasetMetadataRepo extends MongoRepository<DatasetMetadata, String> {
     /**
@@ -42,4 +45,107 @@ public interface DatasetMetadataRepo extends MongoRepository<DatasetMetadata, St
      * @return the list of the datasets found.
      */
     List<DatasetMetadata> findByStatusInAndUpdatedAtBeforeAndObsoletedFalse(List<DatasetStatus> statuses, Instant cutoff);
-}
\ No newline at end of file
+
+    /**
+     * Find the datasets whose records are stored in an older layout, the datasets created before the
+     * layout was versioned do not have the field at all.
+     *
+     * @param version the current record format version.
+     *
+     * @return the list of the datasets to be migrated.
+     */
+    @Query("""
+            {
+                'obsoleted': false,
+                '$or': [
+                    { 'recordFormatVersion': { '$exists': false } },
+                    { 'recordFormatVersion': { '$lt': ?0 } }
+                ]
+            }
+            """)
+    List<DatasetMetadata> findByRecordFormatVersionBefore(int version);
+
+    /**
+     * Find the datasets in the status.
+     *
+     * @param status the status.
+     *
+     * @return the list of the datasets found.
+     */
+    List<DatasetMetadata> findByStatusAndObsoletedFalse(DatasetStatus status);
+
+    /**
+     * Move the dataset to the status only when it is still in the expected one, so a background job and an
+     * import can not both take the dataset.
+     *
+     * @param id        the dataset id.
+     * @param expected  the status the dataset must be in.
+     * @param status    the new status.
+     * @param updatedAt the time of the change.
+     *
+     * @return 1 if the status was changed, 0 otherwise.
+     */
+    @Query("{ '_id': ?0, 'status': ?1 }")
+    @Update("{ '$set': { 'status': ?2, 'updatedAt': ?3 } }")
+    long updateStatus(String id, DatasetStatus expected, DatasetStatus status, Instant updatedAt);
+
+    /**
+     * Stage the next version and move the dataset to the status only when it is still in the expected one,
+     * so an import and a background job can not both take the dataset.
+     *
+     * @param id        the dataset id.
+     * @param expected  the status the dataset must be in.
+     * @param status    the new status.
+     * @param staged    the staged version.
+     * @param updatedAt the time of the change.
+     *
+     * @return 1 if the version was staged, 0 otherwise.
+     */
+    @Query("{ '_id': ?0, 'status': ?1 }")
+    @Update("{ '$set': { 'status': ?2, 'staged': ?3, 'updatedAt': ?4 } }")
+    long stageVersion(String id, DatasetStatus expected, DatasetStatus status, VersionControl staged,
+                      Instant updatedAt);
+
+    /**
+     * Drop the staged version and move the dataset to the status, only when the import still holds the
+     * dataset with that staged version.
+     *
+     * @param id            the dataset id.
+     * @param stagedVersion the staged version of the import.
+     * @param status        the new status.
+     * @param updatedAt     the time of the change.
+     *
+     * @return 1 if the staged version was dropped, 0 otherwise.
+     */
+    @Query("{ '_id': ?0, 'status': 'UPLOADING', 'staged.version': ?1 }")
+    @Update("{ '$set': { 'status': ?2, 'updatedAt': ?3 }, '$unset': { 'staged': '' } }")
+    long dropStagedVersion(String id, Integer stagedVersion, DatasetStatus status, Instant updatedAt);
+
+    /**
+     * Record the finished compaction and give the dataset back, only when the compaction still holds it.
+     *
+     * @param id               the dataset id.
+     * @param compactedVersion the version the records were moved to.
+     * @param rolledUpVersion  the version the rollups are complete up to.
+     * @param updatedAt        the time of the change.
+     *
+     * @return 1 if the dataset was released, 0 otherwise.
+     */
+    @Query("{ '_id': ?0, 'status': 'COMPACTING' }")
+    @Update("{ '$set': { 'status': 'ACTIVE', 'compactedVersion': ?1, 'rolledUpVersion': ?2, 'updatedAt': ?3 } }")
+    long finishCompaction(String id, Integer compactedVersion, Integer rolledUpVersion, Instant updatedAt);
+
+    /**
+     * Record the finished record format migration and give the dataset back, only when the migration still
+     * holds it.
+     *
+     * @param id                  the dataset id.
+     * @param recordFormatVersion the record format the records are in now.
+     * @param updatedAt           the time of the change.
+     *
+     * @return 1 if the dataset was released, 0 otherwise.
+     */
+    @Query("{ '_id': ?0, 'status': 'MIGRATING' }")
+    @Update("{ '$set': { 'status': 'ACTIVE', 'recordFormatVersion': ?1, 'updatedAt': ?2 } }")
+    long finishMigration(String id, Integer recordFormatVersion, Instant updatedAt);
+}
@@ -71,5 +71,21 @@ public interface DatasetRecordRepo extends MongoRepository<DatasetRecord, String
      */
     long deleteByDatasetId(String datasetId);
 
-    long deleteByDatasetIdAndVersion(Long datasetId, Integer version);
-}
\ No newline at end of file
+    /**
+     * delete the records of one version of the dataset.
+     *
+     * @param datasetId the dataset id.
+     * @param version   the version.
+     * @return the deleted row number.
+     */
+    long deleteByDatasetIdAndVersion(String datasetId, Integer version);
+
+    /**
+     * Whether the dataset has records above the version, left by an import that was never committed.
+     *
+     * @param datasetId the dataset id.
+     * @param version   the current visible version.
+     * @return true if such records exist.
+     */
+    boolean existsByDatasetIdAndVersionGreaterThan(String datasetId, Integer version);
+}
@@ -1,10 +1,206 @@
 package com.example.dataset.infra.mongo;
 
+import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
-import java.util.Map;
+import java.util.stream.Stream;
 
+import org.bson.RawBsonDocument;
+
+import com.example.dataset.domain.AggregationBucket;
+import com.example.dataset.domain.ConvertedRecords;
 import com.example.dataset.domain.CreateCollectionDataProps;
+import com.example.dataset.domain.DatasetRecord;
+import com.example.dataset.domain.RecordAggregate;
+import com.example.dataset.domain.RecordCursor;
+import com.example.dataset.domain.ReclaimedRecords;
+import com.example.dataset.domain.RecordRowBatch;
 
 public interface DatasetRecordRepoCustom {
-    void bulkInsertRecords(List<Map<String, String>> rows, CreateCollectionDataProps dataRecordProps);
+    /**
+     * Encode the parsed csv rows to the record documents without writing them.
+     *
+     * @param rows            the parsed rows.
+     * @param dataRecordProps the props of the import.
+     * @return the documents to be inserted.
+     */
+    List<RawBsonDocument> toRecordDocuments(RecordRowBatch rows, CreateCollectionDataProps dataRecordProps);
+
+    /**
+     * Insert the record documents with one unordered bulk write. The documents rejected by the unique row key
+     * are skipped, any other write error fails the batch.
+     *
+     * @param docs the documents to be inserted.
+     * @return the number of the inserted documents.
+     */
+    long bulkInsertDocuments(List<RawBsonDocument> docs);
+
+    /**
+     * Delete the records of the import batches after the batch, the batch ids are the import id followed by
+     * the zero padded batch number.
+     *
+     * @param datasetId the dataset id.
+     * @param version   the staged version.
+     * @param importId  the id of the import the batches belong to.
+     * @param batchId   the id of the last batch kept.
+     * @return the deleted row number.
+     */
+    long deleteBatchesAfter(String datasetId, int version, String importId, String batchId);
+
+    /**
+     * Move at most limit records of the versions below the version to the version. The records stay visible
+     * to every reader of the version, the caller repeats until nothing is left to move.
+     *
+     * @param datasetId the dataset id.
+     * @param version   the version the records are moved to.
+     * @param limit     the maximum number of records moved by the call.
+     * @return the number of the moved records.
+     */
+    long relabelVersionsBelow(String datasetId, int version, int limit);
+
+    /**
+     * Delete at most limit records of the versions above the version, the caller repeats until nothing is
+     * left to delete.
+     *
+     * @param datasetId the dataset id.
+     * @param version   the highest version kept.
+     * @param limit     the maximum number of records deleted by the call.
+     * @return the number of the deleted records and their size.
+     */
+    ReclaimedRecords deleteVersionsAbove(String datasetId, int version, int limit);
+
+    /**
+     * Convert the metric values still stored as strings to doubles for at most limit records after the id,
+     * the values that are not numbers are kept. The caller repeats from the last id of the batch until the
+     * batch is empty.
+     *
+     * @param datasetId     the dataset id.
+     * @param metricColumns the upper case names of the metric columns.
+     * @param afterId       the id the batch starts after, from the first record when null.
+     * @param limit         the maximum number of records visited by the call.
+     * @return the visited and the converted records, and the last id of the batch.
+     */
+    ConvertedRecords convertMetricsToDouble(String datasetId, Collection<String> metricColumns, Object afterId,
+                                            int limit);
+
+    /**
+     * Find the records within the user-defined time range, sorted by the time and the indexed value. Only the
+     * requested data columns are read from mongo.
+     *
+     * @param datasetId     the dataset id.
+     * @param version       the current visible version.
+     * @param from          inclusive start time, unbounded when null.
+     * @param to            exclusive end time, unbounded when null.
+     * @param indexedValues indexed values to filter, all the values when null or empty.
+     * @param columns       the data columns to be returned.
+     * @return the list of found records.
+     */
+    List<DatasetRecord> findRecords(String datasetId,
+                                    Integer version,
+                                    Instant from,
+                                    Instant to,
+                                    List<String> indexedValues,
+                                    List<String> columns);
+
+    /**
+     * Open a cursor over the records within the user-defined time range, sorted by the time and the indexed
+     * value. The records are fetched from mongo batch by batch, the stream must be closed by the caller.
+     *
+     * @param datasetId       the dataset id.
+     * @param version         the current visible version.
+     * @param from            inclusive start time, unbounded when null.
+     * @param to              exclusive end time, unbounded when null.
+     * @param indexedValues   indexed values to filter, all the values when null or empty.
+     * @param columns         the data columns to be returned.
+     * @param cursorBatchSize the number of records fetched per round trip.
+     * @return the stream of the found records.
+     */
+    Stream<DatasetRecord> streamRecords(String datasetId,
+                                        Integer version,
+                                        Instant from,
+                                        Instant to,
+                                        List<String> indexedValues,
+                                        List<String> columns,
+                                        int cursorBatchSize);
+
+    /**
+     * Find one page of the visible records within the time range, ordered by the time, the indexed value and
+     * the id.
+     *
+     * @param datasetId     the dataset id.
+     * @param version       the visible version.
+     * @param from          inclusive start time, unbounded when null.
+     * @param to            exclusive end time, unbounded when null.
+     * @param indexedValues indexed values to filter, all the values when null or empty.
+     * @param columns       the data columns to be returned.
+     * @param after         the last record of the previous page, the first page when null.
+     * @param limit         the maximum number of records.
+     * @return the records of the page.
+     */
+    List<DatasetRecord> findRecordPage(String datasetId,
+                                       Integer version,
+                                       Instant from,
+                                       Instant to,
+                                       List<String> indexedValues,
+                                       List<String> columns,
+                                       RecordCursor after,
+                                       int limit);
+
+    /**
+     * Open a cursor over every visible record of the dataset, sorted by the indexed value and then by the
+     * time. The stream must be closed by the caller.
+     *
+     * @param datasetId       the dataset id.
+     * @param version         the current visible version.
+     * @param columns         the data columns to be returned.
+     * @param cursorBatchSize the number of records fetched per round trip.
+     * @return the stream of the records.
+     */
+    Stream<DatasetRecord> streamSeries(String datasetId,
+                                       Integer version,
+                                       List<String> columns,
+                                       int cursorBatchSize);
+
+    /**
+     * Aggregate the metric columns per time bucket and per indexed value inside mongo, so only the
+     * statistics are sent over the wire.
+     *
+     * @param datasetId     the dataset id.
+     * @param version       the current visible version.
+     * @param from          inclusive start time, unbounded when null.
+     * @param to            exclusive end time, unbounded when null.
+     * @param indexedValues indexed values to filter, all the values when null or empty.
+     * @param columns       the metric columns to be aggregated.
+     * @param bucket        the width of the time buckets.
+     * @param timezone      the timezone the buckets are aligned to, UTC when null.
+     * @return the statistics sorted by the bucket and the indexed value.
+     */
+    List<RecordAggregate> aggregateRecords(String datasetId,
+                                           Integer version,
+                                           Instant from,
+                                           Instant to,
+                                           List<String> indexedValues,
+                                           List<String> columns,
+                                           AggregationBucket bucket,
+                                           String timezone);
+
+    /**
+     * Stream the aggregates of the metric columns of exactly one version per time bucket and per indexed
+     * value, used to build the rollups of the version. The groups are read from the cursor a batch at a
+     * time and come in no particular order, the stream must be closed.
+     *
+     * @param datasetId       the dataset id.
+     * @param version         the version to be aggregated.
+     * @param columns         the metric columns to be aggregated.
+     * @param bucket          the width of the time buckets.
+     * @param timezone        the timezone the buckets are aligned to, UTC when null.
+     * @param cursorBatchSize the number of groups fetched per round trip.
+     * @return the statistics, one per group and column.
+     */
+    Stream<RecordAggregate> streamVersionAggregates(String datasetId,
+                                                    Integer version,
+                                                    List<String> columns,
+                                                    AggregationBucket bucket,
+                                                    String timezone,
+                                                    int cursorBatchSize);
 }
@@ -2,22 +2,48 @@ package com.example.dataset.infra.mongo;
 
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
-import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
 import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.conversions.Bson;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Repository;
 
+import com.example.dataset.domain.AggregationBucket;
+import com.example.dataset.domain.ConvertedRecords;
 import com.example.dataset.domain.CreateCollectionDataProps;
 import com.example.dataset.domain.DatasetRecord;
+import com.example.dataset.domain.RecordAggregate;
+import com.example.dataset.domain.RecordCursor;
+import com.example.dataset.domain.ReclaimedRecords;
+import com.example.dataset.domain.RecordRowBatch;
 import com.example.utils.DateParser;
+import com.example.utils.RecordTimeParser;
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Aggregates;
 import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
 import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Updates;
 import com.mongodb.client.model.WriteModel;
+import com.mongodb.client.result.UpdateResult;
 
 import lombok.RequiredArgsConstructor;
 
@@ -26,48 +52,346 @@ import lombok.RequiredArgsConstructor;
 public class DatasetRecordRepoImpl implements DatasetRecordRepoCustom {
     private static final Logger logger = LoggerFactory.getLogger(DatasetRecordRepoImpl.class);
 
+    // The group key fields of the aggregated query
+    private static final String BUCKET = "bucket";
+    private static final String SYMBOL = "symbol";
+
     private final MongoTemplate mongo;
     private final DateParser dateParser;
 
-    // TODO: currently I only consider insert situation, if the user insert multiple
-    // same CSV files, we need to deduplicate the related records
     @Override
-    public void bulkInsertRecords(List<Map<String, String>> rows, CreateCollectionDataProps dataProps) {
-        MongoCollection<Document> coll = mongo.getCollection(MongoKeys.Record.TABLE_NAME);
-        List<WriteModel<Document>> batch = new ArrayList<>(rows.size());
+    public List<RawBsonDocument> toRecordDocuments(RecordRowBatch rows, CreateCollectionDataProps dataProps) {
+        List<RawBsonDocument> docs = new ArrayList<>(rows.size());
 
         Instant now = Instant.now();
+        int timeColumn = rows.getSchema().getTimeColumnIndex();
+        RecordTimeParser timeParser = dataProps.getRecordTimeParser() != null
+                ? dataProps.getRecordTimeParser()
+                : DateParser.recordTimeParser(dataProps.getRecordTimeColumnFormat(), dataProps.getTimezone());
+
+        for (int i = 0; i < rows.size(); i++) {
+            Instant recordedTime = timeParser.parse(rows.get(i, timeColumn));
+            docs.add(RecordBsonEncoder.encode(rows, i, dataProps, recordedTime, now));
+        }
+        return docs;
+    }
 
-        for (Map<String, String> row : rows) {
-            Instant recordedTime = DateParser.parseRecordTime(row.get(dataProps.getRecordTimeColumnName()), dataProps.getRecordTimeColumnFormat(), dataProps.getTimezone());
-            DatasetRecord record = DatasetRecord.builder()
-                    .datasetId(dataProps.getDatasetId())
-                    .version(dataProps.getVersion())
-                    .systemCreatedAt(now)
-                    .userDefinedTime(recordedTime)
-                    .batchId(dataProps.getBatchId())
-                    .indexedValue(row.get(dataProps.getRecordPrimaryIndexedColumnName()))
-                    .build();
-
-            // Insert the batch into the mongo db
-            Document doc = toDocument(record, row);
+    @Override
+    public long bulkInsertDocuments(List<RawBsonDocument> docs) {
+        if (docs.isEmpty()) {
+            return 0;
+        }
+        MongoCollection<RawBsonDocument> coll = mongo.getCollection(MongoKeys.Record.TABLE_NAME)
+                .withDocumentClass(RawBsonDocument.class);
+        List<WriteModel<RawBsonDocument>> batch = new ArrayList<>(docs.size());
+        for (RawBsonDocument doc : docs) {
             batch.add(new InsertOneModel<>(doc));
         }
-        if (!batch.isEmpty()) {
-            coll.bulkWrite(batch, new BulkWriteOptions().ordered(false));
-            batch.clear();
+        try {
+            return coll.bulkWrite(batch, new BulkWriteOptions().ordered(false)).getInsertedCount();
+        } catch (MongoBulkWriteException e) {
+            // The unordered write goes on past the rejected rows, only the duplicate keys are expected
+            for (BulkWriteError error : e.getWriteErrors()) {
+                if (error.getCategory() != ErrorCategory.DUPLICATE_KEY) {
+                    throw e;
+                }
+            }
+            return e.getWriteResult().getInsertedCount();
+        }
+    }
+
+    @Override
+    public long deleteBatchesAfter(String datasetId, int version, String importId, String batchId) {
+        // The batch numbers are digits, every id of the import sorts below the prefix followed by ':'
+        return mongo.getCollection(MongoKeys.Record.TABLE_NAME)
+                .deleteMany(Filters.and(
+                        Filters.eq(MongoKeys.Record.DATASET_ID, datasetId),
+                        Filters.eq(MongoKeys.Record.VERSION, version),
+                        Filters.gt(MongoKeys.Record.BATCH_ID, batchId),
+                        Filters.lt(MongoKeys.Record.BATCH_ID, importId + "-:")))
+                .getDeletedCount();
+    }
+
+    @Override
+    public long relabelVersionsBelow(String datasetId, int version, int limit) {
+        MongoCollection<Document> coll = mongo.getCollection(MongoKeys.Record.TABLE_NAME);
+        Bson below = Filters.and(
+                Filters.eq(MongoKeys.Record.DATASET_ID, datasetId),
+                Filters.lt(MongoKeys.Record.VERSION, version));
+
+        // One bounded scan of the version index picks the batch, the records already moved drop out of it
+        List<Object> ids = new ArrayList<>(limit);
+        for (Document doc : coll.find(below).projection(Projections.include(MongoKeys.Record.ID)).limit(limit)) {
+            ids.add(doc.get(MongoKeys.Record.ID));
+        }
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        return coll.updateMany(Filters.and(Filters.in(MongoKeys.Record.ID, ids), below),
+                Updates.set(MongoKeys.Record.VERSION, version)).getModifiedCount();
+    }
+
+    @Override
+    public ReclaimedRecords deleteVersionsAbove(String datasetId, int version, int limit) {
+        MongoCollection<Document> coll = mongo.getCollection(MongoKeys.Record.TABLE_NAME);
+        Bson above = Filters.and(
+                Filters.eq(MongoKeys.Record.DATASET_ID, datasetId),
+                Filters.gt(MongoKeys.Record.VERSION, version));
+
+        List<Bson> pipeline = List.of(
+                Aggregates.match(above),
+                Aggregates.limit(limit),
+                Aggregates.project(Projections.computed("size", new Document("$bsonSize", "$$ROOT"))));
+        List<Object> ids = new ArrayList<>(limit);
+        long bytes = 0;
+        for (Document doc : coll.aggregate(pipeline)) {
+            ids.add(doc.get(MongoKeys.Record.ID));
+            bytes += ((Number) doc.get("size")).longValue();
+        }
+        if (ids.isEmpty()) {
+            return new ReclaimedRecords(0, 0);
+        }
+        long deleted = coll.deleteMany(Filters.and(Filters.in(MongoKeys.Record.ID, ids), above)).getDeletedCount();
+        return new ReclaimedRecords(deleted, bytes);
+    }
+
+    @Override
+    public ConvertedRecords convertMetricsToDouble(String datasetId, Collection<String> metricColumns,
+                                                   Object afterId, int limit) {
+        Document set = new Document();
+        for (String column : metricColumns) {
+            // The dotted or $ prefixed names can not be addressed by a pipeline update
+            if (column.indexOf('.') >= 0 || column.startsWith("$")) {
+                logger.warn("Skip migrating metric column. datasetId={}, column={}", datasetId, column);
+                continue;
+            }
+            String path = "$" + MongoKeys.Record.DATA + "." + column;
+            Document stripped = replaceAll(replaceAll(path, ","), "%");
+            Document converted = new Document("$convert", new Document("input", stripped)
+                    .append("to", "double")
+                    .append("onError", path)
+                    .append("onNull", null));
+            set.append(MongoKeys.Record.DATA + "." + column, new Document("$cond", List.of(
+                    new Document("$eq", List.of(new Document("$type", path), "string")),
+                    converted,
+                    path)));
+        }
+        if (set.isEmpty()) {
+            return new ConvertedRecords(0, 0, null);
+        }
+
+        // The batch is the next id range of the dataset, walked on the id index so every batch starts where
+        // the previous one stopped
+        MongoCollection<Document> coll = mongo.getCollection(MongoKeys.Record.TABLE_NAME);
+        Bson dataset = Filters.eq(MongoKeys.Record.DATASET_ID, datasetId);
+        Bson range = afterId == null ? dataset : Filters.and(dataset, Filters.gt(MongoKeys.Record.ID, afterId));
+        List<Object> ids = new ArrayList<>(limit);
+        for (Document doc : coll.find(range)
+                .projection(Projections.include(MongoKeys.Record.ID))
+                .sort(new Document(MongoKeys.Record.ID, 1))
+                .hint(new Document(MongoKeys.Record.ID, 1))
+                .limit(limit)) {
+            ids.add(doc.get(MongoKeys.Record.ID));
+        }
+        if (ids.isEmpty()) {
+            return new ConvertedRecords(0, 0, null);
+        }
+
+        List<Document> pipeline = List.of(new Document("$set", set));
+        UpdateResult result = coll.updateMany(Filters.and(dataset, Filters.in(MongoKeys.Record.ID, ids)), pipeline);
+        return new ConvertedRecords(ids.size(), result.getModifiedCount(), ids.get(ids.size() - 1));
+    }
+
+    @Override
+    public List<DatasetRecord> findRecords(String datasetId,
+                                           Integer version,
+                                           Instant from,
+                                           Instant to,
+                                           List<String> indexedValues,
+                                           List<String> columns) {
+        Query query = RecordQueries.recordQuery(datasetId, version, from, to, indexedValues, columns);
+        return mongo.find(query, DatasetRecord.class);
+    }
+
+    @Override
+    public Stream<DatasetRecord> streamRecords(String datasetId,
+                                               Integer version,
+                                               Instant from,
+                                               Instant to,
+                                               List<String> indexedValues,
+                                               List<String> columns,
+                                               int cursorBatchSize) {
+        Query query = RecordQueries.recordQuery(datasetId, version, from, to, indexedValues, columns)
+                .cursorBatchSize(cursorBatchSize);
+        return mongo.stream(query, DatasetRecord.class);
+    }
+
+    @Override
+    public List<DatasetRecord> findRecordPage(String datasetId,
+                                              Integer version,
+                                              Instant from,
+                                              Instant to,
+                                              List<String> indexedValues,
+                                              List<String> columns,
+                                              RecordCursor after,
+                                              int limit) {
+        Query query = RecordQueries.pageQuery(datasetId, version, from, to, indexedValues, columns, after, limit);
+        return mongo.find(query, DatasetRecord.class);
+    }
+
+    @Override
+    public Stream<DatasetRecord> streamSeries(String datasetId,
+                                              Integer version,
+                                              List<String> columns,
+                                              int cursorBatchSize) {
+        Query query = RecordQueries.seriesQuery(datasetId, version, columns)
+                .cursorBatchSize(cursorBatchSize);
+        return mongo.stream(query, DatasetRecord.class);
+    }
+
+    @Override
+    public List<RecordAggregate> aggregateRecords(String datasetId,
+                                                  Integer version,
+                                                  Instant from,
+                                                  Instant to,
+                                                  List<String> indexedValues,
+                                                  List<String> columns,
+                                                  AggregationBucket bucket,
+                                                  String timezone) {
+        return aggregate(RecordQueries.recordCriteria(datasetId, version, from, to, indexedValues), columns, bucket, timezone);
+    }
+
+    @Override
+    public Stream<RecordAggregate> streamVersionAggregates(String datasetId,
+                                                           Integer version,
+                                                           List<String> columns,
+                                                           AggregationBucket bucket,
+                                                           String timezone,
+                                                           int cursorBatchSize) {
+        MongoCursor<Document> cursor = mongo.getCollection(MongoKeys.Record.TABLE_NAME)
+                .aggregate(aggregatePipeline(RecordQueries.versionCriteria(datasetId, version), columns, bucket,
+                        timezone, false))
+                .allowDiskUse(true)
+                .batchSize(cursorBatchSize)
+                .cursor();
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(cursor, Spliterator.ORDERED), false)
+                .onClose(cursor::close)
+                .flatMap(doc -> toAggregates(doc, columns).stream());
+    }
+
+    /**
+     * Group the matched records per time bucket and indexed value. The first and the last value are picked
+     * as the smallest and the largest [time, version, value] triple, so the records do not have to be sorted
+     * first. On the same time the earlier version is first and the later version is last, like the rollups.
+     */
+    private List<RecordAggregate> aggregate(Criteria match,
+                                            List<String> columns,
+                                            AggregationBucket bucket,
+                                            String timezone) {
+        List<RecordAggregate> out = new ArrayList<>();
+        for (Document doc : mongo.getCollection(MongoKeys.Record.TABLE_NAME)
+                .aggregate(aggregatePipeline(match, columns, bucket, timezone, true))
+                .allowDiskUse(true)) {
+            out.addAll(toAggregates(doc, columns));
         }
+        return out;
+    }
+
+    /**
+     * The aggregation grouping the matched records per time bucket and indexed value, sorted by both only
+     * when the caller needs the order.
+     */
+    private static List<Document> aggregatePipeline(Criteria match,
+                                                    List<String> columns,
+                                                    AggregationBucket bucket,
+                                                    String timezone,
+                                                    boolean sorted) {
+        Document dateTrunc = new Document("date", "$" + MongoKeys.Record.USER_DEFINED_TIME)
+                .append("unit", bucket.getUnit())
+                .append("timezone", timezone == null || timezone.isBlank() ? "UTC" : timezone.trim())
+                .append("startOfWeek", "monday");
+        Document group = new Document("_id", new Document()
+                .append(BUCKET, new Document("$dateTrunc", dateTrunc))
+                .append(SYMBOL, "$" + MongoKeys.Record.INDEXED_VALUE));
+
+        for (int i = 0; i < columns.size(); i++) {
+            // The datasets not migrated yet hold strings, the values that are not numbers are ignored
+            Document value = new Document("$convert", new Document("input", "$" + MongoKeys.Record.DATA + "." + columns.get(i))
+                    .append("to", "double")
+                    .append("onError", null)
+                    .append("onNull", null));
+            Document isNumber = new Document("$eq", List.of(new Document("$type", value), "double"));
+            Document timedValue = new Document("$cond", Arrays.asList(
+                    isNumber, List.of("$" + MongoKeys.Record.USER_DEFINED_TIME, "$" + MongoKeys.Record.VERSION, value),
+                    null));
+            String prefix = "c" + i + "_";
+            group.append(prefix + "count", new Document("$sum", new Document("$cond", List.of(isNumber, 1, 0))))
+                    .append(prefix + "min", new Document("$min", value))
+                    .append(prefix + "max", new Document("$max", value))
+                    .append(prefix + "sum", new Document("$sum", value))
+                    .append(prefix + "first", new Document("$min", timedValue))
+                    .append(prefix + "last", new Document("$max", timedValue));
+        }
+
+        List<Document> pipeline = new ArrayList<>(3);
+        pipeline.add(new Document("$match", match.getCriteriaObject()));
+        pipeline.add(new Document("$group", group));
+        if (sorted) {
+            pipeline.add(new Document("$sort", new Document("_id." + BUCKET, 1).append("_id." + SYMBOL, 1)));
+        }
+        return pipeline;
+    }
+
+    /**
+     * The aggregates of one group, one per column in the column order.
+     */
+    private static List<RecordAggregate> toAggregates(Document doc, List<String> columns) {
+        List<RecordAggregate> out = new ArrayList<>(columns.size());
+        Document id = doc.get("_id", Document.class);
+        Date bucketStart = id.getDate(BUCKET);
+        for (int i = 0; i < columns.size(); i++) {
+            String prefix = "c" + i + "_";
+            Number count = doc.get(prefix + "count", Number.class);
+            if (count == null || count.longValue() == 0) {
+                out.add(RecordAggregate.builder()
+                        .bucketStart(bucketStart == null ? null : bucketStart.toInstant())
+                        .symbol(id.getString(SYMBOL))
+                        .column(columns.get(i))
+                        .build());
+                continue;
+            }
+            List<?> first = doc.getList(prefix + "first", Object.class);
+            List<?> last = doc.getList(prefix + "last", Object.class);
+            Double sum = toDouble(doc.get(prefix + "sum"));
+            out.add(RecordAggregate.builder()
+                    .bucketStart(bucketStart == null ? null : bucketStart.toInstant())
+                    .symbol(id.getString(SYMBOL))
+                    .column(columns.get(i))
+                    .count(count.longValue())
+                    .min(toDouble(doc.get(prefix + "min")))
+                    .max(toDouble(doc.get(prefix + "max")))
+                    .sum(sum)
+                    .avg(sum == null ? null : sum / count.longValue())
+                    .firstTime(toInstant(first.get(0)))
+                    .first(toDouble(first.get(2)))
+                    .lastTime(toInstant(last.get(0)))
+                    .last(toDouble(last.get(2)))
+                    .build());
+        }
+        return out;
+    }
+
+    private static Double toDouble(Object value) {
+        return value instanceof Number number ? number.doubleValue() : null;
+    }
+
+    private static Instant toInstant(Object value) {
+        return value instanceof Date date ? date.toInstant() : null;
     }
 
-    private Document toDocument(DatasetRecord record, Map<String, String> row) {
-        Document doc = new Document()
-                .append(MongoKeys.Record.DATASET_ID, record.getDatasetId())
-                .append(MongoKeys.Record.VERSION, record.getVersion())
-                .append(MongoKeys.Record.BATCH_ID, record.getBatchId())
-                .append(MongoKeys.Record.USER_DEFINED_TIME, record.getUserDefinedTime())
-                .append(MongoKeys.Record.SYSTEM_CREATED_AT, record.getSystemCreatedAt())
-                .append(MongoKeys.Record.INDEXED_VALUE, record.getIndexedValue())
-                .append(MongoKeys.Record.DATA, new Document(row));
-        return doc;
+    private static Document replaceAll(Object input, String find) {
+        return new Document("$replaceAll", new Document("input", input)
+                .append("find", find)
+                .append("replacement", ""));
     }
-}
\ No newline at end of file
+}
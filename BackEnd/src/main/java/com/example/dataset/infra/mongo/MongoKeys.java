@@ -18,6 +18,10 @@ public interface MongoKeys {
         final String TIME_PATTERN = "datePattern";
         final String OBSOLETED = "obsoleted";
         final String OBSOLETED_AT = "obsoleted_at";
+        final String RECORD_FORMAT_VERSION = "recordFormatVersion";
+        final String ROLLED_UP_VERSION = "rolledUpVersion";
+        final String DEDUPLICATE = "deduplicate";
+        final String COMPACTED_VERSION = "compactedVersion";
 
         // Record indexes
         final String RECORD_SYMBOL_NAME = "recordSymbolName";
@@ -27,6 +31,7 @@ public interface MongoKeys {
 
     interface Record {
         final String TABLE_NAME = "records";
+        final String ID = "_id";
         final String DATASET_ID = "datasetId";
         final String DATA = "data";
         final String VERSION = "version";
@@ -34,5 +39,17 @@ public interface MongoKeys {
         final String USER_DEFINED_TIME = "userDefinedTime";
         final String SYSTEM_CREATED_AT = "systemCreatedAt";
         final String INDEXED_VALUE = "indexedColumn";
+        final String ROW_KEY = "rowKey";
+    }
+
+    interface Rollup {
+        final String TABLE_NAME = "record_rollups";
+        final String ID = "_id";
+        final String DATASET_ID = "datasetId";
+        final String VERSION = "version";
+        final String BUCKET = "bucket";
+        final String BUCKET_START = "bucketStart";
+        final String INDEXED_VALUE = "indexedColumn";
+        final String COLUMN = "column";
     }
 }
@@ -0,0 +1,145 @@
+package com.example.dataset.infra.mongo;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.Arrays;
+
+import org.bson.BsonBinary;
+import org.bson.BsonBinaryWriter;
+import org.bson.RawBsonDocument;
+import org.bson.io.BasicOutputBuffer;
+import org.bson.types.ObjectId;
+
+import com.example.dataset.domain.CreateCollectionDataProps;
+import com.example.dataset.domain.RecordRowBatch;
+import com.example.utils.TokenScanner;
+
+/**
+ * Encode the imported rows straight to BSON, without building a map or a {@link org.bson.Document} per row.
+ * The metric columns are written as doubles, the other columns as strings.
+ */
+public final class RecordBsonEncoder {
+    // The initial size of the output buffer, it grows when the row is wider
+    private static final int INITIAL_BUFFER_SIZE = 256;
+
+    private static final int ROW_KEY_BYTES = 16;
+
+    // The encoders run on the pipeline threads, one digest per thread
+    private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    });
+
+    private RecordBsonEncoder() {
+    }
+
+    /**
+     * Encode one row of the batch to a record document.
+     *
+     * @param batch        the row batch.
+     * @param row          the row index in the batch.
+     * @param dataProps    the props of the import.
+     * @param recordedTime the parsed user defined time, may be null.
+     * @param now          the system creation time.
+     * @return the encoded document.
+     */
+    public static RawBsonDocument encode(RecordRowBatch batch,
+                                         int row,
+                                         CreateCollectionDataProps dataProps,
+                                         Instant recordedTime,
+                                         Instant now) {
+        String[] columnNames = batch.getSchema().getColumnNames();
+        BasicOutputBuffer buffer = new BasicOutputBuffer(INITIAL_BUFFER_SIZE);
+        try (BsonBinaryWriter writer = new BsonBinaryWriter(buffer)) {
+            writer.writeStartDocument();
+            writer.writeObjectId("_id", new ObjectId());
+            writeString(writer, MongoKeys.Record.DATASET_ID, dataProps.getDatasetId());
+            writer.writeInt32(MongoKeys.Record.VERSION, dataProps.getVersion());
+            writeString(writer, MongoKeys.Record.BATCH_ID,
+                    batch.getBatchId() != null ? batch.getBatchId() : dataProps.getBatchId());
+            writeDateTime(writer, MongoKeys.Record.USER_DEFINED_TIME, recordedTime);
+            writeDateTime(writer, MongoKeys.Record.SYSTEM_CREATED_AT, now);
+            String indexedValue = batch.get(row, batch.getSchema().getIndexedColumnIndex());
+            writeString(writer, MongoKeys.Record.INDEXED_VALUE, indexedValue);
+            // The rows without a time are never deduplicated, they have no key to compare
+            if (dataProps.isDeduplicate() && recordedTime != null) {
+                writer.writeBinaryData(MongoKeys.Record.ROW_KEY, new BsonBinary(rowKey(indexedValue, recordedTime)));
+            }
+
+            writer.writeStartDocument(MongoKeys.Record.DATA);
+            for (int i = 0; i < columnNames.length; i++) {
+                String value = batch.get(row, i);
+                if (batch.getSchema().isMetric(i)) {
+                    writeMetric(writer, columnNames[i], value);
+                } else {
+                    writeString(writer, columnNames[i], value);
+                }
+            }
+            writer.writeEndDocument();
+
+            writer.writeEndDocument();
+        }
+        return new RawBsonDocument(buffer.getInternalBuffer(), 0, buffer.getPosition());
+    }
+
+    /**
+     * The stable key of a row, the first 128 bits of the SHA-256 of the indexed value and the time. The
+     * dataset id is not hashed, the unique index starts with it.
+     *
+     * @param indexedValue the indexed value, may be null.
+     * @param recordedTime the user defined time.
+     * @return the 16 bytes key.
+     */
+    public static byte[] rowKey(String indexedValue, Instant recordedTime) {
+        MessageDigest digest = DIGEST.get();
+        digest.reset();
+        if (indexedValue != null) {
+            digest.update((byte) 1);
+            digest.update(indexedValue.getBytes(StandardCharsets.UTF_8));
+        } else {
+            digest.update((byte) 0);
+        }
+        long millis = recordedTime.toEpochMilli();
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            digest.update((byte) (millis >>> shift));
+        }
+        return Arrays.copyOf(digest.digest(), ROW_KEY_BYTES);
+    }
+
+    private static void writeString(BsonBinaryWriter writer, String name, String value) {
+        if (value == null) {
+            writer.writeNull(name);
+        } else {
+            writer.writeString(name, value);
+        }
+    }
+
+    /**
+     * Write the metric as a double, the values that are not numbers are kept as they are.
+     */
+    private static void writeMetric(BsonBinaryWriter writer, String name, String value) {
+        if (value == null || value.isBlank()) {
+            writer.writeNull(name);
+            return;
+        }
+        double number = TokenScanner.parseNumber(value);
+        if (Double.isNaN(number)) {
+            writer.writeString(name, value);
+        } else {
+            writer.writeDouble(name, number);
+        }
+    }
+
+    private static void writeDateTime(BsonBinaryWriter writer, String name, Instant value) {
+        if (value == null) {
+            writer.writeNull(name);
+        } else {
+            writer.writeDateTime(name, value.toEpochMilli());
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.dataset.infra.mongo;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.Document;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexDefinition;
+import org.springframework.data.mongodb.core.index.IndexField;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.index.IndexResolver;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.stereotype.Component;
+
+import com.example.dataset.domain.DatasetMetadata;
+import com.example.dataset.domain.DatasetRecord;
+import com.example.dataset.domain.RecordRollup;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Create and validate the mongo indexes at startup. The index definitions are the {@code @CompoundIndex}
+ * annotations of the documents, the auto index creation of spring is off so nothing else creates them.
+ * An index with the expected name but other keys is dropped and created again, the retired indexes are
+ * dropped. The application does not start when an index is still missing afterwards.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class RecordIndexManager {
+    // The documents whose indexes are managed
+    private static final List<Class<?>> DOCUMENTS = List.of(
+            DatasetMetadata.class,
+            DatasetRecord.class,
+            RecordRollup.class);
+
+    // The indexes replaced by the current definitions
+    private static final Map<Class<?>, List<String>> RETIRED = Map.of(
+            DatasetRecord.class, List.of(
+                    "idx_dataset_version_user_time",
+                    "idx_dataset_version_indexed_column_user_time",
+                    "idx_dataset_time_indexed_column_version"));
+
+    private final MongoTemplate mongo;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void ensureIndexes() {
+        MongoMappingContext mappingContext = (MongoMappingContext) mongo.getConverter().getMappingContext();
+        IndexResolver resolver = new MongoPersistentEntityIndexResolver(mappingContext);
+
+        for (Class<?> document : DOCUMENTS) {
+            IndexOperations ops = mongo.indexOps(document);
+            Map<String, IndexInfo> existing = byName(ops.getIndexInfo());
+
+            for (String retired : RETIRED.getOrDefault(document, List.of())) {
+                if (existing.remove(retired) != null) {
+                    log.info("[MONGO-INDEX] Dropping retired index. collection={}, index={}",
+                            mongo.getCollectionName(document), retired);
+                    ops.dropIndex(retired);
+                }
+            }
+
+            for (IndexDefinition definition : resolver.resolveIndexFor(document)) {
+                String name = definition.getIndexOptions().getString("name");
+                IndexInfo current = existing.get(name);
+                if (current != null && !sameKeys(current, definition.getIndexKeys())) {
+                    log.warn("[MONGO-INDEX] Index keys changed, recreating. collection={}, index={}, keys={}",
+                            mongo.getCollectionName(document), name, definition.getIndexKeys());
+                    ops.dropIndex(name);
+                }
+                ops.ensureIndex(definition);
+            }
+
+            validate(document, ops, resolver);
+        }
+    }
+
+    private void validate(Class<?> document, IndexOperations ops, IndexResolver resolver) {
+        Map<String, IndexInfo> created = byName(ops.getIndexInfo());
+        for (IndexDefinition definition : resolver.resolveIndexFor(document)) {
+            String name = definition.getIndexOptions().getString("name");
+            IndexInfo info = created.get(name);
+            if (info == null || !sameKeys(info, definition.getIndexKeys())) {
+                throw new IllegalStateException("Mongo index " + name + " on "
+                        + mongo.getCollectionName(document) + " does not match " + definition.getIndexKeys());
+            }
+        }
+        log.info("[MONGO-INDEX] Indexes verified. collection={}, indexes={}",
+                mongo.getCollectionName(document), created.keySet());
+    }
+
+    private static Map<String, IndexInfo> byName(List<IndexInfo> indexes) {
+        Map<String, IndexInfo> out = new HashMap<>();
+        for (IndexInfo index : indexes) {
+            out.put(index.getName(), index);
+        }
+        return out;
+    }
+
+    /**
+     * Compare the keys in order, only the ascending and the descending keys are used by the documents.
+     */
+    static boolean sameKeys(IndexInfo info, Document keys) {
+        List<IndexField> fields = info.getIndexFields();
+        if (fields.size() != keys.size()) {
+            return false;
+        }
+        Iterator<Map.Entry<String, Object>> expected = keys.entrySet().iterator();
+        for (IndexField field : fields) {
+            Map.Entry<String, Object> key = expected.next();
+            if (!field.getKey().equals(key.getKey())) {
+                return false;
+            }
+            Sort.Direction direction = key.getValue() instanceof Number n && n.intValue() < 0
+                    ? Sort.Direction.DESC
+                    : Sort.Direction.ASC;
+            if (field.getDirection() != direction) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
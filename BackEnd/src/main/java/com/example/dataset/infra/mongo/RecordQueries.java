@@ -0,0 +1,188 @@
+package com.example.dataset.infra.mongo;
+
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+
+import org.bson.types.ObjectId;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Field;
+import org.springframework.data.mongodb.core.query.Query;
+
+import com.example.dataset.domain.AggregationBucket;
+import com.example.dataset.domain.RecordCursor;
+
+/**
+ * The queries of the record and the rollup collections. They are kept in one place so the query plan tests
+ * check exactly the shapes the repositories send.
+ */
+public final class RecordQueries {
+
+    private RecordQueries() {
+    }
+
+    /**
+     * Build the record query, only the time, the indexed value and the requested data columns are returned.
+     */
+    public static Query recordQuery(String datasetId,
+                                    Integer version,
+                                    Instant from,
+                                    Instant to,
+                                    List<String> indexedValues,
+                                    List<String> columns) {
+        Query query = new Query(recordCriteria(datasetId, version, from, to, indexedValues))
+                .with(Sort.by(
+                        Sort.Order.asc(MongoKeys.Record.USER_DEFINED_TIME),
+                        Sort.Order.asc(MongoKeys.Record.INDEXED_VALUE)));
+        Field fields = query.fields()
+                .include(MongoKeys.Record.USER_DEFINED_TIME)
+                .include(MongoKeys.Record.INDEXED_VALUE);
+        if (columns != null) {
+            for (String column : columns) {
+                fields.include(MongoKeys.Record.DATA + "." + column);
+            }
+        }
+        return query;
+    }
+
+    /**
+     * Build the query of one record page, the records right after the cursor in the order of the time, the
+     * indexed value and the id. The time of the cursor bounds the index scan, the $or only skips the records
+     * sharing that time which were already returned.
+     */
+    public static Query pageQuery(String datasetId,
+                                  Integer version,
+                                  Instant from,
+                                  Instant to,
+                                  List<String> indexedValues,
+                                  List<String> columns,
+                                  RecordCursor after,
+                                  int limit) {
+        Instant lowerBound = from;
+        if (after != null && after.getUserDefinedTime() != null
+                && (from == null || after.getUserDefinedTime().isAfter(from))) {
+            lowerBound = after.getUserDefinedTime();
+        }
+        Criteria criteria = recordCriteria(datasetId, version, lowerBound, to, indexedValues);
+        if (after != null) {
+            Date time = after.getUserDefinedTime() == null ? null : Date.from(after.getUserDefinedTime());
+            Object id = ObjectId.isValid(after.getId()) ? new ObjectId(after.getId()) : after.getId();
+            criteria.orOperator(
+                    greaterThan(MongoKeys.Record.USER_DEFINED_TIME, time),
+                    Criteria.where(MongoKeys.Record.USER_DEFINED_TIME).is(time)
+                            .andOperator(greaterThan(MongoKeys.Record.INDEXED_VALUE, after.getIndexedValue())),
+                    Criteria.where(MongoKeys.Record.USER_DEFINED_TIME).is(time)
+                            .and(MongoKeys.Record.INDEXED_VALUE).is(after.getIndexedValue())
+                            .and(MongoKeys.Record.ID).gt(id));
+        }
+
+        Query query = new Query(criteria)
+                .with(Sort.by(
+                        Sort.Order.asc(MongoKeys.Record.USER_DEFINED_TIME),
+                        Sort.Order.asc(MongoKeys.Record.INDEXED_VALUE),
+                        Sort.Order.asc(MongoKeys.Record.ID)))
+                .limit(limit);
+        Field fields = query.fields()
+                .include(MongoKeys.Record.USER_DEFINED_TIME)
+                .include(MongoKeys.Record.INDEXED_VALUE);
+        if (columns != null) {
+            for (String column : columns) {
+                fields.include(MongoKeys.Record.DATA + "." + column);
+            }
+        }
+        return query;
+    }
+
+    /**
+     * Match the values sorted after the given one, null sorts before every other value.
+     */
+    private static Criteria greaterThan(String key, Object value) {
+        return value == null ? Criteria.where(key).ne(null) : Criteria.where(key).gt(value);
+    }
+
+    /**
+     * Build the query of every visible record of the dataset, sorted by the indexed value and then by the time,
+     * the order the columnar series are built in.
+     */
+    public static Query seriesQuery(String datasetId, Integer version, List<String> columns) {
+        Query query = new Query(recordCriteria(datasetId, version, null, null, null))
+                .with(Sort.by(
+                        Sort.Order.asc(MongoKeys.Record.INDEXED_VALUE),
+                        Sort.Order.asc(MongoKeys.Record.USER_DEFINED_TIME)));
+        Field fields = query.fields()
+                .include(MongoKeys.Record.USER_DEFINED_TIME)
+                .include(MongoKeys.Record.INDEXED_VALUE);
+        for (String column : columns) {
+            fields.include(MongoKeys.Record.DATA + "." + column);
+        }
+        return query;
+    }
+
+    /**
+     * Match the records within the time range of the visible versions.
+     */
+    public static Criteria recordCriteria(String datasetId,
+                                          Integer version,
+                                          Instant from,
+                                          Instant to,
+                                          List<String> indexedValues) {
+        Criteria criteria = Criteria.where(MongoKeys.Record.DATASET_ID).is(datasetId)
+                .and(MongoKeys.Record.VERSION).lte(version);
+        if (from != null || to != null) {
+            Criteria time = criteria.and(MongoKeys.Record.USER_DEFINED_TIME);
+            if (from != null) {
+                time.gte(Date.from(from));
+            }
+            if (to != null) {
+                time.lt(Date.from(to));
+            }
+        }
+        if (indexedValues != null && !indexedValues.isEmpty()) {
+            criteria.and(MongoKeys.Record.INDEXED_VALUE).in(indexedValues);
+        }
+        return criteria;
+    }
+
+    /**
+     * Match the records of exactly one version.
+     */
+    public static Criteria versionCriteria(String datasetId, Integer version) {
+        return Criteria.where(MongoKeys.Record.DATASET_ID).is(datasetId)
+                .and(MongoKeys.Record.VERSION).is(version);
+    }
+
+    /**
+     * Build the rollup query of the visible versions, sorted by the bucket start, the indexed value and the
+     * version, so the later version is combined last.
+     */
+    public static Query rollupQuery(String datasetId,
+                                    Integer version,
+                                    AggregationBucket bucket,
+                                    Instant from,
+                                    Instant to,
+                                    List<String> indexedValues,
+                                    List<String> columns) {
+        Criteria criteria = Criteria.where(MongoKeys.Rollup.DATASET_ID).is(datasetId)
+                .and(MongoKeys.Rollup.BUCKET).is(bucket)
+                .and(MongoKeys.Rollup.VERSION).lte(version)
+                .and(MongoKeys.Rollup.COLUMN).in(columns);
+        if (from != null || to != null) {
+            Criteria time = criteria.and(MongoKeys.Rollup.BUCKET_START);
+            if (from != null) {
+                time.gte(from);
+            }
+            if (to != null) {
+                time.lt(to);
+            }
+        }
+        if (indexedValues != null && !indexedValues.isEmpty()) {
+            criteria.and(MongoKeys.Rollup.INDEXED_VALUE).in(indexedValues);
+        }
+
+        return new Query(criteria).with(Sort.by(
+                Sort.Order.asc(MongoKeys.Rollup.BUCKET_START),
+                Sort.Order.asc(MongoKeys.Rollup.INDEXED_VALUE),
+                Sort.Order.asc(MongoKeys.Rollup.VERSION)));
+    }
+}
@@ -0,0 +1,34 @@
+package com.example.dataset.infra.mongo;
+
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+import com.example.dataset.domain.RecordRollup;
+
+public interface RecordRollupRepo extends MongoRepository<RecordRollup, String>, RecordRollupRepoCustom {
+    /**
+     * Delete the rollups of one version, so a version can be rolled up again.
+     *
+     * @param datasetId the dataset id.
+     * @param version   the version.
+     * @return the deleted row number.
+     */
+    long deleteByDatasetIdAndVersion(String datasetId, Integer version);
+
+    /**
+     * Delete the rollups of the dataset.
+     *
+     * @param datasetId the dataset id.
+     * @return the deleted row number.
+     */
+    long deleteByDatasetId(String datasetId);
+
+    /**
+     * Delete the rollups below the version, once the version has the rollups of every record.
+     *
+     * @param datasetId the dataset id.
+     * @param version   the version.
+     * @return the deleted row number.
+     */
+    long deleteByDatasetIdAndVersionLessThan(String datasetId, Integer version);
+
+}
@@ -0,0 +1,52 @@
+package com.example.dataset.infra.mongo;
+
+import java.time.Instant;
+import java.util.List;
+
+import com.example.dataset.domain.AggregationBucket;
+import com.example.dataset.domain.RecordRollup;
+
+public interface RecordRollupRepoCustom {
+    /**
+     * Find the rollups of the visible versions, sorted by the bucket start and the indexed value.
+     *
+     * @param datasetId     the dataset id.
+     * @param version       the current visible version.
+     * @param bucket        the width of the time buckets.
+     * @param from          inclusive start of the buckets, unbounded when null.
+     * @param to            exclusive end of the buckets, unbounded when null.
+     * @param indexedValues indexed values to filter, all the values when null or empty.
+     * @param columns       the metric columns.
+     * @return the list of found rollups.
+     */
+    List<RecordRollup> findRollups(String datasetId,
+                                   Integer version,
+                                   AggregationBucket bucket,
+                                   Instant from,
+                                   Instant to,
+                                   List<String> indexedValues,
+                                   List<String> columns);
+
+    /**
+     * Move at most limit rollups of the versions below the version to the version. The combined aggregates
+     * do not change, the rollups of all the visible versions are combined anyway. The caller repeats until
+     * nothing is left to move.
+     *
+     * @param datasetId the dataset id.
+     * @param version   the version.
+     * @param limit     the maximum number of rollups moved by the call.
+     * @return the number of the moved rollups.
+     */
+    long relabelVersionsBelow(String datasetId, int version, int limit);
+
+    /**
+     * Delete at most limit rollups of the versions above the version, left by the versions never committed.
+     * The caller repeats until nothing is left to delete.
+     *
+     * @param datasetId the dataset id.
+     * @param version   the highest version kept.
+     * @param limit     the maximum number of rollups deleted by the call.
+     * @return the number of the deleted rollups.
+     */
+    long deleteVersionsAbove(String datasetId, int version, int limit);
+}
@@ -0,0 +1,79 @@
+package com.example.dataset.infra.mongo;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Repository;
+
+import com.example.dataset.domain.AggregationBucket;
+import com.example.dataset.domain.RecordRollup;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Updates;
+
+import lombok.RequiredArgsConstructor;
+
+@Repository
+@RequiredArgsConstructor
+public class RecordRollupRepoImpl implements RecordRollupRepoCustom {
+    private final MongoTemplate mongo;
+
+    @Override
+    public List<RecordRollup> findRollups(String datasetId,
+                                          Integer version,
+                                          AggregationBucket bucket,
+                                          Instant from,
+                                          Instant to,
+                                          List<String> indexedValues,
+                                          List<String> columns) {
+        Query query = RecordQueries.rollupQuery(datasetId, version, bucket, from, to, indexedValues, columns);
+        return mongo.find(query, RecordRollup.class);
+    }
+
+    @Override
+    public long relabelVersionsBelow(String datasetId, int version, int limit) {
+        Bson below = Filters.and(
+                Filters.eq(MongoKeys.Rollup.DATASET_ID, datasetId),
+                Filters.lt(MongoKeys.Rollup.VERSION, version));
+        List<Object> ids = findIds(below, limit);
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        return collection().updateMany(Filters.and(Filters.in(MongoKeys.Rollup.ID, ids), below),
+                Updates.set(MongoKeys.Rollup.VERSION, version)).getModifiedCount();
+    }
+
+    @Override
+    public long deleteVersionsAbove(String datasetId, int version, int limit) {
+        Bson above = Filters.and(
+                Filters.eq(MongoKeys.Rollup.DATASET_ID, datasetId),
+                Filters.gt(MongoKeys.Rollup.VERSION, version));
+        List<Object> ids = findIds(above, limit);
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        return collection().deleteMany(Filters.and(Filters.in(MongoKeys.Rollup.ID, ids), above))
+                .getDeletedCount();
+    }
+
+    // One bounded scan picks the batch, the rollups already moved or deleted drop out of it
+    private List<Object> findIds(Bson filter, int limit) {
+        List<Object> ids = new ArrayList<>(limit);
+        Bson projection = Projections.include(MongoKeys.Rollup.ID);
+        for (Document doc : collection().find(filter).projection(projection).limit(limit)) {
+            ids.add(doc.get(MongoKeys.Rollup.ID));
+        }
+        return ids;
+    }
+
+    private MongoCollection<Document> collection() {
+        return mongo.getCollection(MongoKeys.Rollup.TABLE_NAME);
+    }
+}
@@ -7,6 +7,7 @@ import com.example.dataset.domain.dto.CreateDatasetResp;
 import com.example.exception.ErrorCode;
 import com.example.exception.types.BadRequestException;
 import com.example.security.JwtUserDetails;
+import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -14,6 +15,7 @@ import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.IOException;
 import java.util.*;
 
 @RestController
@@ -40,10 +42,63 @@ public class DatasetImportJobController {
 
 
     @PostMapping(value = "/appendDataset", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
-    public ResponseEntity<?> appendDataset(
+    public ResponseEntity<CreateDatasetResp> appendDataset(
             @RequestParam("file") MultipartFile file,
             @RequestPart("dataset") CreateDatasetReq req,
             @AuthenticationPrincipal JwtUserDetails user) {
-        return null;
+        if (file == null || file.isEmpty()) {
+            throw new BadRequestException(ErrorCode.NOT_VALID_FILE);
+        }
+        if (req == null || req.getDatasetName() == null || req.getDatasetName().isBlank()) {
+            throw new BadRequestException(ErrorCode.NOT_VALID_SET_NAME);
+        }
+
+        CreateDatasetResp resp = datasetImportJobService.createAppendJob(file, req, user.getId());
+        return ResponseEntity.ok(resp);
+    }
+
+    /**
+     * Create a dataset from the csv sent as the request body, the dataset fields are the query parameters.
+     * The body is streamed to S3 as it arrives, so the multipart size limits do not apply. The csv may be
+     * sent compressed with gzip or zstd.
+     */
+    @PostMapping(value = "/stream/createDataset",
+            consumes = {"text/csv", MediaType.APPLICATION_OCTET_STREAM_VALUE, "application/gzip",
+                    "application/zstd"})
+    public ResponseEntity<CreateDatasetResp> streamCreateDataset(
+            @ModelAttribute CreateDatasetReq req,
+            @RequestParam(value = "fileName", required = false) String fileName,
+            HttpServletRequest request,
+            @AuthenticationPrincipal JwtUserDetails user) throws IOException {
+        validateStreamRequest(req, request);
+
+        CreateDatasetResp resp = datasetImportJobService.createStreamingImportJob(request.getInputStream(),
+                fileName, request.getContentType(), request.getContentLengthLong(), req, user.getId());
+        return ResponseEntity.ok(resp);
+    }
+
+    @PostMapping(value = "/stream/appendDataset",
+            consumes = {"text/csv", MediaType.APPLICATION_OCTET_STREAM_VALUE, "application/gzip",
+                    "application/zstd"})
+    public ResponseEntity<CreateDatasetResp> streamAppendDataset(
+            @ModelAttribute CreateDatasetReq req,
+            @RequestParam(value = "fileName", required = false) String fileName,
+            HttpServletRequest request,
+            @AuthenticationPrincipal JwtUserDetails user) throws IOException {
+        validateStreamRequest(req, request);
+
+        CreateDatasetResp resp = datasetImportJobService.createStreamingAppendJob(request.getInputStream(),
+                fileName, request.getContentType(), request.getContentLengthLong(), req, user.getId());
+        return ResponseEntity.ok(resp);
+    }
+
+    private void validateStreamRequest(CreateDatasetReq req, HttpServletRequest request) {
+        // A chunked body has no length, the service reads its header line before creating the job
+        if (request.getContentLengthLong() == 0) {
+            throw new BadRequestException(ErrorCode.NOT_VALID_FILE);
+        }
+        if (req == null || req.getDatasetName() == null || req.getDatasetName().isBlank()) {
+            throw new BadRequestException(ErrorCode.NOT_VALID_SET_NAME);
+        }
     }
 }
@@ -1,27 +1,75 @@
 package com.example.dataset.interfaces;
 
 import com.example.dataset.app.DatasetRecordQueryService;
+import com.example.dataset.domain.RecordWireFormat;
+import com.example.dataset.domain.dto.AggregateRecordsReq;
+import com.example.dataset.domain.dto.AggregateRecordsResp;
+import com.example.dataset.domain.dto.QueryRecordsPageResp;
 import com.example.dataset.domain.dto.QueryRecordsReq;
-import com.example.dataset.domain.dto.QueryRecordsResp;
 import com.example.security.JwtUserDetails;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 @RestController
 @RequestMapping("/datasets/{datasetId}/records")
 @RequiredArgsConstructor
 public class DatasetRecordController {
+    private static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+
     private final DatasetRecordQueryService datasetRecordQueryService;
 
     @PostMapping("/query")
-    public ResponseEntity<QueryRecordsResp> query(
+    public ResponseEntity<byte[]> query(
+            @PathVariable String datasetId,
+            @RequestBody QueryRecordsReq req,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+            @AuthenticationPrincipal JwtUserDetails user) {
+        Long userId = user.getId();
+        // The encoded QueryRecordsResp, cached per dataset version and format
+        RecordWireFormat format = RecordWireFormat.fromAccept(accept);
+        byte[] resp = datasetRecordQueryService.queryRecordsEncoded(userId, datasetId, req, format);
+        return ResponseEntity.ok()
+                .contentType(format.getMediaType())
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT)
+                .body(resp);
+    }
+
+    @PostMapping("/query/page")
+    public ResponseEntity<QueryRecordsPageResp> queryPage(
             @PathVariable String datasetId,
             @RequestBody QueryRecordsReq req,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer size,
             @AuthenticationPrincipal JwtUserDetails user) {
         Long userId = user.getId();
-        QueryRecordsResp resp = datasetRecordQueryService.queryRecords(userId, datasetId, req);
+        QueryRecordsPageResp resp = datasetRecordQueryService.queryRecordPage(userId, datasetId, req, cursor, size);
         return ResponseEntity.ok(resp);
     }
+
+    @PostMapping("/aggregate")
+    public ResponseEntity<AggregateRecordsResp> aggregate(
+            @PathVariable String datasetId,
+            @RequestBody AggregateRecordsReq req,
+            @AuthenticationPrincipal JwtUserDetails user) {
+        Long userId = user.getId();
+        AggregateRecordsResp resp = datasetRecordQueryService.aggregateRecords(userId, datasetId, req);
+        return ResponseEntity.ok(resp);
+    }
+
+    @PostMapping(value = "/query/stream", produces = "application/x-ndjson")
+    public ResponseEntity<StreamingResponseBody> queryStream(
+            @PathVariable String datasetId,
+            @RequestBody QueryRecordsReq req,
+            @AuthenticationPrincipal JwtUserDetails user) {
+        Long userId = user.getId();
+        StreamingResponseBody body = datasetRecordQueryService.streamRecords(userId, datasetId, req);
+        return ResponseEntity.ok()
+                .contentType(NDJSON)
+                .body(body);
+    }
 }
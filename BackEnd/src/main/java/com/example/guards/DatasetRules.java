@@ -14,7 +14,8 @@ public final class DatasetRules {
     // dataset is in corresponding dataset action
     public static final Map<DatasetAction, EnumSet<DatasetStatus>> ALLOWED = Map.of(
             DatasetAction.UPLOAD, EnumSet.of(DatasetStatus.ACTIVE),
-            DatasetAction.QUERY, EnumSet.of(DatasetStatus.ACTIVE, DatasetStatus.UPLOADING, DatasetStatus.FAILED),
+            DatasetAction.QUERY, EnumSet.of(DatasetStatus.ACTIVE, DatasetStatus.UPLOADING, DatasetStatus.FAILED,
+                    DatasetStatus.COMPACTING, DatasetStatus.MIGRATING),
             DatasetAction.DELETE, EnumSet.of(DatasetStatus.ACTIVE, DatasetStatus.FAILED));
 
     public static void assertAllowed(DatasetAction action, DatasetStatus status) {
@@ -1,7 +1,10 @@
 package com.example.notification;
 
+import org.springframework.boot.autoconfigure.condition.ConditionalOnThreading;
+import org.springframework.boot.autoconfigure.thread.Threading;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
 import java.util.concurrent.Executor;
@@ -9,6 +12,7 @@ import java.util.concurrent.Executor;
 @Configuration
 public class NotificationAsyncExecutorConfig {
     @Bean(name = "notificationExecutor")
+    @ConditionalOnThreading(Threading.PLATFORM)
     public Executor notificationExecutor() {
         ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
         executor.setCorePoolSize(2);
@@ -18,4 +22,16 @@ public class NotificationAsyncExecutorConfig {
         executor.initialize();
         return executor;
     }
-}
\ No newline at end of file
+
+    /**
+     * A virtual thread per notification, with {@code spring.threads.virtual.enabled}. The inserts wait for
+     * a connection of the datasource pool instead of a place in the queue.
+     */
+    @Bean(name = "notificationExecutor")
+    @ConditionalOnThreading(Threading.VIRTUAL)
+    public Executor virtualNotificationExecutor() {
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("notification-");
+        executor.setVirtualThreads(true);
+        return executor;
+    }
+}
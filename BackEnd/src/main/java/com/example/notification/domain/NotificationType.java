@@ -4,6 +4,7 @@ public enum NotificationType {
     ISSUE_NEW_MESSAGE,
     ISSUE_STATUS_CHANGED,
     TABLE_CREATED,
+    TABLE_APPENDED,
     SYSTEM,
     NONE
 }
\ No newline at end of file
@@ -7,6 +7,9 @@ import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
 import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3ClientBuilder;
+
+import java.net.URI;
 
 @Configuration
 public class S3Config {
@@ -14,12 +17,17 @@ public class S3Config {
     public S3Client s3Client(
             @Value("${aws.access-key}") String accessKey,
             @Value("${aws.secret-key}") String secretKey,
-            @Value("${aws.s3.region}") String region
+            @Value("${aws.s3.region}") String region,
+            S3Properties s3Properties
     ) {
         AwsBasicCredentials credentials = AwsBasicCredentials.create(accessKey, secretKey);
-        return S3Client.builder()
+        S3ClientBuilder builder = S3Client.builder()
                 .region(Region.of(region))
                 .credentialsProvider(StaticCredentialsProvider.create(credentials))
-                .build();
+                .forcePathStyle(s3Properties.isPathStyleAccess());
+        if (s3Properties.getEndpoint() != null && !s3Properties.getEndpoint().isBlank()) {
+            builder.endpointOverride(URI.create(s3Properties.getEndpoint()));
+        }
+        return builder.build();
     }
-}
\ No newline at end of file
+}
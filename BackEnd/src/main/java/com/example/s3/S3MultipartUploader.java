@@ -0,0 +1,337 @@
+package com.example.s3;
+
+import com.example.async.threads.ResourceLimiter;
+import com.example.utils.CompressionCodec;
+import com.example.utils.CountingInputStream;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Upload a stream of unknown length to S3 as a multipart upload. The stream is written part by part into a
+ * small pool of buffers, and every part is uploaded on its own virtual thread while the next one is filled.
+ * Filling waits for a free buffer, so a slow S3 slows the reading down and the heap used stays at the part
+ * size times the in-flight parts whatever the size of the stream. The buffers of all the uploads running at
+ * once are bounded by {@code aws.s3.upload.max-buffered-bytes} as well.
+ * <p>
+ * The stream may be compressed on the way, the parts then hold the compressed bytes. A stream shorter than
+ * one part is sent with a single put. A failed upload is aborted, so S3 does not keep the parts already
+ * uploaded.
+ */
+@Slf4j
+@Component
+public class S3MultipartUploader {
+    // S3 rejects the parts below 5MB but the last one
+    private static final int MIN_PART_SIZE = 5 * 1024 * 1024;
+
+    private final S3Client s3Client;
+    private final S3Properties s3Properties;
+    private final ResourceLimiter resourceLimiter;
+
+    // One permit per part buffer, shared by every upload of the instance
+    private final Semaphore buffers;
+
+    public S3MultipartUploader(S3Client s3Client, S3Properties s3Properties, ResourceLimiter resourceLimiter) {
+        this.s3Client = s3Client;
+        this.s3Properties = s3Properties;
+        this.resourceLimiter = resourceLimiter;
+        S3Properties.Upload config = s3Properties.getUpload();
+        long budget = config.getMaxBufferedBytes().toBytes() / partSize(config);
+        this.buffers = new Semaphore((int) Math.max(1, Math.min(Integer.MAX_VALUE, budget)), true);
+    }
+
+    /**
+     * Upload the stream to the object as it is. The stream is read to the end but not closed.
+     *
+     * @param bucket      the bucket.
+     * @param key         the object key.
+     * @param contentType the content type of the object.
+     * @param in          the stream to upload.
+     * @return the bytes uploaded.
+     * @throws IOException when reading the stream fails, the upload is aborted then.
+     */
+    public long upload(String bucket, String key, String contentType, InputStream in) throws IOException {
+        return upload(bucket, key, contentType, in, CompressionCodec.NONE).getStoredBytes();
+    }
+
+    /**
+     * Upload the stream to the object compressed with the codec. The stream is read to the end but not
+     * closed.
+     *
+     * @param bucket      the bucket.
+     * @param key         the object key.
+     * @param contentType the content type of the object.
+     * @param in          the stream to upload.
+     * @param codec       the compression of the stored object.
+     * @return the bytes read and the bytes stored.
+     * @throws IOException when reading the stream fails, the upload is aborted then.
+     */
+    public UploadedObject upload(String bucket, String key, String contentType, InputStream in,
+                                 CompressionCodec codec) throws IOException {
+        CountingInputStream counted = new CountingInputStream(in);
+        PartOutputStream parts = new PartOutputStream(bucket, key, contentType);
+        OutputStream encoded = null;
+        try {
+            // Closing the codec stream finishes the compressed data, which completes the upload
+            encoded = codec.compress(parts);
+            counted.transferTo(encoded);
+            encoded.close();
+        } catch (IOException | RuntimeException e) {
+            parts.abort();
+            // The codec holds native memory until closed, the bytes it still writes are dropped by the parts
+            if (encoded != null) {
+                try {
+                    encoded.close();
+                } catch (IOException | RuntimeException closeFailure) {
+                    e.addSuppressed(closeFailure);
+                }
+            }
+            throw e;
+        }
+        log.info("Uploaded object. bucket={}, key={}, codec={}, readBytes={}, storedBytes={}, parts={}",
+                bucket, key, codec, counted.count(), parts.total, parts.futures.size());
+        return new UploadedObject(counted.count(), parts.total);
+    }
+
+    /**
+     * The stream filling the part buffers. A full part is only sent once more bytes arrive, so the stream
+     * knows at close whether it was a single put all along.
+     */
+    private final class PartOutputStream extends OutputStream {
+        private final String bucket;
+        private final String key;
+        private final String contentType;
+        private final int partSize;
+        private final int maxInFlight;
+
+        // The buffers are made on demand up to the limit, then writing waits for an uploaded part to give one back
+        private final BlockingQueue<byte[]> freeBuffers;
+        private final List<Future<CompletedPart>> futures = new ArrayList<>();
+        private final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        private ExecutorService executor;
+        private String uploadId;
+        private int allocated;
+        private byte[] buffer;
+        private int filled;
+        private long total;
+        private boolean closed;
+        private boolean aborted;
+
+        private PartOutputStream(String bucket, String key, String contentType) {
+            S3Properties.Upload config = s3Properties.getUpload();
+            this.bucket = bucket;
+            this.key = key;
+            this.contentType = contentType;
+            this.partSize = partSize(config);
+            this.maxInFlight = Math.max(1, config.getMaxInFlightParts());
+            this.freeBuffers = new ArrayBlockingQueue<>(maxInFlight);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (aborted) {
+                return;
+            }
+            while (len > 0) {
+                if (buffer == null) {
+                    buffer = nextBuffer();
+                } else if (filled == partSize) {
+                    sendPart();
+                    buffer = nextBuffer();
+                }
+                int n = Math.min(len, partSize - filled);
+                System.arraycopy(b, off, buffer, filled, n);
+                filled += n;
+                total += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        /**
+         * Send the last part and complete the upload.
+         */
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (uploadId == null) {
+                byte[] content = buffer == null ? new byte[0] : buffer;
+                int length = filled;
+                resourceLimiter.call(ResourceLimiter.Resource.S3, () -> s3Client.putObject(PutObjectRequest.builder()
+                                .bucket(bucket)
+                                .key(key)
+                                .contentType(contentType)
+                                .build(),
+                        RequestBody.fromInputStream(new ByteArrayInputStream(content, 0, length), length)));
+                releaseBuffers();
+                return;
+            }
+            if (filled > 0) {
+                sendPart();
+            }
+            executor.close();
+
+            List<CompletedPart> completed = new ArrayList<>(futures.size());
+            for (Future<CompletedPart> part : futures) {
+                completed.add(result(part));
+            }
+            s3Client.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+                    .bucket(bucket)
+                    .key(key)
+                    .uploadId(uploadId)
+                    .multipartUpload(CompletedMultipartUpload.builder().parts(completed).build())
+                    .build());
+            releaseBuffers();
+        }
+
+        private void abort() {
+            closed = true;
+            aborted = true;
+            if (uploadId == null) {
+                releaseBuffers();
+                return;
+            }
+            // Every part is done once the executor is closed, none of the buffers is used anymore
+            executor.close();
+            releaseBuffers();
+            try {
+                s3Client.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+                        .bucket(bucket)
+                        .key(key)
+                        .uploadId(uploadId)
+                        .build());
+            } catch (RuntimeException e) {
+                log.warn("Failed to abort multipart upload. bucket={}, key={}, uploadId={}", bucket, key, uploadId, e);
+            }
+        }
+
+        private void sendPart() {
+            // Stop taking the rest of the stream once a part failed
+            RuntimeException failed = failure.get();
+            if (failed != null) {
+                throw failed;
+            }
+            if (uploadId == null) {
+                uploadId = s3Client.createMultipartUpload(CreateMultipartUploadRequest.builder()
+                                .bucket(bucket)
+                                .key(key)
+                                .contentType(contentType)
+                                .build())
+                        .uploadId();
+                executor = Executors.newVirtualThreadPerTaskExecutor();
+            }
+            int partNumber = futures.size() + 1;
+            byte[] part = buffer;
+            int length = filled;
+            futures.add(executor.submit(() -> {
+                try {
+                    return uploadPart(bucket, key, uploadId, partNumber, part, length);
+                } catch (RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                    throw e;
+                } finally {
+                    freeBuffers.add(part);
+                }
+            }));
+            buffer = null;
+            filled = 0;
+        }
+
+        /**
+         * Take a free buffer, or make one while the upload and the shared budget have room. Only the first
+         * buffer waits for the budget, the later ones wait for a part of the same upload to be sent instead,
+         * so the uploads holding buffers always go on.
+         */
+        private byte[] nextBuffer() throws IOException {
+            try {
+                if (allocated == 0) {
+                    buffers.acquire();
+                    allocated++;
+                    return new byte[partSize];
+                }
+                if (allocated < maxInFlight && freeBuffers.isEmpty() && buffers.tryAcquire()) {
+                    allocated++;
+                    return new byte[partSize];
+                }
+                return freeBuffers.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while uploading " + key);
+            }
+        }
+
+        private void releaseBuffers() {
+            buffers.release(allocated);
+            allocated = 0;
+        }
+    }
+
+    private static int partSize(S3Properties.Upload config) {
+        return (int) Math.min(Integer.MAX_VALUE - 8, Math.max(MIN_PART_SIZE, config.getPartSize().toBytes()));
+    }
+
+    private CompletedPart uploadPart(String bucket, String key, String uploadId, int partNumber, byte[] buffer,
+                                     int length) {
+        // The parts of every upload running at once share the S3 permits
+        String eTag = resourceLimiter.call(ResourceLimiter.Resource.S3, () -> s3Client.uploadPart(
+                        UploadPartRequest.builder()
+                                .bucket(bucket)
+                                .key(key)
+                                .uploadId(uploadId)
+                                .partNumber(partNumber)
+                                .contentLength((long) length)
+                                .build(),
+                        RequestBody.fromInputStream(new ByteArrayInputStream(buffer, 0, length), length)))
+                .eTag();
+        return CompletedPart.builder()
+                .partNumber(partNumber)
+                .eTag(eTag)
+                .build();
+    }
+
+    private static CompletedPart result(Future<CompletedPart> part) {
+        try {
+            return part.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new IllegalStateException("Failed to upload part", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while uploading parts", e);
+        }
+    }
+}
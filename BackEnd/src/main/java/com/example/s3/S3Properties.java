@@ -1,8 +1,10 @@
 package com.example.s3;
 
+import com.example.utils.CompressionCodec;
 import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
 
 @ConfigurationProperties(prefix = "aws.s3")
 @Data
@@ -10,4 +12,30 @@ import org.springframework.stereotype.Component;
 public class S3Properties {
     private String bucket;
     private String basePrefix = "csv-import";
+
+    // The endpoint of an S3 compatible store used instead of AWS, e.g. a local MinIO, AWS when blank
+    private String endpoint;
+
+    // Address the bucket in the path instead of the host name, most S3 compatible stores need it
+    private boolean pathStyleAccess;
+
+    private Upload upload = new Upload();
+
+    @Data
+    public static class Upload {
+        // The size of a multipart upload part, S3 does not accept parts below 5MB but the last one
+        private DataSize partSize = DataSize.ofMegabytes(8);
+
+        // The parts read from the request and not uploaded yet, each one holds a buffer of the part size
+        private int maxInFlightParts = 4;
+
+        // The part buffers of all the uploads running at once, an upload waits for its first buffer and keeps
+        // fewer parts in flight while the others hold the rest
+        private DataSize maxBufferedBytes = DataSize.ofMegabytes(256);
+
+        // The codec a plain csv is compressed with on the way to S3, an already compressed upload is kept as is.
+        // A compressed object cannot be read from the offset of a checkpoint, a resumed import decompresses it
+        // from the start, so the compression is opt-in
+        private CompressionCodec compression = CompressionCodec.NONE;
+    }
 }
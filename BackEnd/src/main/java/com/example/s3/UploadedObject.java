@@ -0,0 +1,16 @@
+package com.example.s3;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * The size of an uploaded stream as read and as stored, the two differ when it was compressed on the way.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class UploadedObject {
+    private long readBytes;
+    private long storedBytes;
+}
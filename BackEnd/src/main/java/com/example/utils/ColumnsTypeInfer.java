@@ -1,10 +1,9 @@
 package com.example.utils;
 
-import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
 import java.util.List;
 
 import com.example.dataset.domain.ColumnType;
+import com.example.utils.TokenScanner.TokenType;
 
 /**
  * The utility class to infer the type of the columns.
@@ -13,14 +12,6 @@ public class ColumnsTypeInfer {
     // The symbols that defined the metric is not metric with headers
     private static final String[] NON_METRIC_COLUMN_SYMBOLS = { "id", "code", "no", "number", "zip", "postal", "date" };
 
-    // The date format pattern
-    private static final DateTimeFormatter[] DATE_PATTERNS = new DateTimeFormatter[] {
-            DateTimeFormatter.ofPattern("yyyy-MM-dd"),
-            DateTimeFormatter.ofPattern("yyyy/MM/dd"),
-            DateTimeFormatter.ISO_LOCAL_DATE
-            // TODO: add more date format to satify more.
-    };
-
     /**
      * To infer the column type according to the samples gathered for corresponding
      * header.
@@ -40,10 +31,10 @@ public class ColumnsTypeInfer {
         int total = samples.size();
 
         for (String v : samples) {
-            if (looksLikeDate(v)) {
+            TokenType token = TokenScanner.classify(v);
+            if (token == TokenType.DATE) {
                 dateCount++;
-            }
-            if (looksLikeNumber(v)) {
+            } else if (token.isNumber()) {
                 numberCount++;
             }
         }
@@ -73,16 +64,7 @@ public class ColumnsTypeInfer {
      * @return whether the value seems like number or not.
      */
     public static boolean looksLikeNumber(String value) {
-        try {
-            String cleaned = value
-                    .replace(",", "") // 1,234.56 TODO: the , should seperate every 3 digits
-                    .replace("%", ""); // 12.3%
-            Double.parseDouble(cleaned);
-            return true;
-        } catch (Exception e) {
-            // TODO: Throw specific exceptions.
-            return false;
-        }
+        return TokenScanner.classify(value).isNumber();
     }
 
     /**
@@ -93,15 +75,7 @@ public class ColumnsTypeInfer {
      * @return whether the value seems like date.
      */
     public static boolean looksLikeDate(String value) {
-        for (DateTimeFormatter fmt : DATE_PATTERNS) {
-            try {
-                LocalDate.parse(value, fmt);
-                return true;
-            } catch (Exception ignored) {
-                // TODO: handle the exception here
-            }
-        }
-        return false;
+        return TokenScanner.classify(value) == TokenType.DATE;
     }
 
     /**
@@ -0,0 +1,121 @@
+package com.example.utils;
+
+import com.github.luben.zstd.ZstdInputStreamNoFinalizer;
+import com.github.luben.zstd.ZstdOutputStreamNoFinalizer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The compression of a stored csv object. The codec of an uploaded file is told by its leading magic bytes,
+ * the codec of a stored object by the extension of its key, the key is always given the extension of the
+ * codec it is stored with.
+ */
+public enum CompressionCodec {
+    NONE("", "text/csv", new byte[0]),
+    GZIP(".gz", "application/gzip", new byte[]{0x1f, (byte) 0x8b}),
+    ZSTD(".zst", "application/zstd", new byte[]{0x28, (byte) 0xb5, 0x2f, (byte) 0xfd});
+
+    // The bytes the compressors buffer, the size of a socket read is plenty
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int ZSTD_LEVEL = 3;
+    private static final int MAX_MAGIC_LENGTH = 4;
+
+    private final String extension;
+    private final String contentType;
+    private final byte[] magic;
+
+    CompressionCodec(String extension, String contentType, byte[] magic) {
+        this.extension = extension;
+        this.contentType = contentType;
+        this.magic = magic;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * Wrap the stream reading the compressed bytes into one reading the csv.
+     */
+    public InputStream decompress(InputStream in) throws IOException {
+        return switch (this) {
+            case NONE -> in;
+            case GZIP -> new GZIPInputStream(in, BUFFER_SIZE);
+            case ZSTD -> new ZstdInputStreamNoFinalizer(in);
+        };
+    }
+
+    /**
+     * Wrap the stream writing the stored bytes into one compressing the csv written to it. Closing the
+     * returned stream finishes the compressed data and closes the wrapped stream.
+     */
+    public OutputStream compress(OutputStream out) throws IOException {
+        return switch (this) {
+            case NONE -> out;
+            case GZIP -> new GZIPOutputStream(out, BUFFER_SIZE);
+            case ZSTD -> new ZstdOutputStreamNoFinalizer(out, ZSTD_LEVEL);
+        };
+    }
+
+    /**
+     * The codec the stored object was written with, told by the extension of its key.
+     */
+    public static CompressionCodec fromKey(String key) {
+        if (key != null) {
+            for (CompressionCodec codec : values()) {
+                if (codec != NONE && key.endsWith(codec.extension)) {
+                    return codec;
+                }
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * The file name without the extension of a codec, so it can be given the extension of the stored codec.
+     */
+    public static String stripExtension(String filename) {
+        CompressionCodec codec = fromKey(filename);
+        return filename.substring(0, filename.length() - codec.extension.length());
+    }
+
+    /**
+     * Tell the codec of an uploaded stream from its leading bytes. The bytes are pushed back, so the stream
+     * is read from its start afterwards.
+     *
+     * @param in the stream, it must be able to push back four bytes.
+     * @return the codec the stream is compressed with, NONE for a plain csv.
+     */
+    public static CompressionCodec detect(PushbackInputStream in) throws IOException {
+        byte[] head = new byte[MAX_MAGIC_LENGTH];
+        int length = in.readNBytes(head, 0, head.length);
+        in.unread(head, 0, length);
+        for (CompressionCodec codec : values()) {
+            if (codec != NONE && startsWith(head, length, codec.magic)) {
+                return codec;
+            }
+        }
+        return NONE;
+    }
+
+    private static boolean startsWith(byte[] head, int length, byte[] magic) {
+        if (length < magic.length) {
+            return false;
+        }
+        for (int i = 0; i < magic.length; i++) {
+            if (head[i] != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
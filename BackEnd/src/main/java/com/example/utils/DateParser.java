@@ -4,12 +4,14 @@ import java.time.*;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.springframework.stereotype.Component;
 
 @Component
 public class DateParser {
-    private static final List<DateTimeFormatter> DEFAULT_FORMATTERS = List.of(
+    static final List<DateTimeFormatter> DEFAULT_FORMATTERS = List.of(
             DateTimeFormatter.ISO_LOCAL_DATE,
             DateTimeFormatter.ofPattern("yyyy/MM/dd"),
             DateTimeFormatter.ofPattern("MM/dd/yyyy"),
@@ -22,55 +24,34 @@ public class DateParser {
             DateTimeFormatter.ISO_OFFSET_DATE_TIME
     );
 
+    // The compiled user patterns and the resolved zones, both are shared by all the import jobs
+    private static final Map<String, DateTimeFormatter> PATTERN_CACHE = new ConcurrentHashMap<>();
+    private static final Map<String, ZoneId> ZONE_CACHE = new ConcurrentHashMap<>();
+
     public static Instant parseRecordTime(String raw, String userPattern, String timezone) {
         if (raw == null || raw.isBlank()) {
             return null;
         }
+        return recordTimeParser(userPattern, timezone).parse(raw);
+    }
 
-        ZoneId zone = resolveZone(timezone);
-        String s = raw.trim();
-
-        List<DateTimeFormatter> formatters = new ArrayList<>();
+    /**
+     * Create the parser for one import job. The parser learns the formatter matching the first rows and
+     * tries it first for the following rows.
+     *
+     * @param userPattern the pattern given by the user, may be blank.
+     * @param timezone    the timezone of the dataset, UTC if blank.
+     * @return the record time parser.
+     */
+    public static RecordTimeParser recordTimeParser(String userPattern, String timezone) {
+        List<DateTimeFormatter> formatters = new ArrayList<>(DEFAULT_FORMATTERS.size() + 1);
 
         if (userPattern != null && !userPattern.isBlank()) {
-            formatters.add(DateTimeFormatter.ofPattern(userPattern));
+            formatters.add(PATTERN_CACHE.computeIfAbsent(userPattern, DateTimeFormatter::ofPattern));
         }
 
         formatters.addAll(DEFAULT_FORMATTERS);
-
-        for (DateTimeFormatter formatter : formatters) {
-            Instant instant = tryParse(s, formatter, zone);
-            if (instant != null) {
-                return instant;
-            }
-        }
-
-        if (s.matches("\\d+")) {
-            long serial = Long.parseLong(s);
-            LocalDate date = LocalDate.of(1899, 12, 30).plusDays(serial);
-            return date.atStartOfDay(zone).toInstant();
-        }
-
-        throw new IllegalArgumentException("Unrecognized date format: " + raw);
-    }
-
-    private static Instant tryParse(String raw, DateTimeFormatter formatter, ZoneId zone) {
-        try {
-            return OffsetDateTime.parse(raw, formatter).toInstant();
-        } catch (Exception ignored) {
-        }
-
-        try {
-            return LocalDateTime.parse(raw, formatter).atZone(zone).toInstant();
-        } catch (Exception ignored) {
-        }
-
-        try {
-            return LocalDate.parse(raw, formatter).atStartOfDay(zone).toInstant();
-        } catch (Exception ignored) {
-        }
-
-        return null;
+        return new RecordTimeParser(formatters, resolveZone(timezone));
     }
 
     private static ZoneId resolveZone(String timezone) {
@@ -79,9 +60,9 @@ public class DateParser {
         }
 
         try {
-            return ZoneId.of(timezone.trim());
+            return ZONE_CACHE.computeIfAbsent(timezone.trim(), ZoneId::of);
         } catch (Exception e) {
             throw new IllegalArgumentException("Invalid timezone: " + timezone, e);
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,129 @@
+package com.example.utils;
+
+import java.util.Arrays;
+
+/**
+ * Reduce a time sorted series to a bounded number of points for chart rendering. The methods return the
+ * indexes of the kept points in ascending order.
+ */
+public final class Downsampler {
+
+    private Downsampler() {
+    }
+
+    /**
+     * Largest-Triangle-Three-Buckets. The series is split into threshold - 2 buckets, from every bucket the
+     * point forming the largest triangle with the previous kept point and the average of the next bucket
+     * is kept. The first and the last point are always kept.
+     *
+     * @param x         the x values, sorted ascending.
+     * @param y         the y values.
+     * @param size      the number of points in the arrays.
+     * @param threshold the maximum number of points to keep.
+     * @return the indexes of the kept points.
+     */
+    public static int[] lttb(long[] x, double[] y, int size, int threshold) {
+        if (threshold >= size || size <= 2) {
+            return all(size);
+        }
+        if (threshold < 3) {
+            return edges(size, threshold);
+        }
+
+        int[] kept = new int[threshold];
+        int count = 0;
+        double every = (double) (size - 2) / (threshold - 2);
+
+        int a = 0;
+        kept[count++] = a;
+        for (int i = 0; i < threshold - 2; i++) {
+            // The average of the next bucket, the last point for the last bucket
+            int avgStart = (int) Math.floor((i + 1) * every) + 1;
+            int avgEnd = Math.min((int) Math.floor((i + 2) * every) + 1, size);
+            double avgX = 0;
+            double avgY = 0;
+            for (int j = avgStart; j < avgEnd; j++) {
+                avgX += x[j];
+                avgY += y[j];
+            }
+            int avgLength = avgEnd - avgStart;
+            avgX /= avgLength;
+            avgY /= avgLength;
+
+            int rangeStart = (int) Math.floor(i * every) + 1;
+            int rangeEnd = (int) Math.floor((i + 1) * every) + 1;
+            double ax = x[a];
+            double ay = y[a];
+            double maxArea = -1;
+            int next = rangeStart;
+            for (int j = rangeStart; j < rangeEnd; j++) {
+                // Twice the triangle area, the factor does not change the pick
+                double area = Math.abs((ax - avgX) * (y[j] - ay) - (ax - x[j]) * (avgY - ay));
+                if (area > maxArea) {
+                    maxArea = area;
+                    next = j;
+                }
+            }
+            kept[count++] = next;
+            a = next;
+        }
+        kept[count++] = size - 1;
+        return kept;
+    }
+
+    /**
+     * Keep the lowest and the highest point of every bucket, threshold / 2 buckets are used.
+     *
+     * @param y         the y values.
+     * @param size      the number of points in the arrays.
+     * @param threshold the maximum number of points to keep.
+     * @return the indexes of the kept points.
+     */
+    public static int[] minMax(double[] y, int size, int threshold) {
+        if (threshold >= size || size <= 2) {
+            return all(size);
+        }
+        int buckets = threshold / 2;
+        if (buckets < 1) {
+            return edges(size, threshold);
+        }
+
+        int[] kept = new int[buckets * 2];
+        int count = 0;
+        double every = (double) size / buckets;
+        for (int i = 0; i < buckets; i++) {
+            int start = (int) Math.floor(i * every);
+            int end = Math.min((int) Math.floor((i + 1) * every), size);
+            if (start >= end) {
+                continue;
+            }
+            int min = start;
+            int max = start;
+            for (int j = start + 1; j < end; j++) {
+                if (y[j] < y[min]) {
+                    min = j;
+                }
+                if (y[j] > y[max]) {
+                    max = j;
+                }
+            }
+            kept[count++] = Math.min(min, max);
+            if (min != max) {
+                kept[count++] = Math.max(min, max);
+            }
+        }
+        return Arrays.copyOf(kept, count);
+    }
+
+    private static int[] all(int size) {
+        int[] kept = new int[size];
+        for (int i = 0; i < size; i++) {
+            kept[i] = i;
+        }
+        return kept;
+    }
+
+    private static int[] edges(int size, int threshold) {
+        return threshold <= 1 ? new int[] { 0 } : new int[] { 0, size - 1 };
+    }
+}
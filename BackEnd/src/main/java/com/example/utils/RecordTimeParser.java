@@ -0,0 +1,138 @@
+package com.example.utils;
+
+import java.text.ParsePosition;
+import java.time.*;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoField;
+import java.time.temporal.TemporalAccessor;
+import java.time.temporal.TemporalQueries;
+import java.util.List;
+
+/**
+ * The record time parser of one import job.
+ * The values of a time column share one format, so the formatter and the strategy matching a value are
+ * remembered and tried first for the next value. All the formatters are only scanned again when the
+ * remembered one misses, and the scan screens the candidates without throwing exceptions.
+ */
+public class RecordTimeParser {
+    // Excel stores the dates as the days since 1899-12-30
+    private static final LocalDate EXCEL_EPOCH = LocalDate.of(1899, 12, 30);
+
+    private enum Strategy {
+        OFFSET_DATE_TIME,
+        LOCAL_DATE_TIME,
+        LOCAL_DATE,
+        EXCEL_SERIAL
+    }
+
+    private record Resolved(DateTimeFormatter formatter, Strategy strategy) {
+    }
+
+    private final List<DateTimeFormatter> formatters;
+    private final ZoneId zone;
+
+    // The formatter matching the last value, shared by the threads converting the rows of the job
+    private volatile Resolved resolved;
+
+    RecordTimeParser(List<DateTimeFormatter> formatters, ZoneId zone) {
+        this.formatters = formatters;
+        this.zone = zone;
+    }
+
+    /**
+     * Parse the record time.
+     *
+     * @param raw the raw value of the time column.
+     * @return the parsed instant, null if the value is blank.
+     */
+    public Instant parse(String raw) {
+        if (raw == null || raw.isBlank()) {
+            return null;
+        }
+        String s = raw.trim();
+
+        Resolved current = resolved;
+        if (current != null) {
+            Instant instant = parseWith(s, current);
+            if (instant != null) {
+                return instant;
+            }
+        }
+
+        for (DateTimeFormatter formatter : formatters) {
+            Strategy strategy = match(s, formatter);
+            if (strategy != null) {
+                Resolved candidate = new Resolved(formatter, strategy);
+                Instant instant = parseWith(s, candidate);
+                if (instant != null) {
+                    resolved = candidate;
+                    return instant;
+                }
+            }
+        }
+
+        if (isDigits(s)) {
+            Resolved candidate = new Resolved(null, Strategy.EXCEL_SERIAL);
+            Instant instant = parseWith(s, candidate);
+            if (instant != null) {
+                resolved = candidate;
+                return instant;
+            }
+        }
+
+        throw new IllegalArgumentException("Unrecognized date format: " + raw);
+    }
+
+    /**
+     * Check if the formatter accepts the whole value without throwing, and find the strategy for the fields
+     * it carries.
+     */
+    private static Strategy match(String s, DateTimeFormatter formatter) {
+        ParsePosition position = new ParsePosition(0);
+        TemporalAccessor parsed = formatter.parseUnresolved(s, position);
+        if (parsed == null || position.getErrorIndex() >= 0 || position.getIndex() != s.length()) {
+            return null;
+        }
+        if (parsed.isSupported(ChronoField.OFFSET_SECONDS)) {
+            return Strategy.OFFSET_DATE_TIME;
+        }
+        if (parsed.isSupported(ChronoField.HOUR_OF_DAY) || parsed.isSupported(ChronoField.CLOCK_HOUR_OF_AMPM)
+                || parsed.isSupported(ChronoField.HOUR_OF_AMPM)) {
+            return Strategy.LOCAL_DATE_TIME;
+        }
+        return Strategy.LOCAL_DATE;
+    }
+
+    private Instant parseWith(String s, Resolved resolved) {
+        try {
+            return switch (resolved.strategy()) {
+                case OFFSET_DATE_TIME -> OffsetDateTime.parse(s, resolved.formatter()).toInstant();
+                case LOCAL_DATE_TIME -> LocalDateTime.parse(s, resolved.formatter()).atZone(zone).toInstant();
+                case LOCAL_DATE -> {
+                    TemporalAccessor parsed = resolved.formatter().parse(s);
+                    LocalDate date = parsed.query(TemporalQueries.localDate());
+                    yield date == null ? null : date.atStartOfDay(zone).toInstant();
+                }
+                case EXCEL_SERIAL -> isDigits(s)
+                        ? EXCEL_EPOCH.plusDays(Long.parseLong(s)).atStartOfDay(zone).toInstant()
+                        : null;
+            };
+        } catch (RuntimeException ignored) {
+            // The value does not fit the remembered format
+            return null;
+        }
+    }
+
+    private static boolean isDigits(String s) {
+        if (s.isEmpty() || s.length() > 18) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
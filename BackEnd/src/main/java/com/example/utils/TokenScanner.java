@@ -0,0 +1,225 @@
+package com.example.utils;
+
+/**
+ * The hand-written scanner classifying the csv values in one pass, without throwing exceptions for the
+ * values that do not match.
+ */
+public final class TokenScanner {
+
+    /**
+     * The shape of the scanned value.
+     */
+    public enum TokenType {
+        // Blank value
+        EMPTY,
+
+        // 123, -42
+        INTEGER,
+
+        // 123.45, .5, 1e5
+        DECIMAL,
+
+        // 12.3%
+        PERCENT,
+
+        // 1,234,567.89
+        THOUSANDS,
+
+        // 2024-01-31, 2024/01/31
+        DATE,
+
+        // Anything else
+        TEXT;
+
+        public boolean isNumber() {
+            return this == INTEGER || this == DECIMAL || this == PERCENT || this == THOUSANDS;
+        }
+    }
+
+    private TokenScanner() {
+    }
+
+    /**
+     * Classify the value.
+     *
+     * @param value the input value.
+     * @return the type of the value.
+     */
+    public static TokenType classify(String value) {
+        if (value == null) {
+            return TokenType.EMPTY;
+        }
+        int start = 0;
+        int end = value.length();
+        while (start < end && Character.isWhitespace(value.charAt(start))) {
+            start++;
+        }
+        while (end > start && Character.isWhitespace(value.charAt(end - 1))) {
+            end--;
+        }
+        if (start == end) {
+            return TokenType.EMPTY;
+        }
+        if (isDate(value, start, end)) {
+            return TokenType.DATE;
+        }
+        return scanNumber(value, start, end);
+    }
+
+    /**
+     * Parse the value as a double, the thousands separators and the percent sign are dropped, so 12.3% is
+     * stored as 12.3.
+     *
+     * @param value the input value.
+     * @return the parsed number, or NaN if the value is not a number.
+     */
+    public static double parseNumber(String value) {
+        if (!classify(value).isNumber()) {
+            return Double.NaN;
+        }
+        String s = value.trim();
+        if (s.indexOf(',') >= 0 || s.indexOf('%') >= 0) {
+            StringBuilder sb = new StringBuilder(s.length());
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c != ',' && c != '%') {
+                    sb.append(c);
+                }
+            }
+            s = sb.toString();
+        }
+        return Double.parseDouble(s);
+    }
+
+    /**
+     * Scan [sign] digits [, digits{3}]* [. digits] [e [sign] digits] [%].
+     */
+    private static TokenType scanNumber(String s, int start, int end) {
+        int i = start;
+        boolean percent = false;
+        if (s.charAt(end - 1) == '%') {
+            percent = true;
+            end--;
+        }
+        if (i < end && (s.charAt(i) == '+' || s.charAt(i) == '-')) {
+            i++;
+        }
+
+        // Integer part, the commas have to separate every 3 digits
+        int digits = 0;
+        int groupDigits = 0;
+        boolean grouped = false;
+        while (i < end) {
+            char c = s.charAt(i);
+            if (isDigit(c)) {
+                digits++;
+                groupDigits++;
+            } else if (c == ',') {
+                if (grouped ? groupDigits != 3 : (groupDigits == 0 || groupDigits > 3)) {
+                    return TokenType.TEXT;
+                }
+                grouped = true;
+                groupDigits = 0;
+            } else {
+                break;
+            }
+            i++;
+        }
+        if (grouped && groupDigits != 3) {
+            return TokenType.TEXT;
+        }
+
+        // Fraction part
+        boolean decimal = false;
+        if (i < end && s.charAt(i) == '.') {
+            decimal = true;
+            i++;
+            while (i < end && isDigit(s.charAt(i))) {
+                digits++;
+                i++;
+            }
+        }
+        if (digits == 0) {
+            return TokenType.TEXT;
+        }
+
+        // Exponent part
+        if (i < end && (s.charAt(i) == 'e' || s.charAt(i) == 'E')) {
+            decimal = true;
+            i++;
+            if (i < end && (s.charAt(i) == '+' || s.charAt(i) == '-')) {
+                i++;
+            }
+            int exponentDigits = 0;
+            while (i < end && isDigit(s.charAt(i))) {
+                exponentDigits++;
+                i++;
+            }
+            if (exponentDigits == 0) {
+                return TokenType.TEXT;
+            }
+        }
+
+        if (i != end) {
+            return TokenType.TEXT;
+        }
+        if (percent) {
+            return TokenType.PERCENT;
+        }
+        if (grouped) {
+            return TokenType.THOUSANDS;
+        }
+        return decimal ? TokenType.DECIMAL : TokenType.INTEGER;
+    }
+
+    /**
+     * Check yyyy-MM-dd or yyyy/MM/dd with a valid month and day.
+     */
+    private static boolean isDate(String s, int start, int end) {
+        if (end - start != 10) {
+            return false;
+        }
+        char separator = s.charAt(start + 4);
+        if ((separator != '-' && separator != '/') || s.charAt(start + 7) != separator) {
+            return false;
+        }
+        int year = readDigits(s, start, 4);
+        int month = readDigits(s, start + 5, 2);
+        int day = readDigits(s, start + 8, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1) {
+            return false;
+        }
+        return day <= daysInMonth(year, month);
+    }
+
+    private static int readDigits(String s, int from, int count) {
+        int value = 0;
+        for (int i = from; i < from + count; i++) {
+            char c = s.charAt(i);
+            if (!isDigit(c)) {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static int daysInMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+                return leap ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
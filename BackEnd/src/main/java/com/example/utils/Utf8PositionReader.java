@@ -0,0 +1,165 @@
+package com.example.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+
+/**
+ * The UTF-8 reader telling the byte offset of a character position, so the position of a parsed csv record
+ * can be turned into the offset a ranged read starts from. Only the characters taking more than one byte are
+ * remembered, from the last asked position up to the decoded one, an ASCII file keeps nothing. The malformed
+ * bytes are read as U+FFFD one byte each, like {@link java.io.InputStreamReader} does.
+ */
+public final class Utf8PositionReader extends Reader {
+    private static final char REPLACEMENT = '\uFFFD';
+    private static final int BUFFER_SIZE = 8192;
+
+    private final InputStream in;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int pos;
+    private int limit;
+    private boolean eof;
+
+    // The low surrogate of a four byte character not returned yet
+    private int pendingLow = -1;
+
+    // The characters returned so far
+    private long chars;
+
+    // The multi byte characters not passed yet, the position times four plus the extra bytes
+    private long[] wide = new long[64];
+    private int wideHead;
+    private int wideSize;
+
+    // The extra bytes of the multi byte characters already passed
+    private long passedExtra;
+
+    public Utf8PositionReader(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * The byte offset of the character position. The positions must be asked in ascending order and must
+     * not be ahead of the characters already read.
+     *
+     * @param charPosition the character position.
+     * @return the byte offset from the start of the stream.
+     */
+    public long byteOffset(long charPosition) {
+        while (wideSize > 0 && (wide[wideHead] >>> 2) < charPosition) {
+            passedExtra += wide[wideHead] & 3;
+            wideHead = (wideHead + 1) % wide.length;
+            wideSize--;
+        }
+        return charPosition + passedExtra;
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        int n = 0;
+        while (n < len) {
+            if (pendingLow >= 0) {
+                cbuf[off + n++] = (char) pendingLow;
+                pendingLow = -1;
+                chars++;
+                continue;
+            }
+            if (pos == limit) {
+                // Only block for more bytes when nothing was read yet
+                if (n > 0 || !fill(1)) {
+                    break;
+                }
+            }
+            int b0 = buffer[pos] & 0xFF;
+            if (b0 < 0x80) {
+                cbuf[off + n++] = (char) b0;
+                pos++;
+                chars++;
+                continue;
+            }
+
+            int length = b0 >= 0xF8 ? 1 : b0 >= 0xF0 ? 4 : b0 >= 0xE0 ? 3 : b0 >= 0xC0 ? 2 : 1;
+            if (length > 1 && limit - pos < length && (n > 0 || !fill(length))) {
+                if (n > 0) {
+                    break;
+                }
+                // Truncated at the end of the stream
+                length = 1;
+            }
+            int codePoint = length == 1 ? -1 : decode(b0, length);
+            if (codePoint < 0) {
+                cbuf[off + n++] = REPLACEMENT;
+                pos++;
+                chars++;
+                continue;
+            }
+
+            pos += length;
+            remember(chars, length - Character.charCount(codePoint));
+            if (Character.isBmpCodePoint(codePoint)) {
+                cbuf[off + n++] = (char) codePoint;
+            } else {
+                cbuf[off + n++] = Character.highSurrogate(codePoint);
+                pendingLow = Character.lowSurrogate(codePoint);
+            }
+            chars++;
+        }
+        // Nothing read means the stream ended
+        return n == 0 ? -1 : n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private int decode(int b0, int length) {
+        int codePoint = b0 & (0xFF >> (length + 1));
+        for (int i = 1; i < length; i++) {
+            int b = buffer[pos + i] & 0xFF;
+            if ((b & 0xC0) != 0x80) {
+                return -1;
+            }
+            codePoint = (codePoint << 6) | (b & 0x3F);
+        }
+        return codePoint <= Character.MAX_CODE_POINT ? codePoint : -1;
+    }
+
+    private void remember(long position, int extra) {
+        if (wideSize == wide.length) {
+            long[] grown = new long[wide.length * 2];
+            for (int i = 0; i < wideSize; i++) {
+                grown[i] = wide[(wideHead + i) % wide.length];
+            }
+            wide = grown;
+            wideHead = 0;
+        }
+        wide[(wideHead + wideSize) % wide.length] = position << 2 | extra;
+        wideSize++;
+    }
+
+    /**
+     * Read until at least the bytes are buffered or the stream ends.
+     *
+     * @return whether the bytes are buffered.
+     */
+    private boolean fill(int bytes) throws IOException {
+        if (pos > 0) {
+            System.arraycopy(buffer, pos, buffer, 0, limit - pos);
+            limit -= pos;
+            pos = 0;
+        }
+        while (limit < bytes && !eof) {
+            int read = in.read(buffer, limit, buffer.length - limit);
+            if (read < 0) {
+                eof = true;
+            } else {
+                limit += read;
+            }
+        }
+        return limit >= bytes;
+    }
+}
@@ -6,11 +6,16 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
 import org.springframework.mail.SimpleMailMessage;
 import org.springframework.mail.javamail.JavaMailSender;
 
+import com.example.async.threads.ResourceLimiter;
+import com.example.async.threads.ThreadingProperties;
 import com.example.auth.infra.jpa.VerificationMailListener;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
 import static org.mockito.Mockito.verify;
 
 public class VerificationMailSenderTests {
@@ -21,6 +26,9 @@ public class VerificationMailSenderTests {
     @Mock
     private JavaMailSender mailSender;
 
+    @Spy
+    private ResourceLimiter resourceLimiter = new ResourceLimiter(new ThreadingProperties(), new SimpleMeterRegistry());
+
     @BeforeEach
     void setup() {
         MockitoAnnotations.openMocks(this);
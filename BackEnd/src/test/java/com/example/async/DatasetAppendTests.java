@@ -0,0 +1,116 @@
+package com.example.async;
+
+import com.example.async.importdataset.DatasetCsvImportService;
+import com.example.async.importdataset.ImportPipeline;
+import com.example.async.importdataset.ImportProperties;
+import com.example.async.threads.ResourceLimiter;
+import com.example.async.threads.ThreadingProperties;
+import com.example.dataset.app.RecordQueryCache;
+import com.example.dataset.app.RecordRollupService;
+import com.example.dataset.domain.ColumnMeta;
+import com.example.dataset.domain.ColumnType;
+import com.example.dataset.domain.CreateCollectionDataProps;
+import com.example.dataset.domain.DatasetMetadata;
+import com.example.dataset.domain.DatasetStatus;
+import com.example.dataset.domain.VersionControl;
+import com.example.dataset.infra.mongo.DatasetMetadataRepo;
+import com.example.dataset.infra.mongo.DatasetRecordRepo;
+import com.example.exception.types.DatasetStatusException;
+import com.example.s3.S3Properties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.s3.S3Client;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class DatasetAppendTests {
+
+    private DatasetMetadataRepo datasetRepo;
+    private DatasetCsvImportService service;
+    private DatasetMetadata dataset;
+
+    @BeforeEach
+    void setUp() {
+        datasetRepo = mock(DatasetMetadataRepo.class);
+        service = new DatasetCsvImportService(mock(S3Client.class), new S3Properties(), datasetRepo,
+                mock(ImportPipeline.class), new ImportProperties(), mock(RecordRollupService.class),
+                mock(RecordQueryCache.class), mock(DatasetRecordRepo.class), new ObjectMapper(),
+                new ResourceLimiter(new ThreadingProperties(), new SimpleMeterRegistry()));
+
+        dataset = DatasetMetadata.builder()
+                .id("ds")
+                .userId(1L)
+                .datasetName("prices")
+                .status(DatasetStatus.ACTIVE)
+                .current(VersionControl.builder()
+                        .version(3)
+                        .rowCount(1000L)
+                        .headers(List.of(
+                                ColumnMeta.builder().columnName("Date").dataType(ColumnType.DATE).build(),
+                                ColumnMeta.builder().columnName("Symbol").dataType(ColumnType.STRING).build(),
+                                ColumnMeta.builder().columnName("Close").dataType(ColumnType.NUMBER).metric(true).build()))
+                        .build())
+                .build();
+        when(datasetRepo.findByUserIdAndDatasetName(1L, "prices")).thenReturn(Optional.of(dataset));
+        when(datasetRepo.stageVersion(eq("ds"), eq(DatasetStatus.ACTIVE), eq(DatasetStatus.UPLOADING), any(), any()))
+                .thenReturn(1L);
+    }
+
+    @Test
+    void stageAppend_shouldStageNextVersionWithCurrentHeaders() {
+        DatasetMetadata staged = service.stageAppend(List.of("symbol", "DATE", "close"), props());
+
+        assertThat(staged.getStatus()).isEqualTo(DatasetStatus.UPLOADING);
+        assertThat(staged.getStaged().getVersion()).isEqualTo(4);
+        assertThat(staged.getStaged().getRowCount()).isEqualTo(1000L);
+        assertThat(staged.getStaged().getHeaders()).isEqualTo(dataset.getCurrent().getHeaders());
+        assertThat(staged.getCurrent().getVersion()).isEqualTo(3);
+        verify(datasetRepo).stageVersion(eq("ds"), eq(DatasetStatus.ACTIVE), eq(DatasetStatus.UPLOADING),
+                argThat(version -> version.getVersion() == 4), any());
+        verify(datasetRepo, never()).save(any());
+    }
+
+    @Test
+    void stageAppend_shouldFailWhenDatasetTakenMeanwhile() {
+        // A compaction took the dataset between the read and the claim
+        when(datasetRepo.stageVersion(eq("ds"), eq(DatasetStatus.ACTIVE), eq(DatasetStatus.UPLOADING), any(), any()))
+                .thenReturn(0L);
+
+        assertThatThrownBy(() -> service.stageAppend(List.of("Date", "Symbol", "Close"), props()))
+                .isInstanceOf(DatasetStatusException.class);
+        verify(datasetRepo, never()).save(any());
+    }
+
+    @Test
+    void stageAppend_shouldRejectChangedHeaders() {
+        assertThatThrownBy(() -> service.stageAppend(List.of("Date", "Symbol", "Open"), props()))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("missing=[CLOSE]")
+                .hasMessageContaining("unexpected=[OPEN]");
+        verify(datasetRepo, never()).stageVersion(any(), any(), any(), any(), any());
+    }
+
+    @Test
+    void stageAppend_shouldRejectDatasetBusyWithAnotherImport() {
+        dataset.setStatus(DatasetStatus.UPLOADING);
+
+        assertThatThrownBy(() -> service.stageAppend(List.of("Date", "Symbol", "Close"), props()))
+                .isInstanceOf(DatasetStatusException.class);
+    }
+
+    private CreateCollectionDataProps props() {
+        return CreateCollectionDataProps.builder()
+                .userId(1L)
+                .datasetName("prices")
+                .build();
+    }
+}
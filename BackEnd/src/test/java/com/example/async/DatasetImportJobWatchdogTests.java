@@ -0,0 +1,93 @@
+package com.example.async;
+
+import com.example.async.cleanup.DatasetImportJobWatchdog;
+import com.example.async.importdataset.DatasetCsvImportService;
+import com.example.dataset.domain.DatasetImportJob;
+import com.example.dataset.domain.ImportJobQueuedEvent;
+import com.example.dataset.infra.jpa.DatasetImportJobRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.context.ApplicationEventPublisher;
+
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class DatasetImportJobWatchdogTests {
+
+    private DatasetImportJobRepository repo;
+    private DatasetCsvImportService importService;
+    private ApplicationEventPublisher eventPublisher;
+    private DatasetImportJobWatchdog watchdog;
+
+    @BeforeEach
+    void setUp() {
+        repo = mock(DatasetImportJobRepository.class);
+        importService = mock(DatasetCsvImportService.class);
+        eventPublisher = mock(ApplicationEventPublisher.class);
+        watchdog = new DatasetImportJobWatchdog(repo, importService, eventPublisher);
+        when(repo.claimStaleJob(anyLong(), anyString(), any(), any())).thenReturn(1);
+    }
+
+    @Test
+    void recoverStaleJobs_shouldRequeueOnlyUnderOwnClaim() {
+        when(repo.findStaleRunningJobs(any(), anyInt())).thenReturn(List.of(job(0L)));
+        when(repo.requeueStaleJob(anyLong(), anyString(), anyString(), anyString(), any())).thenReturn(1);
+
+        watchdog.recoverStaleJobs();
+
+        ArgumentCaptor<String> claimedBy = ArgumentCaptor.forClass(String.class);
+        verify(repo).claimStaleJob(eq(7L), claimedBy.capture(), any(), any());
+        verify(repo).requeueStaleJob(eq(7L), eq(claimedBy.getValue()), anyString(), anyString(), any());
+        verify(eventPublisher).publishEvent(any(ImportJobQueuedEvent.class));
+    }
+
+    @Test
+    void recoverStaleJobs_shouldNotPublishWhenRequeueLostClaim() {
+        when(repo.findStaleRunningJobs(any(), anyInt())).thenReturn(List.of(job(0L)));
+        when(repo.requeueStaleJob(anyLong(), anyString(), anyString(), anyString(), any())).thenReturn(0);
+
+        watchdog.recoverStaleJobs();
+
+        verifyNoInteractions(eventPublisher);
+    }
+
+    @Test
+    void recoverStaleJobs_shouldAbandonOnlyWhenFailUpdatesJob() {
+        DatasetImportJob lost = job(2L);
+        when(repo.findStaleRunningJobs(any(), anyInt())).thenReturn(List.of(lost));
+        when(repo.markStaleJobFailed(anyLong(), anyString(), anyString(), anyString(), any())).thenReturn(0);
+
+        watchdog.recoverStaleJobs();
+
+        verify(repo).markStaleJobFailed(eq(7L), startsWith("watchdog-"), anyString(), anyString(), any());
+        verifyNoInteractions(importService);
+
+        when(repo.markStaleJobFailed(anyLong(), anyString(), anyString(), anyString(), any())).thenReturn(1);
+
+        watchdog.recoverStaleJobs();
+
+        verify(importService).abandonImport(lost);
+    }
+
+    @Test
+    void recoverStaleJobs_shouldSkipJobClaimedByAnother() {
+        when(repo.findStaleRunningJobs(any(), anyInt())).thenReturn(List.of(job(0L)));
+        when(repo.claimStaleJob(anyLong(), anyString(), any(), any())).thenReturn(0);
+
+        watchdog.recoverStaleJobs();
+
+        verify(repo, never()).requeueStaleJob(anyLong(), anyString(), anyString(), anyString(), any());
+        verifyNoInteractions(eventPublisher);
+    }
+
+    private DatasetImportJob job(Long retry) {
+        DatasetImportJob job = new DatasetImportJob();
+        job.setId(7L);
+        job.setJobId("job-7");
+        job.setRetry(retry);
+        return job;
+    }
+}
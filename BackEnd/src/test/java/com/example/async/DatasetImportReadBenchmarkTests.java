@@ -0,0 +1,243 @@
+package com.example.async;
+
+import com.example.async.importdataset.DatasetCsvImportService;
+import com.example.async.importdataset.ImportPipeline;
+import com.example.async.importdataset.ImportProperties;
+import com.example.async.importdataset.ImportResult;
+import com.example.async.threads.ResourceLimiter;
+import com.example.async.threads.ThreadingProperties;
+import com.example.benchmark.BenchmarkHarness;
+import com.example.benchmark.BenchmarkHarness.Measurement;
+import com.example.dataset.app.RecordQueryCache;
+import com.example.dataset.app.RecordRollupService;
+import com.example.dataset.domain.DatasetImportJob;
+import com.example.dataset.domain.DatasetImportJobMetadata;
+import com.example.dataset.domain.DatasetMetadata;
+import com.example.dataset.infra.mongo.DatasetMetadataRepo;
+import com.example.dataset.infra.mongo.DatasetRecordRepo;
+import com.example.s3.S3Properties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.Iterator;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * The single pass import of a new dataset against the two GetObject calls it replaced. The stand-in S3 waits
+ * the first byte latency on every get and serves the bytes at a fixed bandwidth. A stream closed before its
+ * end is drained, the way the http client keeps the connection, so the inference pass of the two pass import
+ * downloads the whole object once more. The two pass import is that inference pass followed by the import.
+ * The pipeline only reads the rows, so the numbers are the cost of the reads.
+ * <p>
+ * The numbers depend on the machine, run it with
+ * {@code mvn test -Dtest=DatasetImportReadBenchmarkTests -Dbenchmark=true}.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class DatasetImportReadBenchmarkTests {
+    private static final int ROWS = 200_000;
+    private static final int INFER_ROWS = 1000;
+    private static final long FIRST_BYTE_MILLIS = 50;
+    private static final long BYTES_PER_SECOND = 50L * 1024 * 1024;
+
+    private final BenchmarkHarness harness = new BenchmarkHarness(DatasetImportReadBenchmarkTests.class);
+
+    private S3Client s3Client;
+    private DatasetCsvImportService service;
+    private byte[] object;
+    private AtomicLong gets;
+    private AtomicLong bytesServed;
+    private AtomicReference<DatasetMetadata> saved;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        s3Client = mock(S3Client.class);
+        DatasetMetadataRepo datasetRepo = mock(DatasetMetadataRepo.class);
+        ImportPipeline pipeline = mock(ImportPipeline.class);
+        ObjectMapper objectMapper = spy(new ObjectMapper());
+        doReturn(DatasetImportJobMetadata.builder().timezone("UTC").build())
+                .when(objectMapper).readValue("{}", DatasetImportJobMetadata.class);
+
+        S3Properties s3Properties = new S3Properties();
+        s3Properties.setBucket("bucket");
+        ImportProperties importProperties = new ImportProperties();
+        importProperties.setInferSampleSize(INFER_ROWS);
+        service = new DatasetCsvImportService(s3Client, s3Properties, datasetRepo, pipeline, importProperties,
+                mock(RecordRollupService.class), mock(RecordQueryCache.class), mock(DatasetRecordRepo.class),
+                objectMapper, new ResourceLimiter(new ThreadingProperties(), new SimpleMeterRegistry()));
+
+        // The dataset is created by the import and found again by the commit
+        saved = new AtomicReference<>();
+        when(datasetRepo.findByUserIdAndDatasetName(1L, "prices"))
+                .thenAnswer(inv -> Optional.ofNullable(saved.get()));
+        when(datasetRepo.save(any(DatasetMetadata.class))).thenAnswer(inv -> {
+            saved.set(inv.getArgument(0));
+            return inv.getArgument(0);
+        });
+
+        when(pipeline.run(anyList(), any(), any(), any(), any(), any())).thenAnswer(inv -> {
+            Iterator<CSVRecord> rows = inv.getArgument(1);
+            long count = 0;
+            while (rows.hasNext()) {
+                rows.next();
+                count++;
+            }
+            return ImportResult.builder().processedRows(count).successRows(count).build();
+        });
+
+        object = csv(ROWS).getBytes(StandardCharsets.UTF_8);
+        gets = new AtomicLong();
+        bytesServed = new AtomicLong();
+        when(s3Client.getObject(any(GetObjectRequest.class))).thenAnswer(inv -> {
+            gets.incrementAndGet();
+            Thread.sleep(FIRST_BYTE_MILLIS);
+            return new ResponseInputStream<>(GetObjectResponse.builder().contentLength((long) object.length).build(),
+                    AbortableInputStream.create(new SimulatedS3Stream(object)));
+        });
+    }
+
+    @Test
+    void compareSingleAndTwoPassImport() throws Exception {
+        Measurement<Fetched> single = harness.measure(ROWS, this::reset, () -> {
+            service.createDatasetFromS3(job(), (p, s, f) -> {
+            });
+            return fetched();
+        });
+        Measurement<Fetched> two = harness.measure(ROWS, this::reset, () -> {
+            inferencePass();
+            service.createDatasetFromS3(job(), (p, s, f) -> {
+            });
+            return fetched();
+        });
+        harness.report("singlePass", single, "gets", single.value().gets(), "bytesFetched", single.value().bytes());
+        harness.report("twoPass", two, "gets", two.value().gets(), "bytesFetched", two.value().bytes());
+
+        assertThat(single.value().gets()).isEqualTo(1);
+        assertThat(single.value().bytes()).isLessThan(two.value().bytes());
+        assertThat(single.nanosPerOp()).isLessThan(two.nanosPerOp());
+    }
+
+    private void inferencePass() throws Exception {
+        GetObjectRequest request = GetObjectRequest.builder().bucket("bucket").key("uploads/prices.csv").build();
+        try (InputStream in = s3Client.getObject(request);
+             CSVParser parser = CSVFormat.DEFAULT.builder()
+                     .setHeader()
+                     .setSkipHeaderRecord(true)
+                     .build()
+                     .parse(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            Iterator<CSVRecord> it = parser.iterator();
+            for (int i = 0; i < INFER_ROWS && it.hasNext(); i++) {
+                it.next();
+            }
+        }
+    }
+
+    private void reset() {
+        // Every run creates the dataset anew
+        saved.set(null);
+        gets.set(0);
+        bytesServed.set(0);
+    }
+
+    private Fetched fetched() {
+        return new Fetched(gets.get(), bytesServed.get());
+    }
+
+    private DatasetImportJob job() {
+        DatasetImportJob job = new DatasetImportJob();
+        job.setJobId("job-1");
+        job.setUserId(1L);
+        job.setDatasetName("prices");
+        job.setTempFilePath("uploads/prices.csv");
+        job.setMetadata("{}");
+        return job;
+    }
+
+    private String csv(int rows) {
+        StringBuilder sb = new StringBuilder("Date,Symbol,Open,Close,Volume\n");
+        LocalDate day = LocalDate.of(2000, 1, 1);
+        for (int i = 0; i < rows; i++) {
+            sb.append(day.plusDays(i / 10)).append(",SYM").append(i % 10)
+                    .append(',').append(100 + i % 7).append('.').append(i % 100)
+                    .append(',').append(101 + i % 5).append('.').append(i % 100)
+                    .append(',').append(1000 + i).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The object bytes served at the simulated bandwidth, drained to the end on close.
+     */
+    private class SimulatedS3Stream extends InputStream {
+        private final ByteArrayInputStream bytes;
+        private final long start = System.nanoTime();
+        private long served;
+
+        SimulatedS3Stream(byte[] object) {
+            this.bytes = new ByteArrayInputStream(object);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = bytes.read(b, off, len);
+            if (n > 0) {
+                served += n;
+                bytesServed.addAndGet(n);
+                throttle();
+            }
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            byte[] rest = new byte[8192];
+            while (read(rest, 0, rest.length) > 0) {
+                // Drained like the http client does to reuse the connection
+            }
+        }
+
+        private void throttle() throws IOException {
+            long due = start + served * 1_000_000_000L / BYTES_PER_SECOND;
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                try {
+                    Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while serving the object", e);
+                }
+            }
+        }
+    }
+
+    private record Fetched(long gets, long bytes) {
+    }
+}
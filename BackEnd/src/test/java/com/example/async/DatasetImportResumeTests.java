@@ -0,0 +1,203 @@
+package com.example.async;
+
+import com.example.async.importdataset.DatasetCsvImportService;
+import com.example.async.importdataset.ImportCheckpoint;
+import com.example.async.importdataset.ImportPipeline;
+import com.example.async.importdataset.ImportProgressUpdater;
+import com.example.async.importdataset.ImportProperties;
+import com.example.async.threads.ResourceLimiter;
+import com.example.async.threads.ThreadingProperties;
+import com.example.dataset.app.RecordQueryCache;
+import com.example.dataset.app.RecordRollupService;
+import com.example.dataset.domain.ColumnMeta;
+import com.example.dataset.domain.ColumnType;
+import com.example.dataset.domain.DatasetImportJob;
+import com.example.dataset.domain.DatasetImportJobMetadata;
+import com.example.dataset.domain.DatasetMetadata;
+import com.example.dataset.domain.DatasetStatus;
+import com.example.dataset.domain.VersionControl;
+import com.example.dataset.infra.mongo.DatasetMetadataRepo;
+import com.example.dataset.infra.mongo.DatasetRecordRepo;
+import com.example.s3.S3Properties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.commons.csv.CSVRecord;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.ToLongFunction;
+import java.util.zip.GZIPOutputStream;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class DatasetImportResumeTests {
+
+    private static final String HEAD = "Date,Symbol,Close\n2024-01-01,AAA,1\n";
+    private static final String CSV = HEAD + "2024-01-02,ÄBB,2\n2024-01-03,CCC,3\n";
+
+    private S3Client s3Client;
+    private DatasetMetadataRepo datasetRepo;
+    private DatasetRecordRepo recordRepo;
+    private ImportPipeline pipeline;
+    private ObjectMapper objectMapper;
+    private DatasetCsvImportService service;
+    private List<String> ranges;
+    private byte[] object;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        s3Client = mock(S3Client.class);
+        datasetRepo = mock(DatasetMetadataRepo.class);
+        recordRepo = mock(DatasetRecordRepo.class);
+        pipeline = mock(ImportPipeline.class);
+        objectMapper = spy(new ObjectMapper());
+        doReturn(DatasetImportJobMetadata.builder().timezone("UTC").build())
+                .when(objectMapper).readValue("{}", DatasetImportJobMetadata.class);
+
+        S3Properties s3Properties = new S3Properties();
+        s3Properties.setBucket("bucket");
+        service = new DatasetCsvImportService(s3Client, s3Properties, datasetRepo, pipeline, new ImportProperties(),
+                mock(RecordRollupService.class), mock(RecordQueryCache.class), recordRepo, objectMapper,
+                new ResourceLimiter(new ThreadingProperties(), new SimpleMeterRegistry()));
+
+        // The ranged gets answer the object from the asked offset
+        ranges = new ArrayList<>();
+        object = CSV.getBytes(StandardCharsets.UTF_8);
+        when(s3Client.getObject(any(GetObjectRequest.class))).thenAnswer(inv -> {
+            GetObjectRequest request = inv.getArgument(0);
+            ranges.add(request.range());
+            int from = 0;
+            if (request.range() != null) {
+                from = Integer.parseInt(request.range().substring("bytes=".length(), request.range().indexOf('-')));
+            }
+            return new ResponseInputStream<>(GetObjectResponse.builder().contentLength((long) object.length).build(),
+                    AbortableInputStream.create(new ByteArrayInputStream(Arrays.copyOfRange(object, from, object.length))));
+        });
+    }
+
+    @Test
+    void createDatasetFromS3_shouldResumeFromCheckpointOffset() throws Exception {
+        int offset = HEAD.getBytes(StandardCharsets.UTF_8).length;
+        DatasetImportJob job = job(ImportCheckpoint.builder()
+                .version(1)
+                .rows(1)
+                .byteOffset(offset)
+                .batchSeq(0)
+                .successRows(1)
+                .build());
+        when(datasetRepo.findByUserIdAndDatasetName(1L, "prices")).thenReturn(Optional.of(staged(1)));
+
+        List<String> symbols = new ArrayList<>();
+        List<Long> offsets = new ArrayList<>();
+        when(pipeline.run(anyList(), any(), any(), any(), any(), any())).thenAnswer(inv -> {
+            Iterator<CSVRecord> rows = inv.getArgument(1);
+            ToLongFunction<CSVRecord> byteOffset = inv.getArgument(5);
+            while (rows.hasNext()) {
+                CSVRecord row = rows.next();
+                symbols.add(row.get("Symbol"));
+                offsets.add(byteOffset.applyAsLong(row));
+            }
+            throw new IllegalStateException("stop");
+        });
+
+        assertThatThrownBy(() -> service.createDatasetFromS3(job, (p, s, f) -> {}))
+                .hasMessage("stop");
+
+        verify(recordRepo).deleteBatchesAfter("ds", 1, "job-1", "job-1-0000000000");
+        assertThat(ranges).containsExactly("bytes=0-65535", "bytes=" + offset + "-");
+        assertThat(symbols).containsExactly("ÄBB", "CCC");
+        assertThat(offsets).containsExactly((long) offset,
+                (long) (HEAD + "2024-01-02,ÄBB,2\n").getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    @Test
+    void createDatasetFromS3_shouldSkipToCheckpointOffsetOfCompressedObject() throws Exception {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(CSV.getBytes(StandardCharsets.UTF_8));
+        }
+        object = compressed.toByteArray();
+
+        int offset = HEAD.getBytes(StandardCharsets.UTF_8).length;
+        DatasetImportJob job = job(ImportCheckpoint.builder().version(1).rows(1).byteOffset(offset).batchSeq(0).build());
+        job.setTempFilePath("uploads/prices.csv.gz");
+        when(datasetRepo.findByUserIdAndDatasetName(1L, "prices")).thenReturn(Optional.of(staged(1)));
+
+        List<String> symbols = new ArrayList<>();
+        List<Long> offsets = new ArrayList<>();
+        when(pipeline.run(anyList(), any(), any(), any(), any(), any())).thenAnswer(inv -> {
+            Iterator<CSVRecord> rows = inv.getArgument(1);
+            ToLongFunction<CSVRecord> byteOffset = inv.getArgument(5);
+            while (rows.hasNext()) {
+                CSVRecord row = rows.next();
+                symbols.add(row.get("Symbol"));
+                offsets.add(byteOffset.applyAsLong(row));
+            }
+            throw new IllegalStateException("stop");
+        });
+
+        assertThatThrownBy(() -> service.createDatasetFromS3(job, (p, s, f) -> {}))
+                .hasMessage("stop");
+
+        // The compressed object is read from its start, the csv offsets stay the ones of the checkpoint
+        assertThat(ranges).containsExactly("bytes=0-65535", null);
+        assertThat(symbols).containsExactly("ÄBB", "CCC");
+        assertThat(offsets.get(0)).isEqualTo(offset);
+    }
+
+    @Test
+    void createDatasetFromS3_shouldStartOverWhenStagedVersionChanged() throws Exception {
+        DatasetImportJob job = job(ImportCheckpoint.builder().version(1).rows(1).byteOffset(36).batchSeq(0).build());
+        DatasetMetadata dataset = staged(1);
+        dataset.setStatus(DatasetStatus.FAILED);
+        when(datasetRepo.findByUserIdAndDatasetName(1L, "prices")).thenReturn(Optional.of(dataset));
+
+        // The new import stops while creating the dataset, which already exists
+        assertThatThrownBy(() -> service.createDatasetFromS3(job, (p, s, f) -> {}));
+
+        verify(recordRepo, never()).deleteBatchesAfter(anyString(), anyInt(), anyString(), anyString());
+        assertThat(ranges).containsExactly((String) null);
+    }
+
+    private DatasetImportJob job(ImportCheckpoint checkpoint) throws Exception {
+        DatasetImportJob job = new DatasetImportJob();
+        job.setJobId("job-1");
+        job.setUserId(1L);
+        job.setDatasetName("prices");
+        job.setTempFilePath("uploads/prices.csv");
+        job.setMetadata("{}");
+        job.setCheckpoint(new ObjectMapper().writeValueAsString(checkpoint));
+        return job;
+    }
+
+    private DatasetMetadata staged(int version) {
+        return DatasetMetadata.builder()
+                .id("ds")
+                .userId(1L)
+                .datasetName("prices")
+                .status(DatasetStatus.UPLOADING)
+                .staged(VersionControl.builder()
+                        .version(version)
+                        .headers(List.of(
+                                ColumnMeta.builder().columnName("Date").dataType(ColumnType.DATE).build(),
+                                ColumnMeta.builder().columnName("Symbol").dataType(ColumnType.STRING).build(),
+                                ColumnMeta.builder().columnName("Close").dataType(ColumnType.NUMBER).metric(true).build()))
+                        .build())
+                .build();
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.async;
+
+import com.example.async.importdataset.DatasetCsvImportService;
+import com.example.async.importdataset.DatasetImportWorker;
+import com.example.async.importdataset.ImportProgressUpdater;
+import com.example.dataset.domain.DatasetImportJob;
+import com.example.dataset.domain.DatasetImportType;
+import com.example.dataset.domain.ImportJobQueuedEvent;
+import com.example.dataset.infra.jpa.DatasetImportJobRepository;
+import com.example.notification.NotificationEventPublisher;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.ApplicationEventPublisher;
+
+import java.util.Optional;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class DatasetImportWorkerTests {
+
+    private DatasetImportJobRepository importJobRepo;
+    private DatasetCsvImportService importService;
+    private ApplicationEventPublisher eventPublisher;
+    private DatasetImportWorker worker;
+    private DatasetImportJob job;
+
+    @BeforeEach
+    void setUp() {
+        importJobRepo = mock(DatasetImportJobRepository.class);
+        importService = mock(DatasetCsvImportService.class);
+        eventPublisher = mock(ApplicationEventPublisher.class);
+        worker = new DatasetImportWorker(importJobRepo, importService, mock(NotificationEventPublisher.class),
+                new ObjectMapper(), eventPublisher);
+
+        job = new DatasetImportJob();
+        job.setJobId("job-1");
+        job.setUserId(1L);
+        job.setDatasetName("prices");
+        job.setType(DatasetImportType.CREATE_DATASET);
+        job.setRetry(0L);
+        when(importJobRepo.findByJobId("job-1")).thenReturn(Optional.of(job));
+        when(importJobRepo.requeueFailedJob(eq("job-1"), any(), any(), any())).thenReturn(1);
+        when(importJobRepo.markFailed(eq("job-1"), any(), any(), any())).thenReturn(1);
+    }
+
+    @Test
+    void process_shouldRequeueFailedJobWithCheckpoint() throws Exception {
+        doAnswer(inv -> {
+            // The import saved a checkpoint before it failed
+            job.setCheckpoint("{\"version\":1,\"rows\":500}");
+            throw new IllegalStateException("Import pipeline aborted");
+        }).when(importService).createDatasetFromS3(eq(job), any());
+
+        worker.process("job-1");
+
+        verify(importJobRepo).requeueFailedJob(eq("job-1"), eq("IMPORT_FAILED"), eq("Import pipeline aborted"),
+                any());
+        verify(eventPublisher).publishEvent(new ImportJobQueuedEvent("job-1"));
+        verify(importJobRepo, never()).markFailed(any(), any(), any(), any());
+        verify(importService, never()).abandonImport(any());
+    }
+
+    @Test
+    void process_shouldFailJobOutOfRetries() throws Exception {
+        job.setRetry(2L);
+        job.setCheckpoint("{\"version\":1,\"rows\":500}");
+        doThrow(new IllegalStateException("Import pipeline aborted"))
+                .when(importService).createDatasetFromS3(eq(job), any());
+
+        worker.process("job-1");
+
+        verify(importJobRepo, never()).requeueFailedJob(any(), any(), any(), any());
+        verify(importJobRepo).markFailed(eq("job-1"), eq("IMPORT_FAILED"), eq("Import pipeline aborted"), any());
+        verify(importService).abandonImport(job);
+    }
+
+    @Test
+    void process_shouldFailJobWithoutCheckpoint() throws Exception {
+        doThrow(new IllegalArgumentException("The csv headers do not match the dataset"))
+                .when(importService).createDatasetFromS3(eq(job), any());
+
+        worker.process("job-1");
+
+        verify(importJobRepo, never()).requeueFailedJob(any(), any(), any(), any());
+        verify(importJobRepo).markFailed(eq("job-1"), eq("IMPORT_FAILED"), any(), any());
+        verifyNoInteractions(eventPublisher);
+    }
+
+    @Test
+    void process_shouldHeartbeatWhileCommitting() throws Exception {
+        doAnswer(inv -> {
+            ImportProgressUpdater updater = inv.getArgument(1);
+            updater.heartbeat();
+            return null;
+        }).when(importService).createDatasetFromS3(eq(job), any());
+        when(importJobRepo.heartbeat(eq("job-1"), any())).thenThrow(new IllegalStateException("db down"));
+
+        worker.process("job-1");
+
+        // The failed heartbeat does not fail the job
+        verify(importJobRepo).heartbeat(eq("job-1"), any());
+        verify(importJobRepo).markSucceeded(eq("job-1"), any());
+        verify(importJobRepo, never()).markFailed(any(), any(), any(), any());
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.async;
+
+import com.example.async.threads.ResourceLimiter;
+import com.example.async.threads.ResourceLimiter.Resource;
+import com.example.async.threads.ThreadingProperties;
+import com.example.benchmark.BenchmarkHarness;
+import com.example.benchmark.BenchmarkHarness.Measurement;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * The request threads against the virtual threads at high concurrency. Every request reads mongo and then
+ * waits on S3, the calls bounded by the resource permits in both modes. The platform pool is sized like the
+ * default tomcat pool, so its requests wait for a thread while the resources are idle.
+ * <p>
+ * The numbers depend on the machine, run it with
+ * {@code mvn test -Dtest=ExecutorModeBenchmarkTests -Dbenchmark=true}.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class ExecutorModeBenchmarkTests {
+    private static final int REQUESTS = 20_000;
+    private static final int PLATFORM_THREADS = 200;
+    private static final long MONGO_MILLIS = 5;
+    private static final long S3_MILLIS = 40;
+
+    // A platform run takes seconds, fewer iterations are enough to tell the modes apart
+    private final BenchmarkHarness harness = new BenchmarkHarness(ExecutorModeBenchmarkTests.class)
+            .withIterations(1, 3);
+
+    @Test
+    void compareThroughputAndTailLatency() throws Exception {
+        ThreadingProperties properties = new ThreadingProperties();
+        properties.getLimits().setMongo(64);
+        properties.getLimits().setS3(512);
+
+        Measurement<Latency> platform = harness.measure(REQUESTS,
+                () -> run(() -> Executors.newFixedThreadPool(PLATFORM_THREADS), properties, REQUESTS));
+        Measurement<Latency> virtual = harness.measure(REQUESTS,
+                () -> run(Executors::newVirtualThreadPerTaskExecutor, properties, REQUESTS));
+        report("platform", platform);
+        report("virtual", virtual);
+
+        assertThat(virtual.opsPerSecond()).isGreaterThan(platform.opsPerSecond());
+        assertThat(virtual.value().p99Millis()).isLessThan(platform.value().p99Millis());
+    }
+
+    private void report(String mode, Measurement<Latency> measurement) {
+        harness.report(mode, measurement,
+                "p50Ms", String.format("%.1f", measurement.value().p50Millis()),
+                "p99Ms", String.format("%.1f", measurement.value().p99Millis()));
+    }
+
+    private Latency run(Supplier<ExecutorService> executors, ThreadingProperties properties, int requests)
+            throws Exception {
+        ExecutorService executor = executors.get();
+        ResourceLimiter limiter = new ResourceLimiter(properties, new SimpleMeterRegistry());
+        long[] latencies = new long[requests];
+        List<Future<?>> futures = new ArrayList<>(requests);
+
+        try (executor) {
+            for (int i = 0; i < requests; i++) {
+                int n = i;
+                long submitted = System.nanoTime();
+                futures.add(executor.submit(() -> {
+                    limiter.run(Resource.MONGO, () -> Thread.sleep(MONGO_MILLIS));
+                    limiter.run(Resource.S3, () -> Thread.sleep(S3_MILLIS));
+                    latencies[n] = System.nanoTime() - submitted;
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+
+        Arrays.sort(latencies);
+        return new Latency(latencies[requests / 2] / 1e6, latencies[(int) Math.ceil(requests * 0.99) - 1] / 1e6);
+    }
+
+    /**
+     * The latencies of the last run, the throughput is the one of the measurement.
+     */
+    private record Latency(double p50Millis, double p99Millis) {
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.async;
+
+import com.example.async.importdataset.ImportCapacity;
+import com.example.async.importdataset.ImportProperties;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.*;
+
+class ImportCapacityTests {
+
+    private SimpleMeterRegistry registry;
+    private ImportCapacity capacity;
+    private Timer inserts;
+
+    @BeforeEach
+    void setUp() {
+        registry = new SimpleMeterRegistry();
+        ImportProperties properties = new ImportProperties();
+        properties.getWorkers().setMaxConcurrentJobs(4);
+        properties.getWorkers().setMinConcurrentJobs(2);
+        properties.getWorkers().setWriteLatencyTarget(Duration.ofMillis(200));
+        capacity = new ImportCapacity(properties, registry);
+        inserts = registry.timer("mongodb.driver.commands", "command", "insert");
+    }
+
+    @Test
+    void adjust_shouldStartAtMaximum() {
+        assertThat(capacity.limit()).isEqualTo(4);
+        assertThat(registry.get("import.jobs.capacity").gauge().value()).isEqualTo(4);
+    }
+
+    @Test
+    void adjust_shouldRunFewerJobsWhileInsertsAreSlow() {
+        for (int i = 0; i < 3; i++) {
+            inserts.record(Duration.ofMillis(500));
+            capacity.adjust();
+        }
+
+        assertThat(capacity.limit()).isEqualTo(2);
+    }
+
+    @Test
+    void adjust_shouldRecoverOnceInsertsAreFast() {
+        inserts.record(Duration.ofMillis(500));
+        capacity.adjust();
+        inserts.record(Duration.ofMillis(500));
+        capacity.adjust();
+        assertThat(capacity.limit()).isEqualTo(2);
+
+        // Only the inserts since the last adjustment count
+        for (int i = 0; i < 3; i++) {
+            inserts.record(Duration.ofMillis(20));
+            capacity.adjust();
+        }
+
+        assertThat(capacity.limit()).isEqualTo(4);
+    }
+
+    @Test
+    void adjust_shouldKeepCapacityWithoutInserts() {
+        registry.timer("mongodb.driver.commands", "command", "find").record(Duration.ofSeconds(5));
+
+        capacity.adjust();
+
+        assertThat(capacity.limit()).isEqualTo(4);
+    }
+}
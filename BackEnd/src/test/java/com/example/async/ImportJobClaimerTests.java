@@ -0,0 +1,133 @@
+package com.example.async;
+
+import com.example.async.importdataset.ImportJobClaimer;
+import com.example.async.importdataset.ImportProperties;
+import com.example.dataset.domain.DatasetImportJob;
+import com.example.dataset.domain.ImportUserLoad;
+import com.example.dataset.infra.jpa.DatasetImportJobRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class ImportJobClaimerTests {
+    private static final Instant NOW = Instant.parse("2025-12-17T12:00:00Z");
+    private static final long MB = 1024 * 1024;
+
+    private DatasetImportJobRepository repo;
+    private ImportProperties properties;
+    private ImportJobClaimer claimer;
+    private List<DatasetImportJob> candidates;
+    private long nextId;
+
+    @BeforeEach
+    void setUp() {
+        repo = mock(DatasetImportJobRepository.class);
+        properties = new ImportProperties();
+        properties.getWorkers().setAgingBytesPerSecond(0);
+        claimer = new ImportJobClaimer(repo, properties);
+        candidates = new ArrayList<>();
+
+        when(repo.lockPendingUploadedJobs(anyInt())).thenReturn(candidates);
+        when(repo.findRunningLoadByUser()).thenReturn(List.of());
+        when(repo.claimJob(anyLong(), anyString(), any())).thenReturn(1);
+    }
+
+    @Test
+    void claimJobs_shouldInterleaveUsersInsteadOfUploadOrder() {
+        for (int i = 0; i < 5; i++) {
+            candidates.add(job(1L, 10 * MB));
+        }
+        candidates.add(job(2L, 10 * MB));
+
+        List<DatasetImportJob> claimed = claimer.claimJobs(2, "worker", NOW);
+
+        assertThat(claimed).extracting(DatasetImportJob::getUserId).containsExactly(1L, 2L);
+    }
+
+    @Test
+    void claimJobs_shouldClaimSmallFilesFirst() {
+        DatasetImportJob large = job(1L, 2000 * MB);
+        DatasetImportJob small = job(2L, MB);
+        candidates.addAll(List.of(large, small));
+
+        List<DatasetImportJob> claimed = claimer.claimJobs(1, "worker", NOW);
+
+        assertThat(claimed).containsExactly(small);
+    }
+
+    @Test
+    void claimJobs_shouldLetLongWaitingLargeFileThrough() {
+        properties.getWorkers().setAgingBytesPerSecond(MB);
+        DatasetImportJob large = job(1L, 100 * MB);
+        large.setUpdatedAt(NOW.minusSeconds(600));
+        DatasetImportJob small = job(2L, MB);
+        candidates.addAll(List.of(large, small));
+
+        List<DatasetImportJob> claimed = claimer.claimJobs(1, "worker", NOW);
+
+        assertThat(claimed).containsExactly(large);
+    }
+
+    @Test
+    void claimJobs_shouldSkipUsersAtTheirLimit() {
+        properties.getWorkers().setMaxJobsPerUser(2);
+        when(repo.findRunningLoadByUser()).thenReturn(List.of(load(1L, 1, 10 * MB)));
+        DatasetImportJob first = job(1L, MB);
+        DatasetImportJob second = job(1L, MB);
+        DatasetImportJob other = job(2L, 50 * MB);
+        candidates.addAll(List.of(first, second, other));
+
+        List<DatasetImportJob> claimed = claimer.claimJobs(3, "worker", NOW);
+
+        assertThat(claimed).containsExactlyInAnyOrder(first, other);
+        verify(repo, never()).claimJob(eq(second.getId()), anyString(), any());
+    }
+
+    @Test
+    void claimJobs_shouldFavourHeavierWeightedUsers() {
+        properties.getWorkers().getUserWeights().put(2L, 4);
+        candidates.add(job(1L, 10 * MB));
+        candidates.add(job(2L, 20 * MB));
+
+        List<DatasetImportJob> claimed = claimer.claimJobs(1, "worker", NOW);
+
+        assertThat(claimed).extracting(DatasetImportJob::getUserId).containsExactly(2L);
+    }
+
+    @Test
+    void claimJobs_shouldLeaveJobsClaimedByAnotherInstance() {
+        DatasetImportJob taken = job(1L, MB);
+        DatasetImportJob free = job(2L, MB);
+        candidates.addAll(List.of(taken, free));
+        when(repo.claimJob(eq(taken.getId()), anyString(), any())).thenReturn(0);
+
+        List<DatasetImportJob> claimed = claimer.claimJobs(2, "worker", NOW);
+
+        assertThat(claimed).containsExactly(free);
+    }
+
+    private DatasetImportJob job(Long userId, long fileSize) {
+        DatasetImportJob job = new DatasetImportJob();
+        job.setId(++nextId);
+        job.setJobId("job-" + nextId);
+        job.setUserId(userId);
+        job.setFileSize(fileSize);
+        job.setUpdatedAt(NOW);
+        return job;
+    }
+
+    private ImportUserLoad load(Long userId, long runningJobs, long runningBytes) {
+        ImportUserLoad load = mock(ImportUserLoad.class);
+        when(load.getUserId()).thenReturn(userId);
+        when(load.getRunningJobs()).thenReturn(runningJobs);
+        when(load.getRunningBytes()).thenReturn(runningBytes);
+        return load;
+    }
+}
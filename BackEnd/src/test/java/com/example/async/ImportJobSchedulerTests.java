@@ -0,0 +1,109 @@
+package com.example.async;
+
+import com.example.async.importdataset.DatasetImportWorker;
+import com.example.async.importdataset.ImportCapacity;
+import com.example.async.importdataset.ImportJobClaimer;
+import com.example.async.importdataset.ImportJobScheduler;
+import com.example.dataset.domain.DatasetImportJob;
+import com.example.dataset.domain.ImportJobQueuedEvent;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class ImportJobSchedulerTests {
+
+    private ImportJobClaimer claimer;
+    private DatasetImportWorker worker;
+    private SimpleMeterRegistry registry;
+    private ThreadPoolTaskExecutor executor;
+    private ImportJobScheduler scheduler;
+
+    @BeforeEach
+    void setUp() {
+        claimer = mock(ImportJobClaimer.class);
+        worker = mock(DatasetImportWorker.class);
+        registry = new SimpleMeterRegistry();
+        executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(4);
+        executor.initialize();
+        ImportCapacity capacity = mock(ImportCapacity.class);
+        when(capacity.limit()).thenReturn(3);
+        scheduler = new ImportJobScheduler(claimer, capacity, worker, registry, executor);
+        when(claimer.claimJobs(anyInt(), anyString(), any())).thenReturn(List.of());
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    void onJobQueued_shouldStartJobWithoutWaitingForPoll() {
+        when(claimer.claimJobs(eq(3), anyString(), any()))
+                .thenReturn(List.of(job("job-1", Instant.now().minusMillis(50))))
+                .thenReturn(List.of());
+
+        scheduler.onJobQueued(new ImportJobQueuedEvent("job-1"));
+
+        verify(worker, timeout(1000)).process("job-1");
+        Timer latency = registry.find("import.job.queue.latency").tag("trigger", "event").timer();
+        assertThat(latency).isNotNull();
+        assertThat(latency.count()).isEqualTo(1);
+        assertThat(latency.totalTime(TimeUnit.MILLISECONDS)).isLessThan(1000);
+    }
+
+    @Test
+    void poll_shouldOnlyClaimJobsThereIsRoomFor() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(inv -> {
+            release.await(5, TimeUnit.SECONDS);
+            return null;
+        }).when(worker).process(anyString());
+        when(claimer.claimJobs(eq(3), anyString(), any()))
+                .thenReturn(List.of(job("job-1", Instant.now()), job("job-2", Instant.now())))
+                .thenReturn(List.of());
+
+        scheduler.poll();
+        scheduler.poll();
+
+        // Two of the three jobs are running
+        verify(claimer).claimJobs(eq(1), anyString(), any());
+        release.countDown();
+        verify(worker, timeout(1000)).process("job-1");
+        verify(worker, timeout(1000)).process("job-2");
+    }
+
+    @Test
+    void dispatch_shouldClaimNextJobWhenJobFinishes() {
+        when(claimer.claimJobs(anyInt(), anyString(), any()))
+                .thenReturn(List.of(job("job-1", Instant.now())))
+                .thenReturn(List.of(job("job-2", Instant.now())))
+                .thenReturn(List.of());
+
+        scheduler.poll();
+
+        verify(worker, timeout(1000)).process("job-2");
+        assertThat(registry.find("import.job.queue.latency").tag("trigger", "finished").timer().count())
+                .isEqualTo(1);
+    }
+
+    private DatasetImportJob job(String jobId, Instant queuedAt) {
+        DatasetImportJob job = new DatasetImportJob();
+        job.setId((long) jobId.hashCode());
+        job.setJobId(jobId);
+        job.setUpdatedAt(queuedAt);
+        return job;
+    }
+}
@@ -0,0 +1,169 @@
+package com.example.async;
+
+import com.example.async.importdataset.ImportPipeline;
+import com.example.async.importdataset.ImportProgressUpdater;
+import com.example.async.importdataset.ImportProperties;
+import com.example.async.importdataset.ImportResult;
+import com.example.async.threads.ResourceLimiter;
+import com.example.async.threads.ThreadingProperties;
+import com.example.benchmark.BenchmarkHarness;
+import com.example.benchmark.BenchmarkHarness.Measurement;
+import com.example.dataset.domain.CreateCollectionDataProps;
+import com.example.dataset.domain.RecordRowBatch;
+import com.example.dataset.domain.RecordSchema;
+import com.example.dataset.infra.mongo.DatasetRecordRepo;
+import com.example.dataset.infra.mongo.DatasetRecordRepoImpl;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.bson.RawBsonDocument;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.io.StringReader;
+import java.time.LocalDate;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * The serial import against the pipeline. The serial baseline parses a batch, converts it and writes it on the
+ * caller thread before it reads the next one, like the import did before the pipeline. A pipeline with a single
+ * writer still overlaps the parse and the convert with the writes, so it is not the serial baseline.
+ * The rows are converted to BSON for real and the bulk writes wait the simulated mongo round trip. The pipeline
+ * converts on its own threads, so only the allocations of the serial import are counted.
+ * <p>
+ * The numbers depend on the machine, run it with
+ * {@code mvn test -Dtest=ImportPipelineBenchmarkTests -Dbenchmark=true}.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class ImportPipelineBenchmarkTests {
+    private static final int ROWS = 200_000;
+    private static final int BATCH_SIZE = 300;
+    private static final long WRITE_MILLIS = 5;
+    private static final List<String> HEADERS = List.of("date", "symbol", "open", "close", "volume");
+
+    private final BenchmarkHarness harness = new BenchmarkHarness(ImportPipelineBenchmarkTests.class);
+
+    private DatasetRecordRepo repo;
+    private CreateCollectionDataProps props;
+    private String csv;
+
+    @BeforeEach
+    void setUp() {
+        DatasetRecordRepoImpl converter = new DatasetRecordRepoImpl(null, null);
+        repo = mock(DatasetRecordRepo.class);
+        when(repo.toRecordDocuments(any(RecordRowBatch.class), any())).thenAnswer(inv ->
+                converter.toRecordDocuments(inv.getArgument(0), inv.getArgument(1)));
+        when(repo.bulkInsertDocuments(anyList())).thenAnswer(inv -> {
+            Thread.sleep(WRITE_MILLIS);
+            return (long) inv.<List<?>>getArgument(0).size();
+        });
+
+        props = CreateCollectionDataProps.builder()
+                .datasetId("benchmark")
+                .version(1)
+                .batchId("benchmark")
+                .recordTimeColumnName("date")
+                .recordPrimaryIndexedColumnName("symbol")
+                .metricColumns(Set.of("open", "close", "volume"))
+                .build();
+        csv = csv(ROWS);
+    }
+
+    @Test
+    void compareSerialAndPipelinedThroughput() throws Exception {
+        Measurement<?> serial = harness.measure(ROWS, () -> serial(ROWS));
+        Measurement<?> oneWriter = harness.measure(ROWS, () -> pipelined(1, 1, ROWS));
+        Measurement<?> pipelined = harness.measure(ROWS, () -> pipelined(1, 2, ROWS));
+        Measurement<?> wide = harness.measure(ROWS, () -> pipelined(2, 4, ROWS));
+        harness.report("serial", serial);
+        harness.report("pipelined", oneWriter, "convertThreads", 1, "writerThreads", 1);
+        harness.report("pipelined", pipelined, "convertThreads", 1, "writerThreads", 2);
+        harness.report("pipelined", wide, "convertThreads", 2, "writerThreads", 4);
+
+        assertThat(oneWriter.nanosPerOp()).isLessThan(serial.nanosPerOp());
+        assertThat(pipelined.nanosPerOp()).isLessThan(oneWriter.nanosPerOp());
+    }
+
+    private Void serial(int rows) throws Exception {
+        RecordSchema schema = new RecordSchema(HEADERS, props.getRecordTimeColumnName(),
+                props.getRecordPrimaryIndexedColumnName(), props.getMetricColumns());
+        RecordRowBatch batch = new RecordRowBatch(schema, BATCH_SIZE);
+
+        try (CSVParser parser = parser()) {
+            Iterator<CSVRecord> it = parser.iterator();
+            for (int i = 0; i < rows && it.hasNext(); i++) {
+                batch.add(it.next());
+                if (batch.isFull()) {
+                    writeSerial(batch);
+                }
+            }
+            if (!batch.isEmpty()) {
+                writeSerial(batch);
+            }
+        }
+        return null;
+    }
+
+    private void writeSerial(RecordRowBatch batch) {
+        List<RawBsonDocument> docs = repo.toRecordDocuments(batch, props);
+        repo.bulkInsertDocuments(docs);
+        batch.clear();
+    }
+
+    private ImportResult pipelined(int convertThreads, int writerThreads, int rows) throws Exception {
+        ImportProperties properties = new ImportProperties();
+        properties.setBatchSize(BATCH_SIZE);
+        properties.getPipeline().setConvertThreads(convertThreads);
+        properties.getPipeline().setWriterThreads(writerThreads);
+        ImportPipeline pipeline = new ImportPipeline(repo, properties,
+                new ResourceLimiter(new ThreadingProperties(), new SimpleMeterRegistry()));
+        ImportProgressUpdater updater = (processed, success, failed) -> {
+        };
+
+        try (CSVParser parser = parser()) {
+            Iterator<CSVRecord> it = parser.iterator();
+            Iterator<CSVRecord> limited = new Iterator<>() {
+                private int read;
+
+                @Override
+                public boolean hasNext() {
+                    return read < rows && it.hasNext();
+                }
+
+                @Override
+                public CSVRecord next() {
+                    read++;
+                    return it.next();
+                }
+            };
+            return pipeline.run(HEADERS, limited, props, updater);
+        }
+    }
+
+    private CSVParser parser() throws Exception {
+        return CSVFormat.DEFAULT.builder().setHeader().setSkipHeaderRecord(true).build()
+                .parse(new StringReader(csv));
+    }
+
+    private String csv(int rows) {
+        StringBuilder sb = new StringBuilder(String.join(",", HEADERS)).append('\n');
+        LocalDate day = LocalDate.of(2000, 1, 1);
+        for (int i = 0; i < rows; i++) {
+            sb.append(day.plusDays(i / 10)).append(",SYM").append(i % 10)
+                    .append(',').append(100 + i % 7).append('.').append(i % 100)
+                    .append(',').append(101 + i % 5).append('.').append(i % 100)
+                    .append(',').append(1000 + i).append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,244 @@
+package com.example.async;
+
+import com.example.async.importdataset.ImportCheckpoint;
+import com.example.async.importdataset.ImportPipeline;
+import com.example.async.importdataset.ImportProgressUpdater;
+import com.example.async.importdataset.ImportProperties;
+import com.example.async.importdataset.ImportResult;
+import com.example.async.threads.ResourceLimiter;
+import com.example.async.threads.ThreadingProperties;
+import com.example.dataset.domain.CreateCollectionDataProps;
+import com.example.dataset.domain.RecordRowBatch;
+import com.example.dataset.infra.mongo.DatasetRecordRepo;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.bson.RawBsonDocument;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringReader;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+class ImportPipelineTests {
+
+    private DatasetRecordRepo repo;
+    private ImportProperties properties;
+    private ImportPipeline pipeline;
+    private Set<String> batchIds;
+
+    @BeforeEach
+    void setUp() {
+        repo = mock(DatasetRecordRepo.class);
+        properties = new ImportProperties();
+        properties.setBatchSize(10);
+        properties.getPipeline().setConvertThreads(2);
+        properties.getPipeline().setWriterThreads(3);
+        properties.getPipeline().setQueueCapacity(1);
+        pipeline = new ImportPipeline(repo, properties,
+                new ResourceLimiter(new ThreadingProperties(), new SimpleMeterRegistry()));
+        batchIds = ConcurrentHashMap.newKeySet();
+
+        when(repo.toRecordDocuments(any(RecordRowBatch.class), any())).thenAnswer(inv -> {
+            RecordRowBatch rows = inv.getArgument(0);
+            if (rows.getBatchId() != null) {
+                batchIds.add(rows.getBatchId());
+            }
+            List<RawBsonDocument> docs = new ArrayList<>();
+            for (int i = 0; i < rows.size(); i++) {
+                docs.add(RawBsonDocument.parse("{\"symbol\": \"" + rows.get(i, 1) + "\"}"));
+            }
+            return docs;
+        });
+        when(repo.bulkInsertDocuments(anyList())).thenAnswer(inv -> (long) inv.<List<?>>getArgument(0).size());
+    }
+
+    @Test
+    void shouldWriteEveryRowExactlyOnce() throws Exception {
+        ImportResult result = run(csv(105));
+
+        assertThat(result.getProcessedRows()).isEqualTo(105);
+        assertThat(result.getSuccessRows()).isEqualTo(105);
+        assertThat(result.getFailedRows()).isZero();
+        verify(repo, times(11)).bulkInsertDocuments(anyList());
+    }
+
+    @Test
+    void shouldCountFailedBatches() throws Exception {
+        doThrow(new IllegalStateException("write failed"))
+                .doReturn(10L)
+                .when(repo).bulkInsertDocuments(anyList());
+
+        ImportResult result = run(csv(30));
+
+        assertThat(result.getProcessedRows()).isEqualTo(30);
+        assertThat(result.getSuccessRows()).isEqualTo(20);
+        assertThat(result.getFailedRows()).isEqualTo(10);
+    }
+
+    @Test
+    void shouldCountRowsRejectedAsDuplicates() throws Exception {
+        when(repo.bulkInsertDocuments(anyList())).thenReturn(7L);
+
+        ImportResult result = run(csv(20));
+
+        assertThat(result.getProcessedRows()).isEqualTo(20);
+        assertThat(result.getSuccessRows()).isEqualTo(14);
+        assertThat(result.getDuplicateRows()).isEqualTo(6);
+        assertThat(result.getFailedRows()).isZero();
+    }
+
+    @Test
+    void shouldHandleEmptyInput() throws Exception {
+        ImportResult result = run(csv(0));
+
+        assertThat(result.getProcessedRows()).isZero();
+        verify(repo, never()).bulkInsertDocuments(anyList());
+    }
+
+    @Test
+    void shouldCheckpointPastEveryWrittenBatchInFileOrder() throws Exception {
+        properties.setCheckpointInterval(Duration.ZERO);
+        String csv = csv(35);
+        List<ImportCheckpoint> checkpoints = Collections.synchronizedList(new ArrayList<>());
+
+        ImportResult result = runTracked(csv, checkpoints, ImportCheckpoint.start(2));
+
+        assertThat(result.getSuccessRows()).isEqualTo(35);
+        assertThat(checkpoints).isNotEmpty();
+        for (int i = 1; i < checkpoints.size(); i++) {
+            assertThat(checkpoints.get(i).getBatchSeq()).isGreaterThan(checkpoints.get(i - 1).getBatchSeq());
+        }
+        // The last batch ends with the file, the checkpoint stops at the start of it
+        ImportCheckpoint last = checkpoints.get(checkpoints.size() - 1);
+        assertThat(last.getVersion()).isEqualTo(2);
+        assertThat(last.getBatchSeq()).isEqualTo(2);
+        assertThat(last.getRows()).isEqualTo(30);
+        assertThat(last.getSuccessRows()).isEqualTo(30);
+        assertThat(last.getByteOffset()).isEqualTo(csv.indexOf("2024-01-01,S30,"));
+        assertThat(batchIds).containsExactlyInAnyOrder(
+                "job-0000000000", "job-0000000001", "job-0000000002", "job-0000000003");
+    }
+
+    @Test
+    void shouldCarryCheckpointCountsIntoResumedImport() throws Exception {
+        properties.setCheckpointInterval(Duration.ZERO);
+        ImportCheckpoint from = ImportCheckpoint.builder()
+                .version(2)
+                .rows(30)
+                .byteOffset(600)
+                .batchSeq(2)
+                .successRows(28)
+                .duplicateRows(2)
+                .build();
+
+        ImportResult result = runTracked(csv(5), new ArrayList<>(), from);
+
+        assertThat(result.getProcessedRows()).isEqualTo(35);
+        assertThat(result.getSuccessRows()).isEqualTo(33);
+        assertThat(result.getDuplicateRows()).isEqualTo(2);
+        assertThat(batchIds).containsExactly("job-0000000003");
+    }
+
+    @Test
+    void shouldFinishImportWhenCheckpointSaveFails() throws Exception {
+        properties.setCheckpointInterval(Duration.ZERO);
+        ImportProgressUpdater updater = new ImportProgressUpdater() {
+            @Override
+            public void update(long processedRows, long successRows, long failedRows) {
+            }
+
+            @Override
+            public void checkpoint(ImportCheckpoint checkpoint) {
+                throw new IllegalStateException("database unavailable");
+            }
+        };
+
+        ImportResult result = assertTimeoutPreemptively(Duration.ofSeconds(10),
+                () -> runWith(csv(105), updater));
+
+        assertThat(result.getProcessedRows()).isEqualTo(105);
+        assertThat(result.getSuccessRows()).isEqualTo(105);
+    }
+
+    @Test
+    void shouldAbortWhenStageFails() {
+        when(repo.toRecordDocuments(any(RecordRowBatch.class), any()))
+                .thenThrow(new OutOfMemoryError("converter died"));
+
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () ->
+                assertThatThrownBy(() -> run(csv(500)))
+                        .isInstanceOf(IllegalStateException.class)
+                        .hasRootCauseMessage("converter died"));
+    }
+
+    @Test
+    void shouldAbortWhenProgressUpdateFails() {
+        ImportProgressUpdater updater = (processed, success, failed) -> {
+            throw new IllegalStateException("progress update failed");
+        };
+
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () ->
+                assertThatThrownBy(() -> runWith(csv(500), updater))
+                        .hasMessage("progress update failed"));
+    }
+
+    private ImportResult runTracked(String csv, List<ImportCheckpoint> checkpoints, ImportCheckpoint from)
+            throws Exception {
+        ImportProgressUpdater updater = new ImportProgressUpdater() {
+            @Override
+            public void update(long processedRows, long successRows, long failedRows) {
+            }
+
+            @Override
+            public void checkpoint(ImportCheckpoint checkpoint) {
+                checkpoints.add(checkpoint);
+            }
+        };
+        CreateCollectionDataProps props = CreateCollectionDataProps.builder().batchId("job").version(2).build();
+        try (CSVParser parser = CSVFormat.DEFAULT.builder()
+                .setHeader()
+                .setSkipHeaderRecord(true)
+                .build()
+                .parse(new StringReader(csv))) {
+            List<String> headers = new ArrayList<>(parser.getHeaderMap().keySet());
+            return pipeline.run(headers, parser.iterator(), props, updater, from,
+                    record -> record.getCharacterPosition());
+        }
+    }
+
+    private ImportResult run(String csv) throws Exception {
+        return runWith(csv, (processed, success, failed) -> { });
+    }
+
+    private ImportResult runWith(String csv, ImportProgressUpdater updater) throws Exception {
+        try (CSVParser parser = CSVFormat.DEFAULT.builder()
+                .setHeader()
+                .setSkipHeaderRecord(true)
+                .build()
+                .parse(new StringReader(csv))) {
+            List<String> headers = new ArrayList<>(parser.getHeaderMap().keySet());
+            return pipeline.run(headers, parser.iterator(), CreateCollectionDataProps.builder().build(), updater);
+        }
+    }
+
+    private String csv(int rows) {
+        StringBuilder sb = new StringBuilder("date,symbol,price\n");
+        for (int i = 0; i < rows; i++) {
+            sb.append("2024-01-01,S").append(i).append(',').append(i).append('\n');
+        }
+        return sb.toString();
+    }
+}
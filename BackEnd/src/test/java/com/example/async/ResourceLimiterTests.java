@@ -0,0 +1,112 @@
+package com.example.async;
+
+import com.example.async.threads.ResourceLimiter;
+import com.example.async.threads.ResourceLimiter.Resource;
+import com.example.async.threads.ThreadingProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static org.assertj.core.api.Assertions.*;
+
+class ResourceLimiterTests {
+
+    private SimpleMeterRegistry registry;
+    private ResourceLimiter limiter;
+
+    @BeforeEach
+    void setUp() {
+        registry = new SimpleMeterRegistry();
+        ThreadingProperties properties = new ThreadingProperties();
+        properties.getLimits().setMongo(3);
+        properties.getLimits().setMail(1);
+        limiter = new ResourceLimiter(properties, registry);
+    }
+
+    @Test
+    void call_shouldBoundCallsOnVirtualThreads() throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        List<Future<Integer>> results = new ArrayList<>();
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < 50; i++) {
+                int n = i;
+                results.add(executor.submit(() -> limiter.call(Resource.MONGO, () -> {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    Thread.sleep(5);
+                    running.decrementAndGet();
+                    return n;
+                })));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                assertThat(results.get(i).get()).isEqualTo(i);
+            }
+        }
+
+        assertThat(maxRunning.get()).isBetween(1, 3);
+        assertThat(limiter.available(Resource.MONGO)).isEqualTo(3);
+    }
+
+    @Test
+    void call_shouldReleasePermitWhenCallFails() {
+        assertThatThrownBy(() -> limiter.run(Resource.MAIL, () -> {
+            throw new IOException("boom");
+        })).isInstanceOf(IOException.class);
+
+        assertThat(limiter.available(Resource.MAIL)).isEqualTo(1);
+    }
+
+    @Test
+    void call_shouldNotShareLimitsBetweenResources() {
+        String result = limiter.call(Resource.MAIL, () -> limiter.call(Resource.S3, () -> "sent"));
+
+        assertThat(result).isEqualTo("sent");
+        assertThat(registry.get("resource.permits.used").tag("resource", "mail").gauge().value()).isZero();
+    }
+
+    @Test
+    void stream_shouldTakePermitOnlyToFetchBatches() {
+        List<Integer> permitsWhileReading = new ArrayList<>();
+        Iterator<Integer> source = List.of(1, 2, 3, 4, 5).iterator();
+        Iterator<Integer> cursor = new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                permitsWhileReading.add(limiter.available(Resource.MONGO));
+                return source.hasNext();
+            }
+
+            @Override
+            public Integer next() {
+                return source.next();
+            }
+        };
+        AtomicInteger closed = new AtomicInteger();
+
+        List<Integer> read;
+        try (Stream<Integer> stream = limiter.stream(Resource.MONGO, 2, () -> StreamSupport.stream(
+                Spliterators.spliteratorUnknownSize(cursor, Spliterator.ORDERED), false)
+                .onClose(closed::incrementAndGet))) {
+            read = stream.peek(n -> assertThat(limiter.available(Resource.MONGO)).isEqualTo(3)).toList();
+        }
+
+        assertThat(read).containsExactly(1, 2, 3, 4, 5);
+        // The reads starting a batch of two hold one of the three permits
+        assertThat(permitsWhileReading).containsExactly(2, 3, 2, 3, 2, 3);
+        assertThat(closed.get()).isEqualTo(1);
+        assertThat(limiter.available(Resource.MONGO)).isEqualTo(3);
+    }
+}
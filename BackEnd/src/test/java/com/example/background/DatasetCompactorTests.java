@@ -0,0 +1,165 @@
+package com.example.background;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.example.dataset.app.RecordRollupService;
+import com.example.dataset.domain.ColumnMeta;
+import com.example.dataset.domain.ColumnType;
+import com.example.dataset.domain.DatasetMetadata;
+import com.example.dataset.domain.DatasetStatus;
+import com.example.dataset.domain.ReclaimedRecords;
+import com.example.dataset.domain.VersionControl;
+import com.example.dataset.infra.mongo.DatasetMetadataRepo;
+import com.example.dataset.infra.mongo.DatasetRecordRepo;
+import com.example.dataset.infra.mongo.RecordRollupRepo;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class DatasetCompactorTests {
+
+    private DatasetMetadataRepo metadataRepo;
+    private DatasetRecordRepo recordRepo;
+    private RecordRollupRepo rollupRepo;
+    private RecordRollupService rollupService;
+    private SimpleMeterRegistry registry;
+    private DatasetCompactor compactor;
+
+    @BeforeEach
+    void setUp() {
+        metadataRepo = mock(DatasetMetadataRepo.class);
+        recordRepo = mock(DatasetRecordRepo.class);
+        rollupRepo = mock(RecordRollupRepo.class);
+        rollupService = mock(RecordRollupService.class);
+        registry = new SimpleMeterRegistry();
+
+        DatasetCompactionProperties properties = new DatasetCompactionProperties();
+        properties.setBatchPause(Duration.ZERO);
+        properties.setBatchSize(1000);
+        Clock clock = Clock.fixed(Instant.parse("2025-12-17T12:00:00Z"), ZoneOffset.UTC);
+
+        compactor = new DatasetCompactor(metadataRepo, recordRepo, rollupRepo, rollupService, properties, clock,
+                registry);
+
+        when(metadataRepo.updateStatus(eq("ds"), eq(DatasetStatus.ACTIVE), eq(DatasetStatus.COMPACTING), any()))
+                .thenReturn(1L);
+        when(metadataRepo.updateStatus(eq("ds"), eq(DatasetStatus.COMPACTING), eq(DatasetStatus.COMPACTING), any()))
+                .thenReturn(1L);
+        when(metadataRepo.finishCompaction(eq("ds"), anyInt(), any(), any())).thenReturn(1L);
+        when(recordRepo.deleteVersionsAbove(eq("ds"), anyInt(), anyInt())).thenReturn(new ReclaimedRecords(0, 0));
+    }
+
+    @Test
+    void compactDatasets_shouldMoveOlderVersionsAndDeleteUncommittedOnes() {
+        when(metadataRepo.findByStatusAndObsoletedFalse(DatasetStatus.ACTIVE)).thenReturn(List.of(dataset(7, 7)));
+        when(recordRepo.relabelVersionsBelow("ds", 7, 1000)).thenReturn(1000L, 500L, 0L);
+        when(recordRepo.deleteVersionsAbove("ds", 7, 1000))
+                .thenReturn(new ReclaimedRecords(300, 45_000), new ReclaimedRecords(0, 0));
+        when(rollupRepo.relabelVersionsBelow("ds", 7, 1000)).thenReturn(1000L, 20L, 0L);
+        when(rollupRepo.deleteVersionsAbove("ds", 7, 1000)).thenReturn(40L, 0L);
+
+        compactor.compactDatasets();
+
+        verify(recordRepo, times(3)).relabelVersionsBelow("ds", 7, 1000);
+        verify(rollupRepo, times(3)).relabelVersionsBelow("ds", 7, 1000);
+        verify(rollupRepo, times(2)).deleteVersionsAbove("ds", 7, 1000);
+        verifyNoInteractions(rollupService);
+        verify(metadataRepo).finishCompaction(eq("ds"), eq(7), eq(7), any());
+        verify(metadataRepo, never())
+                .updateStatus(eq("ds"), eq(DatasetStatus.COMPACTING), eq(DatasetStatus.ACTIVE), any());
+
+        assertThat(registry.counter("dataset.compaction.records", "action", "relabeled").count()).isEqualTo(1500);
+        assertThat(registry.counter("dataset.compaction.records", "action", "deleted").count()).isEqualTo(300);
+        assertThat(registry.counter("dataset.compaction.reclaimed.bytes").count()).isEqualTo(45_000);
+    }
+
+    @Test
+    void compactDatasets_shouldRebuildIncompleteRollups() {
+        when(metadataRepo.findByStatusAndObsoletedFalse(DatasetStatus.ACTIVE)).thenReturn(List.of(dataset(7, 4)));
+        when(rollupService.materialize(eq("ds"), eq(7), eq("UTC"), anyCollection())).thenReturn(true);
+
+        compactor.compactDatasets();
+
+        verify(rollupService).materialize(eq("ds"), eq(7), eq("UTC"),
+                argThat(columns -> List.copyOf(columns).equals(List.of("CLOSE"))));
+        verify(rollupRepo).deleteByDatasetIdAndVersionLessThan("ds", 7);
+        verify(rollupRepo, never()).relabelVersionsBelow(anyString(), anyInt(), anyInt());
+        verify(metadataRepo).finishCompaction(eq("ds"), eq(7), eq(7), any());
+    }
+
+    @Test
+    void compactDatasets_shouldSkipDatasetTakenByImport() {
+        when(metadataRepo.findByStatusAndObsoletedFalse(DatasetStatus.ACTIVE)).thenReturn(List.of(dataset(7, 7)));
+        when(metadataRepo.updateStatus(eq("ds"), eq(DatasetStatus.ACTIVE), eq(DatasetStatus.COMPACTING), any()))
+                .thenReturn(0L);
+
+        compactor.compactDatasets();
+
+        verify(recordRepo, never()).relabelVersionsBelow(anyString(), anyInt(), anyInt());
+        verify(metadataRepo, never()).finishCompaction(anyString(), anyInt(), any(), any());
+    }
+
+    @Test
+    void compactDatasets_shouldNotDeleteOnceImportTookDataset() {
+        when(metadataRepo.findByStatusAndObsoletedFalse(DatasetStatus.ACTIVE)).thenReturn(List.of(dataset(7, 7)));
+        when(metadataRepo.updateStatus(eq("ds"), eq(DatasetStatus.COMPACTING), eq(DatasetStatus.COMPACTING), any()))
+                .thenReturn(0L);
+        when(metadataRepo.finishCompaction(eq("ds"), anyInt(), any(), any())).thenReturn(0L);
+
+        compactor.compactDatasets();
+
+        verify(recordRepo, never()).deleteVersionsAbove(anyString(), anyInt(), anyInt());
+        verify(rollupRepo, never()).deleteVersionsAbove(anyString(), anyInt(), anyInt());
+    }
+
+    @Test
+    void compactDatasets_shouldSkipDatasetsWithFewVersions() {
+        DatasetMetadata ds = dataset(7, 7);
+        ds.setCompactedVersion(4);
+        when(metadataRepo.findByStatusAndObsoletedFalse(DatasetStatus.ACTIVE)).thenReturn(List.of(ds));
+        when(recordRepo.existsByDatasetIdAndVersionGreaterThan("ds", 7)).thenReturn(false);
+
+        compactor.compactDatasets();
+
+        verify(metadataRepo, never()).updateStatus(anyString(), any(), any(), any());
+    }
+
+    @Test
+    void compactDatasets_shouldReleaseStaleCompactions() {
+        DatasetMetadata stale = dataset(7, 7);
+        stale.setStatus(DatasetStatus.COMPACTING);
+        when(metadataRepo.findByStatusInAndUpdatedAtBeforeAndObsoletedFalse(
+                List.of(DatasetStatus.COMPACTING), Instant.parse("2025-12-17T10:00:00Z")))
+                .thenReturn(List.of(stale));
+        when(metadataRepo.findByStatusAndObsoletedFalse(DatasetStatus.ACTIVE)).thenReturn(List.of());
+
+        compactor.compactDatasets();
+
+        verify(metadataRepo).updateStatus(eq("ds"), eq(DatasetStatus.COMPACTING), eq(DatasetStatus.ACTIVE), any());
+    }
+
+    private DatasetMetadata dataset(int version, Integer rolledUpVersion) {
+        return DatasetMetadata.builder()
+                .id("ds")
+                .status(DatasetStatus.ACTIVE)
+                .timezone("UTC")
+                .rolledUpVersion(rolledUpVersion)
+                .current(VersionControl.builder()
+                        .version(version)
+                        .headers(List.of(
+                                ColumnMeta.builder().columnName("Date").dataType(ColumnType.DATE).build(),
+                                ColumnMeta.builder().columnName("Close").dataType(ColumnType.NUMBER).metric(true).build()))
+                        .build())
+                .build();
+    }
+}
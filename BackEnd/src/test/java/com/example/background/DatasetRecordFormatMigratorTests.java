@@ -0,0 +1,118 @@
+package com.example.background;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Set;
+
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.example.dataset.domain.ColumnMeta;
+import com.example.dataset.domain.ColumnType;
+import com.example.dataset.domain.ConvertedRecords;
+import com.example.dataset.domain.DatasetMetadata;
+import com.example.dataset.domain.DatasetStatus;
+import com.example.dataset.domain.RecordFormat;
+import com.example.dataset.domain.VersionControl;
+import com.example.dataset.infra.mongo.DatasetMetadataRepo;
+import com.example.dataset.infra.mongo.DatasetRecordRepo;
+
+class DatasetRecordFormatMigratorTests {
+
+    private DatasetMetadataRepo metadataRepo;
+    private DatasetRecordRepo recordRepo;
+    private DatasetRecordFormatMigrator migrator;
+
+    @BeforeEach
+    void setUp() {
+        metadataRepo = mock(DatasetMetadataRepo.class);
+        recordRepo = mock(DatasetRecordRepo.class);
+
+        DatasetMigrationProperties properties = new DatasetMigrationProperties();
+        properties.setBatchPause(Duration.ZERO);
+        properties.setBatchSize(2);
+        Clock clock = Clock.fixed(Instant.parse("2025-12-17T12:00:00Z"), ZoneOffset.UTC);
+        migrator = new DatasetRecordFormatMigrator(metadataRepo, recordRepo, properties, clock);
+
+        when(metadataRepo.findByRecordFormatVersionBefore(RecordFormat.CURRENT)).thenReturn(List.of(dataset()));
+        when(metadataRepo.updateStatus(eq("ds"), eq(DatasetStatus.ACTIVE), eq(DatasetStatus.MIGRATING), any()))
+                .thenReturn(1L);
+        when(metadataRepo.updateStatus(eq("ds"), eq(DatasetStatus.MIGRATING), eq(DatasetStatus.MIGRATING), any()))
+                .thenReturn(1L);
+        when(metadataRepo.finishMigration(eq("ds"), eq(RecordFormat.CURRENT), any())).thenReturn(1L);
+    }
+
+    @Test
+    void migrateRecordFormat_shouldConvertInIdRangesAndOnlySetTheFormat() {
+        ObjectId first = new ObjectId();
+        ObjectId second = new ObjectId();
+        when(recordRepo.convertMetricsToDouble(eq("ds"), any(), isNull(), eq(2)))
+                .thenReturn(new ConvertedRecords(2, 2, first));
+        when(recordRepo.convertMetricsToDouble(eq("ds"), any(), eq(first), eq(2)))
+                .thenReturn(new ConvertedRecords(1, 1, second));
+        when(recordRepo.convertMetricsToDouble(eq("ds"), any(), eq(second), eq(2)))
+                .thenReturn(new ConvertedRecords(0, 0, null));
+
+        migrator.migrateRecordFormat();
+
+        verify(recordRepo, times(3)).convertMetricsToDouble(eq("ds"), eq(Set.of("PRICE")), any(), eq(2));
+        verify(metadataRepo).finishMigration(eq("ds"), eq(RecordFormat.CURRENT), any());
+        verify(metadataRepo, never()).save(any());
+    }
+
+    @Test
+    void migrateRecordFormat_shouldSkipDatasetTakenMeanwhile() {
+        when(metadataRepo.updateStatus(eq("ds"), eq(DatasetStatus.ACTIVE), eq(DatasetStatus.MIGRATING), any()))
+                .thenReturn(0L);
+
+        migrator.migrateRecordFormat();
+
+        verifyNoInteractions(recordRepo);
+        verify(metadataRepo, never()).finishMigration(any(), any(), any());
+    }
+
+    @Test
+    void migrateRecordFormat_shouldReleaseDatasetWhenConversionFails() {
+        when(recordRepo.convertMetricsToDouble(eq("ds"), any(), any(), anyInt()))
+                .thenThrow(new IllegalStateException("mongo down"));
+
+        migrator.migrateRecordFormat();
+
+        verify(metadataRepo).updateStatus(eq("ds"), eq(DatasetStatus.MIGRATING), eq(DatasetStatus.ACTIVE), any());
+        verify(metadataRepo, never()).finishMigration(any(), any(), any());
+    }
+
+    @Test
+    void migrateRecordFormat_shouldStopWhenDatasetIsReleasedMeanwhile() {
+        when(metadataRepo.updateStatus(eq("ds"), eq(DatasetStatus.MIGRATING), eq(DatasetStatus.MIGRATING), any()))
+                .thenReturn(1L, 0L);
+        when(recordRepo.convertMetricsToDouble(eq("ds"), any(), any(), anyInt()))
+                .thenReturn(new ConvertedRecords(2, 2, new ObjectId()));
+
+        migrator.migrateRecordFormat();
+
+        verify(recordRepo, times(1)).convertMetricsToDouble(eq("ds"), any(), any(), anyInt());
+        verify(metadataRepo, never()).finishMigration(any(), any(), any());
+        verify(metadataRepo, never()).save(any());
+    }
+
+    private DatasetMetadata dataset() {
+        return DatasetMetadata.builder()
+                .id("ds")
+                .status(DatasetStatus.ACTIVE)
+                .current(VersionControl.builder()
+                        .version(1)
+                        .headers(List.of(
+                                ColumnMeta.builder().columnName("Date").dataType(ColumnType.DATE).build(),
+                                ColumnMeta.builder().columnName("Price").dataType(ColumnType.NUMBER).metric(true).build()))
+                        .build())
+                .build();
+    }
+}
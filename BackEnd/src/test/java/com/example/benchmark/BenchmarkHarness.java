@@ -0,0 +1,155 @@
+package com.example.benchmark;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+/**
+ * Measure the benchmark tests the same way. Every measurement runs the warm-up iterations, then the measured
+ * iterations one by one, and keeps the median and the fastest of them per operation, so a single slow
+ * iteration does not make the number. The bytes are the heap the calling thread allocated per operation, the
+ * work handed to other threads is not counted. The results are logged one line per mode.
+ * <p>
+ * The benchmarks are skipped unless run with {@code -Dbenchmark=true}. The iterations default to
+ * {@value #DEFAULT_WARMUPS} warm-ups and {@value #DEFAULT_ITERATIONS} measured, set them with
+ * {@code -Dbenchmark.warmups} and {@code -Dbenchmark.iterations}.
+ */
+@Slf4j
+public final class BenchmarkHarness {
+    public static final int DEFAULT_WARMUPS = 2;
+    public static final int DEFAULT_ITERATIONS = 5;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private final String benchmark;
+    private final int warmups;
+    private final int iterations;
+
+    public BenchmarkHarness(Class<?> benchmark) {
+        this(benchmark.getSimpleName(),
+                Integer.getInteger("benchmark.warmups", DEFAULT_WARMUPS),
+                Integer.getInteger("benchmark.iterations", DEFAULT_ITERATIONS));
+    }
+
+    private BenchmarkHarness(String benchmark, int warmups, int iterations) {
+        if (warmups < 0 || iterations < 1) {
+            throw new IllegalArgumentException("Invalid iterations. warmups=" + warmups + ", iterations=" + iterations);
+        }
+        this.benchmark = benchmark;
+        this.warmups = warmups;
+        this.iterations = iterations;
+    }
+
+    /**
+     * The same harness with other iteration counts, for the benchmarks whose iterations are slow.
+     */
+    public BenchmarkHarness withIterations(int warmups, int iterations) {
+        return new BenchmarkHarness(benchmark, warmups, iterations);
+    }
+
+    public <T> Measurement<T> measure(long operations, Task<T> task) throws Exception {
+        return measure(operations, () -> {
+        }, task);
+    }
+
+    /**
+     * Run the task for the warm-ups and the measured iterations.
+     *
+     * @param operations the operations one run of the task does, the numbers are per operation.
+     * @param setup      run before every iteration, it is not measured.
+     * @param task       the measured work.
+     * @return the measurement, with the value of the last iteration.
+     */
+    public <T> Measurement<T> measure(long operations, Setup setup, Task<T> task) throws Exception {
+        for (int i = 0; i < warmups; i++) {
+            setup.run();
+            task.run();
+        }
+
+        long[] nanos = new long[iterations];
+        long[] bytes = new long[iterations];
+        T value = null;
+        for (int i = 0; i < iterations; i++) {
+            setup.run();
+            long allocated = allocatedBytes();
+            long start = System.nanoTime();
+            value = task.run();
+            nanos[i] = System.nanoTime() - start;
+            bytes[i] = allocatedBytes() - allocated;
+        }
+        Arrays.sort(nanos);
+        Arrays.sort(bytes);
+        double ops = Math.max(1, operations);
+        return new Measurement<>(value, operations,
+                nanos[iterations / 2] / ops,
+                nanos[0] / ops,
+                THREADS.isThreadAllocatedMemoryEnabled() ? bytes[iterations / 2] / ops : Double.NaN);
+    }
+
+    /**
+     * Log the measurement of a mode.
+     *
+     * @param fields the names and values of the other fields of the line, in pairs.
+     */
+    public void report(String mode, Measurement<?> measurement, Object... fields) {
+        report(mode, append(fields,
+                "ops", measurement.operations(),
+                "nanosPerOp", String.format("%.1f", measurement.nanosPerOp()),
+                "minNanosPerOp", String.format("%.1f", measurement.minNanosPerOp()),
+                "opsPerSecond", String.format("%.0f", measurement.opsPerSecond()),
+                "bytesPerOp", String.format("%.1f", measurement.bytesPerOp())));
+    }
+
+    /**
+     * Log the fields of a mode measured by the benchmark itself.
+     *
+     * @param fields the names and values of the fields of the line, in pairs.
+     */
+    public void report(String mode, Object... fields) {
+        if (fields.length % 2 != 0) {
+            throw new IllegalArgumentException("The fields are not in pairs. benchmark=" + benchmark);
+        }
+        StringBuilder line = new StringBuilder("benchmark=").append(benchmark).append(", mode=").append(mode);
+        for (int i = 0; i < fields.length; i += 2) {
+            line.append(", ").append(fields[i]).append('=').append(fields[i + 1]);
+        }
+        log.info(line.toString());
+    }
+
+    private static Object[] append(Object[] fields, Object... more) {
+        Object[] all = Arrays.copyOf(fields, fields.length + more.length);
+        System.arraycopy(more, 0, all, fields.length, more.length);
+        return all;
+    }
+
+    private static long allocatedBytes() {
+        return THREADS.isThreadAllocatedMemoryEnabled() ? THREADS.getCurrentThreadAllocatedBytes() : 0;
+    }
+
+    public interface Setup {
+        void run() throws Exception;
+    }
+
+    public interface Task<T> {
+        T run() throws Exception;
+    }
+
+    /**
+     * @param value         what the last iteration returned, for the benchmark to check.
+     * @param nanosPerOp    the median iteration.
+     * @param minNanosPerOp the fastest iteration.
+     * @param bytesPerOp    the median heap allocated by the calling thread, NaN when the JVM does not count it.
+     */
+    public record Measurement<T>(T value, long operations, double nanosPerOp, double minNanosPerOp,
+                                 double bytesPerOp) {
+        public double opsPerSecond() {
+            return 1e9 / nanosPerOp;
+        }
+
+        public double millis() {
+            return nanosPerOp * Math.max(1, operations) / 1e6;
+        }
+    }
+}
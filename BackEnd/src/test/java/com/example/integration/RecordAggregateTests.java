@@ -0,0 +1,87 @@
+package com.example.integration;
+
+import com.example.dataset.domain.AggregationBucket;
+import com.example.dataset.domain.DatasetRecord;
+import com.example.dataset.domain.RecordAggregate;
+import com.example.dataset.infra.mongo.DatasetRecordRepo;
+import com.example.dataset.infra.mongo.MongoKeys;
+import com.example.dataset.infra.mongo.RecordQueries;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Aggregate the records of several versions against the embedded mongo, the rows appended at the same time
+ * as an earlier row must agree with the combined rollups.
+ */
+@ActiveProfiles("test")
+@SpringBootTest
+@Import(TestMailConfig.class)
+class RecordAggregateTests {
+
+    private static final String DATASET_ID = "aggregate-test-dataset";
+
+    @Autowired
+    private DatasetRecordRepo recordRepo;
+
+    @Autowired
+    private MongoTemplate mongo;
+
+    @AfterEach
+    void tearDown() {
+        mongo.remove(new Query(Criteria.where(MongoKeys.Record.DATASET_ID).is(DATASET_ID)), DatasetRecord.class);
+    }
+
+    @Test
+    void aggregateRecords_shouldTakeLaterVersionAsLastOnSameTime() {
+        insert(1, "2024-01-02T00:00:00Z", 9.0);
+        insert(1, "2024-01-05T00:00:00Z", 7.0);
+        insert(2, "2024-01-02T00:00:00Z", 8.0);
+        insert(2, "2024-01-05T00:00:00Z", 3.0);
+
+        List<RecordAggregate> aggregates = recordRepo.aggregateRecords(DATASET_ID, 2, null, null, null,
+                List.of("CLOSE"), AggregationBucket.MONTH, "UTC");
+
+        assertThat(aggregates).hasSize(1);
+        RecordAggregate month = aggregates.get(0);
+        assertThat(month.getCount()).isEqualTo(4);
+        // The earlier version is first and the later version is last, not the larger value
+        assertThat(month.getFirst()).isEqualTo(9.0);
+        assertThat(month.getLast()).isEqualTo(3.0);
+        assertThat(month.getLastTime()).isEqualTo(Instant.parse("2024-01-05T00:00:00Z"));
+    }
+
+    @Test
+    void rollupQuery_shouldCombineVersionsInOrder() {
+        Query query = RecordQueries.rollupQuery(DATASET_ID, 2, AggregationBucket.DAY, null, null, null,
+                List.of("CLOSE"));
+
+        assertThat(query.getSortObject().keySet()).containsExactly(
+                MongoKeys.Rollup.BUCKET_START, MongoKeys.Rollup.INDEXED_VALUE, MongoKeys.Rollup.VERSION);
+    }
+
+    private void insert(int version, String time, double close) {
+        recordRepo.bulkInsertDocuments(List.of(new RawBsonDocument(new Document("_id", new ObjectId())
+                .append(MongoKeys.Record.DATASET_ID, DATASET_ID)
+                .append(MongoKeys.Record.VERSION, version)
+                .append(MongoKeys.Record.INDEXED_VALUE, "AAPL")
+                .append(MongoKeys.Record.USER_DEFINED_TIME, Date.from(Instant.parse(time)))
+                .append(MongoKeys.Record.DATA, new Document("CLOSE", close)), new DocumentCodec())));
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.integration;
+
+import com.example.dataset.domain.AggregationBucket;
+import com.example.dataset.domain.DatasetRecord;
+import com.example.dataset.domain.ReclaimedRecords;
+import com.example.dataset.domain.RecordRollup;
+import com.example.dataset.infra.mongo.DatasetRecordRepo;
+import com.example.dataset.infra.mongo.MongoKeys;
+import com.example.dataset.infra.mongo.RecordRollupRepo;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Run the compaction batches of the record repository against the embedded mongo.
+ */
+@ActiveProfiles("test")
+@SpringBootTest
+@Import(TestMailConfig.class)
+class RecordCompactionTests {
+
+    private static final String DATASET_ID = "compaction-test-dataset";
+
+    @Autowired
+    private DatasetRecordRepo recordRepo;
+
+    @Autowired
+    private RecordRollupRepo rollupRepo;
+
+    @Autowired
+    private MongoTemplate mongo;
+
+    @AfterEach
+    void tearDown() {
+        mongo.remove(new Query(Criteria.where(MongoKeys.Record.DATASET_ID).is(DATASET_ID)), DatasetRecord.class);
+        rollupRepo.deleteByDatasetId(DATASET_ID);
+    }
+
+    @Test
+    void relabelVersionsBelow_shouldMoveOlderVersionsInBatches() {
+        insert(1, 5);
+        insert(2, 5);
+        insert(3, 5);
+        insert(4, 2);
+
+        assertThat(recordRepo.relabelVersionsBelow(DATASET_ID, 3, 4)).isEqualTo(4);
+        assertThat(recordRepo.relabelVersionsBelow(DATASET_ID, 3, 4)).isEqualTo(4);
+        assertThat(recordRepo.relabelVersionsBelow(DATASET_ID, 3, 4)).isEqualTo(2);
+        assertThat(recordRepo.relabelVersionsBelow(DATASET_ID, 3, 4)).isZero();
+
+        assertThat(count(3)).isEqualTo(15);
+        assertThat(count(4)).isEqualTo(2);
+    }
+
+    @Test
+    void deleteVersionsAbove_shouldReportReclaimedBytes() {
+        insert(3, 5);
+        insert(4, 3);
+        insert(5, 2);
+
+        ReclaimedRecords first = recordRepo.deleteVersionsAbove(DATASET_ID, 3, 4);
+        ReclaimedRecords second = recordRepo.deleteVersionsAbove(DATASET_ID, 3, 4);
+
+        assertThat(first.getDocuments()).isEqualTo(4);
+        assertThat(first.getBytes()).isPositive();
+        assertThat(second.getDocuments()).isEqualTo(1);
+        assertThat(recordRepo.deleteVersionsAbove(DATASET_ID, 3, 4).getDocuments()).isZero();
+        assertThat(count(3)).isEqualTo(5);
+        assertThat(recordRepo.existsByDatasetIdAndVersionGreaterThan(DATASET_ID, 3)).isFalse();
+    }
+
+    @Test
+    void rollupBatches_shouldMoveAndDeleteVersionsInBatches() {
+        insertRollups(1, 3);
+        insertRollups(2, 3);
+        insertRollups(3, 2);
+        insertRollups(4, 3);
+
+        assertThat(rollupRepo.relabelVersionsBelow(DATASET_ID, 3, 4)).isEqualTo(4);
+        assertThat(rollupRepo.relabelVersionsBelow(DATASET_ID, 3, 4)).isEqualTo(2);
+        assertThat(rollupRepo.relabelVersionsBelow(DATASET_ID, 3, 4)).isZero();
+        assertThat(rollupRepo.deleteVersionsAbove(DATASET_ID, 3, 2)).isEqualTo(2);
+        assertThat(rollupRepo.deleteVersionsAbove(DATASET_ID, 3, 2)).isEqualTo(1);
+        assertThat(rollupRepo.deleteVersionsAbove(DATASET_ID, 3, 2)).isZero();
+
+        assertThat(rollupRepo.findAll()).filteredOn(rollup -> DATASET_ID.equals(rollup.getDatasetId()))
+                .hasSize(8)
+                .allSatisfy(rollup -> assertThat(rollup.getVersion()).isEqualTo(3));
+    }
+
+    private void insertRollups(int version, int rows) {
+        for (int i = 0; i < rows; i++) {
+            rollupRepo.save(RecordRollup.builder()
+                    .datasetId(DATASET_ID)
+                    .version(version)
+                    .bucket(AggregationBucket.DAY)
+                    .bucketStart(Instant.parse("2025-01-01T00:00:00Z"))
+                    .indexedValue("S" + i)
+                    .column("CLOSE")
+                    .count(1)
+                    .build());
+        }
+    }
+
+    private void insert(int version, int rows) {
+        List<RawBsonDocument> docs = new ArrayList<>();
+        for (int i = 0; i < rows; i++) {
+            docs.add(new RawBsonDocument(new Document("_id", new ObjectId())
+                    .append(MongoKeys.Record.DATASET_ID, DATASET_ID)
+                    .append(MongoKeys.Record.VERSION, version)
+                    .append(MongoKeys.Record.INDEXED_VALUE, "S" + i)
+                    .append(MongoKeys.Record.DATA, new Document("CLOSE", i * 1.5)), new DocumentCodec()));
+        }
+        recordRepo.bulkInsertDocuments(docs);
+    }
+
+    private long count(int version) {
+        return mongo.count(new Query(Criteria.where(MongoKeys.Record.DATASET_ID).is(DATASET_ID)
+                .and(MongoKeys.Record.VERSION).is(version)), DatasetRecord.class);
+    }
+}
@@ -0,0 +1,185 @@
+package com.example.integration;
+
+import com.example.benchmark.BenchmarkHarness;
+import com.example.benchmark.BenchmarkHarness.Measurement;
+import com.example.dataset.domain.DatasetRecord;
+import com.example.dataset.infra.mongo.DatasetRecordRepo;
+import com.example.dataset.infra.mongo.MongoKeys;
+import com.example.dataset.infra.mongo.RecordBsonEncoder;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import org.bson.BsonBinary;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.bson.types.Binary;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The ways to skip the rows already imported, against the embedded mongo with the unique row key index:
+ * <ul>
+ *     <li>insert: the unordered bulk insert the import uses, the duplicate key errors are counted and skipped.</li>
+ *     <li>upsert: one update per row matching the row key, inserting the row only when it is missing.</li>
+ *     <li>preCheck: find the row keys of the batch that exist, then insert only the others.</li>
+ * </ul>
+ * Every strategy imports the same second file on top of a first file sharing a part of its rows, in batches of
+ * the import size, and must insert the same number of rows.
+ * <p>
+ * The numbers depend on the machine and the embedded mongo is not a real deployment, run it with
+ * {@code mvn test -Dtest=RecordDedupBenchmarkTests -Dbenchmark=true}.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+@ActiveProfiles("test")
+@SpringBootTest
+@Import(TestMailConfig.class)
+class RecordDedupBenchmarkTests {
+
+    private static final String DATASET_ID = "dedup-benchmark-dataset";
+    private static final Instant FROM = Instant.parse("2000-01-01T00:00:00Z");
+    private static final int ROWS = 20_000;
+    private static final int BATCH_SIZE = 300;
+    private static final int SYMBOLS = 20;
+
+    private final BenchmarkHarness harness = new BenchmarkHarness(RecordDedupBenchmarkTests.class);
+
+    @Autowired
+    private DatasetRecordRepo recordRepo;
+
+    @Autowired
+    private MongoTemplate mongo;
+
+    @AfterEach
+    void tearDown() {
+        clear();
+    }
+
+    @Test
+    void compareInsertUpsertAndPreCheck() throws Exception {
+        List<Strategy> strategies = List.of(
+                new Strategy("insert", recordRepo::bulkInsertDocuments),
+                new Strategy("upsert", this::upsert),
+                new Strategy("preCheck", this::preCheck));
+
+        for (double overlap : new double[] {0, 0.5, 1}) {
+            long expected = -1;
+            for (Strategy strategy : strategies) {
+                Measurement<Long> result = harness.measure(ROWS, () -> importFirstFile(overlap),
+                        () -> importSecondFile(strategy));
+                harness.report(strategy.name, result, "overlap", overlap, "inserted", result.value());
+                if (expected < 0) {
+                    expected = result.value();
+                }
+                assertThat(result.value()).isEqualTo(expected);
+            }
+        }
+    }
+
+    private void importFirstFile(double overlap) {
+        clear();
+        // The first file ends where the overlap of the second one ends
+        int firstFileEnd = (int) (ROWS * overlap);
+        for (int from = 0; from < firstFileEnd; from += BATCH_SIZE) {
+            recordRepo.bulkInsertDocuments(rows(from, Math.min(from + BATCH_SIZE, firstFileEnd), 1));
+        }
+    }
+
+    private long importSecondFile(Strategy strategy) {
+        long inserted = 0;
+        for (int from = 0; from < ROWS; from += BATCH_SIZE) {
+            inserted += strategy.write.write(rows(from, Math.min(from + BATCH_SIZE, ROWS), 2));
+        }
+        return inserted;
+    }
+
+    private long upsert(List<RawBsonDocument> docs) {
+        List<WriteModel<RawBsonDocument>> writes = new ArrayList<>(docs.size());
+        for (RawBsonDocument doc : docs) {
+            BsonDocument filter = new BsonDocument(MongoKeys.Record.DATASET_ID, doc.get(MongoKeys.Record.DATASET_ID))
+                    .append(MongoKeys.Record.ROW_KEY, doc.get(MongoKeys.Record.ROW_KEY));
+            writes.add(new UpdateOneModel<>(filter, new BsonDocument("$setOnInsert", doc),
+                    new UpdateOptions().upsert(true)));
+        }
+        return collection().bulkWrite(writes, new BulkWriteOptions().ordered(false)).getUpserts().size();
+    }
+
+    private long preCheck(List<RawBsonDocument> docs) {
+        List<BsonBinary> keys = new ArrayList<>(docs.size());
+        for (RawBsonDocument doc : docs) {
+            keys.add(doc.getBinary(MongoKeys.Record.ROW_KEY));
+        }
+        Set<ByteBuffer> existing = new HashSet<>();
+        for (RawBsonDocument found : collection()
+                .find(Filters.and(Filters.eq(MongoKeys.Record.DATASET_ID, DATASET_ID),
+                        Filters.in(MongoKeys.Record.ROW_KEY, keys)))
+                .projection(Projections.include(MongoKeys.Record.ROW_KEY))) {
+            existing.add(ByteBuffer.wrap(found.getBinary(MongoKeys.Record.ROW_KEY).getData()));
+        }
+
+        List<RawBsonDocument> missing = new ArrayList<>(docs.size());
+        for (RawBsonDocument doc : docs) {
+            if (!existing.contains(ByteBuffer.wrap(doc.getBinary(MongoKeys.Record.ROW_KEY).getData()))) {
+                missing.add(doc);
+            }
+        }
+        return recordRepo.bulkInsertDocuments(missing);
+    }
+
+    private List<RawBsonDocument> rows(int from, int to, int version) {
+        List<RawBsonDocument> docs = new ArrayList<>(to - from);
+        DocumentCodec codec = new DocumentCodec();
+        for (int i = from; i < to; i++) {
+            String symbol = "S" + i % SYMBOLS;
+            Instant time = FROM.plus(Duration.ofDays(i / SYMBOLS));
+            docs.add(new RawBsonDocument(new Document("_id", new ObjectId())
+                    .append(MongoKeys.Record.DATASET_ID, DATASET_ID)
+                    .append(MongoKeys.Record.VERSION, version)
+                    .append(MongoKeys.Record.USER_DEFINED_TIME, Date.from(time))
+                    .append(MongoKeys.Record.INDEXED_VALUE, symbol)
+                    .append(MongoKeys.Record.ROW_KEY, new Binary(RecordBsonEncoder.rowKey(symbol, time)))
+                    .append(MongoKeys.Record.DATA, new Document("CLOSE", (double) i)), codec));
+        }
+        return docs;
+    }
+
+    private MongoCollection<RawBsonDocument> collection() {
+        return mongo.getCollection(MongoKeys.Record.TABLE_NAME).withDocumentClass(RawBsonDocument.class);
+    }
+
+    private void clear() {
+        mongo.remove(new Query(Criteria.where(MongoKeys.Record.DATASET_ID).is(DATASET_ID)), DatasetRecord.class);
+    }
+
+    private interface BatchWrite {
+        long write(List<RawBsonDocument> docs);
+    }
+
+    private record Strategy(String name, BatchWrite write) {
+    }
+}
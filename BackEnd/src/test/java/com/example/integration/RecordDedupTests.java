@@ -0,0 +1,97 @@
+package com.example.integration;
+
+import com.example.dataset.domain.DatasetRecord;
+import com.example.dataset.infra.mongo.DatasetRecordRepo;
+import com.example.dataset.infra.mongo.MongoKeys;
+import com.example.dataset.infra.mongo.RecordBsonEncoder;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.bson.types.Binary;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Insert the rows of a deduplicating dataset twice against the embedded mongo, with the unique row key index
+ * created by RecordIndexManager at startup.
+ */
+@ActiveProfiles("test")
+@SpringBootTest
+@Import(TestMailConfig.class)
+class RecordDedupTests {
+
+    private static final String DATASET_ID = "dedup-test-dataset";
+    private static final Instant FROM = Instant.parse("2024-01-01T00:00:00Z");
+
+    @Autowired
+    private DatasetRecordRepo recordRepo;
+
+    @Autowired
+    private MongoTemplate mongo;
+
+    @AfterEach
+    void tearDown() {
+        mongo.remove(new Query(Criteria.where(MongoKeys.Record.DATASET_ID).is(DATASET_ID)), DatasetRecord.class);
+    }
+
+    @Test
+    void bulkInsertDocuments_shouldSkipRowsAlreadyImported() {
+        assertThat(recordRepo.bulkInsertDocuments(rows(0, 10, 1))).isEqualTo(10);
+
+        // The second file repeats the last five rows and adds five new ones
+        assertThat(recordRepo.bulkInsertDocuments(rows(5, 15, 2))).isEqualTo(5);
+
+        assertThat(mongo.count(new Query(Criteria.where(MongoKeys.Record.DATASET_ID).is(DATASET_ID)),
+                DatasetRecord.class)).isEqualTo(15);
+    }
+
+    @Test
+    void bulkInsertDocuments_shouldKeepRowsWithoutKey() {
+        List<RawBsonDocument> docs = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            docs.add(toRaw(new Document("_id", new ObjectId())
+                    .append(MongoKeys.Record.DATASET_ID, DATASET_ID)
+                    .append(MongoKeys.Record.VERSION, 1)
+                    .append(MongoKeys.Record.INDEXED_VALUE, "S1")));
+        }
+
+        assertThat(recordRepo.bulkInsertDocuments(docs)).isEqualTo(3);
+        assertThat(recordRepo.bulkInsertDocuments(docs.subList(0, 1).stream()
+                .map(d -> toRaw(new Document(d).append("_id", new ObjectId())))
+                .toList())).isEqualTo(1);
+    }
+
+    private List<RawBsonDocument> rows(int from, int to, int version) {
+        List<RawBsonDocument> docs = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            Instant time = FROM.plus(Duration.ofDays(i));
+            docs.add(toRaw(new Document("_id", new ObjectId())
+                    .append(MongoKeys.Record.DATASET_ID, DATASET_ID)
+                    .append(MongoKeys.Record.VERSION, version)
+                    .append(MongoKeys.Record.USER_DEFINED_TIME, Date.from(time))
+                    .append(MongoKeys.Record.INDEXED_VALUE, "S1")
+                    .append(MongoKeys.Record.ROW_KEY, new Binary(RecordBsonEncoder.rowKey("S1", time)))));
+        }
+        return docs;
+    }
+
+    private RawBsonDocument toRaw(Document doc) {
+        return new RawBsonDocument(doc, new DocumentCodec());
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.integration;
+
+import com.example.benchmark.BenchmarkHarness;
+import com.example.benchmark.BenchmarkHarness.Measurement;
+import com.example.dataset.app.RecordFanOut;
+import com.example.dataset.domain.DatasetRecord;
+import com.example.dataset.infra.mongo.DatasetRecordRepo;
+import com.example.dataset.infra.mongo.MongoKeys;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The per symbol fan out against the single $in query on the embedded mongo, over a grid of symbol counts and
+ * time ranges. Both return the same records in the same order. The grid tells where the fan out starts to pay
+ * off, which is what app.query.fan-out.min-symbols is set from. The fan out reads on other threads, so its
+ * allocations are not counted.
+ * <p>
+ * The numbers depend on the machine and the embedded mongo is not a real deployment, run it with
+ * {@code mvn test -Dtest=RecordFanOutBenchmarkTests -Dbenchmark=true}.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+@ActiveProfiles("test")
+@SpringBootTest
+@Import(TestMailConfig.class)
+class RecordFanOutBenchmarkTests {
+
+    private static final String DATASET_ID = "fan-out-benchmark-dataset";
+    private static final Instant FROM = Instant.parse("2015-01-01T00:00:00Z");
+    private static final int SYMBOLS = 40;
+    private static final int DAYS = 2000;
+    private static final List<String> COLUMNS = List.of("OPEN", "CLOSE");
+
+    private final BenchmarkHarness harness = new BenchmarkHarness(RecordFanOutBenchmarkTests.class);
+
+    @Autowired
+    private DatasetRecordRepo recordRepo;
+
+    @Autowired
+    private RecordFanOut recordFanOut;
+
+    @Autowired
+    private MongoTemplate mongo;
+
+    @BeforeEach
+    void setUp() {
+        List<DatasetRecord> records = new ArrayList<>();
+        for (int day = 0; day < DAYS; day++) {
+            for (int s = 0; s < SYMBOLS; s++) {
+                records.add(DatasetRecord.builder()
+                        .datasetId(DATASET_ID)
+                        .version(1)
+                        .userDefinedTime(FROM.plus(Duration.ofDays(day)))
+                        .indexedValue("S" + s)
+                        .data(Map.of("OPEN", (double) day, "CLOSE", day + 0.5, "VOLUME", (double) s))
+                        .build());
+            }
+            if (records.size() >= 10_000) {
+                mongo.insertAll(records);
+                records.clear();
+            }
+        }
+        mongo.insertAll(records);
+    }
+
+    @AfterEach
+    void tearDown() {
+        mongo.remove(new Query(Criteria.where(MongoKeys.Record.DATASET_ID).is(DATASET_ID)), DatasetRecord.class);
+    }
+
+    @Test
+    void compareFanOutAndInQuery() throws Exception {
+        for (int symbols : new int[] {2, 4, 10, 40}) {
+            for (int days : new int[] {30, 365, DAYS}) {
+                measure(symbols, days);
+            }
+        }
+    }
+
+    private void measure(int symbolCount, int days) throws Exception {
+        List<String> symbols = new ArrayList<>(symbolCount);
+        for (int s = 0; s < symbolCount; s++) {
+            symbols.add("S" + (s * SYMBOLS / symbolCount));
+        }
+        Instant to = FROM.plus(Duration.ofDays(days));
+
+        // One operation per query
+        Measurement<List<DatasetRecord>> in = harness.measure(1,
+                () -> recordRepo.findRecords(DATASET_ID, 1, FROM, to, symbols, COLUMNS));
+        Measurement<List<DatasetRecord>> fanOut = harness.measure(1,
+                () -> recordFanOut.findRecords(DATASET_ID, 1, FROM, to, symbols, COLUMNS));
+        assertThat(fanOut.value()).extracting(DatasetRecord::getId)
+                .containsExactlyElementsOf(in.value().stream().map(DatasetRecord::getId).toList());
+
+        harness.report("in", in, "symbols", symbolCount, "days", days, "records", in.value().size());
+        harness.report("fanOut", fanOut, "symbols", symbolCount, "days", days, "records", fanOut.value().size());
+    }
+}
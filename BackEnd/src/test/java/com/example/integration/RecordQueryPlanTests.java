@@ -0,0 +1,185 @@
+package com.example.integration;
+
+import com.example.dataset.domain.AggregationBucket;
+import com.example.dataset.domain.DatasetRecord;
+import com.example.dataset.domain.RecordCursor;
+import com.example.dataset.domain.RecordRollup;
+import com.example.dataset.infra.mongo.MongoKeys;
+import com.example.dataset.infra.mongo.RecordQueries;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.QueryMapper;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Explain every query the record and the rollup repositories send against the embedded mongo, with the
+ * indexes created by RecordIndexManager at startup. A query falling back to a collection scan fails.
+ */
+@ActiveProfiles("test")
+@SpringBootTest
+@Import(TestMailConfig.class)
+class RecordQueryPlanTests {
+
+    private static final String DATASET_ID = "plan-test-dataset";
+    private static final Instant FROM = Instant.parse("2024-01-01T00:00:00Z");
+    private static final Instant TO = Instant.parse("2024-02-01T00:00:00Z");
+
+    @Autowired
+    private MongoTemplate mongo;
+
+    private QueryMapper queryMapper;
+
+    @BeforeEach
+    void setUp() {
+        queryMapper = new QueryMapper(mongo.getConverter());
+
+        List<DatasetRecord> records = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            records.add(DatasetRecord.builder()
+                    .datasetId(i % 2 == 0 ? DATASET_ID : "other-dataset")
+                    .version(1 + i % 3)
+                    .userDefinedTime(FROM.plus(Duration.ofHours(i)))
+                    .indexedValue("S" + i % 5)
+                    .data(Map.of("CLOSE", (double) i))
+                    .build());
+        }
+        mongo.insertAll(records);
+    }
+
+    @AfterEach
+    void tearDown() {
+        List<String> datasets = List.of(DATASET_ID, "other-dataset");
+        mongo.remove(new Query(Criteria.where(MongoKeys.Record.DATASET_ID).in(datasets)), DatasetRecord.class);
+        mongo.remove(new Query(Criteria.where(MongoKeys.Rollup.DATASET_ID).in(datasets)), RecordRollup.class);
+    }
+
+    @Test
+    void timeRangeQuery_shouldUseIndex() {
+        Document filter = new Document(MongoKeys.Record.DATASET_ID, DATASET_ID)
+                .append(MongoKeys.Record.VERSION, new Document("$lte", 2))
+                .append(MongoKeys.Record.USER_DEFINED_TIME,
+                        new Document("$gte", Date.from(FROM)).append("$lt", Date.from(TO)));
+
+        assertIndexed(explainFind(MongoKeys.Record.TABLE_NAME, filter, recordSort()));
+    }
+
+    @Test
+    void timeRangeAndIndexedValuesQuery_shouldUseIndex() {
+        Document filter = new Document(MongoKeys.Record.DATASET_ID, DATASET_ID)
+                .append(MongoKeys.Record.VERSION, new Document("$lte", 2))
+                .append(MongoKeys.Record.USER_DEFINED_TIME,
+                        new Document("$gte", Date.from(FROM)).append("$lt", Date.from(TO)))
+                .append(MongoKeys.Record.INDEXED_VALUE, new Document("$in", List.of("S1", "S2")));
+
+        assertIndexed(explainFind(MongoKeys.Record.TABLE_NAME, filter, recordSort()));
+    }
+
+    @Test
+    void recordQuery_shouldUseIndex() {
+        assertIndexed(explainFind(DatasetRecord.class,
+                RecordQueries.recordQuery(DATASET_ID, 2, FROM, TO, null, List.of("CLOSE"))));
+        assertIndexed(explainFind(DatasetRecord.class,
+                RecordQueries.recordQuery(DATASET_ID, 2, null, null, null, List.of("CLOSE"))));
+        assertIndexed(explainFind(DatasetRecord.class,
+                RecordQueries.recordQuery(DATASET_ID, 2, FROM, TO, List.of("S1"), List.of("CLOSE"))));
+        assertIndexed(explainFind(DatasetRecord.class,
+                RecordQueries.seriesQuery(DATASET_ID, 2, List.of("CLOSE"))));
+    }
+
+    @Test
+    void pageQuery_shouldScanIndexInSortOrder() {
+        RecordCursor after = new RecordCursor(2, FROM.plus(Duration.ofHours(10)), "S0", "65a000000000000000000001");
+        assertSortedByIndex(explainFind(DatasetRecord.class,
+                RecordQueries.pageQuery(DATASET_ID, 2, FROM, TO, null, List.of("CLOSE"), null, 101)));
+        assertSortedByIndex(explainFind(DatasetRecord.class,
+                RecordQueries.pageQuery(DATASET_ID, 2, FROM, TO, null, List.of("CLOSE"), after, 101)));
+        // One symbol of the fan out is an equality, the index range is read in time order
+        assertSortedByIndex(explainFind(DatasetRecord.class,
+                RecordQueries.recordQuery(DATASET_ID, 2, FROM, TO, List.of("S1"), List.of("CLOSE"))));
+        // The symbol filter may pick the indexed value index and merge the sorted symbol ranges instead
+        assertIndexed(explainFind(DatasetRecord.class,
+                RecordQueries.pageQuery(DATASET_ID, 2, null, null, List.of("S1"), List.of("CLOSE"), after, 101)));
+    }
+
+    @Test
+    void aggregations_shouldUseIndex() {
+        assertIndexed(explainAggregate(RecordQueries.recordCriteria(DATASET_ID, 2, FROM, TO, List.of("S1"))));
+        assertIndexed(explainAggregate(RecordQueries.recordCriteria(DATASET_ID, 2, null, null, null)));
+        assertIndexed(explainAggregate(RecordQueries.versionCriteria(DATASET_ID, 2)));
+    }
+
+    @Test
+    void datasetScopedWrites_shouldUseIndex() {
+        // deleteByDatasetId and deleteByDatasetIdAndVersion
+        assertIndexed(explainFind(MongoKeys.Record.TABLE_NAME,
+                new Document(MongoKeys.Record.DATASET_ID, DATASET_ID), null));
+        assertIndexed(explainFind(MongoKeys.Record.TABLE_NAME,
+                new Document(MongoKeys.Record.DATASET_ID, DATASET_ID).append(MongoKeys.Record.VERSION, 2), null));
+    }
+
+    @Test
+    void rollupQueries_shouldUseIndex() {
+        assertIndexed(explainFind(RecordRollup.class, RecordQueries.rollupQuery(
+                DATASET_ID, 2, AggregationBucket.DAY, FROM, TO, List.of("S1"), List.of("CLOSE"))));
+        assertIndexed(explainFind(MongoKeys.Rollup.TABLE_NAME,
+                new Document(MongoKeys.Rollup.DATASET_ID, DATASET_ID).append(MongoKeys.Rollup.VERSION, 2), null));
+    }
+
+    private Document recordSort() {
+        return new Document(MongoKeys.Record.USER_DEFINED_TIME, 1).append(MongoKeys.Record.INDEXED_VALUE, 1);
+    }
+
+    private Document explainFind(Class<?> type, Query query) {
+        MongoPersistentEntity<?> entity = mongo.getConverter().getMappingContext().getPersistentEntity(type);
+        return explainFind(mongo.getCollectionName(type),
+                queryMapper.getMappedObject(query.getQueryObject(), entity),
+                queryMapper.getMappedSort(query.getSortObject(), entity));
+    }
+
+    private Document explainFind(String collection, Document filter, Document sort) {
+        Document find = new Document("find", collection).append("filter", filter);
+        if (sort != null && !sort.isEmpty()) {
+            find.append("sort", sort);
+        }
+        return mongo.getDb().runCommand(new Document("explain", find).append("verbosity", "queryPlanner"));
+    }
+
+    private Document explainAggregate(Criteria match) {
+        List<Document> pipeline = List.of(
+                new Document("$match", match.getCriteriaObject()),
+                new Document("$group", new Document("_id", "$" + MongoKeys.Record.INDEXED_VALUE)));
+        Document aggregate = new Document("aggregate", MongoKeys.Record.TABLE_NAME)
+                .append("pipeline", pipeline)
+                .append("cursor", new Document());
+        return mongo.getDb().runCommand(new Document("explain", aggregate).append("verbosity", "queryPlanner"));
+    }
+
+    private void assertSortedByIndex(Document explain) {
+        assertIndexed(explain);
+        Document winningPlan = explain.get("queryPlanner", Document.class).get("winningPlan", Document.class);
+        assertThat(winningPlan.toJson()).as("winning plan").doesNotContain("\"SORT\"");
+    }
+
+    private void assertIndexed(Document explain) {
+        String plan = explain.toJson();
+        assertThat(plan).as("query plan").contains("IXSCAN").doesNotContain("COLLSCAN");
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.services;
+
+import com.example.dataset.domain.RecordWireFormat;
+import com.example.dataset.domain.dto.ColumnarRecordsResp;
+import com.example.dataset.domain.dto.Datapoint;
+import com.example.dataset.domain.dto.QueryRecordsResp;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.*;
+
+class ColumnarRecordsRespTests {
+
+    @Test
+    void from_shouldGroupBySeriesAndDeltaEncodeDays() {
+        QueryRecordsResp resp = resp(List.of(
+                point(null, "AAPL", "CLOSE", 0.5),
+                point(LocalDate.of(2024, 1, 1), "AAPL", "CLOSE", 1.0),
+                point(LocalDate.of(2024, 1, 1), "MSFT", "CLOSE", 2.0),
+                point(LocalDate.of(2024, 1, 3), "AAPL", "CLOSE", 3.0),
+                point(LocalDate.of(2024, 1, 10), "AAPL", "CLOSE", 4.0)));
+
+        ColumnarRecordsResp columnar = ColumnarRecordsResp.from(resp);
+
+        assertThat(columnar.getDatasetName()).isEqualTo("ds");
+        assertThat(columnar.getSeries()).hasSize(2);
+        ColumnarRecordsResp.Series aapl = columnar.getSeries().get(0);
+        assertThat(aapl.getSymbol()).isEqualTo("AAPL");
+        assertThat(aapl.getUndated()).isEqualTo(1);
+        assertThat(aapl.getDays()).containsExactly((int) LocalDate.of(2024, 1, 1).toEpochDay(), 2, 7);
+        assertThat(aapl.getValues()).containsExactly(0.5, 1.0, 3.0, 4.0);
+        assertThat(columnar.getSeries().get(1).getValues()).containsExactly(2.0);
+    }
+
+    @Test
+    void from_shouldHandleEmptyResponse() {
+        assertThat(ColumnarRecordsResp.from(resp(List.of())).getSeries()).isEmpty();
+    }
+
+    @Test
+    void columnarEncodings_shouldBeSmallerThanRows() throws Exception {
+        List<Datapoint> points = new ArrayList<>();
+        for (String symbol : List.of("AAPL", "MSFT", "GOOG")) {
+            for (String column : List.of("OPEN", "HIGH", "LOW", "CLOSE")) {
+                for (int day = 0; day < 250; day++) {
+                    points.add(point(LocalDate.of(2024, 1, 1).plusDays(day), symbol, column, day * 1.25));
+                }
+            }
+        }
+        ObjectMapper json = new ObjectMapper()
+                .findAndRegisterModules()
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+
+        byte[] rows = json.writeValueAsBytes(resp(points));
+        byte[] columnarJson = json.writeValueAsBytes(ColumnarRecordsResp.from(resp(points)));
+        byte[] columnarCbor = new CBORMapper().writeValueAsBytes(ColumnarRecordsResp.from(resp(points)));
+
+        assertThat(columnarJson.length).isLessThan(rows.length / 3);
+        assertThat(columnarCbor.length).isLessThan(rows.length / 3);
+
+        ColumnarRecordsResp decoded = new CBORMapper().readValue(columnarCbor, ColumnarRecordsResp.class);
+        assertThat(decoded.getSeries()).hasSize(12);
+        assertThat(decoded.getSeries().get(0).getValues()).hasSize(250);
+    }
+
+    @Test
+    void fromAccept_shouldPickCompactFormatsOnlyWhenAsked() {
+        assertThat(RecordWireFormat.fromAccept(null)).isEqualTo(RecordWireFormat.JSON);
+        assertThat(RecordWireFormat.fromAccept("*/*")).isEqualTo(RecordWireFormat.JSON);
+        assertThat(RecordWireFormat.fromAccept("application/json")).isEqualTo(RecordWireFormat.JSON);
+        assertThat(RecordWireFormat.fromAccept("application/cbor, application/json;q=0.5"))
+                .isEqualTo(RecordWireFormat.COLUMNAR_CBOR);
+        assertThat(RecordWireFormat.fromAccept("application/cbor;q=0.2, application/vnd.dataset.columnar+json"))
+                .isEqualTo(RecordWireFormat.COLUMNAR_JSON);
+        assertThat(RecordWireFormat.fromAccept("not a media type")).isEqualTo(RecordWireFormat.JSON);
+    }
+
+    private QueryRecordsResp resp(List<Datapoint> points) {
+        QueryRecordsResp resp = new QueryRecordsResp();
+        resp.setDatasetName("ds");
+        resp.setColumns(List.of("CLOSE"));
+        resp.setRecords(points);
+        return resp;
+    }
+
+    private Datapoint point(LocalDate day, String symbol, String column, double value) {
+        return Datapoint.builder()
+                .recordedTime(day)
+                .symbol(symbol)
+                .column(column)
+                .value(value)
+                .build();
+    }
+}
@@ -0,0 +1,165 @@
+package com.example.services;
+
+import com.example.async.threads.ResourceLimiter;
+import com.example.async.threads.ThreadingProperties;
+import com.example.benchmark.BenchmarkHarness;
+import com.example.benchmark.BenchmarkHarness.Measurement;
+import com.example.dataset.app.ColumnarSeriesCache;
+import com.example.dataset.app.DatasetRecordQueryService;
+import com.example.dataset.app.RecordFanOut;
+import com.example.dataset.app.RecordQueryCache;
+import com.example.dataset.app.RecordQueryProperties;
+import com.example.dataset.app.RecordRollupService;
+import com.example.dataset.domain.ColumnMeta;
+import com.example.dataset.domain.DatasetMetadata;
+import com.example.dataset.domain.DatasetRecord;
+import com.example.dataset.domain.VersionControl;
+import com.example.dataset.domain.dto.QueryRecordsReq;
+import com.example.dataset.domain.dto.QueryRecordsResp;
+import com.example.dataset.infra.mongo.DatasetRecordRepo;
+import com.example.guards.DatasetAction;
+import com.example.guards.DatasetStateGuard;
+import com.example.utils.DateParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * The queries served by slicing the cached series against the records mapped to datapoints by
+ * {@code toRecord}, the path of the queries reading mongo. The stand-in repository returns the records of the
+ * query from memory, so the mongo round trip the cache also saves is not in the numbers. The first query of a
+ * version loads it, that load is measured on its own with a new cache every iteration.
+ * <p>
+ * The numbers depend on the machine, run it with
+ * {@code mvn test -Dtest=ColumnarSeriesCacheBenchmarkTests -Dbenchmark=true}.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class ColumnarSeriesCacheBenchmarkTests {
+    private static final int SYMBOLS = 20;
+    private static final int DAYS = 2500;
+    private static final Instant FROM = Instant.parse("2015-01-01T00:00:00Z");
+    private static final List<String> COLUMNS = List.of("OPEN", "HIGH", "LOW", "CLOSE");
+
+    private final BenchmarkHarness harness = new BenchmarkHarness(ColumnarSeriesCacheBenchmarkTests.class);
+
+    private DatasetRecordRepo recordRepo;
+    private DatasetStateGuard stateGuard;
+    private List<DatasetRecord> records;
+
+    @BeforeEach
+    void setUp() {
+        recordRepo = mock(DatasetRecordRepo.class);
+        stateGuard = mock(DatasetStateGuard.class);
+        when(stateGuard.loadAndCheck(1L, "ds", DatasetAction.QUERY)).thenReturn(dataset());
+
+        records = new ArrayList<>(SYMBOLS * DAYS);
+        for (int day = 0; day < DAYS; day++) {
+            for (int s = 0; s < SYMBOLS; s++) {
+                double price = 100 + s + Math.sin(day / 10.0) * 5;
+                records.add(DatasetRecord.builder()
+                        .datasetId("ds")
+                        .version(1)
+                        .userDefinedTime(FROM.plus(Duration.ofDays(day)))
+                        .indexedValue("S" + s)
+                        .data(Map.of("OPEN", price, "HIGH", price + 1, "LOW", price - 1, "CLOSE", price + 0.5))
+                        .build());
+            }
+        }
+        when(recordRepo.streamSeries(eq("ds"), eq(1), any(), anyInt())).thenAnswer(inv -> records.stream());
+    }
+
+    @Test
+    void compareCachedSlicesAndMappedRecords() throws Exception {
+        // The whole version, then two symbols over a year, the end date is not included
+        measure("all", records, request(null, null, null));
+        Instant start = LocalDate.of(2018, 1, 1).atStartOfDay(ZoneOffset.UTC).toInstant();
+        Instant end = LocalDate.of(2019, 1, 1).atStartOfDay(ZoneOffset.UTC).toInstant();
+        measure("narrow",
+                records.stream()
+                        .filter(r -> r.getIndexedValue().equals("S3") || r.getIndexedValue().equals("S7"))
+                        .filter(r -> !r.getUserDefinedTime().isBefore(start) && r.getUserDefinedTime().isBefore(end))
+                        .toList(),
+                request("S3,S7", LocalDate.of(2018, 1, 1), LocalDate.of(2019, 1, 1)));
+    }
+
+    private void measure(String query, List<DatasetRecord> found, QueryRecordsReq req) throws Exception {
+        when(recordRepo.findRecords(eq("ds"), eq(1), any(), any(), any(), any())).thenReturn(found);
+
+        DatasetRecordQueryService mongo = service(false);
+        AtomicReference<DatasetRecordQueryService> loading = new AtomicReference<>();
+        DatasetRecordQueryService cached = service(true);
+        cached.queryRecords(1L, "ds", req);
+
+        Measurement<QueryRecordsResp> toRecord = harness.measure(found.size(),
+                () -> mongo.queryRecords(1L, "ds", req));
+        Measurement<QueryRecordsResp> load = harness.measure(found.size(),
+                () -> loading.set(service(true)),
+                () -> loading.get().queryRecords(1L, "ds", req));
+        Measurement<QueryRecordsResp> slice = harness.measure(found.size(),
+                () -> cached.queryRecords(1L, "ds", req));
+        int points = toRecord.value().getRecords().size();
+        harness.report("toRecord", toRecord, "query", query, "points", points);
+        harness.report("cacheLoad", load, "query", query, "points", load.value().getRecords().size());
+        harness.report("cacheSlice", slice, "query", query, "points", slice.value().getRecords().size());
+
+        assertThat(slice.value().getRecords()).hasSize(points);
+        assertThat(load.value().getRecords()).hasSize(points);
+        assertThat(slice.nanosPerOp()).isLessThan(toRecord.nanosPerOp());
+    }
+
+    private DatasetRecordQueryService service(boolean cacheEnabled) {
+        RecordQueryProperties properties = new RecordQueryProperties();
+        properties.getSeriesCache().setEnabled(cacheEnabled);
+        properties.getSeriesCache().setAdmitQueries(1);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        ResourceLimiter resourceLimiter = new ResourceLimiter(new ThreadingProperties(), registry);
+        ColumnarSeriesCache seriesCache = new ColumnarSeriesCache(recordRepo, properties, resourceLimiter,
+                Clock.systemUTC(), registry);
+        return new DatasetRecordQueryService(recordRepo, stateGuard, new DateParser(), properties,
+                new ObjectMapper(), mock(RecordRollupService.class), mock(RecordQueryCache.class), seriesCache,
+                new RecordFanOut(recordRepo, properties, resourceLimiter), resourceLimiter);
+    }
+
+    private QueryRecordsReq request(String symbols, LocalDate startDate, LocalDate endDate) {
+        QueryRecordsReq req = new QueryRecordsReq();
+        req.setColumns(COLUMNS);
+        req.setSymbols(symbols);
+        req.setStartDate(startDate);
+        req.setEndDate(endDate);
+        return req;
+    }
+
+    private DatasetMetadata dataset() {
+        List<ColumnMeta> headers = new ArrayList<>();
+        headers.add(ColumnMeta.builder().columnName("date").build());
+        headers.add(ColumnMeta.builder().columnName("symbol").build());
+        for (String column : COLUMNS) {
+            headers.add(ColumnMeta.builder().columnName(column.toLowerCase()).metric(true).build());
+        }
+        return DatasetMetadata.builder()
+                .id("ds")
+                .timezone("UTC")
+                .current(VersionControl.builder()
+                        .version(1)
+                        .rowCount((long) SYMBOLS * DAYS)
+                        .headers(headers)
+                        .build())
+                .build();
+    }
+}
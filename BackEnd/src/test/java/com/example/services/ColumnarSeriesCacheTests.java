@@ -0,0 +1,261 @@
+package com.example.services;
+
+import com.example.async.threads.ResourceLimiter;
+import com.example.async.threads.ThreadingProperties;
+import com.example.dataset.app.ColumnarSeriesCache;
+import com.example.dataset.app.RecordQueryProperties;
+import com.example.dataset.domain.ColumnMeta;
+import com.example.dataset.domain.ColumnarSeries;
+import com.example.dataset.domain.DatasetMetadata;
+import com.example.dataset.domain.DatasetRecord;
+import com.example.dataset.domain.VersionControl;
+import com.example.dataset.infra.mongo.DatasetRecordRepo;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class ColumnarSeriesCacheTests {
+
+    private DatasetRecordRepo recordRepo;
+    private MutableClock clock;
+    private SimpleMeterRegistry registry;
+    private RecordQueryProperties properties;
+    private ColumnarSeriesCache cache;
+
+    @BeforeEach
+    void setUp() {
+        recordRepo = mock(DatasetRecordRepo.class);
+        clock = new MutableClock(Instant.parse("2025-01-01T00:00:00Z"));
+        registry = new SimpleMeterRegistry();
+        properties = new RecordQueryProperties();
+        properties.getSeriesCache().setEnabled(true);
+        properties.getSeriesCache().setAdmitQueries(1);
+        properties.getSeriesCache().setMaxBytes(250);
+        properties.getSeriesCache().setMaxRows(10);
+        cache = new ColumnarSeriesCache(recordRepo, properties,
+                new ResourceLimiter(new ThreadingProperties(), registry), clock, registry);
+        when(recordRepo.streamSeries(any(), any(), any(), anyInt()))
+                .thenAnswer(inv -> Stream.of(
+                        record("AAPL", "2024-01-01T00:00:00Z", 1.0),
+                        record("AAPL", "2024-01-03T00:00:00Z", "2.5"),
+                        record("MSFT", null, 3.0)));
+    }
+
+    @Test
+    void get_shouldLoadOnceAndSliceBySymbol() {
+        ColumnarSeries series = cache.get(dataset("ds", 1, 3L));
+        ColumnarSeries again = cache.get(dataset("ds", 1, 3L));
+
+        assertThat(again).isSameAs(series);
+        verify(recordRepo, times(1)).streamSeries(eq("ds"), eq(1), eq(List.of("CLOSE")), anyInt());
+        assertThat(registry.counter("dataset.series.cache.requests", "result", "hit").count()).isEqualTo(1);
+
+        int aapl = series.indexOfSymbol("AAPL");
+        assertThat(series.end(aapl) - series.start(aapl)).isEqualTo(2);
+        assertThat(series.lowerBound(aapl, Instant.parse("2024-01-02T00:00:00Z").toEpochMilli()))
+                .isEqualTo(series.start(aapl) + 1);
+        assertThat(series.column("CLOSE")[series.start(aapl) + 1]).isEqualTo(2.5);
+        assertThat(series.getTimes()[series.start(series.indexOfSymbol("MSFT"))]).isEqualTo(ColumnarSeries.NO_TIME);
+        assertThat(series.indexOfSymbol("IBM")).isNegative();
+    }
+
+    @Test
+    void get_shouldBeDisabledByDefault() {
+        properties.setSeriesCache(new RecordQueryProperties.SeriesCache());
+        cache = new ColumnarSeriesCache(recordRepo, properties,
+                new ResourceLimiter(new ThreadingProperties(), registry), clock, registry);
+
+        assertThat(cache.get(dataset("ds", 1, 3L))).isNull();
+        verifyNoInteractions(recordRepo);
+    }
+
+    @Test
+    void get_shouldLoadAfterEnoughQueriesWithinWindow() {
+        properties.getSeriesCache().setAdmitQueries(3);
+        properties.getSeriesCache().setAdmitWindow(Duration.ofMinutes(5));
+
+        assertThat(cache.get(dataset("ds", 1, 3L))).isNull();
+        assertThat(cache.get(dataset("ds", 1, 3L))).isNull();
+        // The window of the first two queries is over, the counting starts again
+        clock.advance(Duration.ofMinutes(6));
+        assertThat(cache.get(dataset("ds", 1, 3L))).isNull();
+        assertThat(cache.get(dataset("ds", 1, 3L))).isNull();
+        verifyNoInteractions(recordRepo);
+
+        assertThat(cache.get(dataset("ds", 1, 3L))).isNotNull();
+        verify(recordRepo, times(1)).streamSeries(eq("ds"), eq(1), any(), anyInt());
+    }
+
+    @Test
+    void get_shouldLoadListedDatasetOnFirstQuery() {
+        properties.getSeriesCache().setAdmitQueries(3);
+        properties.getSeriesCache().setDatasets(Set.of("hot"));
+
+        assertThat(cache.get(dataset("hot", 1, 3L))).isNotNull();
+        assertThat(cache.get(dataset("cold", 1, 3L))).isNull();
+        verify(recordRepo, never()).streamSeries(eq("cold"), any(), any(), anyInt());
+    }
+
+    @Test
+    void get_shouldRememberDatasetsOverRowLimit() {
+        assertThat(cache.get(dataset("ds", 1, 11L))).isNull();
+        assertThat(cache.get(dataset("ds", 1, 11L))).isNull();
+
+        verifyNoInteractions(recordRepo);
+    }
+
+    @Test
+    void get_shouldStopLoadingWhenRowCountIsMissing() {
+        properties.getSeriesCache().setMaxRows(2);
+
+        assertThat(cache.get(dataset("ds", 1, null))).isNull();
+        assertThat(cache.get(dataset("ds", 1, null))).isNull();
+
+        verify(recordRepo, times(1)).streamSeries(any(), any(), any(), anyInt());
+    }
+
+    @Test
+    void get_shouldEvictLeastRecentlyUsedOverBudget() {
+        // Two series of 176 bytes fit, the third one does not
+        properties.getSeriesCache().setMaxBytes(400);
+        cache.get(dataset("a", 1, 3L));
+        cache.get(dataset("b", 1, 3L));
+        // Touch a, so b is the least recently used
+        cache.get(dataset("a", 1, 3L));
+        cache.get(dataset("c", 1, 3L));
+
+        assertThat(cache.size()).isEqualTo(2);
+        assertThat(cache.bytes()).isLessThanOrEqualTo(400);
+        cache.get(dataset("b", 1, 3L));
+        verify(recordRepo, times(2)).streamSeries(eq("b"), eq(1), any(), anyInt());
+        assertThat(registry.counter("dataset.series.cache.evictions").count()).isEqualTo(2);
+    }
+
+    @Test
+    void get_shouldDropOlderVersionsOfDataset() {
+        cache.get(dataset("ds", 1, 3L));
+        cache.get(dataset("ds", 2, 3L));
+
+        assertThat(cache.size()).isEqualTo(1);
+    }
+
+    @Test
+    void get_shouldGrowPastShortRowCountWithinBudget() {
+        ColumnarSeries series = cache.get(dataset("ds", 1, 1L));
+
+        assertThat(series.rows()).isEqualTo(3);
+        assertThat(cache.reserved()).isZero();
+    }
+
+    @Test
+    void get_shouldSkipLoadWithoutRoomAndLoadItLater() throws Exception {
+        properties.getSeriesCache().setMaxBytes(60);
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(recordRepo.streamSeries(eq("a"), any(), any(), anyInt())).thenAnswer(inv -> {
+            loading.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return Stream.of(
+                    record("AAPL", "2024-01-01T00:00:00Z", 1.0),
+                    record("AAPL", "2024-01-02T00:00:00Z", 2.0),
+                    record("AAPL", "2024-01-03T00:00:00Z", 3.0));
+        });
+
+        CompletableFuture<ColumnarSeries> a = CompletableFuture.supplyAsync(() -> cache.get(dataset("a", 1, 3L)));
+        assertThat(loading.await(5, TimeUnit.SECONDS)).isTrue();
+
+        // The load of a holds the budget, b reads mongo instead of loading next to it
+        assertThat(cache.get(dataset("b", 1, 3L))).isNull();
+        verify(recordRepo, never()).streamSeries(eq("b"), any(), any(), anyInt());
+
+        release.countDown();
+        assertThat(a.get(5, TimeUnit.SECONDS)).isNotNull();
+        assertThat(cache.reserved()).isZero();
+        assertThat(cache.get(dataset("b", 1, 3L))).isNotNull();
+    }
+
+    @Test
+    void builder_shouldNotGrowWhenSizedToRows() {
+        ColumnarSeries.Builder builder = new ColumnarSeries.Builder(List.of("CLOSE"), 3);
+        for (int i = 0; i < 3; i++) {
+            builder.add("AAPL", i, new double[]{i});
+        }
+
+        assertThat(builder.capacity()).isEqualTo(3);
+        assertThat(builder.build().column("CLOSE")).containsExactly(0, 1, 2);
+    }
+
+    @Test
+    void get_shouldSkipDatasetsWithoutMetrics() {
+        DatasetMetadata dataset = dataset("ds", 1, 3L);
+        dataset.getCurrent().getHeaders().forEach(c -> c.setMetric(false));
+
+        assertThat(cache.get(dataset)).isNull();
+        verifyNoInteractions(recordRepo);
+    }
+
+    private DatasetMetadata dataset(String id, int version, Long rowCount) {
+        return DatasetMetadata.builder()
+                .id(id)
+                .current(VersionControl.builder()
+                        .version(version)
+                        .rowCount(rowCount)
+                        .headers(List.of(
+                                ColumnMeta.builder().columnName("date").build(),
+                                ColumnMeta.builder().columnName("close").metric(true).build()))
+                        .build())
+                .build();
+    }
+
+    private DatasetRecord record(String symbol, String time, Object close) {
+        return DatasetRecord.builder()
+                .indexedValue(symbol)
+                .userDefinedTime(time == null ? null : Instant.parse(time))
+                .data(Map.of("CLOSE", close))
+                .build();
+    }
+
+    private static class MutableClock extends Clock {
+        private Instant now;
+
+        MutableClock(Instant now) {
+            this.now = now;
+        }
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
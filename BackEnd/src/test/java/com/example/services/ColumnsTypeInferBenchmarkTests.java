@@ -0,0 +1,122 @@
+package com.example.services;
+
+import com.example.benchmark.BenchmarkHarness;
+import com.example.benchmark.BenchmarkHarness.Measurement;
+import com.example.dataset.domain.ColumnType;
+import com.example.utils.ColumnsTypeInfer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntFunction;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The type inference with the token scanner against the inference it replaced. The replaced inference is kept
+ * here as it was: it tells the numbers and the dates apart by catching the exceptions of the parses, so the
+ * text columns throw for every sample. Every column is inferred from the default sample of 1000 values.
+ * <p>
+ * The numbers depend on the machine, run it with
+ * {@code mvn test -Dtest=ColumnsTypeInferBenchmarkTests -Dbenchmark=true}.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class ColumnsTypeInferBenchmarkTests {
+    private static final int SAMPLES = 1000;
+    private static final int ROUNDS = 500;
+    private static final DateTimeFormatter[] DATE_PATTERNS = new DateTimeFormatter[] {
+            DateTimeFormatter.ofPattern("yyyy-MM-dd"),
+            DateTimeFormatter.ofPattern("yyyy/MM/dd"),
+            DateTimeFormatter.ISO_LOCAL_DATE
+    };
+
+    private final BenchmarkHarness harness = new BenchmarkHarness(ColumnsTypeInferBenchmarkTests.class);
+
+    @Test
+    void compareScannerAndExceptionInference() throws Exception {
+        List<Column> columns = List.of(
+                new Column("name", i -> "Company " + i),
+                new Column("close", i -> (100 + i % 50) + "." + i % 100),
+                new Column("volume", i -> "1," + String.format("%03d", i % 1000) + ",000"),
+                new Column("date", i -> LocalDate.of(2000, 1, 1).plusDays(i).toString()));
+
+        for (Column column : columns) {
+            List<String> samples = new ArrayList<>(SAMPLES);
+            for (int i = 0; i < SAMPLES; i++) {
+                samples.add(column.sample.apply(i));
+            }
+            assertThat(ColumnsTypeInfer.inferColumnType(column.name, samples))
+                    .isEqualTo(legacyInfer(column.name, samples));
+
+            long operations = (long) ROUNDS * SAMPLES;
+            Measurement<?> exceptions = harness.measure(operations, () -> exceptions(column.name, samples));
+            Measurement<?> scanner = harness.measure(operations, () -> scanner(column.name, samples));
+            harness.report("exceptions", exceptions, "column", column.name);
+            harness.report("scanner", scanner, "column", column.name);
+
+            assertThat(scanner.nanosPerOp()).isLessThan(exceptions.nanosPerOp());
+        }
+    }
+
+    private ColumnType exceptions(String name, List<String> samples) {
+        ColumnType type = null;
+        for (int i = 0; i < ROUNDS; i++) {
+            type = legacyInfer(name, samples);
+        }
+        return type;
+    }
+
+    private ColumnType scanner(String name, List<String> samples) {
+        ColumnType type = null;
+        for (int i = 0; i < ROUNDS; i++) {
+            type = ColumnsTypeInfer.inferColumnType(name, samples);
+        }
+        return type;
+    }
+
+    private static ColumnType legacyInfer(String columnName, List<String> samples) {
+        int dateCount = 0;
+        int numberCount = 0;
+        for (String v : samples) {
+            if (looksLikeDate(v)) {
+                dateCount++;
+            }
+            if (looksLikeNumber(v)) {
+                numberCount++;
+            }
+        }
+        if (dateCount >= samples.size() * 0.6) {
+            return ColumnType.DATE;
+        }
+        if (numberCount >= samples.size() * 0.9) {
+            return columnName.toLowerCase().contains("id") ? ColumnType.STRING : ColumnType.NUMBER;
+        }
+        return ColumnType.STRING;
+    }
+
+    private static boolean looksLikeNumber(String value) {
+        try {
+            Double.parseDouble(value.replace(",", "").replace("%", ""));
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private static boolean looksLikeDate(String value) {
+        for (DateTimeFormatter fmt : DATE_PATTERNS) {
+            try {
+                LocalDate.parse(value, fmt);
+                return true;
+            } catch (Exception ignored) {
+            }
+        }
+        return false;
+    }
+
+    private record Column(String name, IntFunction<String> sample) {
+    }
+}
@@ -4,6 +4,8 @@ import org.junit.jupiter.api.Test;
 
 import com.example.dataset.domain.ColumnType;
 import com.example.utils.ColumnsTypeInfer;
+import com.example.utils.TokenScanner;
+import com.example.utils.TokenScanner.TokenType;
 
 import java.util.Arrays;
 import java.util.Collections;
@@ -90,8 +92,9 @@ public class ColumnsTypeInferTests {
         assertFalse(ColumnsTypeInfer.looksLikeNumber("2024-01-01"));
         assertFalse(ColumnsTypeInfer.looksLikeNumber(""));
         assertFalse(ColumnsTypeInfer.looksLikeNumber("   "));
-        // TODO: add the test case for this specific corner case
-        // assertFalse(ColumnsTypeInfer.looksLikeNumber("1,23,4"));
+        assertFalse(ColumnsTypeInfer.looksLikeNumber("1,23,4"));
+        assertFalse(ColumnsTypeInfer.looksLikeNumber("1234,567"));
+        assertFalse(ColumnsTypeInfer.looksLikeNumber("%"));
     }
 
     // ---------- looksLikeDate ----------
@@ -115,6 +118,28 @@ public class ColumnsTypeInferTests {
         assertFalse(ColumnsTypeInfer.looksLikeDate(""));
     }
 
+    @Test
+    void testLooksLikeDateRejectsInvalidDay() {
+        assertFalse(ColumnsTypeInfer.looksLikeDate("2023-02-29"));
+        assertFalse(ColumnsTypeInfer.looksLikeDate("2024-13-01"));
+        assertFalse(ColumnsTypeInfer.looksLikeDate("2024-01/01"));
+        assertTrue(ColumnsTypeInfer.looksLikeDate("2024-02-29"));
+    }
+
+    // ---------- TokenScanner ----------
+
+    @Test
+    void testClassifyTokens() {
+        assertEquals(TokenType.INTEGER, TokenScanner.classify("-42"));
+        assertEquals(TokenType.DECIMAL, TokenScanner.classify("3.14"));
+        assertEquals(TokenType.DECIMAL, TokenScanner.classify("1e5"));
+        assertEquals(TokenType.PERCENT, TokenScanner.classify("12.3%"));
+        assertEquals(TokenType.THOUSANDS, TokenScanner.classify("1,234,567.89"));
+        assertEquals(TokenType.DATE, TokenScanner.classify("2024/12/31"));
+        assertEquals(TokenType.EMPTY, TokenScanner.classify("  "));
+        assertEquals(TokenType.TEXT, TokenScanner.classify("AAPL"));
+    }
+
     @Test
     void testLooksLikeDateDateThreshold() {
         List<String> samples = Arrays.asList(
@@ -139,4 +164,13 @@ public class ColumnsTypeInferTests {
 
         assertEquals(ColumnType.STRING, result);
     }
-}
\ No newline at end of file
+
+    @Test
+    void testParseNumber() {
+        assertEquals(1234.5, TokenScanner.parseNumber("1,234.5"));
+        assertEquals(12.5, TokenScanner.parseNumber(" 12.5% "));
+        assertEquals(-3e2, TokenScanner.parseNumber("-3e2"));
+        assertTrue(Double.isNaN(TokenScanner.parseNumber("AAPL")));
+        assertTrue(Double.isNaN(TokenScanner.parseNumber("")));
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.services;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import com.example.benchmark.BenchmarkHarness;
+import com.example.benchmark.BenchmarkHarness.Measurement;
+import com.example.utils.CompressionCodec;
+import com.example.utils.CountingInputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompressionCodecTests {
+
+    @Test
+    void testRoundTrip() throws Exception {
+        byte[] csv = csv(20_000);
+        for (CompressionCodec codec : CompressionCodec.values()) {
+            byte[] compressed = compress(codec, csv);
+            assertArrayEquals(csv, decompress(codec, compressed), codec.name());
+        }
+    }
+
+    @Test
+    void testDetectCompressedUpload() throws Exception {
+        byte[] csv = csv(100);
+        for (CompressionCodec codec : CompressionCodec.values()) {
+            PushbackInputStream in = new PushbackInputStream(new ByteArrayInputStream(compress(codec, csv)), 4);
+            assertEquals(codec, CompressionCodec.detect(in));
+
+            // The detected bytes are read again
+            assertArrayEquals(csv, decompress(codec, in.readAllBytes()));
+        }
+        assertEquals(CompressionCodec.NONE,
+                CompressionCodec.detect(new PushbackInputStream(new ByteArrayInputStream(new byte[]{0x1f}), 4)));
+    }
+
+    @Test
+    void testCodecOfKey() {
+        assertEquals(CompressionCodec.GZIP, CompressionCodec.fromKey("csv-import/temp/1/ds/job/data.csv.gz"));
+        assertEquals(CompressionCodec.ZSTD, CompressionCodec.fromKey("csv-import/temp/1/ds/job/data.csv.zst"));
+        assertEquals(CompressionCodec.NONE, CompressionCodec.fromKey("csv-import/temp/1/ds/job/data.csv"));
+        assertEquals("data.csv", CompressionCodec.stripExtension("data.csv.gz"));
+        assertEquals("data.csv", CompressionCodec.stripExtension("data.csv"));
+    }
+
+    @Test
+    void testCountStoredBytesRead() throws Exception {
+        byte[] csv = csv(20_000);
+        byte[] compressed = compress(CompressionCodec.GZIP, csv);
+        CountingInputStream counted = new CountingInputStream(new ByteArrayInputStream(compressed));
+        try (InputStream in = CompressionCodec.GZIP.decompress(counted)) {
+            assertEquals(csv.length, in.readAllBytes().length);
+        }
+
+        // The stored bytes taken from the source, not the csv they decompress to
+        assertEquals(compressed.length, counted.count());
+    }
+
+    /**
+     * Report the compression ratio and the throughput of every codec on a generated price csv. Run with
+     * {@code mvn test -Dtest=CompressionCodecTests -Dbenchmark=true}.
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    void benchmarkCodecs() throws Exception {
+        BenchmarkHarness harness = new BenchmarkHarness(CompressionCodecTests.class);
+        byte[] csv = csv(2_000_000);
+        for (CompressionCodec codec : CompressionCodec.values()) {
+            // One operation per csv byte
+            Measurement<byte[]> compress = harness.measure(csv.length, () -> compress(codec, csv));
+            byte[] compressed = compress.value();
+            Measurement<byte[]> decompress = harness.measure(csv.length, () -> decompress(codec, compressed));
+
+            assertEquals(csv.length, decompress.value().length);
+            String ratio = String.format("%.1f", (double) csv.length / compressed.length);
+            harness.report(codec.name(), compress, "phase", "compress", "storedBytes", compressed.length,
+                    "ratio", ratio);
+            harness.report(codec.name(), decompress, "phase", "decompress");
+        }
+    }
+
+    private static byte[] compress(CompressionCodec codec, byte[] bytes) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OutputStream encoded = codec.compress(out)) {
+            encoded.write(bytes);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] decompress(CompressionCodec codec, byte[] bytes) throws Exception {
+        try (InputStream in = codec.decompress(new ByteArrayInputStream(bytes))) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static byte[] csv(int rows) {
+        String[] symbols = {"AAPL", "MSFT", "GOOG", "AMZN", "NVDA", "META", "TSLA", "ORCL"};
+        Random random = new Random(42);
+        StringBuilder sb = new StringBuilder("Date,Symbol,Open,High,Low,Close,Volume\n");
+        for (int i = 0; i < rows; i++) {
+            double open = 100 + random.nextInt(10_000) / 100.0;
+            sb.append("2024-").append(String.format("%02d-%02d", 1 + i / 28 % 12, 1 + i % 28)).append(',')
+                    .append(symbols[i % symbols.length]).append(',')
+                    .append(open).append(',')
+                    .append(open + random.nextInt(500) / 100.0).append(',')
+                    .append(open - random.nextInt(500) / 100.0).append(',')
+                    .append(open + (random.nextInt(1000) - 500) / 100.0).append(',')
+                    .append(random.nextInt(5_000_000)).append('\n');
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
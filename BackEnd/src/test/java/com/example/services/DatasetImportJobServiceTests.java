@@ -0,0 +1,102 @@
+package com.example.services;
+
+import com.example.dataset.app.DatasetImportJobService;
+import com.example.dataset.domain.DatasetImportJob;
+import com.example.dataset.domain.DatasetImportJobStatus;
+import com.example.dataset.domain.dto.CreateDatasetReq;
+import com.example.dataset.infra.jpa.DatasetImportJobRepository;
+import com.example.dataset.infra.mongo.DatasetMetadataRepo;
+import com.example.exception.types.BadRequestException;
+import com.example.s3.S3MultipartUploader;
+import com.example.s3.S3Properties;
+import com.example.s3.UploadedObject;
+import com.example.utils.CompressionCodec;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.ApplicationEventPublisher;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class DatasetImportJobServiceTests {
+
+    private DatasetImportJobRepository importJobRepo;
+    private S3MultipartUploader multipartUploader;
+    private DatasetImportJobService service;
+
+    @BeforeEach
+    void setUp() {
+        importJobRepo = mock(DatasetImportJobRepository.class);
+        multipartUploader = mock(S3MultipartUploader.class);
+        S3Properties s3Properties = new S3Properties();
+        s3Properties.setBucket("bucket");
+        service = new DatasetImportJobService(importJobRepo, s3Properties, new ObjectMapper(),
+                mock(DatasetMetadataRepo.class), multipartUploader, mock(ApplicationEventPublisher.class));
+    }
+
+    @Test
+    void createStreamingImportJob_shouldRejectBodyWithoutHeader() throws Exception {
+        for (byte[] body : new byte[][] {
+                new byte[0],
+                "\nDate,Close\n2024-01-02,1.5\n".getBytes(StandardCharsets.UTF_8),
+                "  \r\n".getBytes(StandardCharsets.UTF_8),
+                gzip(new byte[0])}) {
+            assertThatThrownBy(() -> createJob(body)).isInstanceOf(BadRequestException.class);
+        }
+
+        verify(importJobRepo, never()).save(any());
+        verifyNoInteractions(multipartUploader);
+    }
+
+    @Test
+    void createStreamingImportJob_shouldUploadWholeBodyAfterHeaderCheck() throws Exception {
+        StringBuilder csv = new StringBuilder("\uFEFFDate,Symbol,Close\n");
+        // Longer than the bytes read ahead, the rest of the body follows them
+        while (csv.length() < 200_000) {
+            csv.append("2024-01-02,AAPL,1.5\n");
+        }
+        byte[] body = csv.toString().getBytes(StandardCharsets.UTF_8);
+        when(importJobRepo.save(any())).thenAnswer(inv -> inv.getArgument(0));
+        DatasetImportJob job = new DatasetImportJob();
+        job.setJobId("job");
+        job.setDatasetName("prices");
+        job.setStatus(DatasetImportJobStatus.PENDING);
+        when(importJobRepo.findByJobId(anyString())).thenReturn(Optional.of(job));
+        AtomicReference<byte[]> uploaded = new AtomicReference<>();
+        when(multipartUploader.upload(anyString(), anyString(), anyString(), any(), eq(CompressionCodec.NONE)))
+                .thenAnswer(inv -> {
+                    uploaded.set(inv.<InputStream>getArgument(3).readAllBytes());
+                    return new UploadedObject(uploaded.get().length, uploaded.get().length);
+                });
+
+        createJob(body);
+
+        assertThat(uploaded.get()).isEqualTo(body);
+    }
+
+    private void createJob(byte[] body) {
+        CreateDatasetReq req = new CreateDatasetReq();
+        req.setDatasetName("prices");
+        req.setRecordTimeColumnName("date");
+        req.setRecordPrimaryIndexedColumnName("symbol");
+        service.createStreamingImportJob(new ByteArrayInputStream(body), "prices.csv", "text/csv", -1, req, 1L);
+    }
+
+    private static byte[] gzip(byte[] bytes) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OutputStream encoded = CompressionCodec.GZIP.compress(out)) {
+            encoded.write(bytes);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,357 @@
+package com.example.services;
+
+import com.example.async.threads.ResourceLimiter;
+import com.example.async.threads.ThreadingProperties;
+import com.example.dataset.app.ColumnarSeriesCache;
+import com.example.dataset.app.DatasetRecordQueryService;
+import com.example.dataset.app.RecordFanOut;
+import com.example.dataset.app.RecordQueryCache;
+import com.example.dataset.app.RecordQueryProperties;
+import com.example.dataset.app.RecordRollupService;
+import com.example.dataset.domain.AggregationBucket;
+import com.example.dataset.domain.ColumnarSeries;
+import com.example.dataset.domain.DatasetMetadata;
+import com.example.dataset.domain.DatasetRecord;
+import com.example.dataset.domain.RecordAggregate;
+import com.example.dataset.domain.RecordCursor;
+import com.example.dataset.domain.RecordWireFormat;
+import com.example.dataset.domain.VersionControl;
+import com.example.dataset.domain.dto.AggregateRecordsReq;
+import com.example.dataset.domain.dto.AggregateRecordsResp;
+import com.example.dataset.domain.dto.Datapoint;
+import com.example.dataset.domain.dto.QueryRecordsPageResp;
+import com.example.dataset.domain.dto.QueryRecordsReq;
+import com.example.dataset.domain.dto.QueryRecordsResp;
+import com.example.dataset.infra.mongo.DatasetRecordRepo;
+import com.example.exception.ErrorCode;
+import com.example.exception.types.BadRequestException;
+import com.example.exception.types.NotFoundException;
+import com.example.guards.DatasetAction;
+import com.example.guards.DatasetStateGuard;
+import com.example.utils.DateParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class DatasetRecordQueryServiceTests {
+
+    private DatasetRecordRepo recordRepo;
+    private DatasetStateGuard stateGuard;
+    private RecordQueryProperties properties;
+    private ColumnarSeriesCache seriesCache;
+    private RecordQueryCache queryCache;
+    private DatasetRecordQueryService service;
+
+    @BeforeEach
+    void setUp() {
+        recordRepo = mock(DatasetRecordRepo.class);
+        stateGuard = mock(DatasetStateGuard.class);
+        properties = new RecordQueryProperties();
+        properties.setCursorBatchSize(2);
+        seriesCache = mock(ColumnarSeriesCache.class);
+        queryCache = mock(RecordQueryCache.class);
+        ObjectMapper objectMapper = new ObjectMapper()
+                .findAndRegisterModules()
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        ResourceLimiter resourceLimiter = new ResourceLimiter(new ThreadingProperties(), new SimpleMeterRegistry());
+        service = new DatasetRecordQueryService(recordRepo, stateGuard, new DateParser(), properties, objectMapper,
+                mock(RecordRollupService.class), queryCache, seriesCache,
+                new RecordFanOut(recordRepo, properties, resourceLimiter), resourceLimiter);
+    }
+
+    @Test
+    void streamRecords_shouldWriteOneDatapointPerLine() throws Exception {
+        when(stateGuard.loadAndCheck(1L, "ds", DatasetAction.QUERY)).thenReturn(dataset());
+        when(recordRepo.streamRecords(eq("ds"), eq(3), any(), any(), eq(List.of("AAPL")), eq(List.of("CLOSE", "OPEN")), eq(2)))
+                .thenReturn(Stream.of(
+                        record("2024-01-02T00:00:00Z", Map.of("CLOSE", 1.5, "OPEN", "1,000")),
+                        record("2024-01-03T00:00:00Z", Map.of("CLOSE", "n/a"))));
+
+        QueryRecordsReq req = new QueryRecordsReq();
+        req.setColumns(List.of("CLOSE", "OPEN"));
+        req.setSymbols("aapl");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        service.streamRecords(1L, "ds", req).writeTo(out);
+
+        String[] lines = out.toString(StandardCharsets.UTF_8).split("\n");
+        assertThat(lines).hasSize(2);
+        assertThat(lines[0]).contains("\"recordedTime\":\"2024-01-02\"", "\"column\":\"CLOSE\"", "\"value\":1.5");
+        assertThat(lines[1]).contains("\"column\":\"OPEN\"", "\"value\":1000.0");
+    }
+
+    @Test
+    void streamRecords_shouldCheckGuardBeforeOpeningCursor() {
+        when(stateGuard.loadAndCheck(1L, "ds", DatasetAction.QUERY))
+                .thenThrow(new NotFoundException(ErrorCode.DATASET_NOT_FOUND));
+
+        assertThatThrownBy(() -> service.streamRecords(1L, "ds", new QueryRecordsReq()))
+                .isInstanceOf(NotFoundException.class);
+        verify(recordRepo, never()).streamRecords(any(), any(), any(), any(), any(), any(), anyInt());
+    }
+
+    @Test
+    void queryRecordsEncoded_shouldRejectNullColumnBeforeCaching() {
+        when(stateGuard.loadAndCheck(1L, "ds", DatasetAction.QUERY)).thenReturn(dataset());
+        QueryRecordsReq req = new QueryRecordsReq();
+        req.setColumns(Arrays.asList("CLOSE", null));
+
+        assertThatThrownBy(() -> service.queryRecordsEncoded(1L, "ds", req, RecordWireFormat.JSON))
+                .isInstanceOf(BadRequestException.class);
+        verifyNoInteractions(queryCache);
+    }
+
+    @Test
+    void queryRecords_shouldDownsampleEverySeries() {
+        when(stateGuard.loadAndCheck(1L, "ds", DatasetAction.QUERY)).thenReturn(dataset());
+        List<DatasetRecord> records = new ArrayList<>();
+        Instant start = Instant.parse("2024-01-01T00:00:00Z");
+        for (int i = 0; i < 100; i++) {
+            records.add(record(start.plus(Duration.ofDays(i)).toString(), Map.of("CLOSE", (double) i)));
+        }
+        when(recordRepo.streamRecords(eq("ds"), eq(3), any(), any(), isNull(), eq(List.of("CLOSE")), eq(2)))
+                .thenReturn(records.stream());
+
+        QueryRecordsReq req = new QueryRecordsReq();
+        req.setColumns(List.of("CLOSE"));
+        req.setMaxPoints(10);
+
+        QueryRecordsResp resp = service.queryRecords(1L, "ds", req);
+
+        assertThat(resp.getRecords()).hasSize(10);
+        assertThat(resp.getRecords().get(0).getRecordedTime()).isEqualTo(LocalDate.of(2024, 1, 1));
+        assertThat(resp.getRecords().get(9).getValue()).isEqualTo(99.0);
+        verify(recordRepo, never()).findRecords(any(), any(), any(), any(), any(), any());
+    }
+
+    @Test
+    void queryRecords_shouldMergeCachedSeriesByTime() {
+        when(stateGuard.loadAndCheck(1L, "ds", DatasetAction.QUERY)).thenReturn(dataset());
+        ColumnarSeries.Builder builder = new ColumnarSeries.Builder(List.of("CLOSE"));
+        builder.add("AAPL", millis("2024-01-01T00:00:00Z"), new double[] { 1 });
+        builder.add("AAPL", millis("2024-01-03T00:00:00Z"), new double[] { 3 });
+        builder.add("AAPL", millis("2024-01-05T00:00:00Z"), new double[] { 5 });
+        builder.add("MSFT", millis("2024-01-02T00:00:00Z"), new double[] { 2 });
+        builder.add("MSFT", millis("2024-01-03T00:00:00Z"), new double[] { Double.NaN });
+        builder.add("MSFT", millis("2024-01-04T00:00:00Z"), new double[] { 4 });
+        when(seriesCache.get(any())).thenReturn(builder.build());
+
+        QueryRecordsReq req = new QueryRecordsReq();
+        req.setColumns(List.of("CLOSE"));
+        req.setStartDate(LocalDate.of(2024, 1, 2));
+        req.setEndDate(LocalDate.of(2024, 1, 5));
+
+        QueryRecordsResp resp = service.queryRecords(1L, "ds", req);
+
+        assertThat(resp.getRecords())
+                .extracting(p -> p.getSymbol() + "@" + p.getRecordedTime().getDayOfMonth() + "=" + p.getValue())
+                .containsExactly("MSFT@2=2.0", "AAPL@3=3.0", "MSFT@4=4.0");
+        verifyNoInteractions(recordRepo);
+    }
+
+    @Test
+    void queryRecords_shouldReadMongoWhenColumnIsNotCached() {
+        when(stateGuard.loadAndCheck(1L, "ds", DatasetAction.QUERY)).thenReturn(dataset());
+        ColumnarSeries.Builder builder = new ColumnarSeries.Builder(List.of("CLOSE"));
+        builder.add("AAPL", millis("2024-01-01T00:00:00Z"), new double[] { 1 });
+        when(seriesCache.get(any())).thenReturn(builder.build());
+        when(recordRepo.findRecords(eq("ds"), eq(3), any(), any(), isNull(), eq(List.of("NAME"))))
+                .thenReturn(List.of(record("2024-01-01T00:00:00Z", Map.of("NAME", 7.0))));
+
+        QueryRecordsReq req = new QueryRecordsReq();
+        req.setColumns(List.of("NAME"));
+
+        QueryRecordsResp resp = service.queryRecords(1L, "ds", req);
+
+        assertThat(resp.getRecords()).hasSize(1);
+        verify(recordRepo).findRecords(eq("ds"), eq(3), any(), any(), isNull(), eq(List.of("NAME")));
+    }
+
+    @Test
+    void queryRecordPage_shouldContinueAfterCursorOnSameVersion() {
+        when(stateGuard.loadAndCheck(1L, "ds", DatasetAction.QUERY)).thenReturn(dataset());
+        properties.setMaxPageSize(2);
+        DatasetRecord first = record("2024-01-02T00:00:00Z", Map.of("CLOSE", 1.0));
+        first.setId("65a000000000000000000001");
+        DatasetRecord second = record("2024-01-02T00:00:00Z", Map.of("CLOSE", 2.0));
+        second.setId("65a000000000000000000002");
+        DatasetRecord third = record("2024-01-03T00:00:00Z", Map.of("CLOSE", 3.0));
+        when(recordRepo.findRecordPage(eq("ds"), eq(3), any(), any(), isNull(), eq(List.of("CLOSE")), isNull(), eq(3)))
+                .thenReturn(new ArrayList<>(List.of(first, second, third)));
+
+        QueryRecordsReq req = new QueryRecordsReq();
+        req.setColumns(List.of("CLOSE"));
+
+        QueryRecordsPageResp page = service.queryRecordPage(1L, "ds", req, null, 100);
+
+        assertThat(page.getRecords()).extracting(Datapoint::getValue).containsExactly(1.0, 2.0);
+        assertThat(page.getNextCursor()).isNotNull();
+
+        // The dataset moved on to a newer version, the listing stays on version 3
+        when(stateGuard.loadAndCheck(1L, "ds", DatasetAction.QUERY)).thenReturn(dataset(4));
+        when(recordRepo.findRecordPage(eq("ds"), eq(3), any(), any(), isNull(), eq(List.of("CLOSE")),
+                argThat(c -> c != null && c.getId().equals(second.getId())
+                        && c.getUserDefinedTime().equals(second.getUserDefinedTime())
+                        && "AAPL".equals(c.getIndexedValue())), eq(3)))
+                .thenReturn(List.of(third));
+
+        QueryRecordsPageResp next = service.queryRecordPage(1L, "ds", req, page.getNextCursor(), null);
+
+        assertThat(next.getRecords()).extracting(Datapoint::getValue).containsExactly(3.0);
+        assertThat(next.getNextCursor()).isNull();
+    }
+
+    @Test
+    void queryRecordPage_shouldRejectTamperedCursor() {
+        when(stateGuard.loadAndCheck(1L, "ds", DatasetAction.QUERY)).thenReturn(dataset());
+
+        QueryRecordsReq req = new QueryRecordsReq();
+        req.setColumns(List.of("CLOSE"));
+
+        assertThatThrownBy(() -> service.queryRecordPage(1L, "ds", req, "not-a-cursor", null))
+                .isInstanceOf(BadRequestException.class);
+        verifyNoInteractions(recordRepo);
+    }
+
+    @Test
+    void queryRecordPage_shouldRejectCursorOfCompactedVersion() {
+        DatasetMetadata dataset = dataset(5);
+        dataset.setCompactedVersion(5);
+        when(stateGuard.loadAndCheck(1L, "ds", DatasetAction.QUERY)).thenReturn(dataset);
+        String cursor = RecordCursor.encode(new RecordCursor(3, Instant.parse("2024-01-02T00:00:00Z"), "AAPL",
+                "65a000000000000000000001"), new ObjectMapper().findAndRegisterModules());
+
+        QueryRecordsReq req = new QueryRecordsReq();
+        req.setColumns(List.of("CLOSE"));
+
+        assertThatThrownBy(() -> service.queryRecordPage(1L, "ds", req, cursor, null))
+                .isInstanceOf(BadRequestException.class);
+        verifyNoInteractions(recordRepo);
+    }
+
+    @Test
+    void queryRecords_shouldFanOutManySymbolsAndMergeByTime() {
+        when(stateGuard.loadAndCheck(1L, "ds", DatasetAction.QUERY)).thenReturn(dataset());
+        properties.getFanOut().setMinSymbols(2);
+        when(recordRepo.findRecords(eq("ds"), eq(3), any(), any(), eq(List.of("AAPL")), eq(List.of("CLOSE"))))
+                .thenReturn(List.of(
+                        record("AAPL", "2024-01-01T00:00:00Z", 1.0),
+                        record("AAPL", "2024-01-03T00:00:00Z", 3.0)));
+        when(recordRepo.findRecords(eq("ds"), eq(3), any(), any(), eq(List.of("MSFT")), eq(List.of("CLOSE"))))
+                .thenReturn(List.of(
+                        record("MSFT", "2024-01-01T00:00:00Z", 10.0),
+                        record("MSFT", "2024-01-02T00:00:00Z", 20.0)));
+
+        QueryRecordsReq req = new QueryRecordsReq();
+        req.setColumns(List.of("CLOSE"));
+        req.setSymbols("msft, aapl");
+
+        QueryRecordsResp resp = service.queryRecords(1L, "ds", req);
+
+        assertThat(resp.getRecords()).extracting(Datapoint::getValue).containsExactly(1.0, 10.0, 20.0, 3.0);
+        verify(recordRepo, never()).findRecords(any(), any(), any(), any(), eq(List.of("MSFT", "AAPL")), any());
+    }
+
+    @Test
+    void queryRecords_shouldRejectMaxPointsOverLimit() {
+        when(stateGuard.loadAndCheck(1L, "ds", DatasetAction.QUERY)).thenReturn(dataset());
+
+        QueryRecordsReq req = new QueryRecordsReq();
+        req.setColumns(List.of("CLOSE"));
+        req.setMaxPoints(properties.getMaxPointsLimit() + 1);
+
+        assertThatThrownBy(() -> service.queryRecords(1L, "ds", req))
+                .isInstanceOf(BadRequestException.class);
+    }
+
+    @Test
+    void aggregateRecords_shouldMapBucketsToDatasetTimezone() {
+        when(stateGuard.loadAndCheck(1L, "ds", DatasetAction.QUERY)).thenReturn(dataset());
+        when(recordRepo.aggregateRecords(eq("ds"), eq(3), any(), any(), isNull(), eq(List.of("CLOSE")),
+                eq(AggregationBucket.WEEK), isNull()))
+                .thenReturn(List.of(RecordAggregate.builder()
+                        .bucketStart(Instant.parse("2024-01-01T00:00:00Z"))
+                        .symbol("AAPL")
+                        .column("CLOSE")
+                        .count(5)
+                        .min(1.0)
+                        .max(5.0)
+                        .avg(3.0)
+                        .sum(15.0)
+                        .last(4.0)
+                        .build()));
+
+        AggregateRecordsReq req = new AggregateRecordsReq();
+        req.setColumns(List.of("CLOSE"));
+        req.setBucket(AggregationBucket.WEEK);
+
+        AggregateRecordsResp resp = service.aggregateRecords(1L, "ds", req);
+
+        assertThat(resp.getBucket()).isEqualTo(AggregationBucket.WEEK);
+        assertThat(resp.getRecords()).singleElement().satisfies(p -> {
+            assertThat(p.getRecordedTime()).isEqualTo(LocalDate.of(2024, 1, 1));
+            assertThat(p.getCount()).isEqualTo(5);
+            assertThat(p.getLast()).isEqualTo(4.0);
+        });
+    }
+
+    @Test
+    void aggregateRecords_shouldRejectFieldPathColumns() {
+        when(stateGuard.loadAndCheck(1L, "ds", DatasetAction.QUERY)).thenReturn(dataset());
+
+        AggregateRecordsReq req = new AggregateRecordsReq();
+        req.setColumns(List.of("$where"));
+
+        assertThatThrownBy(() -> service.aggregateRecords(1L, "ds", req))
+                .isInstanceOf(BadRequestException.class);
+        verifyNoInteractions(recordRepo);
+    }
+
+    private DatasetMetadata dataset() {
+        return dataset(3);
+    }
+
+    private DatasetMetadata dataset(int version) {
+        return DatasetMetadata.builder()
+                .id("ds")
+                .current(VersionControl.builder().version(version).build())
+                .build();
+    }
+
+    private DatasetRecord record(String symbol, String time, double close) {
+        DatasetRecord record = record(time, Map.of("CLOSE", close));
+        record.setIndexedValue(symbol);
+        return record;
+    }
+
+    private long millis(String time) {
+        return Instant.parse(time).toEpochMilli();
+    }
+
+    private DatasetRecord record(String time, Map<String, Object> data) {
+        return DatasetRecord.builder()
+                .datasetId("ds")
+                .version(3)
+                .userDefinedTime(Instant.parse(time))
+                .indexedValue("AAPL")
+                .data(data)
+                .build();
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.services;
+
+import org.junit.jupiter.api.Test;
+
+import com.example.utils.DateParser;
+import com.example.utils.RecordTimeParser;
+
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DateParserTests {
+    @Test
+    void testParseIsoDate() {
+        assertEquals(Instant.parse("2024-01-02T00:00:00Z"),
+                DateParser.parseRecordTime("2024-01-02", null, null));
+    }
+
+    @Test
+    void testParseSlashDateWithTimezone() {
+        assertEquals(Instant.parse("2024-01-01T16:00:00Z"),
+                DateParser.parseRecordTime("2024/01/02", null, "Asia/Singapore"));
+    }
+
+    @Test
+    void testParseOffsetDateTime() {
+        assertEquals(Instant.parse("2024-01-02T01:30:00Z"),
+                DateParser.parseRecordTime("2024-01-02T03:30:00+02:00", null, null));
+    }
+
+    @Test
+    void testParseExcelSerial() {
+        assertEquals(Instant.parse("2024-01-01T00:00:00Z"),
+                DateParser.parseRecordTime("45292", null, null));
+    }
+
+    @Test
+    void testParseUserPattern() {
+        assertEquals(Instant.parse("2024-01-02T00:00:00Z"),
+                DateParser.parseRecordTime("02.01.2024", "dd.MM.yyyy", null));
+    }
+
+    @Test
+    void testParseBlank() {
+        assertNull(DateParser.parseRecordTime("  ", null, null));
+    }
+
+    @Test
+    void testParseUnrecognized() {
+        assertThrows(IllegalArgumentException.class,
+                () -> DateParser.parseRecordTime("not a date", null, null));
+    }
+
+    @Test
+    void testRecordTimeParserFallsBackWhenFormatChanges() {
+        RecordTimeParser parser = DateParser.recordTimeParser(null, null);
+
+        assertEquals(Instant.parse("2024-01-02T00:00:00Z"), parser.parse("2024-01-02"));
+        assertEquals(Instant.parse("2024-01-03T00:00:00Z"), parser.parse("2024-01-03"));
+        assertEquals(Instant.parse("2024-01-04T10:00:00Z"), parser.parse("2024-01-04 10:00:00"));
+        assertEquals(Instant.parse("2024-01-01T00:00:00Z"), parser.parse("45292"));
+        assertEquals(Instant.parse("2024-01-05T00:00:00Z"), parser.parse("2024-01-05"));
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.services;
+
+import org.junit.jupiter.api.Test;
+
+import com.example.utils.Downsampler;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DownsamplerTests {
+    @Test
+    void testLttbKeepsEdgesAndThreshold() {
+        int size = 1000;
+        long[] x = new long[size];
+        double[] y = new double[size];
+        for (int i = 0; i < size; i++) {
+            x[i] = i * 1000L;
+            y[i] = Math.sin(i / 10.0);
+        }
+
+        int[] kept = Downsampler.lttb(x, y, size, 50);
+
+        assertEquals(50, kept.length);
+        assertEquals(0, kept[0]);
+        assertEquals(size - 1, kept[kept.length - 1]);
+        for (int i = 1; i < kept.length; i++) {
+            assertTrue(kept[i] > kept[i - 1]);
+        }
+    }
+
+    @Test
+    void testLttbKeepsSpike() {
+        int size = 100;
+        long[] x = new long[size];
+        double[] y = new double[size];
+        for (int i = 0; i < size; i++) {
+            x[i] = i;
+        }
+        y[42] = 100;
+
+        int[] kept = Downsampler.lttb(x, y, size, 10);
+
+        assertTrue(java.util.Arrays.stream(kept).anyMatch(i -> i == 42));
+    }
+
+    @Test
+    void testLttbReturnsAllWhenUnderThreshold() {
+        int[] kept = Downsampler.lttb(new long[] { 1, 2, 3 }, new double[] { 1, 2, 3 }, 3, 10);
+
+        assertArrayEquals(new int[] { 0, 1, 2 }, kept);
+    }
+
+    @Test
+    void testMinMaxKeepsExtremesPerBucket() {
+        double[] y = { 5, 1, 9, 3, 4, 8, 0, 6 };
+
+        int[] kept = Downsampler.minMax(y, y.length, 4);
+
+        // Bucket [0, 4) keeps 1 and 9, bucket [4, 8) keeps 8 and 0
+        assertArrayEquals(new int[] { 1, 2, 5, 6 }, kept);
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.services;
+
+import com.example.benchmark.BenchmarkHarness;
+import com.example.benchmark.BenchmarkHarness.Measurement;
+import com.example.dataset.domain.CreateCollectionDataProps;
+import com.example.dataset.domain.RecordRowBatch;
+import com.example.dataset.domain.RecordSchema;
+import com.example.dataset.infra.mongo.MongoKeys;
+import com.example.dataset.infra.mongo.RecordBsonEncoder;
+import com.mongodb.MongoClientSettings;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.Codec;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.io.StringReader;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The flat row batches encoded straight to BSON against the row maps copied into a {@link Document}, the way
+ * the import converted the rows before. Both start from the parsed csv records and end with the encoded
+ * documents the driver sends, the record time is the same in both so only the row handling is compared.
+ * The bytes per row are the heap the converting thread allocated, both convert on the calling thread.
+ * <p>
+ * The numbers depend on the machine, run it with
+ * {@code mvn test -Dtest=RecordEncodingBenchmarkTests -Dbenchmark=true}.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class RecordEncodingBenchmarkTests {
+    private static final int ROWS = 300_000;
+    private static final int BATCH_SIZE = 300;
+    private static final List<String> HEADERS = List.of("date", "symbol", "open", "high", "low", "close", "volume");
+
+    private final BenchmarkHarness harness = new BenchmarkHarness(RecordEncodingBenchmarkTests.class);
+
+    private final CreateCollectionDataProps props = CreateCollectionDataProps.builder()
+            .datasetId("benchmark")
+            .version(1)
+            .batchId("benchmark")
+            .recordTimeColumnName("DATE")
+            .recordPrimaryIndexedColumnName("SYMBOL")
+            .metricColumns(Set.of("OPEN", "HIGH", "LOW", "CLOSE", "VOLUME"))
+            .build();
+    private final Instant recordedTime = Instant.parse("2024-01-02T00:00:00Z");
+
+    @Test
+    void compareRowMapsAndRowBatches() throws Exception {
+        List<CSVRecord> records = records(ROWS);
+
+        Measurement<Long> maps = harness.measure(ROWS, () -> rowMaps(records));
+        Measurement<Long> batches = harness.measure(ROWS, () -> rowBatches(records));
+        harness.report("rowMaps", maps, "bsonBytes", maps.value());
+        harness.report("rowBatches", batches, "bsonBytes", batches.value());
+
+        assertThat(batches.bytesPerOp()).isLessThan(maps.bytesPerOp());
+        assertThat(batches.nanosPerOp()).isLessThan(maps.nanosPerOp());
+    }
+
+    private long rowMaps(List<CSVRecord> records) {
+        Codec<Document> codec = MongoClientSettings.getDefaultCodecRegistry().get(Document.class);
+        Instant now = Instant.now();
+        long bytes = 0;
+        for (CSVRecord record : records) {
+            Map<String, String> row = new HashMap<>();
+            for (String header : HEADERS) {
+                row.put(header.toUpperCase(), record.get(header));
+            }
+            Document doc = new Document()
+                    .append(MongoKeys.Record.DATASET_ID, props.getDatasetId())
+                    .append(MongoKeys.Record.VERSION, props.getVersion())
+                    .append(MongoKeys.Record.BATCH_ID, props.getBatchId())
+                    .append(MongoKeys.Record.USER_DEFINED_TIME, recordedTime)
+                    .append(MongoKeys.Record.SYSTEM_CREATED_AT, now)
+                    .append(MongoKeys.Record.INDEXED_VALUE, row.get(props.getRecordPrimaryIndexedColumnName()))
+                    .append(MongoKeys.Record.DATA, new Document(row));
+            bytes += new RawBsonDocument(doc, codec).getByteBuffer().remaining();
+        }
+        return bytes;
+    }
+
+    private long rowBatches(List<CSVRecord> records) {
+        RecordSchema schema = new RecordSchema(HEADERS, props.getRecordTimeColumnName(),
+                props.getRecordPrimaryIndexedColumnName(), props.getMetricColumns());
+        RecordRowBatch batch = new RecordRowBatch(schema, BATCH_SIZE);
+        Instant now = Instant.now();
+        long bytes = 0;
+        for (CSVRecord record : records) {
+            batch.add(record);
+            if (batch.isFull()) {
+                bytes += encode(batch, now);
+            }
+        }
+        return bytes + encode(batch, now);
+    }
+
+    private long encode(RecordRowBatch batch, Instant now) {
+        long bytes = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            bytes += RecordBsonEncoder.encode(batch, i, props, recordedTime, now).getByteBuffer().remaining();
+        }
+        batch.clear();
+        return bytes;
+    }
+
+    private List<CSVRecord> records(int rows) throws Exception {
+        StringBuilder sb = new StringBuilder(String.join(",", HEADERS)).append('\n');
+        LocalDate day = LocalDate.of(2000, 1, 1);
+        for (int i = 0; i < rows; i++) {
+            sb.append(day.plusDays(i / 10)).append(",SYM").append(i % 10);
+            for (int c = 0; c < 4; c++) {
+                sb.append(',').append(100 + (i + c) % 7).append('.').append(i % 100);
+            }
+            sb.append(',').append(1000 + i).append('\n');
+        }
+        try (CSVParser parser = CSVFormat.DEFAULT.builder()
+                .setHeader()
+                .setSkipHeaderRecord(true)
+                .build()
+                .parse(new StringReader(sb.toString()))) {
+            return parser.getRecords();
+        }
+    }
+}
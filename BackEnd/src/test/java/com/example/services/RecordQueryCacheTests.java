@@ -0,0 +1,164 @@
+package com.example.services;
+
+import com.example.dataset.app.RecordQueryCache;
+import com.example.dataset.app.RecordQueryProperties;
+import com.example.dataset.domain.RecordWireFormat;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.*;
+
+class RecordQueryCacheTests {
+
+    private MutableClock clock;
+    private SimpleMeterRegistry registry;
+    private RecordQueryProperties properties;
+    private RecordQueryCache cache;
+
+    @BeforeEach
+    void setUp() {
+        clock = new MutableClock(Instant.parse("2025-01-01T00:00:00Z"));
+        registry = new SimpleMeterRegistry();
+        properties = new RecordQueryProperties();
+        properties.getCache().setMaxBytes(2000);
+        properties.getCache().setMaxEntryBytes(1000);
+        properties.getCache().setTtl(Duration.ofMinutes(1));
+        cache = new RecordQueryCache(properties, clock, registry);
+    }
+
+    @Test
+    void get_shouldLoadOnceAndCountHits() {
+        AtomicInteger loads = new AtomicInteger();
+
+        cache.get(key("ds", 1), () -> bytes(100, loads));
+        byte[] second = cache.get(key("ds", 1), () -> bytes(100, loads));
+
+        assertThat(second).hasSize(100);
+        assertThat(loads).hasValue(1);
+        assertThat(registry.counter("dataset.query.cache.requests", "result", "hit").count()).isEqualTo(1);
+        assertThat(registry.counter("dataset.query.cache.requests", "result", "miss").count()).isEqualTo(1);
+        assertThat(registry.get("dataset.query.cache.bytes").gauge().value()).isGreaterThan(100);
+    }
+
+    @Test
+    void get_shouldEvictLeastRecentlyUsedOverBudget() {
+        AtomicInteger loads = new AtomicInteger();
+        cache.get(key("a", 1), () -> bytes(600, loads));
+        cache.get(key("b", 1), () -> bytes(600, loads));
+        // Touch a, so b is the least recently used
+        cache.get(key("a", 1), () -> bytes(600, loads));
+        cache.get(key("c", 1), () -> bytes(600, loads));
+
+        assertThat(cache.size()).isEqualTo(2);
+        assertThat(cache.bytes()).isLessThanOrEqualTo(2000);
+        cache.get(key("a", 1), () -> bytes(600, loads));
+        assertThat(loads).hasValue(3);
+        cache.get(key("b", 1), () -> bytes(600, loads));
+        assertThat(loads).hasValue(4);
+    }
+
+    @Test
+    void get_shouldExpireAfterTtl() {
+        AtomicInteger loads = new AtomicInteger();
+        cache.get(key("ds", 1), () -> bytes(10, loads));
+
+        clock.advance(Duration.ofMinutes(2));
+        cache.get(key("ds", 1), () -> bytes(10, loads));
+
+        assertThat(loads).hasValue(2);
+    }
+
+    @Test
+    void get_shouldDropOlderVersionsOfDataset() {
+        AtomicInteger loads = new AtomicInteger();
+        cache.get(key("ds", 1), () -> bytes(10, loads));
+        cache.get(key("other", 1), () -> bytes(10, loads));
+
+        cache.get(key("ds", 2), () -> bytes(10, loads));
+
+        assertThat(cache.size()).isEqualTo(2);
+        // A late load of the old version is not cached anymore
+        cache.get(key("ds", 1), () -> bytes(10, loads));
+        assertThat(cache.size()).isEqualTo(2);
+    }
+
+    @Test
+    void get_shouldSkipLargeResponses() {
+        AtomicInteger loads = new AtomicInteger();
+        cache.get(key("ds", 1), () -> bytes(5000, loads));
+
+        assertThat(cache.size()).isZero();
+    }
+
+    @Test
+    void invalidate_shouldDropDataset() {
+        AtomicInteger loads = new AtomicInteger();
+        cache.get(key("ds", 1), () -> bytes(10, loads));
+
+        cache.invalidate("ds", 2);
+
+        assertThat(cache.size()).isZero();
+        assertThat(cache.bytes()).isZero();
+    }
+
+    @Test
+    void invalidate_shouldNotCacheLateLoadOfOlderVersion() {
+        AtomicInteger loads = new AtomicInteger();
+
+        // The query of version 1 started before the commit and finishes after it
+        cache.get(key("ds", 1), () -> {
+            cache.invalidate("ds", 2);
+            return bytes(10, loads);
+        });
+
+        assertThat(cache.size()).isZero();
+        cache.get(key("ds", 2), () -> bytes(10, loads));
+        assertThat(cache.size()).isEqualTo(1);
+    }
+
+    private RecordQueryCache.Key key(String datasetId, int version) {
+        return new RecordQueryCache.Key(datasetId, version, null, null, null, List.of("CLOSE"), null, null,
+                RecordWireFormat.JSON);
+    }
+
+    private byte[] bytes(int size, AtomicInteger loads) {
+        loads.incrementAndGet();
+        return new byte[size];
+    }
+
+    private static class MutableClock extends Clock {
+        private Instant now;
+
+        MutableClock(Instant now) {
+            this.now = now;
+        }
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.example.services;
+
+import com.example.async.importdataset.ImportProperties;
+import com.example.async.threads.ResourceLimiter;
+import com.example.async.threads.ThreadingProperties;
+import com.example.dataset.app.RecordRollupService;
+import com.example.dataset.domain.AggregationBucket;
+import com.example.dataset.domain.ColumnMeta;
+import com.example.dataset.domain.ColumnType;
+import com.example.dataset.domain.DatasetMetadata;
+import com.example.dataset.domain.RecordAggregate;
+import com.example.dataset.domain.RecordRollup;
+import com.example.dataset.domain.VersionControl;
+import com.example.dataset.infra.mongo.DatasetRecordRepo;
+import com.example.dataset.infra.mongo.RecordRollupRepo;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class RecordRollupServiceTests {
+
+    private DatasetRecordRepo recordRepo;
+    private RecordRollupRepo rollupRepo;
+    private ImportProperties importProperties;
+    private RecordRollupService service;
+
+    @BeforeEach
+    void setUp() {
+        recordRepo = mock(DatasetRecordRepo.class);
+        rollupRepo = mock(RecordRollupRepo.class);
+        importProperties = new ImportProperties();
+        service = new RecordRollupService(recordRepo, rollupRepo,
+                new ResourceLimiter(new ThreadingProperties(), new SimpleMeterRegistry()), importProperties);
+    }
+
+    @Test
+    void materialize_shouldWriteEveryBucketWidth() {
+        when(recordRepo.streamVersionAggregates(eq("ds"), eq(2), eq(List.of("CLOSE")), any(), any(), anyInt()))
+                .thenAnswer(inv -> Stream.of(aggregate(3), aggregate(0)));
+
+        boolean done = service.materialize("ds", 2, "UTC", Set.of("CLOSE"));
+
+        assertThat(done).isTrue();
+        verify(rollupRepo).deleteByDatasetIdAndVersion("ds", 2);
+        verify(recordRepo, times(AggregationBucket.values().length))
+                .streamVersionAggregates(eq("ds"), eq(2), anyList(), any(), any(), eq(300));
+        // The empty buckets are not stored
+        verify(rollupRepo, times(AggregationBucket.values().length))
+                .insert(argThat((List<RecordRollup> rollups) -> rollups.size() == 1));
+    }
+
+    @Test
+    void materialize_shouldReportFailure() {
+        when(recordRepo.streamVersionAggregates(any(), any(), anyList(), any(), any(), anyInt()))
+                .thenThrow(new IllegalStateException("mongo down"));
+
+        assertThat(service.materialize("ds", 2, "UTC", Set.of("CLOSE"))).isFalse();
+    }
+
+    @Test
+    void materialize_shouldWriteRollupsInBatches() {
+        importProperties.setBatchSize(2);
+        when(recordRepo.streamVersionAggregates(eq("ds"), eq(2), eq(List.of("CLOSE")), any(), any(), eq(2)))
+                .thenAnswer(inv -> Stream.of(aggregate(1), aggregate(2), aggregate(0), aggregate(3), aggregate(4),
+                        aggregate(5)));
+        Runnable heartbeat = mock(Runnable.class);
+
+        assertThat(service.materialize("ds", 2, "UTC", Set.of("CLOSE"), heartbeat)).isTrue();
+
+        // Five rollups per width, in two full batches and the rest
+        int widths = AggregationBucket.values().length;
+        verify(rollupRepo, times(widths * 2)).insert(argThat((List<RecordRollup> rollups) -> rollups.size() == 2));
+        verify(rollupRepo, times(widths)).insert(argThat((List<RecordRollup> rollups) -> rollups.size() == 1));
+        verify(heartbeat, times(widths * 3)).run();
+    }
+
+    @Test
+    void query_shouldCombineVersions() {
+        Instant bucket = Instant.parse("2024-01-01T00:00:00Z");
+        when(rollupRepo.findRollups(eq("ds"), eq(2), eq(AggregationBucket.MONTH), any(), any(), any(), any()))
+                .thenReturn(List.of(
+                        rollup(1, bucket, 2, 10.0, 4.0, 6.0, 4.0, "2024-01-03", 6.0, "2024-01-20"),
+                        rollup(2, bucket, 1, 9.0, 9.0, 9.0, 9.0, "2024-01-02", 9.0, "2024-01-02")));
+
+        List<RecordAggregate> out = service.query(dataset(2, 2), List.of("CLOSE"), AggregationBucket.MONTH,
+                null, null, null);
+
+        assertThat(out).singleElement().satisfies(a -> {
+            assertThat(a.getCount()).isEqualTo(3);
+            assertThat(a.getSum()).isEqualTo(19.0);
+            assertThat(a.getAvg()).isCloseTo(19.0 / 3, within(1e-9));
+            assertThat(a.getMin()).isEqualTo(4.0);
+            assertThat(a.getMax()).isEqualTo(9.0);
+            assertThat(a.getFirst()).isEqualTo(9.0);
+            assertThat(a.getLast()).isEqualTo(6.0);
+        });
+    }
+
+    @Test
+    void canAnswer_shouldRequireRollupsAndAlignedRange() {
+        DatasetMetadata dataset = dataset(2, 2);
+
+        assertThat(service.canAnswer(dataset, List.of("CLOSE"), AggregationBucket.MONTH,
+                LocalDate.of(2024, 1, 1), LocalDate.of(2024, 3, 1))).isTrue();
+        assertThat(service.canAnswer(dataset, List.of("CLOSE"), AggregationBucket.MONTH,
+                LocalDate.of(2024, 1, 15), null)).isFalse();
+        assertThat(service.canAnswer(dataset, List.of("SYMBOL"), AggregationBucket.DAY, null, null)).isFalse();
+        assertThat(service.canAnswer(dataset(2, 1), List.of("CLOSE"), AggregationBucket.DAY, null, null)).isFalse();
+    }
+
+    private DatasetMetadata dataset(int version, Integer rolledUpVersion) {
+        return DatasetMetadata.builder()
+                .id("ds")
+                .rolledUpVersion(rolledUpVersion)
+                .current(VersionControl.builder()
+                        .version(version)
+                        .headers(List.of(
+                                ColumnMeta.builder().columnName("Close").dataType(ColumnType.NUMBER).metric(true).build(),
+                                ColumnMeta.builder().columnName("Symbol").dataType(ColumnType.STRING).build()))
+                        .build())
+                .build();
+    }
+
+    private RecordAggregate aggregate(long count) {
+        return RecordAggregate.builder()
+                .bucketStart(Instant.parse("2024-01-01T00:00:00Z"))
+                .symbol("AAPL")
+                .column("CLOSE")
+                .count(count)
+                .build();
+    }
+
+    private RecordRollup rollup(int version, Instant bucket, long count, double sum, double min, double max,
+                                double first, String firstDay, double last, String lastDay) {
+        return RecordRollup.builder()
+                .datasetId("ds")
+                .version(version)
+                .bucket(AggregationBucket.MONTH)
+                .bucketStart(bucket)
+                .indexedValue("AAPL")
+                .column("CLOSE")
+                .count(count)
+                .sum(sum)
+                .min(min)
+                .max(max)
+                .first(first)
+                .firstTime(Instant.parse(firstDay + "T00:00:00Z"))
+                .last(last)
+                .lastTime(Instant.parse(lastDay + "T00:00:00Z"))
+                .build();
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.services;
+
+import com.example.benchmark.BenchmarkHarness;
+import com.example.benchmark.BenchmarkHarness.Measurement;
+import com.example.utils.DateParser;
+import com.example.utils.RecordTimeParser;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.time.*;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The record time parser of a job against the per-row parse it replaced. The per-row parse is kept here as it
+ * was: it builds the formatter list for every value and finds the matching formatter by catching the parse
+ * exceptions. The formats are picked from the front to the back of the formatter list, the Excel serial only
+ * matches after every formatter missed.
+ * <p>
+ * The numbers depend on the machine, run it with
+ * {@code mvn test -Dtest=RecordTimeParserBenchmarkTests -Dbenchmark=true}.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class RecordTimeParserBenchmarkTests {
+    private static final int VALUES = 100_000;
+    private static final List<DateTimeFormatter> FORMATTERS = List.of(
+            DateTimeFormatter.ISO_LOCAL_DATE,
+            DateTimeFormatter.ofPattern("yyyy/MM/dd"),
+            DateTimeFormatter.ofPattern("MM/dd/yyyy"),
+            DateTimeFormatter.ofPattern("M/d/yyyy"),
+            DateTimeFormatter.ofPattern("dd/MM/yyyy"),
+            DateTimeFormatter.ofPattern("d/M/yyyy"),
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"),
+            DateTimeFormatter.ofPattern("yyyy/MM/dd HH:mm:ss"),
+            DateTimeFormatter.ISO_LOCAL_DATE_TIME,
+            DateTimeFormatter.ISO_OFFSET_DATE_TIME
+    );
+
+    private final BenchmarkHarness harness = new BenchmarkHarness(RecordTimeParserBenchmarkTests.class);
+
+    @Test
+    void compareJobParserAndPerRowParse() throws Exception {
+        LocalDate start = LocalDate.of(2000, 1, 3);
+        List<Format> formats = List.of(
+                new Format("isoDate", DateTimeFormatter.ISO_LOCAL_DATE::format),
+                new Format("usDate", DateTimeFormatter.ofPattern("MM/dd/yyyy")::format),
+                new Format("offsetDateTime", day -> day.atTime(9, 30).atOffset(ZoneOffset.ofHours(2)).toString()),
+                new Format("excelSerial", day -> String.valueOf(day.toEpochDay() + 25569)));
+
+        for (Format format : formats) {
+            List<String> values = new ArrayList<>(VALUES);
+            for (int i = 0; i < VALUES; i++) {
+                values.add(format.render.apply(start.plusDays(i % 5000)));
+            }
+
+            Measurement<?> perRow = harness.measure(VALUES, () -> perRow(values));
+            Measurement<?> jobParser = harness.measure(VALUES, () -> jobParser(values));
+            harness.report("perRow", perRow, "format", format.name);
+            harness.report("jobParser", jobParser, "format", format.name);
+
+            assertThat(jobParser.nanosPerOp()).isLessThan(perRow.nanosPerOp());
+        }
+    }
+
+    private Void perRow(List<String> values) {
+        for (String value : values) {
+            if (legacyParse(value, "UTC") == null) {
+                throw new IllegalStateException("Unparsed value " + value);
+            }
+        }
+        return null;
+    }
+
+    private Void jobParser(List<String> values) {
+        RecordTimeParser parser = DateParser.recordTimeParser(null, "UTC");
+        for (String value : values) {
+            if (parser.parse(value) == null) {
+                throw new IllegalStateException("Unparsed value " + value);
+            }
+        }
+        return null;
+    }
+
+    private static Instant legacyParse(String raw, String timezone) {
+        ZoneId zone = ZoneId.of(timezone);
+        String s = raw.trim();
+
+        List<DateTimeFormatter> formatters = new ArrayList<>(FORMATTERS);
+        for (DateTimeFormatter formatter : formatters) {
+            Instant instant = tryParse(s, formatter, zone);
+            if (instant != null) {
+                return instant;
+            }
+        }
+
+        if (s.matches("\\d+")) {
+            return LocalDate.of(1899, 12, 30).plusDays(Long.parseLong(s)).atStartOfDay(zone).toInstant();
+        }
+        throw new IllegalArgumentException("Unrecognized date format: " + raw);
+    }
+
+    private static Instant tryParse(String raw, DateTimeFormatter formatter, ZoneId zone) {
+        try {
+            return OffsetDateTime.parse(raw, formatter).toInstant();
+        } catch (Exception ignored) {
+        }
+        try {
+            return LocalDateTime.parse(raw, formatter).atZone(zone).toInstant();
+        } catch (Exception ignored) {
+        }
+        try {
+            return LocalDate.parse(raw, formatter).atStartOfDay(zone).toInstant();
+        } catch (Exception ignored) {
+        }
+        return null;
+    }
+
+    private record Format(String name, Function<LocalDate, String> render) {
+    }
+}
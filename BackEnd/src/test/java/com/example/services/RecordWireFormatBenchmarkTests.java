@@ -0,0 +1,107 @@
+package com.example.services;
+
+import com.example.benchmark.BenchmarkHarness;
+import com.example.benchmark.BenchmarkHarness.Measurement;
+import com.example.dataset.domain.dto.ColumnarRecordsResp;
+import com.example.dataset.domain.dto.Datapoint;
+import com.example.dataset.domain.dto.QueryRecordsResp;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.io.ByteArrayOutputStream;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The record query encodings against each other over a grid of symbols and days, four columns each. For
+ * every encoding it reports the response size, the size once gzipped by a proxy, the time to encode the
+ * response and the time a client takes to read it into a tree, per point.
+ * <p>
+ * The numbers depend on the machine, run it with
+ * {@code mvn test -Dtest=RecordWireFormatBenchmarkTests -Dbenchmark=true}.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class RecordWireFormatBenchmarkTests {
+    private static final List<String> COLUMNS = List.of("OPEN", "HIGH", "LOW", "CLOSE");
+
+    private final BenchmarkHarness harness = new BenchmarkHarness(RecordWireFormatBenchmarkTests.class);
+
+    private final ObjectMapper json = new ObjectMapper()
+            .findAndRegisterModules()
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+    private final CBORMapper cbor = new CBORMapper();
+
+    @Test
+    void compareEncodings() throws Exception {
+        for (int symbols : new int[] {1, 10, 50}) {
+            for (int days : new int[] {250, 2500}) {
+                QueryRecordsResp resp = resp(symbols, days);
+                int rows = measure("json", resp, () -> json.writeValueAsBytes(resp), json::readTree);
+                int columnarJson = measure("columnarJson", resp,
+                        () -> json.writeValueAsBytes(ColumnarRecordsResp.from(resp)), json::readTree);
+                int columnarCbor = measure("columnarCbor", resp,
+                        () -> cbor.writeValueAsBytes(ColumnarRecordsResp.from(resp)), cbor::readTree);
+
+                assertThat(columnarJson).isLessThan(rows);
+                assertThat(columnarCbor).isLessThan(rows);
+            }
+        }
+    }
+
+    /**
+     * Measure the encoding and the decoding of the response, one operation per point.
+     *
+     * @return the size of the encoded response.
+     */
+    private int measure(String format, QueryRecordsResp resp, Encoder encoder, Decoder decoder) throws Exception {
+        int points = resp.getRecords().size();
+        Measurement<byte[]> encode = harness.measure(points, encoder::encode);
+        byte[] bytes = encode.value();
+        Measurement<?> decode = harness.measure(points, () -> decoder.decode(bytes));
+
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(gzipped)) {
+            out.write(bytes);
+        }
+        harness.report(format, encode, "phase", "encode", "bytes", bytes.length, "gzipBytes", gzipped.size());
+        harness.report(format, decode, "phase", "decode");
+        return bytes.length;
+    }
+
+    private QueryRecordsResp resp(int symbols, int days) {
+        List<Datapoint> points = new ArrayList<>(symbols * days * COLUMNS.size());
+        LocalDate start = LocalDate.of(2015, 1, 1);
+        for (int day = 0; day < days; day++) {
+            for (int s = 0; s < symbols; s++) {
+                for (int c = 0; c < COLUMNS.size(); c++) {
+                    points.add(Datapoint.builder()
+                            .recordedTime(start.plusDays(day))
+                            .symbol("SYM" + s)
+                            .column(COLUMNS.get(c))
+                            .value(100 + s + c * 0.25 + Math.sin(day / 10.0) * 5)
+                            .build());
+                }
+            }
+        }
+        QueryRecordsResp resp = new QueryRecordsResp();
+        resp.setDatasetName("benchmark");
+        resp.setColumns(COLUMNS);
+        resp.setRecords(points);
+        return resp;
+    }
+
+    private interface Encoder {
+        byte[] encode() throws Exception;
+    }
+
+    private interface Decoder {
+        Object decode(byte[] bytes) throws Exception;
+    }
+}
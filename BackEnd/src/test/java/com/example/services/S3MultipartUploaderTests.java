@@ -0,0 +1,215 @@
+package com.example.services;
+
+import com.example.async.threads.ResourceLimiter;
+import com.example.async.threads.ThreadingProperties;
+import com.example.s3.S3MultipartUploader;
+import com.example.s3.S3Properties;
+import com.example.s3.UploadedObject;
+import com.example.utils.CompressionCodec;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.util.unit.DataSize;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class S3MultipartUploaderTests {
+    private static final int PART = 5 * 1024 * 1024;
+
+    private S3Client s3Client;
+    private S3Properties properties;
+    private S3MultipartUploader uploader;
+    private Map<Integer, byte[]> uploadedParts;
+
+    @BeforeEach
+    void setUp() {
+        s3Client = mock(S3Client.class);
+        properties = new S3Properties();
+        properties.getUpload().setPartSize(DataSize.ofBytes(PART));
+        properties.getUpload().setMaxInFlightParts(2);
+        uploader = new S3MultipartUploader(s3Client, properties,
+                new ResourceLimiter(new ThreadingProperties(), new SimpleMeterRegistry()));
+        uploadedParts = new ConcurrentHashMap<>();
+
+        when(s3Client.createMultipartUpload(any(CreateMultipartUploadRequest.class)))
+                .thenReturn(CreateMultipartUploadResponse.builder().uploadId("upload-1").build());
+        // The part buffers are reused, the content is copied while the part is uploaded
+        when(s3Client.uploadPart(any(UploadPartRequest.class), any(RequestBody.class))).thenAnswer(inv -> {
+            UploadPartRequest request = inv.getArgument(0);
+            RequestBody body = inv.getArgument(1);
+            try (InputStream in = body.contentStreamProvider().newStream()) {
+                uploadedParts.put(request.partNumber(), in.readAllBytes());
+            }
+            return UploadPartResponse.builder().eTag("etag-" + request.partNumber()).build();
+        });
+    }
+
+    @Test
+    void upload_shouldPutSmallStreamAsOneObject() throws Exception {
+        long size = uploader.upload("bucket", "key", "text/csv", new ByteArrayInputStream(new byte[1024]));
+
+        assertThat(size).isEqualTo(1024);
+        verify(s3Client).putObject(any(PutObjectRequest.class), any(RequestBody.class));
+        verify(s3Client, never()).createMultipartUpload(any(CreateMultipartUploadRequest.class));
+    }
+
+    @Test
+    void upload_shouldSendPartsInOrder() throws Exception {
+        byte[] content = new byte[2 * PART + PART / 2];
+        new Random(7).nextBytes(content);
+
+        long size = uploader.upload("bucket", "key", "text/csv", new ByteArrayInputStream(content));
+
+        assertThat(size).isEqualTo(content.length);
+        ArgumentCaptor<CompleteMultipartUploadRequest> complete =
+                ArgumentCaptor.forClass(CompleteMultipartUploadRequest.class);
+        verify(s3Client).completeMultipartUpload(complete.capture());
+        assertThat(complete.getValue().uploadId()).isEqualTo("upload-1");
+        assertThat(complete.getValue().multipartUpload().parts())
+                .extracting(CompletedPart::partNumber, CompletedPart::eTag)
+                .containsExactly(tuple(1, "etag-1"), tuple(2, "etag-2"), tuple(3, "etag-3"));
+
+        ByteArrayOutputStream joined = new ByteArrayOutputStream();
+        for (int i = 1; i <= 3; i++) {
+            joined.write(uploadedParts.get(i));
+        }
+        assertThat(joined.toByteArray()).isEqualTo(content);
+    }
+
+    @Test
+    void upload_shouldCompressOnTheWay() throws Exception {
+        byte[] content = "Date,Symbol,Close\n2024-01-01,AAPL,180\n".repeat(10_000).getBytes(StandardCharsets.UTF_8);
+        Map<String, byte[]> stored = new ConcurrentHashMap<>();
+        when(s3Client.putObject(any(PutObjectRequest.class), any(RequestBody.class))).thenAnswer(inv -> {
+            PutObjectRequest request = inv.getArgument(0);
+            RequestBody body = inv.getArgument(1);
+            try (InputStream in = body.contentStreamProvider().newStream()) {
+                stored.put(request.key(), in.readAllBytes());
+            }
+            return PutObjectResponse.builder().build();
+        });
+
+        UploadedObject object = uploader.upload("bucket", "data.csv.gz", "application/gzip",
+                new ByteArrayInputStream(content), CompressionCodec.GZIP);
+
+        assertThat(object.getReadBytes()).isEqualTo(content.length);
+        assertThat(object.getStoredBytes()).isEqualTo(stored.get("data.csv.gz").length).isLessThan(content.length / 5);
+        try (InputStream in = CompressionCodec.GZIP.decompress(new ByteArrayInputStream(stored.get("data.csv.gz")))) {
+            assertThat(in.readAllBytes()).isEqualTo(content);
+        }
+    }
+
+    @Test
+    void upload_shouldBoundPartsInFlight() throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        when(s3Client.uploadPart(any(UploadPartRequest.class), any(RequestBody.class))).thenAnswer(inv -> {
+            int now = running.incrementAndGet();
+            maxRunning.accumulateAndGet(now, Math::max);
+            Thread.sleep(20);
+            running.decrementAndGet();
+            UploadPartRequest request = inv.getArgument(0);
+            return UploadPartResponse.builder().eTag("etag-" + request.partNumber()).build();
+        });
+
+        uploader.upload("bucket", "key", "text/csv", new ByteArrayInputStream(new byte[8 * PART]));
+
+        verify(s3Client, times(8)).uploadPart(any(UploadPartRequest.class), any(RequestBody.class));
+        assertThat(maxRunning.get()).isBetween(1, 2);
+    }
+
+    @Test
+    void upload_shouldAbortWhenPartFails() {
+        when(s3Client.uploadPart(any(UploadPartRequest.class), any(RequestBody.class)))
+                .thenThrow(S3Exception.builder().message("boom").build());
+
+        assertThatThrownBy(() -> uploader.upload("bucket", "key", "text/csv",
+                new ByteArrayInputStream(new byte[3 * PART])))
+                .isInstanceOf(S3Exception.class);
+
+        verify(s3Client).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+        verify(s3Client, never()).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+    }
+
+    @Test
+    void upload_shouldDropCodecOutputAfterAbort() {
+        InputStream failing = new SequenceInputStream(new ByteArrayInputStream(new byte[1024]), new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("connection reset");
+            }
+        });
+
+        assertThatThrownBy(() -> uploader.upload("bucket", "data.csv.zst", "application/zstd", failing,
+                CompressionCodec.ZSTD))
+                .isInstanceOf(IOException.class)
+                .hasMessage("connection reset");
+
+        // Closing the codec after the abort writes the end of the frame, nothing of it is sent
+        verify(s3Client, never()).putObject(any(PutObjectRequest.class), any(RequestBody.class));
+        verify(s3Client, never()).createMultipartUpload(any(CreateMultipartUploadRequest.class));
+    }
+
+    @Test
+    void upload_shouldShareBufferBudgetBetweenUploads() throws Exception {
+        properties.getUpload().setMaxBufferedBytes(DataSize.ofBytes(PART));
+        uploader = new S3MultipartUploader(s3Client, properties,
+                new ResourceLimiter(new ThreadingProperties(), new SimpleMeterRegistry()));
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        when(s3Client.uploadPart(any(UploadPartRequest.class), any(RequestBody.class))).thenAnswer(inv -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            Thread.sleep(20);
+            running.decrementAndGet();
+            UploadPartRequest request = inv.getArgument(0);
+            return UploadPartResponse.builder().eTag("etag-" + request.partNumber()).build();
+        });
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<Long>> uploads = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                String key = "key-" + i;
+                uploads.add(executor.submit(() -> uploader.upload("bucket", key, "text/csv",
+                        new ByteArrayInputStream(new byte[3 * PART]))));
+            }
+            for (Future<Long> upload : uploads) {
+                assertThat(upload.get()).isEqualTo(3L * PART);
+            }
+        }
+
+        // One buffer for all the uploads, so one part is sent at a time
+        verify(s3Client, times(9)).uploadPart(any(UploadPartRequest.class), any(RequestBody.class));
+        assertThat(maxRunning.get()).isEqualTo(1);
+    }
+}
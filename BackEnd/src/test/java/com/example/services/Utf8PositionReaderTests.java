@@ -0,0 +1,92 @@
+package com.example.services;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.junit.jupiter.api.Test;
+
+import com.example.utils.Utf8PositionReader;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class Utf8PositionReaderTests {
+    private static final String CSV = "Date,Symbol,Note\n"
+            + "2024-01-01,AAA,plain\n"
+            + "2024-01-02,ÄÖÜ,latin\n"
+            + "2024-01-03,東京,cjk\n"
+            + "2024-01-04,🚀,emoji\n"
+            + "2024-01-05,ZZZ,last\n";
+
+    @Test
+    void testDecodeLikeStringDecoding() throws Exception {
+        byte[] bytes = CSV.getBytes(StandardCharsets.UTF_8);
+        assertEquals(CSV, readAll(new Utf8PositionReader(new ByteArrayInputStream(bytes))));
+
+        // Read one byte at a time, so every multi byte character is split over the reads
+        assertEquals(CSV, readAll(new Utf8PositionReader(new OneByteInputStream(bytes))));
+    }
+
+    @Test
+    void testMalformedBytesAsReplacement() throws Exception {
+        byte[] bytes = {'a', (byte) 0xC3, 'b', (byte) 0xFF, 'c', (byte) 0x9D};
+        assertEquals(new String(bytes, StandardCharsets.UTF_8),
+                readAll(new Utf8PositionReader(new ByteArrayInputStream(bytes))));
+    }
+
+    @Test
+    void testByteOffsetOfRecords() throws Exception {
+        byte[] bytes = CSV.getBytes(StandardCharsets.UTF_8);
+        try (Utf8PositionReader reader = new Utf8PositionReader(new ByteArrayInputStream(bytes));
+             CSVParser parser = CSVFormat.DEFAULT.builder().setHeader().setSkipHeaderRecord(true).build()
+                     .parse(reader)) {
+            for (CSVRecord record : parser) {
+                long offset = reader.byteOffset(record.getCharacterPosition());
+                String line = String.join(",", record.toList()) + "\n";
+                String rest = new String(Arrays.copyOfRange(bytes, (int) offset, bytes.length),
+                        StandardCharsets.UTF_8);
+                assertTrue(rest.startsWith(line), "Offset " + offset + " does not start " + line);
+            }
+        }
+    }
+
+    private static String readAll(Reader reader) throws Exception {
+        StringWriter out = new StringWriter();
+        try (reader) {
+            reader.transferTo(out);
+        }
+        return out.toString();
+    }
+
+    private static final class OneByteInputStream extends InputStream {
+        private final byte[] bytes;
+        private int pos;
+
+        private OneByteInputStream(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public int read() {
+            return pos < bytes.length ? bytes[pos++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (pos == bytes.length) {
+                return -1;
+            }
+            if (len == 0) {
+                return 0;
+            }
+            b[off] = bytes[pos++];
+            return 1;
+        }
+    }
+}